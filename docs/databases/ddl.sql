@@ -53,5 +53,29 @@ CREATE TABLE document_vectors (
                                   model_version VARCHAR(32) COMMENT '向量模型版本',
                                   user_id VARCHAR(64) NOT NULL COMMENT '上传用户ID',
                                   org_tag VARCHAR(50) COMMENT '文件所属组织标签',
-                                  is_public BOOLEAN NOT NULL DEFAULT FALSE COMMENT '文件是否公开'
-) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档向量存储表';
\ No newline at end of file
+                                  is_public BOOLEAN NOT NULL DEFAULT FALSE COMMENT '文件是否公开',
+                                  UNIQUE KEY uk_file_chunk (file_md5, chunk_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档向量存储表';
+CREATE TABLE es_deletion_task (
+                                  id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '删除任务唯一标识',
+                                  file_md5 VARCHAR(32) NOT NULL COMMENT '被删除文件的MD5值',
+                                  index_name VARCHAR(128) NOT NULL COMMENT 'ES索引名称',
+                                  status VARCHAR(16) NOT NULL DEFAULT 'PENDING' COMMENT '状态：PENDING / RUNNING / FAILED',
+                                  task_id VARCHAR(128) DEFAULT NULL COMMENT 'ES异步任务ID',
+                                  attempts INT NOT NULL DEFAULT 0 COMMENT '已提交次数',
+                                  last_error VARCHAR(512) DEFAULT NULL COMMENT '最近一次错误',
+                                  version BIGINT DEFAULT NULL COMMENT '乐观锁版本',
+                                  created_at TIMESTAMP NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+                                  updated_at TIMESTAMP NULL DEFAULT NULL COMMENT '更新时间',
+                                  INDEX idx_status (status),
+                                  INDEX idx_file_md5 (file_md5)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='ES删除任务（发件箱）';
+
+-- 已有库升级（新建库无需执行）：document_vectors 增加 (file_md5, chunk_id) 唯一键
+-- 重复入库可能留下同一分块的多行，先保留 vector_id 最大（最近写入）的一行，再加唯一键
+-- DELETE dv FROM document_vectors dv
+--     JOIN document_vectors newer
+--       ON newer.file_md5 = dv.file_md5
+--      AND newer.chunk_id = dv.chunk_id
+--      AND newer.vector_id > dv.vector_id;
+-- ALTER TABLE document_vectors ADD UNIQUE KEY uk_file_chunk (file_md5, chunk_id);
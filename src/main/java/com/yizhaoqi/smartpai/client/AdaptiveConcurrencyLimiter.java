@@ -0,0 +1,84 @@
+package com.yizhaoqi.smartpai.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AIMD 自适应并发限制
+ * 请求成功时并发上限缓慢增加（每个窗口 +1），被限流（429）时减半，并按 Retry-After 暂停所有新请求；
+ * 上限在 [minLimit, maxLimit] 之间浮动，逐步逼近服务端实际允许的并发。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+    private long pausedUntil;
+    private long throttled;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * 等待一个并发名额，限流暂停期间也会等待
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now < pausedUntil) {
+                wait(pausedUntil - now);
+            } else if (inFlight < (int) limit) {
+                inFlight++;
+                return;
+            } else {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * 请求成功：释放名额，上限加性增加
+     */
+    public synchronized void onSuccess() {
+        inFlight--;
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+        notifyAll();
+    }
+
+    /**
+     * 被限流：释放名额，上限乘性减半，并在 retryAfterMs 内暂停发出新请求
+     */
+    public synchronized void onThrottled(long retryAfterMs) {
+        inFlight--;
+        throttled++;
+        limit = Math.max(minLimit, limit / 2);
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + Math.max(0, retryAfterMs));
+        notifyAll();
+    }
+
+    /**
+     * 其他失败（超时、5xx）：只释放名额，不调整上限
+     */
+    public synchronized void onFailure() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", (int) limit);
+        stats.put("inFlight", inFlight);
+        stats.put("throttled", throttled);
+        stats.put("pausedMs", Math.max(0, pausedUntil - System.currentTimeMillis()));
+        return stats;
+    }
+}
@@ -0,0 +1,230 @@
+package com.yizhaoqi.smartpai.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BERT WordPiece 分词器（与 HuggingFace BertTokenizer 的行为一致）
+ * 流程：清洗控制字符 → 中日韩字符单字切分 → 按空白和标点切词 → 小写并去重音 → 贪心最长匹配切子词。
+ * 适用于 bge-small-zh / bge-base-zh 等基于 vocab.txt 的模型。
+ */
+class BertWordPieceTokenizer {
+
+    static final String CLS = "[CLS]";
+    static final String SEP = "[SEP]";
+    static final String UNK = "[UNK]";
+    static final String PAD = "[PAD]";
+
+    /** 超过该长度的单词直接记为 [UNK]，与 HuggingFace 默认值一致 */
+    private static final int MAX_CHARS_PER_WORD = 100;
+
+    private final Map<String, Integer> vocab;
+    private final boolean lowercase;
+    private final int clsId;
+    private final int sepId;
+    private final int unkId;
+    private final int padId;
+
+    BertWordPieceTokenizer(Map<String, Integer> vocab, boolean lowercase) {
+        this.vocab = vocab;
+        this.lowercase = lowercase;
+        this.clsId = requireToken(CLS);
+        this.sepId = requireToken(SEP);
+        this.unkId = requireToken(UNK);
+        this.padId = vocab.getOrDefault(PAD, 0);
+    }
+
+    /**
+     * 从 vocab.txt 加载，每行一个词，行号即词ID
+     */
+    static BertWordPieceTokenizer load(Path vocabPath, boolean lowercase) throws IOException {
+        List<String> lines = Files.readAllLines(vocabPath, StandardCharsets.UTF_8);
+        Map<String, Integer> vocab = new HashMap<>(lines.size() * 2);
+        for (int i = 0; i < lines.size(); i++) {
+            vocab.putIfAbsent(lines.get(i).strip(), i);
+        }
+        return new BertWordPieceTokenizer(vocab, lowercase);
+    }
+
+    /**
+     * 编码为模型输入ID：[CLS] 子词... [SEP]，超过 maxLength 时截断正文
+     */
+    int[] encode(String text, int maxLength) {
+        List<Integer> ids = new ArrayList<>();
+        int limit = Math.max(0, maxLength - 2);
+        for (String word : basicTokenize(text)) {
+            for (int id : wordPiece(word)) {
+                if (ids.size() >= limit) {
+                    return wrap(ids);
+                }
+                ids.add(id);
+            }
+        }
+        return wrap(ids);
+    }
+
+    int getPadId() {
+        return padId;
+    }
+
+    private int[] wrap(List<Integer> ids) {
+        int[] out = new int[ids.size() + 2];
+        out[0] = clsId;
+        for (int i = 0; i < ids.size(); i++) {
+            out[i + 1] = ids.get(i);
+        }
+        out[out.length - 1] = sepId;
+        return out;
+    }
+
+    /**
+     * 基础切词：按空白切开，中日韩字符和标点各自成词
+     */
+    List<String> basicTokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return words;
+        }
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp == 0 || cp == 0xFFFD || isControl(cp)) {
+                continue;
+            }
+            if (isWhitespace(cp)) {
+                flush(current, words);
+            } else if (isCjk(cp) || isPunctuation(cp)) {
+                flush(current, words);
+                words.add(normalize(new String(Character.toChars(cp))));
+            } else {
+                current.appendCodePoint(cp);
+            }
+        }
+        flush(current, words);
+        return words;
+    }
+
+    private void flush(StringBuilder current, List<String> words) {
+        if (current.isEmpty()) {
+            return;
+        }
+        String word = normalize(current.toString());
+        current.setLength(0);
+        // 去重音后可能出现新的标点，这里再按标点切一次
+        StringBuilder part = new StringBuilder();
+        for (int i = 0; i < word.length(); ) {
+            int cp = word.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isPunctuation(cp)) {
+                if (!part.isEmpty()) {
+                    words.add(part.toString());
+                    part.setLength(0);
+                }
+                words.add(new String(Character.toChars(cp)));
+            } else {
+                part.appendCodePoint(cp);
+            }
+        }
+        if (!part.isEmpty()) {
+            words.add(part.toString());
+        }
+    }
+
+    private String normalize(String word) {
+        if (!lowercase) {
+            return word;
+        }
+        String lower = Normalizer.normalize(word.toLowerCase(), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 贪心最长匹配，非词首子词加 ## 前缀；有任何一段匹配不上则整个词记为 [UNK]
+     */
+    List<Integer> wordPiece(String word) {
+        if (word.codePointCount(0, word.length()) > MAX_CHARS_PER_WORD) {
+            return List.of(unkId);
+        }
+        List<Integer> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < word.length()) {
+            int end = word.length();
+            Integer match = null;
+            while (start < end) {
+                String sub = word.substring(start, end);
+                if (start > 0) {
+                    sub = "##" + sub;
+                }
+                match = vocab.get(sub);
+                if (match != null) {
+                    break;
+                }
+                end -= Character.isLowSurrogate(word.charAt(end - 1)) && end - 2 >= start ? 2 : 1;
+            }
+            if (match == null) {
+                return List.of(unkId);
+            }
+            pieces.add(match);
+            start = end;
+        }
+        return pieces;
+    }
+
+    private int requireToken(String token) {
+        Integer id = vocab.get(token);
+        if (id == null) {
+            throw new IllegalArgumentException("词表缺少特殊符号: " + token);
+        }
+        return id;
+    }
+
+    private static boolean isWhitespace(int cp) {
+        return cp == ' ' || cp == '\t' || cp == '\n' || cp == '\r' || Character.getType(cp) == Character.SPACE_SEPARATOR;
+    }
+
+    private static boolean isControl(int cp) {
+        if (cp == '\t' || cp == '\n' || cp == '\r') {
+            return false;
+        }
+        int type = Character.getType(cp);
+        return type == Character.CONTROL || type == Character.FORMAT;
+    }
+
+    private static boolean isPunctuation(int cp) {
+        if ((cp >= 33 && cp <= 47) || (cp >= 58 && cp <= 64) || (cp >= 91 && cp <= 96) || (cp >= 123 && cp <= 126)) {
+            return true;
+        }
+        return switch (Character.getType(cp)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                 Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION, Character.FINAL_QUOTE_PUNCTUATION,
+                 Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isCjk(int cp) {
+        return (cp >= 0x4E00 && cp <= 0x9FFF)
+                || (cp >= 0x3400 && cp <= 0x4DBF)
+                || (cp >= 0x20000 && cp <= 0x2A6DF)
+                || (cp >= 0x2A700 && cp <= 0x2B73F)
+                || (cp >= 0x2B740 && cp <= 0x2B81F)
+                || (cp >= 0x2B820 && cp <= 0x2CEAF)
+                || (cp >= 0xF900 && cp <= 0xFAFF)
+                || (cp >= 0x2F800 && cp <= 0x2FA1F);
+    }
+}
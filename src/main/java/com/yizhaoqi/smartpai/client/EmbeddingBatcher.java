@@ -0,0 +1,280 @@
+package com.yizhaoqi.smartpai.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 进程级向量请求合并器
+ * 所有调用方（入库流水线、检索查询）的文本进入同一个队列，由一个分发线程凑成满批后发给向量接口：
+ * 批次凑满或最早的文本等待超过 maxLingerMs 即发出，同时在途的请求数不超过 maxInFlight。
+ * 分发线程先拿到在途名额再凑批，接口繁忙时排队的文本越多、批次越满。
+ * 查询文本走优先队列，总是排在入库文本前面。
+ */
+@Component
+public class EmbeddingBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingBatcher.class);
+
+    private record Pending(String text, CompletableFuture<float[]> future, long enqueuedNanos) {
+    }
+
+    private final Function<List<String>, List<float[]>> batchEmbedder;
+    private final int defaultBatchSize;
+
+    /**
+     * 单批最大文本数，0 表示沿用当前向量化后端的批大小
+     */
+    @Value("${embedding.batcher.max-batch-size:0}")
+    private int maxBatchSize;
+
+    @Value("${embedding.batcher.max-linger-ms:20}")
+    private long maxLingerMs;
+
+    @Value("${embedding.batcher.max-in-flight:${embedding.api.max-concurrency:8}}")
+    private int maxInFlight;
+
+    private final BlockingQueue<Pending> queryQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Pending> ingestQueue = new LinkedBlockingQueue<>();
+    private final Object signal = new Object();
+
+    private Semaphore inFlight;
+    private ExecutorService senders;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong texts = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    @Autowired
+    public EmbeddingBatcher(EmbeddingProvider embeddingProvider) {
+        this(embeddingProvider::embedBatch, embeddingProvider.getBatchSize());
+    }
+
+    /**
+     * @param batchEmbedder    单次请求向量化一批文本，返回与输入顺序一致的向量
+     * @param defaultBatchSize 未配置 max-batch-size 时的批大小
+     */
+    EmbeddingBatcher(Function<List<String>, List<float[]>> batchEmbedder, int defaultBatchSize) {
+        this.batchEmbedder = batchEmbedder;
+        this.defaultBatchSize = defaultBatchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        maxBatchSize = Math.max(1, maxBatchSize > 0 ? maxBatchSize : defaultBatchSize);
+        maxInFlight = Math.max(1, maxInFlight);
+        inFlight = new Semaphore(maxInFlight);
+        AtomicInteger seq = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(maxInFlight, r -> {
+            Thread t = new Thread(r, "embedding-batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "embedding-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        logger.info("向量请求合并器已启动，批大小: {}, 最长等待: {}ms, 最大并发: {}", maxBatchSize, maxLingerMs, maxInFlight);
+    }
+
+    /**
+     * 另一个向量化后端的合并器，等待时长和并发上限沿用当前配置，批大小取该后端自己的；
+     * 返回的合并器已启动，由调用方负责 shutdown
+     */
+    public EmbeddingBatcher derive(EmbeddingProvider provider) {
+        EmbeddingBatcher derived = new EmbeddingBatcher(provider);
+        derived.maxLingerMs = maxLingerMs;
+        derived.maxInFlight = maxInFlight;
+        derived.start();
+        return derived;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        senders.shutdownNow();
+        failAll(queryQueue, new IllegalStateException("向量请求合并器已停止"));
+        failAll(ingestQueue, new IllegalStateException("向量请求合并器已停止"));
+    }
+
+    /**
+     * 入库文本向量化，阻塞直到全部完成
+     */
+    public List<float[]> embed(List<String> texts) {
+        try {
+            return embedAsync(texts, false).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("向量生成失败", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * 查询文本向量化，优先于入库文本发出
+     */
+    public float[] embedQuery(String text) {
+        try {
+            return embedAsync(List.of(text), true).join().get(0);
+        } catch (CompletionException e) {
+            throw new RuntimeException("向量生成失败", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * 提交文本，返回按输入顺序排列的向量
+     *
+     * @param priority 是否走查询优先队列
+     */
+    public CompletableFuture<List<float[]>> embedAsync(List<String> texts, boolean priority) {
+        if (texts.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        BlockingQueue<Pending> queue = priority ? queryQueue : ingestQueue;
+        List<CompletableFuture<float[]>> futures = new ArrayList<>(texts.size());
+        long now = System.nanoTime();
+        for (String text : texts) {
+            CompletableFuture<float[]> future = new CompletableFuture<>();
+            futures.add(future);
+            queue.add(new Pending(text, future, now));
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * 合并效果：已发出批次数、文本数和平均填充率
+     */
+    public Map<String, Object> stats() {
+        long b = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxBatchSize", maxBatchSize);
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("inFlight", inFlight == null ? 0 : maxInFlight - inFlight.availablePermits());
+        stats.put("queuedQueries", queryQueue.size());
+        stats.put("queuedIngest", ingestQueue.size());
+        stats.put("batches", b);
+        stats.put("texts", texts.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("avgFill", b == 0 ? 0 : (double) texts.get() / b / maxBatchSize);
+        return stats;
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                awaitWork();
+                inFlight.acquire();
+                List<Pending> batch;
+                try {
+                    batch = collectBatch();
+                } catch (InterruptedException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                if (batch.isEmpty()) {
+                    inFlight.release();
+                    continue;
+                }
+                try {
+                    senders.execute(() -> send(batch));
+                } catch (RejectedExecutionException e) {
+                    // 已停机：归还并发许可，这一批的调用方直接失败，不会一直等待
+                    inFlight.release();
+                    IllegalStateException stopped = new IllegalStateException("向量请求合并器已停止", e);
+                    batch.forEach(p -> p.future().completeExceptionally(stopped));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("向量请求合并器分发异常", e);
+            }
+        }
+    }
+
+    private void awaitWork() throws InterruptedException {
+        synchronized (signal) {
+            while (queryQueue.isEmpty() && ingestQueue.isEmpty()) {
+                signal.wait(1000);
+            }
+        }
+    }
+
+    /**
+     * 凑批：先取查询文本，再取入库文本，直到批次满或最早文本的等待时间达到 maxLingerMs
+     */
+    private List<Pending> collectBatch() throws InterruptedException {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        Pending head = queryQueue.peek() != null ? queryQueue.peek() : ingestQueue.peek();
+        if (head == null) {
+            return batch;
+        }
+        long deadline = head.enqueuedNanos() + TimeUnit.MILLISECONDS.toNanos(maxLingerMs);
+        while (true) {
+            queryQueue.drainTo(batch, maxBatchSize - batch.size());
+            ingestQueue.drainTo(batch, maxBatchSize - batch.size());
+            long wait = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || wait <= 0) {
+                return batch;
+            }
+            synchronized (signal) {
+                if (queryQueue.isEmpty() && ingestQueue.isEmpty()) {
+                    TimeUnit.NANOSECONDS.timedWait(signal, wait);
+                }
+            }
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        try {
+            List<float[]> vectors = batchEmbedder.apply(batch.stream().map(Pending::text).toList());
+            if (vectors.size() != batch.size()) {
+                throw new IllegalStateException("向量数量与文本数量不一致: " + vectors.size() + " != " + batch.size());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(vectors.get(i));
+            }
+            batches.incrementAndGet();
+            texts.addAndGet(batch.size());
+        } catch (Exception e) {
+            failedBatches.incrementAndGet();
+            logger.error("向量批次请求失败，文本数: {}", batch.size(), e);
+            batch.forEach(p -> p.future().completeExceptionally(e));
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private static void failAll(BlockingQueue<Pending> queue, Exception cause) {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future().completeExceptionally(cause);
+        }
+    }
+}
@@ -1,24 +1,36 @@
 package com.yizhaoqi.smartpai.client;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yizhaoqi.smartpai.utils.EmbeddingResponseParser;
+import com.yizhaoqi.smartpai.utils.VectorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
-import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
-// 嵌入向量生成客户端
+// 嵌入向量生成客户端（远程向量接口，默认的 EmbeddingProvider）
 @Component
-public class EmbeddingClient {
+public class EmbeddingClient implements EmbeddingProvider {
 
     @Value("${embedding.api.model}")
     private String modelId;
@@ -26,8 +38,34 @@ public class EmbeddingClient {
     @Value("${embedding.api.batch-size:100}")
     private int batchSize;
 
+    /**
+     * 向量维度，请求时传给接口，ES 映射的 dims 也按它生成；
+     * 接口返回的向量更长时（不支持 dimension 参数），按 Matryoshka 方式截取前 N 维并重新归一化
+     */
     @Value("${embedding.api.dimension:2048}")
     private int dimension;
+
+    /** 同时在途的批次请求上限，AIMD 在 [1, maxConcurrency] 之间调整 */
+    @Value("${embedding.api.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${embedding.api.initial-concurrency:4}")
+    private int initialConcurrency;
+
+    @Value("${embedding.api.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${embedding.api.retry-backoff-ms:500}")
+    private long retryBackoffMs;
+
+    @Value("${embedding.api.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${embedding.api.timeout-ms:30000}")
+    private long timeoutMs;
+
+    private AdaptiveConcurrencyLimiter limiter;
+    private ExecutorService dispatchExecutor;
     
     private static final Logger logger = LoggerFactory.getLogger(EmbeddingClient.class);
     private final WebClient webClient;
@@ -38,6 +76,49 @@ public class EmbeddingClient {
         this.objectMapper = objectMapper;
     }
 
+    @PostConstruct
+    public void init() {
+        limiter = new AdaptiveConcurrencyLimiter(initialConcurrency, 1, maxConcurrency);
+        AtomicInteger seq = new AtomicInteger();
+        dispatchExecutor = Executors.newFixedThreadPool(Math.max(1, maxConcurrency), r -> {
+            Thread t = new Thread(r, "embedding-dispatch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatchExecutor.shutdownNow();
+    }
+
+    /**
+     * 同一向量接口上另一个模型（或维度）的客户端，其余配置沿用当前客户端，
+     * 重新向量化的目标模型使用；返回的客户端已初始化，由调用方负责 shutdown
+     */
+    public EmbeddingClient derive(String modelId, int dimension) {
+        EmbeddingClient derived = new EmbeddingClient(webClient, objectMapper);
+        derived.modelId = modelId;
+        derived.dimension = dimension;
+        derived.batchSize = batchSize;
+        derived.maxConcurrency = maxConcurrency;
+        derived.initialConcurrency = initialConcurrency;
+        derived.maxAttempts = maxAttempts;
+        derived.retryBackoffMs = retryBackoffMs;
+        derived.maxBackoffMs = maxBackoffMs;
+        derived.timeoutMs = timeoutMs;
+        derived.init();
+        return derived;
+    }
+
+    /**
+     * 当前使用的向量模型，写入ES时作为 modelVersion，换模型后旧向量可据此识别和清理
+     */
+    @Override
+    public String getModelId() {
+        return modelId;
+    }
+
     /**
      * 调用通义千问 API 生成向量
      * @param texts 输入文本列表
@@ -51,24 +132,19 @@ public class EmbeddingClient {
             logger.info("开始生成向量，文本数量: {}", texts.size());
 
             /**
-             * 初始化向量list
-             * 每个段落是一个向量化
-             * 所以list的长度就是texts的长度
-             */
-            List<float[]> all = new ArrayList<>(texts.size());
-
-            /**
-             * 这个代码就是分批次请求大模型进行向量化的循环
+             * 按 batchSize 切批后并发请求，并发数由 AIMD 限流器动态控制
+             * 结果按批次顺序拼接，与输入顺序一致
              */
+            List<CompletableFuture<List<float[]>>> batches = new ArrayList<>();
             for (int start = 0; start < texts.size(); start += batchSize) {
                 int end = Math.min(start + batchSize, texts.size());
                 List<String> sub = texts.subList(start, end);
                 logger.debug("调用向量 API, 批次: {}-{} (size={})", start, end - 1, sub.size());
-                /**
-                 * 这个是一次调用大模型进行向量化的方法
-                 */
-                String response = callApiOnce(sub);
-                all.addAll(parseVectors(response));
+                batches.add(CompletableFuture.supplyAsync(() -> embedBatch(sub), dispatchExecutor));
+            }
+            List<float[]> all = new ArrayList<>(texts.size());
+            for (CompletableFuture<List<float[]>> batch : batches) {
+                all.addAll(batch.join());
             }
             /**
              * 全部弄完了后
@@ -76,18 +152,124 @@ public class EmbeddingClient {
              */
             logger.info("成功生成向量，总数量: {}", all.size());
             return all;
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.error("调用向量化 API 失败: {}", cause.getMessage(), cause);
+            throw new RuntimeException("向量生成失败", cause);
         } catch (Exception e) {
             logger.error("调用向量化 API 失败: {}", e.getMessage(), e);
             throw new RuntimeException("向量生成失败", e);
         }
     }
 
+    /**
+     * 单次请求向量化一批文本（不再拆批），供 EmbeddingBatcher 合并后的批次调用
+     * 受 AIMD 限流器控制并发；429 时按 Retry-After 等待，5xx/超时按指数退避重试，其他 4xx 直接失败
+     * @param batch 不超过 batchSize 的文本
+     * @return 与输入顺序一致的向量
+     */
+    @Override
+    public List<float[]> embedBatch(List<String> batch) {
+        Exception last = null;
+        for (int attempt = 1; attempt <= Math.max(1, maxAttempts); attempt++) {
+            long retryAfterMs = -1;
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("向量生成被中断", e);
+            }
+            try {
+                List<float[]> vectors = EmbeddingResponseParser.parse(callApiOnce(batch), dimension);
+                if (vectors.size() != batch.size()) {
+                    throw new IllegalStateException("向量数量与文本数量不一致: " + vectors.size() + " != " + batch.size());
+                }
+                vectors.replaceAll(v -> v.length > dimension ? VectorUtils.truncate(v, dimension, true) : v);
+                limiter.onSuccess();
+                return vectors;
+            } catch (WebClientResponseException e) {
+                last = e;
+                if (e.getStatusCode().value() == 429) {
+                    retryAfterMs = retryAfterMs(e);
+                    limiter.onThrottled(Math.max(retryAfterMs, 0));
+                } else {
+                    limiter.onFailure();
+                    if (!e.getStatusCode().is5xxServerError()) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                // 超时、连接失败等
+                last = e;
+                limiter.onFailure();
+            }
+            if (attempt < maxAttempts) {
+                long backoff = retryAfterMs >= 0 ? retryAfterMs : backoffMs(attempt);
+                logger.warn("向量批次请求失败，第{}/{}次，{}ms后重试，原因: {}", attempt, maxAttempts, backoff, last.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("向量生成被中断", e);
+                }
+            }
+        }
+        throw new RuntimeException("向量生成失败", last);
+    }
+
+    /**
+     * 指数退避加随机抖动，上限 maxBackoffMs
+     */
+    private long backoffMs(int attempt) {
+        long base = Math.min(maxBackoffMs, retryBackoffMs * (1L << Math.min(attempt - 1, 20)));
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    /**
+     * 解析 Retry-After：支持秒数和 HTTP 日期两种格式，没有或无法解析时返回 -1
+     */
+    static long retryAfterMs(WebClientResponseException e) {
+        String value = e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException ignored) {
+            // 不是秒数，按 HTTP 日期解析
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException ignored) {
+            return -1;
+        }
+    }
+
+    /**
+     * AIMD 限流器状态：当前并发上限、在途请求和被限流次数
+     */
+    @Override
+    public Map<String, Object> stats() {
+        return limiter.stats();
+    }
+
+    @Override
+    public int getDimension() {
+        return dimension;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     /**
      * 封装请求，进行请求大模型
      * @param batch
      * @return
      */
-    private String callApiOnce(List<String> batch) {
+    private byte[] callApiOnce(List<String> batch) {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", modelId); // 告诉对方：我要用哪款 AI 模型
         requestBody.put("input", batch); // 告诉对方：这是我要转换的几段文本
@@ -98,40 +280,10 @@ public class EmbeddingClient {
                 .uri("/embeddings")// 目标地址：向量接口的门牌号
                 .bodyValue(requestBody)// 把刚才准备好的公函放进邮件包
                 .retrieve()// 开始接收对方的回应
-                .bodyToMono(String.class)// 把对方返回的数据包解析成一串 JSON 字符串
+                .bodyToMono(byte[].class)// 直接拿响应字节，由 EmbeddingResponseParser 流式解码成 float[]，不经过 String 和 JsonNode
                 /**
-                 * 这个是重试机制
+                 * 重试在 embedBatch 中按批次进行（指数退避、遵守 Retry-After）
                  */
-                .retryWhen(Retry.fixedDelay(3, Duration.ofSeconds(1))
-                        .filter(e -> e instanceof WebClientResponseException))
-                .block(Duration.ofSeconds(30));
-    }
-
-    /**
-     * 这个是进行json解析
-     *
-     * @param response
-     * @return
-     * @throws Exception
-     */
-    private List<float[]> parseVectors(String response) throws Exception {
-        JsonNode jsonNode = objectMapper.readTree(response);
-        JsonNode data = jsonNode.get("data");  // 兼容模式下使用data字段
-        if (data == null || !data.isArray()) {
-            throw new RuntimeException("API 响应格式错误: data 字段不存在或不是数组");
-        }
-        
-        List<float[]> vectors = new ArrayList<>();
-        for (JsonNode item : data) {
-            JsonNode embedding = item.get("embedding");
-            if (embedding != null && embedding.isArray()) {
-                float[] vector = new float[embedding.size()];
-                for (int i = 0; i < embedding.size(); i++) {
-                    vector[i] = (float) embedding.get(i).asDouble();
-                }
-                vectors.add(vector);
-            }
-        }
-        return vectors;
+                .block(Duration.ofMillis(timeoutMs));
     }
 }
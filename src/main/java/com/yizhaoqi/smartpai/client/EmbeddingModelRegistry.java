@@ -0,0 +1,124 @@
+package com.yizhaoqi.smartpai.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 可用的向量模型
+ * 除当前向量化后端外，配置了 embedding.reembed.target-model 时，在同一向量接口上再建一个目标模型的客户端和合并器。
+ * 索引映射的 _meta 记录了写入它的模型和维度，检索和入库按读写别名指向的索引选择模型：
+ * 重新向量化期间检索仍用旧模型查询旧索引，写别名切到新索引后入库改用目标模型，互不混用。
+ * 目标模型需要在所有实例上配置后再发起重新向量化。
+ */
+@Component
+public class EmbeddingModelRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingModelRegistry.class);
+
+    /**
+     * 模型及其合并器
+     */
+    public record Model(EmbeddingProvider provider, EmbeddingBatcher batcher) {
+
+        public String modelId() {
+            return provider.getModelId();
+        }
+
+        public int dims() {
+            return provider.getDimension();
+        }
+
+        /**
+         * 模型相同且维度一致；dims 不大于 0 表示不限维度
+         */
+        boolean matches(String modelId, int dims) {
+            return provider.getModelId() != null && provider.getModelId().equals(modelId)
+                    && (dims <= 0 || dims == provider.getDimension());
+        }
+    }
+
+    /** 重新向量化的目标模型，为空时使用当前向量化后端 */
+    @Value("${embedding.reembed.target-model:}")
+    private String targetModel;
+
+    /** 目标模型的向量维度，0 表示沿用 embedding.api.dimension */
+    @Value("${embedding.reembed.target-dimension:0}")
+    private int targetDimension;
+
+    private final Model primary;
+    private final EmbeddingClient embeddingClient;
+    private Model target;
+
+    public EmbeddingModelRegistry(EmbeddingProvider embeddingProvider, EmbeddingBatcher embeddingBatcher,
+                                  EmbeddingClient embeddingClient) {
+        this.primary = new Model(embeddingProvider, embeddingBatcher);
+        this.embeddingClient = embeddingClient;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (targetModel == null || targetModel.isBlank()) {
+            target = primary;
+            return;
+        }
+        int dims = targetDimension > 0 ? targetDimension : embeddingClient.getDimension();
+        if (primary.matches(targetModel, dims)) {
+            target = primary;
+            return;
+        }
+        EmbeddingClient client = embeddingClient.derive(targetModel, dims);
+        target = new Model(client, primary.batcher().derive(client));
+        logger.info("重新向量化目标模型: {}（{} 维），当前模型: {}（{} 维）", targetModel, dims, primary.modelId(), primary.dims());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (target != null && target != primary) {
+            target.batcher().shutdown();
+            ((EmbeddingClient) target.provider()).shutdown();
+        }
+    }
+
+    /**
+     * 当前向量化后端
+     */
+    public Model primary() {
+        return primary;
+    }
+
+    /**
+     * 重新向量化使用的模型，没有配置目标模型时为当前向量化后端
+     */
+    public Model target() {
+        return target;
+    }
+
+    /**
+     * 生成指定模型和维度向量的后端，没有时返回 null
+     *
+     * @param dims 不大于 0 时不限维度
+     */
+    public Model find(String modelId, int dims) {
+        if (primary.matches(modelId, dims)) {
+            return primary;
+        }
+        if (target != null && target.matches(modelId, dims)) {
+            return target;
+        }
+        return null;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("primary", Map.of("modelId", primary.modelId(), "dims", primary.dims()));
+        status.put("target", Map.of("modelId", target.modelId(), "dims", target.dims()));
+        return status;
+    }
+}
@@ -0,0 +1,37 @@
+package com.yizhaoqi.smartpai.client;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文本向量化后端
+ * 默认实现是远程向量接口（EmbeddingClient）；配置 embedding.provider=onnx 时使用进程内的 OnnxEmbeddingProvider。
+ * 入库和检索查询都通过 EmbeddingBatcher 调用当前后端，写入ES的 modelVersion 取自 {@link #getModelId()}。
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * 向量化一批文本（不超过 {@link #getBatchSize()}），返回与输入顺序一致的向量
+     */
+    List<float[]> embedBatch(List<String> texts);
+
+    /**
+     * 模型标识，换模型后旧向量和缓存据此失效
+     */
+    String getModelId();
+
+    /**
+     * 输出向量维度，ES 索引映射的 dims 与之保持一致
+     */
+    int getDimension();
+
+    /**
+     * 单批最大文本数
+     */
+    int getBatchSize();
+
+    /**
+     * 后端运行指标，用于管理端监控
+     */
+    Map<String, Object> stats();
+}
@@ -0,0 +1,287 @@
+package com.yizhaoqi.smartpai.client;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import com.yizhaoqi.smartpai.utils.VectorUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * 本地 ONNX Runtime 向量化后端（embedding.provider=onnx 时启用）
+ * 在进程内用 CPU 跑导出为 ONNX 的 BERT 类向量模型（如 bge-small-zh-v1.5），不依赖网络和外部限流，延迟可预期。
+ * 一批文本先按分词长度排序再切成子批，同一子批内补齐长度相近，减少 padding 上的无效计算；
+ * 同时推理的子批数由 max-concurrency 控制，每次推理内部的算子并行度由 intra-op-threads 控制，
+ * 两者相乘不应超过CPU核数。
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "embedding.provider", havingValue = "onnx")
+@Slf4j
+public class OnnxEmbeddingProvider implements EmbeddingProvider {
+
+    @Value("${embedding.onnx.model-path}")
+    private String modelPath;
+
+    @Value("${embedding.onnx.vocab-path}")
+    private String vocabPath;
+
+    /** 写入ES的 modelVersion，换模型或改维度时务必一并修改 */
+    @Value("${embedding.onnx.model-id:bge-small-zh-v1.5-onnx}")
+    private String modelId;
+
+    @Value("${embedding.onnx.max-sequence-length:512}")
+    private int maxSequenceLength;
+
+    /** 单次推理的文本数 */
+    @Value("${embedding.onnx.batch-size:32}")
+    private int batchSize;
+
+    /** 输出维度，0 表示使用模型原始维度；小于原始维度时截取前 N 维后重新归一化 */
+    @Value("${embedding.onnx.dimension:0}")
+    private int dimension;
+
+    /** 池化方式：cls（bge 系列）或 mean（sentence-transformers 系列） */
+    @Value("${embedding.onnx.pooling:cls}")
+    private String pooling;
+
+    @Value("${embedding.onnx.normalize:true}")
+    private boolean normalize;
+
+    @Value("${embedding.onnx.lowercase:true}")
+    private boolean lowercase;
+
+    /** 同时推理的子批数 */
+    @Value("${embedding.onnx.max-concurrency:2}")
+    private int maxConcurrency;
+
+    /** 单次推理的算子线程数，0 表示 CPU核数 / max-concurrency */
+    @Value("${embedding.onnx.intra-op-threads:0}")
+    private int intraOpThreads;
+
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private BertWordPieceTokenizer tokenizer;
+    private Semaphore permits;
+    private boolean needsTokenTypeIds;
+    private int outputDimension;
+
+    private final AtomicLong inferences = new AtomicLong();
+    private final AtomicLong texts = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong paddedTokens = new AtomicLong();
+    private final AtomicLong inferenceNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws Exception {
+        tokenizer = BertWordPieceTokenizer.load(Path.of(vocabPath), lowercase);
+        int concurrency = Math.max(1, maxConcurrency);
+        int threads = intraOpThreads > 0 ? intraOpThreads
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / concurrency);
+        environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            options.setExecutionMode(OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL);
+            options.setIntraOpNumThreads(threads);
+            options.setInterOpNumThreads(1);
+            session = environment.createSession(modelPath, options);
+        }
+        needsTokenTypeIds = session.getInputNames().contains("token_type_ids");
+        long[] shape = ((TensorInfo) session.getOutputInfo().values().iterator().next().getInfo()).getShape();
+        outputDimension = dimension > 0 && (shape[shape.length - 1] <= 0 || dimension < shape[shape.length - 1])
+                ? dimension : (int) shape[shape.length - 1];
+        permits = new Semaphore(concurrency);
+        log.info("本地向量模型已加载，model: {}, 输入: {}, 输出: {}, 并发: {}, 算子线程: {}",
+                modelPath, session.getInputNames(), describeOutputs(), concurrency, threads);
+    }
+
+    @PreDestroy
+    public void shutdown() throws OrtException {
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    @Override
+    public String getModelId() {
+        return modelId;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public int getDimension() {
+        return outputDimension;
+    }
+
+    /**
+     * 分词后按长度排序切子批推理，结果按原顺序返回
+     */
+    @Override
+    public List<float[]> embedBatch(List<String> batch) {
+        int[][] ids = new int[batch.size()][];
+        for (int i = 0; i < batch.size(); i++) {
+            ids[i] = tokenizer.encode(batch.get(i), maxSequenceLength);
+        }
+        Integer[] order = IntStream.range(0, ids.length).boxed()
+                .sorted(Comparator.comparingInt(i -> ids[i].length))
+                .toArray(Integer[]::new);
+        float[][] vectors = new float[ids.length][];
+        for (int start = 0; start < order.length; start += batchSize) {
+            int end = Math.min(start + batchSize, order.length);
+            int[][] group = new int[end - start][];
+            for (int i = start; i < end; i++) {
+                group[i - start] = ids[order[i]];
+            }
+            float[][] out = infer(group);
+            for (int i = start; i < end; i++) {
+                vectors[order[i]] = out[i - start];
+            }
+        }
+        return Arrays.asList(vectors);
+    }
+
+    private float[][] infer(int[][] group) {
+        int maxLen = 0;
+        int realTokens = 0;
+        for (int[] seq : group) {
+            maxLen = Math.max(maxLen, seq.length);
+            realTokens += seq.length;
+        }
+        long[][] inputIds = new long[group.length][maxLen];
+        long[][] attentionMask = new long[group.length][maxLen];
+        for (int i = 0; i < group.length; i++) {
+            Arrays.fill(inputIds[i], tokenizer.getPadId());
+            for (int j = 0; j < group[i].length; j++) {
+                inputIds[i][j] = group[i][j];
+                attentionMask[i][j] = 1;
+            }
+        }
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("本地向量推理被中断", e);
+        }
+        long begin = System.nanoTime();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, inputIds));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, attentionMask));
+            if (needsTokenTypeIds) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, new long[group.length][maxLen]));
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][] pooled = pool(result.get(0).getValue(), attentionMask, "mean".equalsIgnoreCase(pooling));
+                for (int i = 0; i < pooled.length; i++) {
+                    pooled[i] = finish(pooled[i], dimension, normalize);
+                }
+                return pooled;
+            }
+        } catch (OrtException e) {
+            throw new RuntimeException("本地向量推理失败: " + e.getMessage(), e);
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+            permits.release();
+            inferenceNanos.addAndGet(System.nanoTime() - begin);
+            inferences.incrementAndGet();
+            texts.addAndGet(group.length);
+            tokens.addAndGet(realTokens);
+            paddedTokens.addAndGet((long) group.length * maxLen);
+        }
+    }
+
+    /**
+     * 模型输出转句向量：三维 [batch, seq, hidden] 的 token 向量按 cls 或 mean 池化，
+     * 二维 [batch, hidden] 视为模型已经池化好的句向量
+     */
+    static float[][] pool(Object output, long[][] attentionMask, boolean mean) {
+        if (output instanceof float[][] sentence) {
+            return sentence;
+        }
+        if (!(output instanceof float[][][] hidden)) {
+            throw new IllegalStateException("不支持的模型输出类型: " + output.getClass().getSimpleName());
+        }
+        float[][] pooled = new float[hidden.length][];
+        for (int i = 0; i < hidden.length; i++) {
+            if (!mean) {
+                pooled[i] = hidden[i][0].clone();
+                continue;
+            }
+            float[] sum = new float[hidden[i][0].length];
+            int count = 0;
+            for (int t = 0; t < hidden[i].length; t++) {
+                if (attentionMask[i][t] == 0) {
+                    continue;
+                }
+                float[] token = hidden[i][t];
+                for (int d = 0; d < sum.length; d++) {
+                    sum[d] += token[d];
+                }
+                count++;
+            }
+            for (int d = 0; d < sum.length; d++) {
+                sum[d] /= Math.max(1, count);
+            }
+            pooled[i] = sum;
+        }
+        return pooled;
+    }
+
+    /**
+     * 按配置截取维度并做 L2 归一化
+     */
+    static float[] finish(float[] vector, int dimension, boolean normalize) {
+        return VectorUtils.truncate(vector, dimension, normalize);
+    }
+
+    private List<String> describeOutputs() throws OrtException {
+        List<String> outputs = new ArrayList<>();
+        for (Map.Entry<String, NodeInfo> entry : session.getOutputInfo().entrySet()) {
+            outputs.add(entry.getKey() + entry.getValue().getInfo());
+        }
+        return outputs;
+    }
+
+    /**
+     * 推理指标：次数、平均耗时、吞吐和 padding 占比
+     */
+    @Override
+    public Map<String, Object> stats() {
+        long count = inferences.get();
+        long padded = paddedTokens.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("provider", "onnx");
+        stats.put("modelId", modelId);
+        stats.put("availablePermits", permits.availablePermits());
+        stats.put("inferences", count);
+        stats.put("texts", texts.get());
+        stats.put("avgInferenceMs", count == 0 ? 0 : inferenceNanos.get() / count / 1_000_000);
+        stats.put("paddingRatio", padded == 0 ? 0 : 1.0 - (double) tokens.get() / padded);
+        return stats;
+    }
+}
@@ -0,0 +1,32 @@
+package com.yizhaoqi.smartpai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * ES 批量写入配置
+ * 写入按条数和字节数两个阈值切成多个 _bulk 请求，避免大文件的分块拼成一个超过 http.max_content_length 的请求
+ */
+@Component
+@ConfigurationProperties(prefix = "elasticsearch.bulk")
+@Data
+public class EsBulkProperties {
+
+    /** 单个 _bulk 请求的最大操作数 */
+    private int maxOperations = 1000;
+    /** 单个 _bulk 请求的最大字节数（MB），ES 官方建议 5~15MB */
+    private long maxSizeMb = 10;
+    /** 同时在途的 _bulk 请求数，达到上限后新的写入阻塞等待 */
+    private int maxConcurrentRequests = 4;
+    /** 未凑满阈值的操作最长等待时间（毫秒） */
+    private long flushIntervalMs = 200;
+    /** 被拒绝（429/502/503/504）的单条操作最大重试次数，其他错误不重试 */
+    private int maxRetries = 3;
+    /** 重试间隔（毫秒），按次数线性增长 */
+    private long retryBackoffMs = 500;
+    /** 入库期间把目标索引的 refresh_interval 设为 -1，全部入库任务结束后恢复并刷新一次 */
+    private boolean relaxRefresh = false;
+    /** 入库结束后恢复的 refresh_interval */
+    private String refreshInterval = "1s";
+}
@@ -1,6 +1,11 @@
 package com.yizhaoqi.smartpai.config;
 
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.json.JsonData;
 import co.elastic.clients.transport.endpoints.BooleanResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.yizhaoqi.smartpai.client.EmbeddingProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
@@ -12,21 +17,60 @@ import org.apache.http.ConnectionClosedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.Files;
-import java.nio.charset.StandardCharsets;
 import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
+/**
+ * knowledge_base 索引初始化和别名管理
+ * 物理索引按向量模型和维度命名（knowledge_base_<模型>_<维度>_<时间>），读写都通过别名：
+ * 检索读 knowledge_base，入库写 knowledge_base_write；映射的 _meta 记录写入该索引的向量模型和维度，
+ * 检索和入库据此选择向量模型。新索引就绪后两个别名在一次 _aliases 请求中原子切换，检索不中断。
+ */
 @Component
 public class EsIndexInitializer implements CommandLineRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(EsIndexInitializer.class);
 
+    /** 检索读取的别名（旧版本部署中是物理索引名） */
+    public static final String READ_ALIAS = "knowledge_base";
+    /** 入库写入的别名，始终只指向一个物理索引 */
+    public static final String WRITE_ALIAS = "knowledge_base_write";
+
+    /** 索引映射 _meta 中的键 */
+    public static final String META_MODEL_ID = "modelId";
+    public static final String META_DIMS = "dims";
+    public static final String META_BUILDING = "building";
+
     @Autowired
     private ElasticsearchClient esClient;
 
     @Value("classpath:es-mappings/knowledge_base.json") // 加载 JSON 文件
     private org.springframework.core.io.Resource mappingResource;
 
+    @Value("classpath:es-mappings/knowledge_base_vl.json")
+    private org.springframework.core.io.Resource vlMappingResource;
+
+    @Value("${vl-embedding.api.dimension:1024}")
+    private int vlDimension;
+
+    @Autowired
+    private VlRetrievalProperties vlRetrievalProperties;
+
+    @Autowired
+    private VectorIndexProperties vectorIndexProperties;
+
+    @Autowired
+    private EsRoutingProperties esRoutingProperties;
+
+    @Autowired
+    private EmbeddingProvider embeddingProvider;
+
     @Override
     public void run(String... args) throws Exception {
         try {
@@ -54,29 +98,257 @@ public class EsIndexInitializer implements CommandLineRunner {
      * @throws Exception
      */
     private void initializeIndex() throws Exception {
-        // 检查索引是否存在
-        BooleanResponse existsResponse = esClient.indices().exists(ExistsRequest.of(e -> e.index("knowledge_base")));
+        // 检查索引（或别名）是否存在
+        BooleanResponse existsResponse = esClient.indices().exists(ExistsRequest.of(e -> e.index(READ_ALIAS)));
         if (!existsResponse.value()) {
             createIndex();
         } else {
-            logger.info("索引 'knowledge_base' 已存在");
+            logger.info("索引 'knowledge_base' 已存在，物理索引: {}", aliasIndices(READ_ALIAS));
+            checkVectorMapping();
+            ensureWriteAlias();
+        }
+        if (vlRetrievalProperties.isEnabled()) {
+            initializeVlIndex();
         }
     }
 
     /**
-     * 创建索引
+     * 多模态检索开启时创建VL向量索引，向量维度按 vl-embedding.api.dimension 写入映射
+     * @throws Exception
+     */
+    private void initializeVlIndex() throws Exception {
+        String index = vlRetrievalProperties.getSearch().getIndex();
+        BooleanResponse existsResponse = esClient.indices().exists(ExistsRequest.of(e -> e.index(index)));
+        if (existsResponse.value()) {
+            logger.info("索引 '{}' 已存在", index);
+            return;
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode mapping = (ObjectNode) objectMapper.readTree(vlMappingResource.getInputStream());
+        ((ObjectNode) mapping.at("/mappings/properties/vector")).put("dims", vlDimension);
+        String mappingJson = objectMapper.writeValueAsString(mapping);
+        esClient.indices().create(c -> c
+                .index(index)
+                .withJson(new StringReader(mappingJson))
+        );
+        logger.info("索引 '{}' 已创建，向量维度: {}", index, vlDimension);
+    }
+
+    /**
+     * 首次启动：创建带版本的物理索引，读写别名都指向它
      * @throws Exception
      */
     private void createIndex() throws Exception {
-        // 读取 JSON 文件内容
-        String mappingJson = new String(Files.readAllBytes(mappingResource.getFile().toPath()), StandardCharsets.UTF_8);
+        String index = versionedIndexName(embeddingProvider.getModelId(), embeddingProvider.getDimension());
+        createIndex(index, embeddingProvider.getModelId(), embeddingProvider.getDimension(), false);
+        esClient.indices().updateAliases(u -> u
+                .actions(a -> a.add(ad -> ad.index(index).alias(READ_ALIAS)))
+                .actions(a -> a.add(ad -> ad.index(index).alias(WRITE_ALIAS).isWriteIndex(true))));
+        logger.info("别名 {} / {} 已指向 {}", READ_ALIAS, WRITE_ALIAS, index);
+    }
+
+    /**
+     * 旧版本部署中 knowledge_base 是物理索引或只有读别名，补上写别名指向同一个索引
+     */
+    private void ensureWriteAlias() throws Exception {
+        if (esClient.indices().existsAlias(e -> e.name(WRITE_ALIAS)).value()) {
+            return;
+        }
+        List<String> indices = aliasIndices(READ_ALIAS);
+        if (indices.size() != 1) {
+            logger.error("别名 {} 指向 {} 个索引，无法确定写入索引，请手动创建别名 {}", READ_ALIAS, indices.size(), WRITE_ALIAS);
+            return;
+        }
+        esClient.indices().updateAliases(u -> u
+                .actions(a -> a.add(ad -> ad.index(indices.get(0)).alias(WRITE_ALIAS).isWriteIndex(true))));
+        logger.info("已创建写别名 {} -> {}", WRITE_ALIAS, indices.get(0));
+    }
+
+    /**
+     * 带版本的物理索引名：knowledge_base_<模型>_<维度>_<时间>，模型名中的非字母数字字符替换为 -
+     */
+    public static String versionedIndexName(String modelId, int dims) {
+        return indexPrefix(modelId, dims) + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+    }
+
+    /**
+     * 某个模型和维度的物理索引名前缀：knowledge_base_<模型>_<维度>_
+     */
+    static String indexPrefix(String modelId, int dims) {
+        String model = modelId == null ? "unknown" : modelId.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-");
+        model = model.replaceAll("^-+|-+$", "");
+        return READ_ALIAS + "_" + model + "_" + dims + "_";
+    }
+
+    /**
+     * 指定模型和维度、由重新向量化创建且还没有切换上线的物理索引，按名称（即创建时间）升序
+     */
+    public List<String> buildingIndices(String modelId, int dims) throws Exception {
+        String pattern = indexPrefix(modelId, dims) + "*";
+        var mappings = esClient.indices().getMapping(g -> g.index(pattern).allowNoIndices(true)).result();
+        return mappings.entrySet().stream()
+                .filter(e -> isBuilding(e.getValue().mappings()))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * 切换上线后去掉 _meta 中的 building 标记，之后不会再被当作未完成的重新向量化续用
+     */
+    public void markServing(String index, String modelId, int dims) throws Exception {
+        Map<String, JsonData> meta = new LinkedHashMap<>();
+        indexMeta(modelId, dims, false).forEach((k, v) -> meta.put(k, JsonData.of(v)));
+        esClient.indices().putMapping(p -> p.index(index).meta(meta));
+    }
+
+    private static boolean isBuilding(TypeMapping mapping) {
+        JsonData building = mapping == null || mapping.meta() == null ? null : mapping.meta().get(META_BUILDING);
+        return building != null && Boolean.TRUE.equals(building.to(Boolean.class));
+    }
+
+    /**
+     * 索引映射 _meta：写入该索引的向量模型和维度，重新向量化创建的索引在切换上线前带 building 标记
+     */
+    static Map<String, Object> indexMeta(String modelId, int dims, boolean building) {
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put(META_MODEL_ID, modelId);
+        meta.put(META_DIMS, dims);
+        if (building) {
+            meta.put(META_BUILDING, true);
+        }
+        return meta;
+    }
+
+    /**
+     * 别名当前指向的物理索引；名称本身是物理索引时返回它自己，不存在时返回空列表
+     */
+    public List<String> aliasIndices(String alias) throws Exception {
+        if (esClient.indices().existsAlias(e -> e.name(alias)).value()) {
+            return new ArrayList<>(esClient.indices().getAlias(g -> g.name(alias)).result().keySet());
+        }
+        if (esClient.indices().exists(e -> e.index(alias)).value()) {
+            return List.of(alias);
+        }
+        return List.of();
+    }
+
+    /**
+     * 只把写别名切到目标索引，之后的入库写入目标索引，检索仍读旧索引
+     */
+    public void moveWriteAlias(String target) throws Exception {
+        List<String> current = aliasIndices(WRITE_ALIAS);
+        esClient.indices().updateAliases(u -> {
+            for (String index : current) {
+                u.actions(a -> a.remove(rm -> rm.index(index).alias(WRITE_ALIAS)));
+            }
+            return u.actions(a -> a.add(ad -> ad.index(target).alias(WRITE_ALIAS).isWriteIndex(true)));
+        });
+        logger.info("写别名 {} 已切换到 {}（原: {}）", WRITE_ALIAS, target, current);
+    }
+
+    /**
+     * 在一次 _aliases 请求中把读写别名都切到目标索引，检索和入库同时切换。
+     * knowledge_base 是旧版本留下的物理索引时（首次切换）直接删除并改为别名，否则旧索引保留用于回滚
+     *
+     * @return 切换前读别名指向的索引
+     */
+    public List<String> switchAliases(String target) throws Exception {
+        List<String> readIndices = aliasIndices(READ_ALIAS);
+        List<String> writeIndices = aliasIndices(WRITE_ALIAS);
+        boolean concrete = readIndices.equals(List.of(READ_ALIAS));
+        esClient.indices().updateAliases(u -> {
+            for (String index : writeIndices) {
+                if (!(concrete && index.equals(READ_ALIAS))) {
+                    u.actions(a -> a.remove(rm -> rm.index(index).alias(WRITE_ALIAS)));
+                }
+            }
+            for (String index : readIndices) {
+                if (concrete) {
+                    u.actions(a -> a.removeIndex(ri -> ri.index(index)));
+                } else {
+                    u.actions(a -> a.remove(rm -> rm.index(index).alias(READ_ALIAS)));
+                }
+            }
+            return u.actions(a -> a.add(ad -> ad.index(target).alias(READ_ALIAS)))
+                    .actions(a -> a.add(ad -> ad.index(target).alias(WRITE_ALIAS).isWriteIndex(true)));
+        });
+        logger.info("别名 {} / {} 已切换到 {}{}", READ_ALIAS, WRITE_ALIAS, target,
+                concrete ? "（原物理索引已删除）" : "，旧索引 " + readIndices + " 保留");
+        return readIndices;
+    }
+
+    /**
+     * 按 knowledge_base.json 创建索引，向量字段的维度和 _meta 中的模型跟随参数，量化方式按 elasticsearch.vector-index 配置
+     *
+     * @param index    索引名称（重建索引时为新的物理索引）
+     * @param modelId  写入该索引的向量模型
+     * @param dims     向量维度
+     * @param building 是否由重新向量化创建、尚未切换上线
+     */
+    public void createIndex(String index, String modelId, int dims, boolean building) throws Exception {
+        String mappingJson = buildMapping(dims, indexMeta(modelId, dims, building));
 
         // 创建索引并应用映射
         CreateIndexRequest createIndexRequest = CreateIndexRequest.of(c -> c
-                .index("knowledge_base") // 索引名称
+                .index(index) // 索引名称
                 .withJson(new StringReader(mappingJson)) // 使用 JSON 文件定义映射
         );
         esClient.indices().create(createIndexRequest);
-        logger.info("索引 'knowledge_base' 已创建");
+        logger.info("索引 '{}' 已创建，向量模型: {}, 维度: {}, 索引方式: {}, 按组织标签路由: {}", index, modelId, dims,
+                vectorIndexProperties.getQuantization().getIndexType(), esRoutingProperties.isEnabled());
+    }
+
+    /**
+     * knowledge_base 的完整映射，向量字段替换为按配置生成的映射，写入 _meta；开启路由时要求 _routing 并设置分片数
+     */
+    public String buildMapping(int dims, Map<String, Object> meta) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode mapping = (ObjectNode) objectMapper.readTree(mappingResource.getInputStream());
+        ((ObjectNode) mapping.at("/mappings/properties")).set("vector",
+                objectMapper.valueToTree(vectorIndexProperties.vectorMapping(dims)));
+        ((ObjectNode) mapping.get("mappings")).set("_meta", objectMapper.valueToTree(meta));
+        if (esRoutingProperties.isEnabled()) {
+            ((ObjectNode) mapping.get("mappings")).putObject("_routing").put("required", true);
+            mapping.putObject("settings").set("index", objectMapper.valueToTree(esRoutingProperties.indexSettings()));
+        }
+        return objectMapper.writeValueAsString(mapping);
+    }
+
+    /**
+     * 已有索引的向量维度或索引方式与当前配置不一致时告警：维度不一致会导致写入失败，需要通过重建索引迁移
+     */
+    private void checkVectorMapping() {
+        try {
+            Map<String, Object> current = currentVectorMapping();
+            int dims = embeddingProvider.getDimension();
+            String type = vectorIndexProperties.getQuantization().getIndexType();
+            if (!Integer.valueOf(dims).equals(current.get("dims"))) {
+                logger.error("索引 'knowledge_base' 的向量维度为 {}，当前向量模型输出 {} 维，写入会失败，请调用 /api/v1/admin/vector-index/reindex 重建索引",
+                        current.get("dims"), dims);
+            } else if (!type.equals(current.get("indexType"))) {
+                logger.warn("索引 'knowledge_base' 的向量索引方式为 {}，配置为 {}，重建索引后生效", current.get("indexType"), type);
+            }
+        } catch (Exception e) {
+            logger.warn("读取索引 'knowledge_base' 的向量映射失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 当前 knowledge_base 向量字段的维度和索引方式
+     */
+    public Map<String, Object> currentVectorMapping() throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        var mappings = esClient.indices().getMapping(g -> g.index(READ_ALIAS)).result();
+        for (var entry : mappings.entrySet()) {
+            var vector = entry.getValue().mappings().properties().get("vector");
+            result.put("index", entry.getKey());
+            if (vector != null && vector.isDenseVector()) {
+                result.put("dims", vector.denseVector().dims());
+                result.put("indexType", vector.denseVector().indexOptions() != null
+                        ? vector.denseVector().indexOptions().type() : "hnsw");
+            }
+        }
+        return result;
     }
 }
\ No newline at end of file
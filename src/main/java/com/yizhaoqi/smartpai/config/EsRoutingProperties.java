@@ -0,0 +1,106 @@
+package com.yizhaoqi.smartpai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * knowledge_base 按组织标签路由的配置
+ * 开启后新建的索引要求 _routing：分块按组织标签（或所属分组）写入固定分片，公开文档统一写入 _public 路由，
+ * 检索时只查询用户有效组织标签、本人文件所在标签和 _public 对应的分片，不再扇出到全部分片。
+ * 路由是索引的属性，已有索引开启后需要通过重新向量化或重建索引迁移才会生效。
+ */
+@Component
+@ConfigurationProperties(prefix = "elasticsearch.routing")
+@Data
+public class EsRoutingProperties {
+
+    /** 公开文档的路由值 */
+    public static final String PUBLIC_ROUTING = "_public";
+    /** 没有组织标签的文档的路由值 */
+    public static final String NO_ORG_ROUTING = "_none";
+
+    /**
+     * 重建索引（_reindex）时为没有路由的旧文档计算路由，与 {@link #routingKey} 保持一致
+     */
+    public static final String ROUTING_SCRIPT = """
+            def tag = ctx._source.orgTag;
+            if (ctx._source['public'] == true) {
+              ctx._routing = params.publicRouting;
+            } else if (tag == null || tag == '') {
+              ctx._routing = params.noOrgRouting;
+            } else {
+              ctx._routing = params.groups.containsKey(tag) ? params.groups[tag] : tag;
+            }
+            """;
+
+    /** 新建索引时是否要求路由 */
+    private boolean enabled = false;
+    /** 开启路由时新建索引的主分片数，租户越多分片越多，单次检索只访问其中少数几个 */
+    private int numberOfShards = 6;
+    /**
+     * 每个路由值分布的分片数（index.routing_partition_size），大于1时大租户的数据分散到多个分片，
+     * 检索该租户时访问这几个分片；须小于主分片数
+     */
+    private int partitionSize = 1;
+    /** 组织标签到路由分组的映射，小租户可合并到同一个分组，未配置的标签单独作为一个路由值 */
+    private Map<String, String> groups = new LinkedHashMap<>();
+
+    /**
+     * 分块的路由值：公开文档为 _public，否则为组织标签所属分组或组织标签本身
+     */
+    public String routingKey(String orgTag, boolean isPublic) {
+        if (isPublic) {
+            return PUBLIC_ROUTING;
+        }
+        if (orgTag == null || orgTag.isEmpty()) {
+            return NO_ORG_ROUTING;
+        }
+        return groups.getOrDefault(orgTag, orgTag);
+    }
+
+    /**
+     * 检索的路由参数：给定组织标签的路由值加上 _public，去重排序后以逗号连接
+     *
+     * @param orgTags 用户有效组织标签和本人私有文件所在的组织标签
+     */
+    public String searchRouting(Collection<String> orgTags) {
+        TreeSet<String> keys = new TreeSet<>();
+        keys.add(PUBLIC_ROUTING);
+        for (String orgTag : orgTags) {
+            keys.add(routingKey(orgTag, false));
+        }
+        return String.join(",", keys);
+    }
+
+    /**
+     * 开启路由时新建索引的 settings
+     */
+    public Map<String, Object> indexSettings() {
+        if (partitionSize < 1 || (partitionSize > 1 && partitionSize >= numberOfShards)) {
+            throw new IllegalArgumentException("elasticsearch.routing.partition-size 须不小于1且小于主分片数 " + numberOfShards);
+        }
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("number_of_shards", numberOfShards);
+        if (partitionSize > 1) {
+            settings.put("routing_partition_size", partitionSize);
+        }
+        return settings;
+    }
+
+    /**
+     * ROUTING_SCRIPT 的参数
+     */
+    public Map<String, Object> scriptParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("publicRouting", PUBLIC_ROUTING);
+        params.put("noOrgRouting", NO_ORG_ROUTING);
+        params.put("groups", groups);
+        return params;
+    }
+}
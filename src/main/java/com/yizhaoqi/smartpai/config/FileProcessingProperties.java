@@ -0,0 +1,81 @@
+package com.yizhaoqi.smartpai.config;
+
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 文件处理消费端配置：处理通道、工作线程池、全局资源预算、背压和重试
+ */
+@Component
+@ConfigurationProperties(prefix = "file-processing")
+@Data
+public class FileProcessingProperties {
+
+    /** 单次 poll 拉取的最大记录数，任务都是大文件，不需要一次拉太多 */
+    private int maxPollRecords = 10;
+
+    /** 单个分区排队中的任务上限，达到后暂停该分区拉取，处理完再恢复 */
+    private int maxPendingPerPartition = 4;
+
+    /** 单个任务的最大尝试次数（含首次），用尽后发送到死信主题 */
+    private int maxAttempts = 5;
+
+    /** 重试间隔（毫秒） */
+    private long retryBackoffMs = 3000;
+
+    /** 任务暂时不能执行（同一文件的删除未完成）时重新处理的间隔（毫秒），不计入重试次数 */
+    private long deferBackoffMs = 5000;
+
+    /** 超过该大小的非PDF、非图片文件也走重任务通道（字节） */
+    private long heavyFileSizeBytes = 20L * 1024 * 1024;
+
+    /** 所有通道共享的资源预算（许可数），每个任务按所在通道的权重占用 */
+    private int globalBudget = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    /** 为文本通道保留的预算，图片/重任务通道最多只能用 globalBudget - textReserved */
+    private int textReserved = 2;
+
+    private Lanes lanes = new Lanes();
+
+    @Data
+    public static class Lanes {
+        /** 文本通道默认使用 spring.kafka.topic.file-processing，topic 留空即可 */
+        private Lane text = new Lane(null, 3, 4, 1);
+        private Lane image = new Lane("file-processing-image", 2, 2, 2);
+        private Lane heavy = new Lane("file-processing-heavy", 2, 2, 4);
+    }
+
+    @Data
+    public static class Lane {
+        /** 通道主题 */
+        private String topic;
+        /** 监听容器并发数（消费者线程数），超过主题分区数的部分会空闲 */
+        private int concurrency;
+        /** 通道工作线程数 */
+        private int workerThreads;
+        /** 单个任务占用的全局预算许可数 */
+        private int weight;
+        /** 自动创建主题时的分区数 */
+        private int partitions = 3;
+
+        public Lane() {
+        }
+
+        public Lane(String topic, int concurrency, int workerThreads, int weight) {
+            this.topic = topic;
+            this.concurrency = concurrency;
+            this.workerThreads = workerThreads;
+            this.weight = weight;
+        }
+    }
+
+    public Lane lane(FileProcessingLane lane) {
+        return switch (lane) {
+            case TEXT -> lanes.getText();
+            case IMAGE -> lanes.getImage();
+            case HEAVY -> lanes.getHeavy();
+        };
+    }
+}
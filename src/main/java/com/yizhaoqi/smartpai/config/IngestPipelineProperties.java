@@ -0,0 +1,46 @@
+package com.yizhaoqi.smartpai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 入库流水线配置：解析后的分块依次经过 向量化 → 写入ES 两个阶段，
+ * 每个阶段有独立的队列、并发、批量和重试参数
+ */
+@Component
+@ConfigurationProperties(prefix = "ingest-pipeline")
+@Data
+public class IngestPipelineProperties {
+
+    private Stage embed = new Stage(4, 64, 64, 20, 3, 1000);
+    private Stage index = new Stage(2, 64, 500, 200, 3, 1000);
+
+    @Data
+    public static class Stage {
+        /** 阶段工作线程数 */
+        private int concurrency;
+        /** 阶段队列容量（批次数），满了之后上游提交会阻塞，形成背压 */
+        private int queueCapacity;
+        /** 单批最大元素数，队列中的小批次会合并到该大小 */
+        private int batchSize;
+        /** 凑批的最长等待时间（毫秒） */
+        private long lingerMs;
+        /** 单批最大尝试次数（含首次） */
+        private int maxAttempts;
+        /** 重试间隔（毫秒），按次数线性增长 */
+        private long retryBackoffMs;
+
+        public Stage() {
+        }
+
+        public Stage(int concurrency, int queueCapacity, int batchSize, long lingerMs, int maxAttempts, long retryBackoffMs) {
+            this.concurrency = concurrency;
+            this.queueCapacity = queueCapacity;
+            this.batchSize = batchSize;
+            this.lingerMs = lingerMs;
+            this.maxAttempts = maxAttempts;
+            this.retryBackoffMs = retryBackoffMs;
+        }
+    }
+}
@@ -1,21 +1,31 @@
 package com.yizhaoqi.smartpai.config;
 
+import com.yizhaoqi.smartpai.consumer.FileProcessingDispatcher;
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
 import org.apache.kafka.common.TopicPartition;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
 import org.springframework.kafka.listener.DefaultErrorHandler;
 import org.springframework.util.backoff.FixedBackOff;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,6 +50,9 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.properties.spring.json.trusted.packages}")
     private String trustedPackages;
 
+    @Autowired
+    private FileProcessingProperties fileProcessingProperties;
+
 
     public String getFileProcessingTopic() {
         return fileProcessingTopic;
@@ -49,6 +62,28 @@ public class KafkaConfig {
         return fileProcessingGroupId;
     }
 
+    /**
+     * 处理通道对应的主题，文本通道沿用原有的 file-processing 主题
+     */
+    public String getLaneTopic(FileProcessingLane lane) {
+        String topic = fileProcessingProperties.lane(lane).getTopic();
+        return topic == null || topic.isBlank() ? fileProcessingTopic : topic;
+    }
+
+    // 图片通道主题，不存在时由 KafkaAdmin 自动创建
+    @Bean
+    public NewTopic fileProcessingImageTopic() {
+        FileProcessingProperties.Lane lane = fileProcessingProperties.lane(FileProcessingLane.IMAGE);
+        return TopicBuilder.name(getLaneTopic(FileProcessingLane.IMAGE)).partitions(lane.getPartitions()).build();
+    }
+
+    // 重任务通道主题（PDF、超大文件）
+    @Bean
+    public NewTopic fileProcessingHeavyTopic() {
+        FileProcessingProperties.Lane lane = fileProcessingProperties.lane(FileProcessingLane.HEAVY);
+        return TopicBuilder.name(getLaneTopic(FileProcessingLane.HEAVY)).partitions(lane.getPartitions()).build();
+    }
+
     @Bean
     public ProducerFactory<String, Object> producerFactory() {
         Map<String, Object> config = new HashMap<>();
@@ -81,25 +116,43 @@ public class KafkaConfig {
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
         config.put(JsonDeserializer.TRUSTED_PACKAGES, trustedPackages);
+        // 任务交给工作线程池处理，poll 线程只负责拉取和分发，单次拉取量不需要太大
+        config.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, fileProcessingProperties.getMaxPollRecords());
         return new DefaultKafkaConsumerFactory<>(config);
     }
 
+    // 死信发布器：监听器工厂的错误处理器和工作线程的重试用尽后共用
+    @Bean
+    public DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(KafkaTemplate<String, Object> kafkaTemplate) {
+        // 当重试失败后，消息发送至 file-processing-dlt 主题；文本通道分区与原消息保持一致，
+        // 其他通道的分区数可能和死信主题不同，交给 Kafka 自行选择分区
+        return new DeadLetterPublishingRecoverer(
+                kafkaTemplate,
+                (record, ex) -> new TopicPartition(fileProcessingDltTopic,
+                        fileProcessingTopic.equals(record.topic()) ? record.partition() : -1));
+    }
+
     // 带自动重试和死信队列的监听器工厂
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory(
             ConsumerFactory<String, Object> consumerFactory,
-            KafkaTemplate<String, Object> kafkaTemplate) {
-        // 当重试失败后，消息发送至 file-processing-dlt 主题，分区与原消息保持一致
-        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(
-                kafkaTemplate,
-                (record, ex) -> new TopicPartition(fileProcessingDltTopic, record.partition()));
-
+            DeadLetterPublishingRecoverer deadLetterPublishingRecoverer,
+            @Lazy FileProcessingDispatcher fileProcessingDispatcher) {
         // 固定退避策略：每 3 秒重试一次，最多重试 4 次（加首次共 5 次）
-        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, new FixedBackOff(3000L, 4));
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(deadLetterPublishingRecoverer, new FixedBackOff(3000L, 4));
 
         ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory);
         factory.setCommonErrorHandler(errorHandler);
+        // 任务在工作线程处理完成后手动确认；分发器按分区跟踪完成情况，只确认连续完成的最高偏移量，
+        // 不使用 asyncAcks（它会在上一批记录全部确认前暂停整个消费者），积压时只暂停对应分区
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                fileProcessingDispatcher.onPartitionsRevoked(partitions);
+            }
+        });
         return factory;
     }
 }
\ No newline at end of file
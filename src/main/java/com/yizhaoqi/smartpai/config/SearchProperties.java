@@ -0,0 +1,80 @@
+package com.yizhaoqi.smartpai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 文本知识库检索配置
+ */
+@Component
+@ConfigurationProperties(prefix = "search")
+@Data
+public class SearchProperties {
+
+    /** 检索扇出线程数：权限解析和VL检索在该线程池中与查询向量化、文本检索并行 */
+    private int fanoutThreads = 16;
+
+    /** 排序模式：rescore（单请求 kNN + BM25 rescore）或 fusion（两路并行检索后进程内融合） */
+    private RankingMode rankingMode = RankingMode.RESCORE;
+
+    private Knn knn = new Knn();
+    private Rescore rescore = new Rescore();
+    private Fusion fusion = new Fusion();
+
+    public enum RankingMode {
+        RESCORE,
+        FUSION
+    }
+
+    public enum FusionMethod {
+        /** Reciprocal Rank Fusion，只看名次，对分数尺度不敏感 */
+        RRF,
+        /** 各路分数 min-max 归一化后加权求和 */
+        WEIGHTED
+    }
+
+    @Data
+    public static class Knn {
+        /**
+         * kNN 返回数 k = topK * 该倍数，同时作为 BM25 rescore 窗口
+         * 权限过滤已在 kNN 内部完成，返回的邻居都是用户可见的，不需要再为过滤预留大量余量
+         */
+        private int kFactor = 10;
+        /** 每个分片 HNSW 探查的候选数 = topK * 该倍数，越大召回越高、耗时越长，不小于 k */
+        private int numCandidatesFactor = 30;
+        /** 候选数上限（ES 限制 num_candidates 不超过 10000） */
+        private int maxNumCandidates = 10000;
+
+        public int k(int topK) {
+            return Math.max(1, topK * kFactor);
+        }
+
+        public int numCandidates(int topK) {
+            return Math.min(maxNumCandidates, Math.max(k(topK), topK * numCandidatesFactor));
+        }
+    }
+
+    @Data
+    public static class Rescore {
+        /** 原始（kNN + BM25）分数的权重 */
+        private double queryWeight = 0.2;
+        /** rescore BM25（AND 匹配）分数的权重 */
+        private double rescoreQueryWeight = 1.0;
+    }
+
+    @Data
+    public static class Fusion {
+        private FusionMethod method = FusionMethod.RRF;
+        /** 每一路的召回窗口 = topK * 该倍数 */
+        private int windowFactor = 4;
+        private double bm25Weight = 1.0;
+        private double knnWeight = 1.0;
+        /** RRF 平滑常数 */
+        private int rrfK = 60;
+
+        public int window(int topK) {
+            return Math.max(topK, topK * windowFactor);
+        }
+    }
+}
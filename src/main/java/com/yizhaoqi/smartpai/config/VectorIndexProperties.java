@@ -0,0 +1,97 @@
+package com.yizhaoqi.smartpai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * knowledge_base 向量字段的索引配置
+ * 维度不在这里配置，始终跟随当前向量化后端的输出维度（embedding.api.dimension 或 embedding.onnx.dimension）
+ */
+@Component
+@ConfigurationProperties(prefix = "elasticsearch.vector-index")
+@Data
+public class VectorIndexProperties {
+
+    /**
+     * 向量量化方式，决定 dense_vector 的 index_options.type
+     * 量化只作用于 HNSW 检索用的副本，原始 float 向量仍保存在磁盘上，可用于重打分
+     */
+    public enum Quantization {
+        /** 不量化（hnsw），每维4字节 */
+        NONE("hnsw", 4.0),
+        /** 每维1字节（int8_hnsw），ES 8.12+ */
+        INT8("int8_hnsw", 1.0),
+        /** 每维半字节（int4_hnsw），ES 8.15+，维度须为偶数 */
+        INT4("int4_hnsw", 0.5),
+        /** 每维1比特（bbq_hnsw），ES 8.16+，维度须不小于64 */
+        BBQ("bbq_hnsw", 0.125);
+
+        private final String indexType;
+        private final double bytesPerDimension;
+
+        Quantization(String indexType, double bytesPerDimension) {
+            this.indexType = indexType;
+            this.bytesPerDimension = bytesPerDimension;
+        }
+
+        public String getIndexType() {
+            return indexType;
+        }
+
+        public double getBytesPerDimension() {
+            return bytesPerDimension;
+        }
+    }
+
+    /** 默认不量化，兼容 docs/docker-compose.yaml 中的 ES 8.10；升级 ES 后可改为 int8 / int4 / bbq */
+    private Quantization quantization = Quantization.NONE;
+    /** HNSW 每个节点的邻居数 */
+    private int m = 16;
+    /** HNSW 构建时的候选数 */
+    private int efConstruction = 100;
+    /** 相似度：cosine / dot_product / l2_norm */
+    private String similarity = "cosine";
+
+    /**
+     * 生成 dense_vector 字段映射
+     */
+    public Map<String, Object> vectorMapping(int dims) {
+        validate(dims);
+        Map<String, Object> indexOptions = new LinkedHashMap<>();
+        indexOptions.put("type", quantization.getIndexType());
+        indexOptions.put("m", m);
+        indexOptions.put("ef_construction", efConstruction);
+        Map<String, Object> mapping = new LinkedHashMap<>();
+        mapping.put("type", "dense_vector");
+        mapping.put("dims", dims);
+        mapping.put("index", true);
+        mapping.put("similarity", similarity);
+        mapping.put("index_options", indexOptions);
+        return mapping;
+    }
+
+    /**
+     * 估算检索时常驻内存（页缓存）的字节数：量化向量 + HNSW 图（每层平均约 2*m 个4字节邻居）
+     */
+    public long estimateSearchBytes(int dims, long vectors) {
+        double perVector = dims * quantization.getBytesPerDimension() + (quantization == Quantization.NONE ? 0 : 4)
+                + 2L * m * 4;
+        return (long) Math.ceil(perVector * vectors);
+    }
+
+    private void validate(int dims) {
+        if (dims <= 0) {
+            throw new IllegalArgumentException("向量维度必须大于0: " + dims);
+        }
+        if (quantization == Quantization.INT4 && dims % 2 != 0) {
+            throw new IllegalArgumentException("int4 量化要求向量维度为偶数: " + dims);
+        }
+        if (quantization == Quantization.BBQ && dims < 64) {
+            throw new IllegalArgumentException("bbq 量化要求向量维度不小于64: " + dims);
+        }
+    }
+}
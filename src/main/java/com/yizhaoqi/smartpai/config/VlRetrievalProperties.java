@@ -0,0 +1,49 @@
+package com.yizhaoqi.smartpai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 多模态（VL向量）检索配置
+ * 开启后PDF页面/图片的VL向量写入独立索引，检索时与文本结果做RRF融合
+ */
+@Component
+@ConfigurationProperties(prefix = "vl-embedding")
+@Data
+public class VlRetrievalProperties {
+
+    private Ingest ingest = new Ingest();
+    private Search search = new Search();
+
+    public enum IngestMode {
+        /** 不写VL向量，保持原有识图 → 文本向量链路 */
+        OFF,
+        /** 识图文本照常入库，同时写入页面/图片VL向量 */
+        ALONGSIDE,
+        /** 跳过识图，只写VL向量；PDF页面文本由PDFTextStripper直接提取 */
+        VECTOR_ONLY
+    }
+
+    @Data
+    public static class Ingest {
+        /** 入库模式：off / alongside / vector-only */
+        private IngestMode mode = IngestMode.OFF;
+        /** PDF页面渲染DPI上限 */
+        private float dpi = 150;
+    }
+
+    @Data
+    public static class Search {
+        /** VL向量索引名 */
+        private String index = "knowledge_base_vl";
+        /** kNN 候选数 = topK * 该倍数 */
+        private int numCandidatesFactor = 10;
+        /** RRF 平滑常数 */
+        private int rrfK = 60;
+    }
+
+    public boolean isEnabled() {
+        return ingest.getMode() != IngestMode.OFF;
+    }
+}
@@ -1,12 +1,18 @@
 package com.yizhaoqi.smartpai.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @Configuration
 public class WebClientConfig {
@@ -17,6 +23,24 @@ public class WebClientConfig {
     @Value("${embedding.api.key}")
     private String apiKey;
     
+    @Value("${vl-embedding.api.url}")
+    private String vlApiUrl;
+
+    @Value("${vl-embedding.api.key}")
+    private String vlApiKey;
+
+    /**
+     * VL向量模型连接池最大连接数
+     */
+    @Value("${vl-embedding.api.max-connections:32}")
+    private int vlMaxConnections;
+
+    @Value("${vl-embedding.api.connect-timeout-ms:10000}")
+    private int vlConnectTimeoutMs;
+
+    @Value("${vl-embedding.api.response-timeout-ms:60000}")
+    private long vlResponseTimeoutMs;
+
     @Bean
     public WebClient embeddingWebClient() {
         ExchangeStrategies strategies = ExchangeStrategies.builder()
@@ -32,4 +56,37 @@ public class WebClientConfig {
             .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
             .build();
     }
-} 
\ No newline at end of file
+
+    /**
+     * VL向量模型共享客户端：独立连接池，连接复用，避免每页/每批都重新建连
+     */
+    @Bean
+    public WebClient vlEmbeddingWebClient() {
+        ConnectionProvider provider = ConnectionProvider.builder("vl-embedding")
+            .maxConnections(vlMaxConnections)
+            .pendingAcquireTimeout(Duration.ofSeconds(60))
+            .maxIdleTime(Duration.ofSeconds(30))
+            .evictInBackground(Duration.ofSeconds(60))
+            .build();
+
+        HttpClient httpClient = HttpClient.create(provider)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, vlConnectTimeoutMs)
+            .responseTimeout(Duration.ofMillis(vlResponseTimeoutMs))
+            .compress(true)
+            .keepAlive(true);
+
+        ExchangeStrategies strategies = ExchangeStrategies.builder()
+            .codecs(configurer -> configurer
+                .defaultCodecs()
+                .maxInMemorySize(16 * 1024 * 1024)) // 16MB
+            .build();
+
+        return WebClient.builder()
+            .baseUrl(vlApiUrl)
+            .clientConnector(new ReactorClientHttpConnector(httpClient))
+            .exchangeStrategies(strategies)
+            .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + vlApiKey)
+            .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .build();
+    }
+}
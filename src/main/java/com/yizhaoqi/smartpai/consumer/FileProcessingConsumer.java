@@ -1,24 +1,37 @@
 package com.yizhaoqi.smartpai.consumer;
 
 import com.yizhaoqi.smartpai.config.KafkaConfig;
+import com.yizhaoqi.smartpai.config.VlRetrievalProperties;
+import com.yizhaoqi.smartpai.entity.TextChunk;
 import com.yizhaoqi.smartpai.langchain4j.vlembedding.VLEmbeddingToolUtils;
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
 import com.yizhaoqi.smartpai.model.FileProcessingTask;
+import com.yizhaoqi.smartpai.pipeline.IngestJob;
+import com.yizhaoqi.smartpai.model.IngestStage;
 import com.yizhaoqi.smartpai.service.FileTypeValidationService;
+import com.yizhaoqi.smartpai.service.IngestProgressService;
 import com.yizhaoqi.smartpai.service.ParseService;
 import com.yizhaoqi.smartpai.service.VectorizationService;
 import io.minio.MinioClient;
 import io.minio.errors.*;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
@@ -32,6 +45,15 @@ public class FileProcessingConsumer {
     @Autowired
     private KafkaConfig kafkaConfig;
 
+    @Autowired
+    private VlRetrievalProperties vlRetrievalProperties;
+
+    @Autowired
+    private FileProcessingDispatcher fileProcessingDispatcher;
+
+    @Autowired
+    private IngestProgressService ingestProgressService;
+
     public FileProcessingConsumer(ParseService parseService,
                                   VectorizationService vectorizationService,
                                   FileTypeValidationService fileTypeValidationService,
@@ -45,10 +67,44 @@ public class FileProcessingConsumer {
     /**
      * 这个时Kafka的主题监听注解
      * 用于指定特定的主题进行监听
+     * poll 线程只做分发，文件在工作线程中处理，处理完成后手动确认
+     * @param record
+     * @param ack
+     */
+    @KafkaListener(id = FileProcessingDispatcher.TEXT_LISTENER_ID,
+            topics = "#{kafkaConfig.getFileProcessingTopic()}", groupId = "#{kafkaConfig.getFileProcessingGroupId()}",
+            concurrency = "#{fileProcessingProperties.lanes.text.concurrency}")
+    public void processTask(ConsumerRecord<String, FileProcessingTask> record, Acknowledgment ack) {
+        fileProcessingDispatcher.dispatch(FileProcessingLane.TEXT, record, ack, this::handleTask);
+    }
+
+    /**
+     * 图片通道监听
+     */
+    @KafkaListener(id = FileProcessingDispatcher.IMAGE_LISTENER_ID,
+            topics = "#{fileProcessingImageTopic.name()}", groupId = "#{kafkaConfig.getFileProcessingGroupId()}",
+            concurrency = "#{fileProcessingProperties.lanes.image.concurrency}")
+    public void processImageTask(ConsumerRecord<String, FileProcessingTask> record, Acknowledgment ack) {
+        fileProcessingDispatcher.dispatch(FileProcessingLane.IMAGE, record, ack, this::handleTask);
+    }
+
+    /**
+     * 重任务通道监听（PDF、超大文件）
+     */
+    @KafkaListener(id = FileProcessingDispatcher.HEAVY_LISTENER_ID,
+            topics = "#{fileProcessingHeavyTopic.name()}", groupId = "#{kafkaConfig.getFileProcessingGroupId()}",
+            concurrency = "#{fileProcessingProperties.lanes.heavy.concurrency}")
+    public void processHeavyTask(ConsumerRecord<String, FileProcessingTask> record, Acknowledgment ack) {
+        fileProcessingDispatcher.dispatch(FileProcessingLane.HEAVY, record, ack, this::handleTask);
+    }
+
+    /**
+     * 处理单个文件：下载 → 解析在当前工作线程完成，解析出的分块按批流入入库流水线（向量化 → 写入ES）
+     * 抛出异常或返回失败的 future 由 FileProcessingDispatcher 重试，重试用尽后发送死信
      * @param task
+     * @return 全部分块写入ES后完成
      */
-    @KafkaListener(topics = "#{kafkaConfig.getFileProcessingTopic()}", groupId = "#{kafkaConfig.getFileProcessingGroupId()}")
-    public void processTask(FileProcessingTask task) {
+    CompletableFuture<Void> handleTask(FileProcessingTask task) {
         /**
          * 日志打印
          */
@@ -60,6 +116,10 @@ public class FileProcessingConsumer {
          * 初始化输入流为空
          */
         InputStream fileStream = null;
+        Path spooledFile = null;
+        // 同一文件的删除还在进行时先不处理，由分发器延迟后重新处理，不计入重试次数，进度保持排队状态
+        vectorizationService.ensureNotDeleting(task.getFileMd5());
+        ingestProgressService.started(task.getFileMd5());
         try {
             // 下载文件
             /**
@@ -82,29 +142,64 @@ public class FileProcessingConsumer {
                 fileStream = new BufferedInputStream(fileStream);
             }
 
-            // 多模态导入
-            if (fileTypeValidationService.isPdfExtension(task.getFileName())) {
-                // PDF → 截图识图提取文本，不走Tika
-                log.info("PDF文件走VL识图: fileMd5={}", task.getFileMd5());
-                parseService.parsePDFAndSave(task.getFileMd5(), fileStream,
-                        task.getUserId(), task.getOrgTag(), task.isPublic());
-                log.info("PDF文件解析完成，fileMd5: {}", task.getFileMd5());
-
-            } else if (fileTypeValidationService.isImageExtension(task.getFileName())) {
-                // 图片 → 识图提取文本
-                log.info("图片文件走识图: fileMd5={}", task.getFileMd5());
-                parseService.parseImageAndSave(task.getFileMd5(), fileStream,
-                        task.getUserId(), task.getOrgTag(), task.isPublic());
-                log.info("图片解析完成，fileMd5: {}", task.getFileMd5());
-            } else {
-                // 其他文件 → 走原来的Tika解析 + bge-m3向量化
-                parseService.parseAndSave(task.getFileMd5(), fileStream,
-                        task.getUserId(), task.getOrgTag(), task.isPublic());
-                log.info("文件解析完成，fileMd5: {}", task.getFileMd5());
+            boolean isPdf = fileTypeValidationService.isPdfExtension(task.getFileName());
+            boolean isImage = fileTypeValidationService.isImageExtension(task.getFileName());
+            VlRetrievalProperties.IngestMode vlMode = vlRetrievalProperties.getIngest().getMode();
+
+            // 多模态VL向量入库：PDF页面截图/图片直接向量化，写入独立的VL向量索引
+            // 文件先落到临时文件，VL向量化和后续解析各自从文件读取，不在内存中保留整个文件
+            if ((isPdf || isImage) && vlMode != VlRetrievalProperties.IngestMode.OFF) {
+                spooledFile = Files.createTempFile("vl-ingest-", null);
+                try (InputStream original = fileStream) {
+                    Files.copy(original, spooledFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                fileStream = null;
+                storeVlVectors(task, spooledFile, isPdf);
+                fileStream = new BufferedInputStream(Files.newInputStream(spooledFile));
             }
-            vectorizationService.vectorize(task.getFileMd5(),
+
+            // 解析端每保存一批分块就提交到入库流水线，边解析边向量化
+            IngestJob job = vectorizationService.startIngest(task.getFileMd5(),
                     task.getUserId(), task.getOrgTag(), task.isPublic());
-            log.info("向量化完成，fileMd5: {}", task.getFileMd5());
+            Consumer<List<TextChunk>> chunkSink = vectorizationService.chunkSink(job);
+            ingestProgressService.stage(task.getFileMd5(), IngestStage.PARSING);
+            try {
+                // 多模态导入
+                if ((isPdf || isImage) && vlMode == VlRetrievalProperties.IngestMode.VECTOR_ONLY) {
+                    log.info("VL向量模式为vector-only，跳过识图: fileMd5={}", task.getFileMd5());
+                } else if (isPdf) {
+                    // PDF → 截图识图提取文本，不走Tika
+                    log.info("PDF文件走VL识图: fileMd5={}", task.getFileMd5());
+                    parseService.parsePDFAndSave(task.getFileMd5(), fileStream,
+                            task.getUserId(), task.getOrgTag(), task.isPublic(), chunkSink);
+                    log.info("PDF文件解析完成，fileMd5: {}", task.getFileMd5());
+
+                } else if (isImage) {
+                    // 图片 → 识图提取文本
+                    log.info("图片文件走识图: fileMd5={}", task.getFileMd5());
+                    parseService.parseImageAndSave(task.getFileMd5(), fileStream,
+                            task.getUserId(), task.getOrgTag(), task.isPublic(), chunkSink);
+                    log.info("图片解析完成，fileMd5: {}", task.getFileMd5());
+                } else {
+                    // 其他文件 → 走原来的Tika解析 + bge-m3向量化
+                    parseService.parseAndSave(task.getFileMd5(), fileStream,
+                            task.getUserId(), task.getOrgTag(), task.isPublic(), chunkSink);
+                    log.info("文件解析完成，fileMd5: {}", task.getFileMd5());
+                }
+            } catch (Exception e) {
+                job.fail(e);
+                throw e;
+            }
+            ingestProgressService.stage(task.getFileMd5(), IngestStage.VECTORIZING);
+            return vectorizationService.finishIngest(job)
+                    .whenComplete((v, ex) -> {
+                        if (ex == null) {
+                            ingestProgressService.completed(task.getFileMd5());
+                        } else {
+                            ingestProgressService.failed(task.getFileMd5(), ex);
+                        }
+                    })
+                    .thenRun(() -> log.info("向量化完成，fileMd5: {}", task.getFileMd5()));
 //
 //            /**
 //             * 进行文件的判断，判断是不是图片或者PDF
@@ -130,7 +225,8 @@ public class FileProcessingConsumer {
 
         } catch (Exception e) {
             log.error("Error processing task: {}", task, e);
-            // 抛出异常让 Kafka 的 DefaultErrorHandler 捕获并触发重试 / 死信
+            ingestProgressService.failed(task.getFileMd5(), e);
+            // 抛出异常让 FileProcessingDispatcher 捕获并触发重试 / 死信
             throw new RuntimeException("Error processing task", e);
         } finally {
             // 确保关闭输入流
@@ -141,7 +237,39 @@ public class FileProcessingConsumer {
                     log.error("Error closing file stream", e);
                 }
             }
+            if (spooledFile != null) {
+                try {
+                    Files.deleteIfExists(spooledFile);
+                } catch (IOException e) {
+                    log.warn("删除临时文件失败: {}", spooledFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * PDF按页、图片按张生成VL向量并写入VL向量索引，写完后清理本次不再存在的页面
+     * PDF同时保存每页可提取的文本，vector-only 模式下这是检索结果里唯一的文本内容；
+     * PDF按窗向量化，每窗写入ES后释放
+     */
+    private void storeVlVectors(FileProcessingTask task, Path file, boolean isPdf) throws IOException {
+        int pageCount;
+        if (isPdf) {
+            pageCount = vlEmbeddingToolUtils.embedPdfPagesWithText(file.toFile(), vlRetrievalProperties.getIngest().getDpi(),
+                    pages -> vectorizationService.embeddingSaveES(task.getFileMd5(), task.getUserId(), task.getOrgTag(),
+                            task.isPublic(), pages.get(0).pageNo(),
+                            pages.stream().map(VLEmbeddingToolUtils.PageEmbedding::vector).toList(),
+                            pages.stream().map(VLEmbeddingToolUtils.PageEmbedding::text).toList()));
+        } else {
+            String ext = fileTypeValidationService.getExtension(task.getFileName());
+            String mimeType = "image/" + ("jpg".equals(ext) ? "jpeg" : ext);
+            float[] vector = vlEmbeddingToolUtils.embedImageBytes(Files.readAllBytes(file), mimeType);
+            vectorizationService.embeddingSaveES(task.getFileMd5(), task.getUserId(), task.getOrgTag(), task.isPublic(),
+                    List.of(vector));
+            pageCount = 1;
         }
+        vectorizationService.deleteStaleVlPages(task.getFileMd5(), pageCount);
+        log.info("VL向量入库完成，fileMd5: {}, 页数: {}", task.getFileMd5(), pageCount);
     }
 
     /**
@@ -0,0 +1,380 @@
+package com.yizhaoqi.smartpai.consumer;
+
+import com.yizhaoqi.smartpai.config.FileProcessingProperties;
+import com.yizhaoqi.smartpai.exception.RetryLaterException;
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 文件处理任务分发器
+ * poll 线程只负责把记录交给所在通道的有界工作线程池，立即返回继续 poll，避免大文件处理超过 max.poll.interval.ms 触发重平衡。
+ * 同一分区的任务按顺序开始（前置步骤串行），不同分区之间并行；单分区在途任务过多时暂停该分区拉取。
+ * 各通道共享全局资源预算，图片/重任务通道不能占用为文本通道保留的部分。
+ * 处理抛出 RetryLaterException（如同一文件的删除未完成）时延迟后重新处理，不计入重试次数。
+ * 任务成功或发送死信后记为完成；每个分区自行跟踪已完成的偏移量，只确认从最早未完成记录之前连续完成的最高偏移量，
+ * 慢任务只会阻塞所在分区的提交，不影响其他分区的拉取。分区被回收后，尚未提交的完成记录直接丢弃。
+ */
+@Component
+@Slf4j
+public class FileProcessingDispatcher {
+
+    /**
+     * 各通道的监听器ID，用于从注册表中找到容器暂停/恢复分区
+     */
+    public static final String TEXT_LISTENER_ID = "fileProcessingListener";
+    public static final String IMAGE_LISTENER_ID = "fileProcessingImageListener";
+    public static final String HEAVY_LISTENER_ID = "fileProcessingHeavyListener";
+
+    private final FileProcessingProperties properties;
+    private final KafkaListenerEndpointRegistry registry;
+    private final DeadLetterPublishingRecoverer deadLetterPublishingRecoverer;
+
+    private final Map<TopicPartition, PartitionQueue> partitions = new ConcurrentHashMap<>();
+    private final Map<FileProcessingLane, ExecutorService> workers = new EnumMap<>(FileProcessingLane.class);
+
+    /**
+     * 全局预算，所有通道共用
+     */
+    private Semaphore globalBudget;
+
+    /**
+     * 图片/重任务通道额外受限的预算 = globalBudget - textReserved
+     */
+    private Semaphore sharedBudget;
+
+    public FileProcessingDispatcher(FileProcessingProperties properties,
+                                    KafkaListenerEndpointRegistry registry,
+                                    DeadLetterPublishingRecoverer deadLetterPublishingRecoverer) {
+        this.properties = properties;
+        this.registry = registry;
+        this.deadLetterPublishingRecoverer = deadLetterPublishingRecoverer;
+    }
+
+    /**
+     * 单个分区的串行队列：tail 是最后一个任务的完成信号，新任务接在它后面执行
+     * unacked 按偏移量记录已分发未提交的记录，completed 是其中已经完成的偏移量，二者都在 synchronized(this) 下访问
+     */
+    private static class PartitionQueue {
+        private final FileProcessingLane lane;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private final AtomicInteger pending = new AtomicInteger();
+        private final TreeMap<Long, Acknowledgment> unacked = new TreeMap<>();
+        private final Set<Long> completed = new HashSet<>();
+        private boolean revoked;
+
+        private PartitionQueue(FileProcessingLane lane) {
+            this.lane = lane;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        int global = Math.max(1, properties.getGlobalBudget());
+        globalBudget = new Semaphore(global, true);
+        sharedBudget = new Semaphore(Math.max(1, global - properties.getTextReserved()), true);
+        for (FileProcessingLane lane : FileProcessingLane.values()) {
+            int threads = Math.max(1, properties.lane(lane).getWorkerThreads());
+            AtomicInteger seq = new AtomicInteger();
+            String prefix = "file-worker-" + lane.name().toLowerCase() + "-";
+            workers.put(lane, Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }));
+            log.info("文件处理通道 {} 已启动，工作线程数: {}, 预算权重: {}", lane, threads, properties.lane(lane).getWeight());
+        }
+        log.info("文件处理全局预算: {}, 文本通道保留: {}", global, properties.getTextReserved());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.values().forEach(ExecutorService::shutdown);
+        for (ExecutorService executor : workers.values()) {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("文件处理工作线程池未能在30秒内结束，未确认的任务将在重启后重新投递");
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 在 poll 线程调用：把记录放入所在分区的队列，交给通道的工作线程处理
+     * handler 在工作线程中同步执行解析等前置步骤，返回的 future 代表后续异步阶段（向量化、写入ES）；
+     * 同一分区的下一个任务在前置步骤结束后即可开始，偏移量在 future 完成后才确认。
+     *
+     * @param lane    处理通道
+     * @param record  Kafka 记录
+     * @param ack     手动确认句柄，偏移量之前的记录全部完成后才会调用
+     * @param handler 实际处理逻辑，抛出异常或返回失败的 future 视为本次尝试失败
+     */
+    public <T> void dispatch(FileProcessingLane lane, ConsumerRecord<String, T> record, Acknowledgment ack,
+                             Function<T, CompletableFuture<?>> handler) {
+        TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+        PartitionQueue queue = partitions.computeIfAbsent(tp, k -> new PartitionQueue(lane));
+        synchronized (queue) {
+            queue.unacked.put(record.offset(), ack);
+        }
+        if (queue.pending.incrementAndGet() >= properties.getMaxPendingPerPartition()) {
+            pause(lane, tp);
+        }
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        finished.whenComplete((v, ex) -> {
+            if (queue.pending.decrementAndGet() < properties.getMaxPendingPerPartition() && !isRevoked(queue)) {
+                resume(lane, tp);
+            }
+        });
+        Acknowledgment tracked = () -> markCompleted(tp, queue, record.offset());
+        // 同一分区只会由一个 poll 线程分发，这里对 tail 的读写不存在竞争
+        queue.tail = queue.tail
+                .thenRunAsync(() -> attempt(lane, record, tracked, handler, 1, finished), workers.get(lane))
+                .handle((v, ex) -> {
+                    if (ex != null) {
+                        log.error("文件处理任务异常结束: topic={}, partition={}, offset={}",
+                                record.topic(), record.partition(), record.offset(), ex);
+                        finished.complete(null);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * 记录完成：从最早的未提交记录开始，连续完成的部分出队，确认其中最高的偏移量
+     * 之前还有未完成的记录时只记下，不提交，避免越过未完成的记录
+     */
+    private void markCompleted(TopicPartition tp, PartitionQueue queue, long offset) {
+        synchronized (queue) {
+            if (queue.revoked) {
+                log.info("分区已被回收，丢弃完成记录: {}, offset={}", tp, offset);
+                return;
+            }
+            queue.completed.add(offset);
+            Acknowledgment highest = null;
+            while (!queue.unacked.isEmpty() && queue.completed.remove(queue.unacked.firstKey())) {
+                highest = queue.unacked.pollFirstEntry().getValue();
+            }
+            if (highest != null) {
+                // MANUAL 模式下非 poll 线程的确认只是入队，由容器在下一轮 poll 时提交
+                highest.acknowledge();
+            }
+        }
+    }
+
+    private static boolean isRevoked(PartitionQueue queue) {
+        synchronized (queue) {
+            return queue.revoked;
+        }
+    }
+
+    /**
+     * 分区被回收（重平衡）时调用：丢弃该分区尚未提交的记录，进行中的任务完成后不再确认，
+     * 这些记录会由新的分区持有者重新消费
+     */
+    public void onPartitionsRevoked(Collection<TopicPartition> revoked) {
+        for (TopicPartition tp : revoked) {
+            PartitionQueue queue = partitions.remove(tp);
+            if (queue == null) {
+                continue;
+            }
+            int discarded;
+            synchronized (queue) {
+                queue.revoked = true;
+                discarded = queue.unacked.size();
+                queue.unacked.clear();
+                queue.completed.clear();
+            }
+            resume(queue.lane, tp);
+            if (discarded > 0) {
+                log.info("分区 {} 被回收，丢弃 {} 条未提交的记录", tp, discarded);
+            }
+        }
+    }
+
+    /**
+     * 执行一次尝试；失败时延迟后在通道线程池中重试，重试用尽后发送到死信主题再确认，保证后续偏移量可以提交
+     */
+    private <T> void attempt(FileProcessingLane lane, ConsumerRecord<String, T> record, Acknowledgment ack,
+                             Function<T, CompletableFuture<?>> handler, int attempt, CompletableFuture<Void> finished) {
+        CompletableFuture<?> job;
+        try {
+            job = runWithBudget(lane, () -> handler.apply(record.value()));
+        } catch (InterruptedException e) {
+            // 停机中断：不确认，重启后重新投递
+            Thread.currentThread().interrupt();
+            finished.complete(null);
+            return;
+        } catch (Exception e) {
+            job = CompletableFuture.failedFuture(e);
+        }
+        if (job == null) {
+            job = CompletableFuture.completedFuture(null);
+        }
+        job.whenComplete((v, ex) -> {
+            if (ex == null) {
+                ack.acknowledge();
+                finished.complete(null);
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (isRetryLater(cause)) {
+                // 暂时不能执行：延迟后以同一尝试次数重新执行，不消耗重试次数
+                log.info("文件处理暂缓: topic={}, partition={}, offset={}, 原因: {}，{}ms 后重新处理", record.topic(),
+                        record.partition(), record.offset(), cause.getMessage(), properties.getDeferBackoffMs());
+                schedule(lane, properties.getDeferBackoffMs(), () -> attempt(lane, record, ack, handler, attempt, finished), finished);
+                return;
+            }
+            log.warn("文件处理失败，第{}/{}次: topic={}, partition={}, offset={}, 原因: {}", attempt,
+                    properties.getMaxAttempts(), record.topic(), record.partition(), record.offset(), cause.getMessage());
+            if (attempt < properties.getMaxAttempts()) {
+                schedule(lane, properties.getRetryBackoffMs(), () -> attempt(lane, record, ack, handler, attempt + 1, finished), finished);
+                return;
+            }
+            deadLetter(record, ack, cause);
+            finished.complete(null);
+        });
+    }
+
+    private void schedule(FileProcessingLane lane, long delayMs, Runnable next, CompletableFuture<Void> finished) {
+        Executor delayed = CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, workers.get(lane));
+        try {
+            delayed.execute(next);
+        } catch (RejectedExecutionException rejected) {
+            // 线程池已关闭：不确认，重启后重新投递
+            finished.complete(null);
+        }
+    }
+
+    private static boolean isRetryLater(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof RetryLaterException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> void deadLetter(ConsumerRecord<String, T> record, Acknowledgment ack, Throwable cause) {
+        try {
+            deadLetterPublishingRecoverer.accept(record,
+                    cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+            ack.acknowledge();
+            log.error("文件处理重试用尽，已发送死信: topic={}, partition={}, offset={}", record.topic(), record.partition(), record.offset());
+        } catch (Exception e) {
+            // 不确认：该偏移量之后的提交会被阻塞，重平衡或重启后重新投递
+            log.error("发送死信失败，任务未确认: topic={}, partition={}, offset={}", record.topic(), record.partition(), record.offset(), e);
+        }
+    }
+
+    /**
+     * 按通道权重占用预算后执行同步部分；异步阶段和重试等待期间不占预算
+     * 图片/重任务通道从全局预算中最多占 globalBudget - textReserved，权重再大也给文本通道留出保留部分
+     */
+    private <R> R runWithBudget(FileProcessingLane lane, Supplier<R> work) throws InterruptedException {
+        int weight = Math.max(1, properties.lane(lane).getWeight());
+        boolean shared = lane != FileProcessingLane.TEXT;
+        int sharedPermits = Math.min(weight, Math.max(1, properties.getGlobalBudget() - properties.getTextReserved()));
+        int globalPermits = shared ? sharedPermits : Math.min(weight, Math.max(1, properties.getGlobalBudget()));
+        if (shared) {
+            sharedBudget.acquire(sharedPermits);
+        }
+        try {
+            globalBudget.acquire(globalPermits);
+            try {
+                return work.get();
+            } finally {
+                globalBudget.release(globalPermits);
+            }
+        } finally {
+            if (shared) {
+                sharedBudget.release(sharedPermits);
+            }
+        }
+    }
+
+    /**
+     * 各通道在途任务数（已拉取未确认）和被暂停的分区，作为解析阶段的监控指标
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (FileProcessingLane lane : FileProcessingLane.values()) {
+            int pending = 0;
+            List<String> paused = new ArrayList<>();
+            MessageListenerContainer container = registry.getListenerContainer(listenerId(lane));
+            int uncommitted = 0;
+            for (Map.Entry<TopicPartition, PartitionQueue> entry : partitions.entrySet()) {
+                if (entry.getValue().lane != lane) {
+                    continue;
+                }
+                pending += entry.getValue().pending.get();
+                synchronized (entry.getValue()) {
+                    uncommitted += entry.getValue().unacked.size();
+                }
+                if (container != null && container.isPartitionPauseRequested(entry.getKey())) {
+                    paused.add(entry.getKey().toString());
+                }
+            }
+            stats.put(lane.name().toLowerCase(), Map.of(
+                    "workerThreads", properties.lane(lane).getWorkerThreads(),
+                    "inFlight", pending,
+                    "uncommitted", uncommitted,
+                    "pausedPartitions", paused));
+        }
+        stats.put("globalBudgetAvailable", globalBudget.availablePermits());
+        stats.put("sharedBudgetAvailable", sharedBudget.availablePermits());
+        return stats;
+    }
+
+    private static String listenerId(FileProcessingLane lane) {
+        return switch (lane) {
+            case TEXT -> TEXT_LISTENER_ID;
+            case IMAGE -> IMAGE_LISTENER_ID;
+            case HEAVY -> HEAVY_LISTENER_ID;
+        };
+    }
+
+    private void pause(FileProcessingLane lane, TopicPartition tp) {
+        MessageListenerContainer container = registry.getListenerContainer(listenerId(lane));
+        if (container != null && !container.isPartitionPauseRequested(tp)) {
+            log.info("分区排队任务达到上限，暂停拉取: {}", tp);
+            container.pausePartition(tp);
+        }
+    }
+
+    private void resume(FileProcessingLane lane, TopicPartition tp) {
+        MessageListenerContainer container = registry.getListenerContainer(listenerId(lane));
+        if (container != null && container.isPartitionPauseRequested(tp)) {
+            log.info("分区排队任务已回落，恢复拉取: {}", tp);
+            container.resumePartition(tp);
+        }
+    }
+}
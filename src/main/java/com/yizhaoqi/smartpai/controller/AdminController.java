@@ -3,11 +3,25 @@ package com.yizhaoqi.smartpai.controller;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yizhaoqi.smartpai.client.EmbeddingModelRegistry;
+import com.yizhaoqi.smartpai.client.EmbeddingProvider;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.config.VectorIndexProperties;
+import com.yizhaoqi.smartpai.consumer.FileProcessingDispatcher;
 import com.yizhaoqi.smartpai.exception.CustomException;
 import com.yizhaoqi.smartpai.model.OrganizationTag;
 import com.yizhaoqi.smartpai.model.User;
+import com.yizhaoqi.smartpai.pipeline.IngestPipeline;
 import com.yizhaoqi.smartpai.repository.OrganizationTagRepository;
 import com.yizhaoqi.smartpai.repository.UserRepository;
+import com.yizhaoqi.smartpai.service.EsDeletionService;
+import com.yizhaoqi.smartpai.service.EsRoutingService;
+import com.yizhaoqi.smartpai.service.HybridSearchService;
+import com.yizhaoqi.smartpai.service.RetrievalEvaluationService;
+import com.yizhaoqi.smartpai.service.ReembedIndexService;
+import com.yizhaoqi.smartpai.service.VectorIndexMigrationService;
+import com.yizhaoqi.smartpai.service.IngestProgressService;
+import com.yizhaoqi.smartpai.service.KafkaLagService;
 import com.yizhaoqi.smartpai.service.UserService;
 import com.yizhaoqi.smartpai.utils.JwtUtils;
 import com.yizhaoqi.smartpai.utils.LogUtils;
@@ -46,6 +60,48 @@ public class AdminController {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private FileProcessingDispatcher fileProcessingDispatcher;
+
+    @Autowired
+    private IngestPipeline ingestPipeline;
+
+    @Autowired
+    private IngestProgressService ingestProgressService;
+
+    @Autowired
+    private KafkaLagService kafkaLagService;
+
+    @Autowired
+    private HybridSearchService hybridSearchService;
+
+    @Autowired
+    private RetrievalEvaluationService retrievalEvaluationService;
+
+    @Autowired
+    private VectorIndexMigrationService vectorIndexMigrationService;
+
+    @Autowired
+    private ReembedIndexService reembedIndexService;
+
+    @Autowired
+    private EmbeddingModelRegistry embeddingModelRegistry;
+
+    @Autowired
+    private EsRoutingService esRoutingService;
+
+    @Autowired
+    private EsIndexInitializer esIndexInitializer;
+
+    @Autowired
+    private VectorIndexProperties vectorIndexProperties;
+
+    @Autowired
+    private EmbeddingProvider embeddingProvider;
+
+    @Autowired
+    private EsDeletionService esDeletionService;
+
     /**
      * 获取所有用户列表
      */
@@ -156,6 +212,177 @@ public class AdminController {
         }
     }
 
+    /**
+     * 获取文件入库流水线状态：Kafka 各通道消费积压、解析通道在途任务、向量化/写入阶段的队列深度、滞后和吞吐，
+     * 以及进行中文件按阶段的分布和各自进度（排查卡在哪一步）
+     */
+    @GetMapping("/ingest/pipeline")
+    public ResponseEntity<?> getIngestPipelineStatus(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+
+        try {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("parse", fileProcessingDispatcher.stats());
+            status.put("kafkaLag", kafkaLagService.lag());
+            status.putAll(ingestPipeline.stats());
+            List<Map<String, Object>> tasks = ingestProgressService.activeTasks();
+            Map<String, Long> byStage = new TreeMap<>();
+            tasks.forEach(t -> byStage.merge(String.valueOf(t.get("stage")), 1L, Long::sum));
+            status.put("tasksByStage", byStage);
+            status.put("tasks", tasks);
+            return ResponseEntity.ok(Map.of("code", 200, "message", "获取流水线状态成功", "data", status));
+        } catch (Exception e) {
+            LogUtils.logBusinessError("ADMIN_GET_INGEST_PIPELINE", adminUsername, "获取流水线状态失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("code", 500, "message", "获取流水线状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取带权限检索的分阶段耗时（权限解析、查询向量化、ES检索、VL检索、总耗时）
+     */
+    @GetMapping("/search/latency")
+    public ResponseEntity<?> getSearchLatency(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        return ResponseEntity.ok(Map.of("code", 200, "message", "获取检索耗时成功", "data", hybridSearchService.latencyStats()));
+    }
+
+    /**
+     * 在标注查询集上对比 rescore 与 fusion 两种排序模式的 recall@k、nDCG@k、MRR 和耗时
+     * 检索以 userId 指定用户的权限执行，不传时使用当前管理员
+     */
+    @PostMapping("/search/evaluate")
+    public ResponseEntity<?> evaluateSearch(
+            @RequestHeader("Authorization") String token,
+            @RequestBody SearchEvaluationRequest request) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        User admin = validateAdmin(adminUsername);
+        if (request.queries() == null || request.queries().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("code", 400, "message", "标注查询集不能为空"));
+        }
+        try {
+            String userId = request.userId() != null ? request.userId() : String.valueOf(admin.getId());
+            int topK = request.topK() != null && request.topK() > 0 ? request.topK() : 5;
+            Map<String, Object> report = retrievalEvaluationService.evaluate(request.queries(), userId, topK);
+            return ResponseEntity.ok(Map.of("code", 200, "message", "检索评估完成", "data", report));
+        } catch (Exception e) {
+            LogUtils.logBusinessError("ADMIN_EVALUATE_SEARCH", adminUsername, "检索评估失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("code", 500, "message", "检索评估失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 向量索引状态：当前映射、目标配置、各量化方式下每百万分块的检索内存估算、最近一次重建的状态、路由设置和可用的向量模型
+     */
+    @GetMapping("/vector-index")
+    public ResponseEntity<?> getVectorIndexStatus(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        try {
+            int dims = embeddingProvider.getDimension();
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("current", esIndexInitializer.currentVectorMapping());
+            data.put("configured", Map.of("dims", dims,
+                    "indexType", vectorIndexProperties.getQuantization().getIndexType()));
+            Map<String, Long> estimate = new LinkedHashMap<>();
+            VectorIndexProperties probe = new VectorIndexProperties();
+            probe.setM(vectorIndexProperties.getM());
+            for (VectorIndexProperties.Quantization q : VectorIndexProperties.Quantization.values()) {
+                probe.setQuantization(q);
+                estimate.put(q.getIndexType(), probe.estimateSearchBytes(dims, 1_000_000L) / (1024 * 1024));
+            }
+            data.put("estimatedSearchMemoryMbPerMillionChunks", estimate);
+            data.put("reindex", vectorIndexMigrationService.status());
+            data.put("reembed", reembedIndexService.status());
+            data.put("embeddingModels", embeddingModelRegistry.status());
+            data.put("routing", esRoutingService.status());
+            return ResponseEntity.ok(Map.of("code", 200, "message", "获取向量索引状态成功", "data", data));
+        } catch (Exception e) {
+            LogUtils.logBusinessError("ADMIN_GET_VECTOR_INDEX", adminUsername, "获取向量索引状态失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("code", 500, "message", "获取向量索引状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 按当前维度和量化配置重建 knowledge_base，完成后别名切换到新索引；进度通过 GET /vector-index 查看
+     */
+    @PostMapping("/vector-index/reindex")
+    public ResponseEntity<?> reindexVectors(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        try {
+            Map<String, Object> status = vectorIndexMigrationService.start();
+            LogUtils.logUserOperation(adminUsername, "ADMIN_REINDEX_VECTORS", String.valueOf(status.get("target")), "STARTED");
+            return ResponseEntity.ok(Map.of("code", 200, "message", "向量索引重建已开始", "data", status));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("code", 409, "message", e.getMessage()));
+        }
+    }
+
+    /**
+     * 用当前向量模型重新向量化全部分块，写入新的带版本索引，完成后原子切换读写别名；进度通过 GET /vector-index 查看
+     */
+    @PostMapping("/vector-index/reembed")
+    public ResponseEntity<?> reembedVectors(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        try {
+            Map<String, Object> status = reembedIndexService.start();
+            LogUtils.logUserOperation(adminUsername, "ADMIN_REEMBED_VECTORS", String.valueOf(status.get("target")), "STARTED");
+            return ResponseEntity.ok(Map.of("code", 200, "message", "重新向量化已开始", "data", status));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("code", 409, "message", e.getMessage()));
+        } catch (Exception e) {
+            LogUtils.logBusinessError("ADMIN_REEMBED_VECTORS", adminUsername, "启动重新向量化失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("code", 500, "message", "启动重新向量化失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 取消正在进行的重新向量化，当前批次写完后停止，写别名保持在新索引，再次发起会续跑
+     */
+    @PostMapping("/vector-index/reembed/cancel")
+    public ResponseEntity<?> cancelReembed(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        reembedIndexService.cancel();
+        LogUtils.logUserOperation(adminUsername, "ADMIN_REEMBED_VECTORS", "-", "CANCEL_REQUESTED");
+        return ResponseEntity.ok(Map.of("code", 200, "message", "已请求取消重新向量化", "data", reembedIndexService.status()));
+    }
+
+    /**
+     * 未完成的ES异步删除任务
+     */
+    @GetMapping("/es-deletions")
+    public ResponseEntity<?> getEsDeletions(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        try {
+            return ResponseEntity.ok(Map.of("code", 200, "message", "获取删除任务成功", "data", esDeletionService.status()));
+        } catch (Exception e) {
+            LogUtils.logBusinessError("ADMIN_GET_ES_DELETIONS", adminUsername, "获取删除任务失败", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("code", 500, "message", "获取删除任务失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 重新提交重试用尽的ES删除任务
+     */
+    @PostMapping("/es-deletions/retry")
+    public ResponseEntity<?> retryEsDeletions(@RequestHeader("Authorization") String token) {
+        String adminUsername = jwtUtils.extractUsernameFromToken(token.replace("Bearer ", ""));
+        validateAdmin(adminUsername);
+        int count = esDeletionService.retryFailed();
+        LogUtils.logUserOperation(adminUsername, "ADMIN_RETRY_ES_DELETIONS", String.valueOf(count), "SUCCESS");
+        return ResponseEntity.ok(Map.of("code", 200, "message", "已重新提交删除任务", "data", Map.of("count", count)));
+    }
+
     /**
      * 获取用户活动日志
      */
@@ -641,4 +868,9 @@ record OrgTagRequest(String tagId, String name, String description, String paren
 record AssignOrgTagsRequest(List<String> orgTags) {}
 
 // 添加组织标签更新请求记录类
-record OrgTagUpdateRequest(String name, String description, String parentTag) {} 
\ No newline at end of file
+record OrgTagUpdateRequest(String name, String description, String parentTag) {}
+
+/**
+ * 检索评估请求体，queries 中的 relevant 为相关分块（fileMd5:chunkId）
+ */
+record SearchEvaluationRequest(String userId, Integer topK, List<RetrievalEvaluationService.LabelledQuery> queries) {}
@@ -1,19 +1,24 @@
 package com.yizhaoqi.smartpai.controller;
 
 import com.yizhaoqi.smartpai.config.KafkaConfig;
+import com.yizhaoqi.smartpai.exception.CustomException;
 import com.yizhaoqi.smartpai.model.FileProcessingTask;
 import com.yizhaoqi.smartpai.model.FileUpload;
 import com.yizhaoqi.smartpai.repository.FileUploadRepository;
+import com.yizhaoqi.smartpai.service.FileTaskRouter;
 import com.yizhaoqi.smartpai.service.FileTypeValidationService;
+import com.yizhaoqi.smartpai.service.IngestProgressService;
 import com.yizhaoqi.smartpai.service.UploadService;
 import com.yizhaoqi.smartpai.service.UserService;
 import com.yizhaoqi.smartpai.utils.LogUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
@@ -45,6 +50,12 @@ public class UploadController {
     @Autowired
     private FileTypeValidationService fileTypeValidationService;
 
+    @Autowired
+    private FileTaskRouter fileTaskRouter;
+
+    @Autowired
+    private IngestProgressService ingestProgressService;
+
     public UploadController(UploadService uploadService, KafkaTemplate<String, Object> kafkaTemplate) {
         this.uploadService = uploadService;
         this.kafkaTemplate = kafkaTemplate;
@@ -312,6 +323,52 @@ public class UploadController {
         }
     }
 
+    /**
+     * 获取文件入库进度接口（合并之后的下载、解析、向量化和写入ES）
+     *
+     * @param fileMd5 文件的MD5值
+     * @return 阶段、页数、各阶段分块数和是否已可检索
+     */
+    @GetMapping("/progress")
+    public ResponseEntity<Map<String, Object>> getIngestProgress(@RequestParam("file_md5") String fileMd5,
+                                                                 @RequestAttribute("userId") String userId) {
+        try {
+            Map<String, Object> progress = ingestProgressService.get(fileMd5);
+            if (progress.isEmpty() || !userId.equals(progress.get("userId"))) {
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("code", HttpStatus.NOT_FOUND.value());
+                errorResponse.put("message", "未找到文件处理进度");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("code", 200);
+            response.put("message", "获取处理进度成功");
+            response.put("data", progress);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            LogUtils.logBusinessError("GET_INGEST_PROGRESS", userId, "获取文件处理进度失败: fileMd5=%s", e, fileMd5);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("code", HttpStatus.INTERNAL_SERVER_ERROR.value());
+            errorResponse.put("message", "获取处理进度失败: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    /**
+     * 以SSE推送文件入库进度，进度变化时推送 progress 事件，全部写入ES后结束
+     *
+     * @param fileMd5 文件的MD5值
+     */
+    @GetMapping(value = "/progress/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamIngestProgress(@RequestParam("file_md5") String fileMd5,
+                                           @RequestAttribute("userId") String userId) {
+        Map<String, Object> progress = ingestProgressService.get(fileMd5);
+        if (progress.isEmpty() || !userId.equals(progress.get("userId"))) {
+            throw new CustomException("未找到文件处理进度", HttpStatus.NOT_FOUND);
+        }
+        return ingestProgressService.subscribe(fileMd5);
+    }
+
     /**
      * 合并文件分片接口
      *
@@ -444,14 +501,21 @@ public class UploadController {
                     request.fileName(),
                     fileUpload.getUserId(),
                     fileUpload.getOrgTag(),
-                    fileUpload.isPublic()
+                    fileUpload.isPublic(),
+                    fileUpload.getTotalSize()
             );
 
+            /**
+             * 按文件类型和大小选择处理通道
+             * 小文本文件不会排在大PDF后面
+             */
+            String topic = fileTaskRouter.topicFor(task);
+
             /**
              * 日志记录
              */
             LogUtils.logBusiness("MERGE_FILE", userId, "发送文件处理任务到Kafka(事务): topic=%s, fileMd5=%s, fileName=%s", 
-                    kafkaConfig.getFileProcessingTopic(), request.fileMd5(), request.fileName());
+                    topic, request.fileMd5(), request.fileName());
 
             /**
              * 通过kafka发送一个合并成功的消息给后端的监听
@@ -461,8 +525,10 @@ public class UploadController {
              * FileProcessingConsumer这个是一个消费者，他会进行监听
              * 当主题有内容时就会进行消费
              */
+            // 先登记排队状态再投递，避免消费端的进度被覆盖
+            ingestProgressService.queued(request.fileMd5(), fileUpload.getUserId(), request.fileName());
             kafkaTemplate.executeInTransaction(kt -> {
-                kt.send(kafkaConfig.getFileProcessingTopic(), task);
+                kt.send(topic, task);
                 return true;
             });
             LogUtils.logBusiness("MERGE_FILE", userId, "文件处理任务已发送: fileMd5=%s, fileName=%s, fileType=%s", request.fileMd5(), request.fileName(), fileType);
@@ -0,0 +1,37 @@
+package com.yizhaoqi.smartpai.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 检索命中的精简投影
+ * 只包含拼装检索结果需要的字段，不含向量；查询时配合 {@link #SOURCE_FIELDS} 做 _source 过滤，
+ * ES 不再回传每条命中几十KB的向量数组，也省去了 Jackson 解析这些浮点数的开销。
+ * 需要向量时通过 ElasticsearchService#getDocumentsWithVector 按ID显式获取完整的 {@link EsDocument}。
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EsSearchHit {
+
+    /**
+     * 检索请求的 _source 白名单，与本类字段一一对应（isPublic 在文档中序列化为 public）
+     */
+    public static final List<String> SOURCE_FIELDS =
+            List.of("fileMd5", "chunkId", "textContent", "userId", "orgTag", "public");
+
+    private String fileMd5;        // 文件指纹
+    private Integer chunkId;       // 文本分块序号
+    private String textContent;    // 文本内容
+    private String userId;         // 上传用户ID
+    private String orgTag;         // 组织标签
+    private boolean isPublic;      // 是否公开
+
+    /**
+     * 转为带权限信息的检索结果
+     */
+    public SearchResult toSearchResult(Double score) {
+        return new SearchResult(fileMd5, chunkId, textContent, score, userId, orgTag, isPublic);
+    }
+}
@@ -0,0 +1,12 @@
+package com.yizhaoqi.smartpai.exception;
+
+/**
+ * 任务暂时不能执行（如同一文件的删除还没完成），需要稍后重新处理
+ * 文件处理分发器遇到该异常时按 deferBackoffMs 延迟重新执行，不计入重试次数
+ */
+public class RetryLaterException extends RuntimeException {
+
+    public RetryLaterException(String message) {
+        super(message);
+    }
+}
@@ -1,12 +1,15 @@
 package com.yizhaoqi.smartpai.langchain4j.vlembedding;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yizhaoqi.smartpai.langchain4j.LangChain4jConfig;
+import com.yizhaoqi.smartpai.utils.EmbeddingResponseParser;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,6 +25,18 @@ public class VLEmbeddingModelUtils {
     @Resource
     LangChain4jConfig langChain4jConfig;
 
+    /**
+     * 共享的VL向量模型客户端，见 WebClientConfig
+     */
+    @Resource(name = "vlEmbeddingWebClient")
+    private WebClient vlEmbeddingWebClient;
+
+    /**
+     * 批量接口的最大并发批次数
+     */
+    @Value("${vl-embedding.api.max-concurrency:4}")
+    private int maxConcurrency;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
@@ -44,11 +59,44 @@ public class VLEmbeddingModelUtils {
      * 对Base64图片生成向量（用于PDF截图等内存中的图片）
      */
     public float[] embedImageBase64(String base64Image, int dimension) {
-        log.info("VL Embedding: 对Base64图片生成向量");
-        java.util.Map<String, Object> input = java.util.Map.of("image", "data:image/png;base64," + base64Image);
+        return embedImageBase64(base64Image, "image/png", dimension);
+    }
+
+    /**
+     * 对Base64图片生成向量，指定图片MIME类型
+     */
+    public float[] embedImageBase64(String base64Image, String mimeType, int dimension) {
+        log.info("VL Embedding: 对Base64图片生成向量, mimeType={}", mimeType);
+        java.util.Map<String, Object> input = java.util.Map.of("image", "data:" + mimeType + ";base64," + base64Image);
         return embedSingle(input, dimension);
     }
 
+    /**
+     * 对编码阶段产出的图片生成向量，Base64字节直接拼进请求体
+     */
+    public float[] embedEncodedImage(VisionImageEncoder.EncodedImage image, int dimension) {
+        log.info("VL Embedding: 对编码图片生成向量, {}x{}, gray={}", image.width(), image.height(), image.grayscale());
+        return callEmbeddingApi(buildImageRequest(image, dimension));
+    }
+
+    /**
+     * 批量：对编码阶段产出的多张图片生成向量，按 max-concurrency 并发请求，结果顺序与输入一致
+     */
+    public List<float[]> embedEncodedImages(List<VisionImageEncoder.EncodedImage> images, int dimension) {
+        log.info("VL Embedding: 批量编码图片向量化, count={}", images.size());
+        try {
+            return Flux.fromIterable(images)
+                    .flatMapSequential(image -> post(buildImageRequest(image, dimension))
+                            .map(response -> EmbeddingResponseParser.parseFirst(response, dimension)),
+                            Math.max(1, maxConcurrency))
+                    .collectList()
+                    .block();
+        } catch (Exception e) {
+            log.error("VL Embedding 批量图片API调用失败", e);
+            throw new RuntimeException("VL Embedding 批量图片API调用失败", e);
+        }
+    }
+
     /**
      * 对单条文本生成向量
      */
@@ -77,21 +125,11 @@ public class VLEmbeddingModelUtils {
      */
     public List<float[]> embedImages(List<String> imageUrls, int dimension) {
         log.info("VL Embedding: 批量图片向量化, count={}", imageUrls.size());
-        int batchSize = langChain4jConfig.getVLBATCH_SIZE();
-        List<float[]> allVectors = new ArrayList<>();
-
-        for (int i = 0; i < imageUrls.size(); i += batchSize) {
-            List<String> batch = imageUrls.subList(i, Math.min(i + batchSize, imageUrls.size()));
-            List<Object> inputItems = new ArrayList<>();
-            for (String url : batch) {
-                inputItems.add(java.util.Map.of("image", url));
-            }
-            String requestBody = buildBatchRequest(inputItems, dimension);
-            List<float[]> batchVectors = callEmbeddingApiBatch(requestBody);
-            allVectors.addAll(batchVectors);
+        List<Object> inputItems = new ArrayList<>(imageUrls.size());
+        for (String url : imageUrls) {
+            inputItems.add(java.util.Map.of("image", url));
         }
-
-        return allVectors;
+        return dispatchBatches(inputItems, dimension);
     }
 
     /**
@@ -107,17 +145,7 @@ public class VLEmbeddingModelUtils {
      */
     public List<float[]> embedMixed(List<Object> inputs, int dimension) {
         log.info("VL Embedding: 混合输入向量化, count={}", inputs.size());
-        int batchSize = langChain4jConfig.getVLBATCH_SIZE();
-        List<float[]> allVectors = new ArrayList<>();
-
-        for (int i = 0; i < inputs.size(); i += batchSize) {
-            List<Object> batch = inputs.subList(i, Math.min(i + batchSize, inputs.size()));
-            String requestBody = buildBatchRequest(batch, dimension);
-            List<float[]> batchVectors = callEmbeddingApiBatch(requestBody);
-            allVectors.addAll(batchVectors);
-        }
-
-        return allVectors;
+        return dispatchBatches(inputs, dimension);
     }
 
     // ==================== 通用调用 ====================
@@ -149,7 +177,51 @@ public class VLEmbeddingModelUtils {
         }
     }
 
-    private String buildBatchRequest(List<Object> inputItems, int dimension) {
+    private static final String IMAGE_PLACEHOLDER = "__SMARTPAI_IMAGE__";
+
+    /**
+     * 图片请求体：先序列化带占位符的请求，再在占位处拼入 data URL 前缀和Base64字节
+     */
+    private byte[] buildImageRequest(VisionImageEncoder.EncodedImage image, int dimension) {
+        try {
+            java.util.Map<String, Object> request = new java.util.LinkedHashMap<>();
+            request.put("model", langChain4jConfig.getVLMODEL());
+            request.put("input", java.util.Map.of("image", IMAGE_PLACEHOLDER));
+            if (dimension > 0) request.put("dimensions", dimension);
+            byte[] template = objectMapper.writeValueAsBytes(request);
+            byte[] marker = IMAGE_PLACEHOLDER.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+            int index = indexOf(template, marker);
+            byte[] prefix = image.dataUrlPrefix();
+            byte[] base64 = image.base64();
+            byte[] body = new byte[template.length - marker.length + prefix.length + base64.length];
+            int pos = 0;
+            System.arraycopy(template, 0, body, pos, index);
+            pos += index;
+            System.arraycopy(prefix, 0, body, pos, prefix.length);
+            pos += prefix.length;
+            System.arraycopy(base64, 0, body, pos, base64.length);
+            pos += base64.length;
+            System.arraycopy(template, index + marker.length, body, pos, template.length - index - marker.length);
+            return body;
+        } catch (Exception e) {
+            throw new RuntimeException("构建图片向量化请求失败", e);
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalStateException("请求模板中未找到图片占位符");
+    }
+
+    private String buildBatchRequest(List<?> inputItems, int dimension) {
         try {
             java.util.Map<String, Object> request = new java.util.LinkedHashMap<>();
             request.put("model", langChain4jConfig.getVLMODEL());
@@ -163,84 +235,49 @@ public class VLEmbeddingModelUtils {
 
     // ==================== API 调用 ====================
 
-    private float[] callEmbeddingApi(String requestBody) {
+    private float[] callEmbeddingApi(Object requestBody) {
         try {
-            WebClient webClient = WebClient.builder()
-                    .baseUrl(langChain4jConfig.getVLURL())
-                    .defaultHeader("Authorization", "Bearer " + langChain4jConfig.getVLKEY())
-                    .defaultHeader("Content-Type", "application/json")
-                    .build();
-
-            String response = webClient.post()
-                    .uri("/embeddings")
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            return parseSingleEmbedding(response);
+            byte[] response = post(requestBody).block();
+            float[] vector = EmbeddingResponseParser.parseFirst(response, langChain4jConfig.getVLDIMENSION());
+            log.debug("VL Embedding: 解析向量成功, dimension={}", vector.length);
+            return vector;
         } catch (Exception e) {
             log.error("VL Embedding API调用失败", e);
             throw new RuntimeException("VL Embedding API调用失败", e);
         }
     }
 
-    private List<float[]> callEmbeddingApiBatch(String requestBody) {
+    /**
+     * 按批次切分后并发请求，flatMapSequential 保证结果顺序与输入一致
+     */
+    private List<float[]> dispatchBatches(List<?> inputs, int dimension) {
+        int batchSize = langChain4jConfig.getVLBATCH_SIZE();
+        List<List<?>> batches = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i += batchSize) {
+            batches.add(inputs.subList(i, Math.min(i + batchSize, inputs.size())));
+        }
         try {
-            WebClient webClient = WebClient.builder()
-                    .baseUrl(langChain4jConfig.getVLURL())
-                    .defaultHeader("Authorization", "Bearer " + langChain4jConfig.getVLKEY())
-                    .defaultHeader("Content-Type", "application/json")
-                    .build();
-
-            String response = webClient.post()
-                    .uri("/embeddings")
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
+            List<List<float[]>> results = Flux.fromIterable(batches)
+                    .flatMapSequential(batch -> post(buildBatchRequest(batch, dimension))
+                            .map(response -> EmbeddingResponseParser.parse(response, dimension)),
+                            Math.max(1, maxConcurrency))
+                    .collectList()
                     .block();
-
-            return parseBatchEmbeddings(response);
+            List<float[]> allVectors = new ArrayList<>(inputs.size());
+            results.forEach(allVectors::addAll);
+            log.debug("VL Embedding: 批量解析向量成功, count={}", allVectors.size());
+            return allVectors;
         } catch (Exception e) {
             log.error("VL Embedding 批量API调用失败", e);
             throw new RuntimeException("VL Embedding 批量API调用失败", e);
         }
     }
 
-    // ==================== 响应解析 ====================
-
-    private float[] parseSingleEmbedding(String response) {
-        try {
-            JsonNode root = objectMapper.readTree(response);
-            JsonNode embeddingNode = root.path("data").path(0).path("embedding");
-            float[] vector = new float[embeddingNode.size()];
-            for (int i = 0; i < embeddingNode.size(); i++) {
-                vector[i] = (float) embeddingNode.get(i).asDouble();
-            }
-            log.debug("VL Embedding: 解析向量成功, dimension={}", vector.length);
-            return vector;
-        } catch (Exception e) {
-            throw new RuntimeException("解析VL Embedding响应失败: " + response, e);
-        }
-    }
-
-    private List<float[]> parseBatchEmbeddings(String response) {
-        try {
-            JsonNode root = objectMapper.readTree(response);
-            JsonNode dataArray = root.path("data");
-            List<float[]> vectors = new ArrayList<>();
-            for (JsonNode item : dataArray) {
-                JsonNode embeddingNode = item.path("embedding");
-                float[] vector = new float[embeddingNode.size()];
-                for (int i = 0; i < embeddingNode.size(); i++) {
-                    vector[i] = (float) embeddingNode.get(i).asDouble();
-                }
-                vectors.add(vector);
-            }
-            log.debug("VL Embedding: 批量解析向量成功, count={}", vectors.size());
-            return vectors;
-        } catch (Exception e) {
-            throw new RuntimeException("解析VL Embedding批量响应失败: " + response, e);
-        }
+    private Mono<byte[]> post(Object requestBody) {
+        return vlEmbeddingWebClient.post()
+                .uri("/embeddings")
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToMono(byte[].class);
     }
 }
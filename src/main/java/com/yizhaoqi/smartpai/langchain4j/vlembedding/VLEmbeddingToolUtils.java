@@ -4,18 +4,26 @@ import com.yizhaoqi.smartpai.langchain4j.LangChain4jConfig;
 import com.yizhaoqi.smartpai.service.ImageGetService;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.stereotype.Component;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * 多模态文件处理工具类
@@ -36,6 +44,9 @@ public class VLEmbeddingToolUtils {
     @Resource
     private LangChain4jConfig langChain4jConfig;
 
+    @Resource
+    private VisionImageEncoder visionImageEncoder;
+
     // ==================== PDF 截图直接向量化（推荐，跳过识图） ====================
 
     /**
@@ -54,9 +65,10 @@ public class VLEmbeddingToolUtils {
 
             for (int i = 0; i < totalPages; i++) {
                 log.info("正在向量化第{}/{}页", i + 1, totalPages);
-                BufferedImage pageImage = renderer.renderImageWithDPI(i, dpi);
-                String base64 = imageToBase64(pageImage, "png");
-                float[] vector = vlEmbeddingModelUtils.embedImageBase64(base64, langChain4jConfig.getVLDIMENSION());
+                float pageDpi = visionImageEncoder.renderDpi(document.getPage(i), dpi, VisionImageEncoder.Target.VL_EMBEDDING);
+                BufferedImage pageImage = renderer.renderImageWithDPI(i, pageDpi);
+                VisionImageEncoder.EncodedImage encoded = visionImageEncoder.encode(pageImage, VisionImageEncoder.Target.VL_EMBEDDING);
+                float[] vector = vlEmbeddingModelUtils.embedEncodedImage(encoded, langChain4jConfig.getVLDIMENSION());
                 vectors.add(vector);
             }
         } catch (Exception e) {
@@ -66,6 +78,57 @@ public class VLEmbeddingToolUtils {
         return vectors;
     }
 
+    /**
+     * 页面向量及其可提取文本，pageNo 从1开始
+     */
+    public record PageEmbedding(int pageNo, String text, float[] vector) {
+    }
+
+    /**
+     * PDF按页截图直接向量化，同时用PDFTextStripper提取每页文本（供关键词检索和回答引用）
+     * 按 vl-embedding.api.batch-size 分窗处理：一窗内逐页渲染、编码，向量请求按VL客户端的并发上限发出，
+     * 结果交给 pageSink 后释放，内存占用与页数无关；PDF从文件按需读取，不整体载入内存
+     *
+     * @param pdfFile  PDF文件
+     * @param dpi      截图分辨率上限
+     * @param pageSink 每窗页面向量化完成后的回调，按页码顺序调用
+     * @return 总页数
+     */
+    public int embedPdfPagesWithText(File pdfFile, float dpi, Consumer<List<PageEmbedding>> pageSink) {
+        try (PDDocument document = PDDocument.load(pdfFile, MemoryUsageSetting.setupTempFileOnly())) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            PDFTextStripper stripper = new PDFTextStripper();
+            int totalPages = document.getNumberOfPages();
+            int window = Math.max(1, langChain4jConfig.getVLBATCH_SIZE());
+            log.info("PDF截图直接向量化(含页面文本): 共{}页, dpi={}, 每窗{}页", totalPages, dpi, window);
+
+            for (int start = 0; start < totalPages; start += window) {
+                int end = Math.min(start + window, totalPages);
+                List<VisionImageEncoder.EncodedImage> encodedPages = new ArrayList<>(end - start);
+                List<String> pageTexts = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    stripper.setStartPage(i + 1);
+                    stripper.setEndPage(i + 1);
+                    pageTexts.add(stripper.getText(document).trim());
+                    float pageDpi = visionImageEncoder.renderDpi(document.getPage(i), dpi, VisionImageEncoder.Target.VL_EMBEDDING);
+                    BufferedImage pageImage = renderer.renderImageWithDPI(i, pageDpi);
+                    encodedPages.add(visionImageEncoder.encode(pageImage, VisionImageEncoder.Target.VL_EMBEDDING));
+                }
+
+                List<float[]> vectors = vlEmbeddingModelUtils.embedEncodedImages(encodedPages, langChain4jConfig.getVLDIMENSION());
+                List<PageEmbedding> pages = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    pages.add(new PageEmbedding(i + 1, pageTexts.get(i - start), vectors.get(i - start)));
+                }
+                pageSink.accept(pages);
+            }
+            return totalPages;
+        } catch (Exception e) {
+            log.error("PDF截图直接向量化失败", e);
+            throw new RuntimeException("PDF截图直接向量化失败", e);
+        }
+    }
+
     /**
      * PDF按页截图直接向量化，默认dpi=150
      */
@@ -79,24 +142,38 @@ public class VLEmbeddingToolUtils {
      * PDF按页截图 → 识图 → 文本描述列表
      */
     public List<String> processPdf(InputStream pdfInputStream, float dpi) {
-        List<String> pageDescriptions = new ArrayList<>();
+        return processPdf(pdfInputStream, dpi, null);
+    }
+
+    /**
+     * PDF截图识图，每识别完一页回调一次（已完成页数, 总页数），用于上报进度
+     */
+    public List<String> processPdf(InputStream pdfInputStream, float dpi, BiConsumer<Integer, Integer> pageListener) {
+        // 渲染在当前线程逐页进行，识图请求异步发出，多页同时在途（并发上限由ImageGetService控制）
+        List<CompletableFuture<String>> pending = new ArrayList<>();
         try (PDDocument document = PDDocument.load(pdfInputStream)) {
             PDFRenderer renderer = new PDFRenderer(document);
             int totalPages = document.getNumberOfPages();
+            AtomicInteger donePages = new AtomicInteger();
             log.info("PDF截图识图: 共{}页, dpi={}", totalPages, dpi);
 
             for (int i = 0; i < totalPages; i++) {
                 log.info("正在识图第{}/{}页", i + 1, totalPages);
-                BufferedImage pageImage = renderer.renderImageWithDPI(i, dpi);
-                String base64 = imageToBase64(pageImage, "jpg");
-                String description = imageGetService.recognizeByBase64(base64, "image/jpeg");
-                pageDescriptions.add(description);
+                float pageDpi = visionImageEncoder.renderDpi(document.getPage(i), dpi, VisionImageEncoder.Target.VISION);
+                BufferedImage pageImage = renderer.renderImageWithDPI(i, pageDpi);
+                VisionImageEncoder.EncodedImage encoded = visionImageEncoder.encode(pageImage, VisionImageEncoder.Target.VISION);
+                CompletableFuture<String> page = imageGetService.recognizeEncodedAsync(encoded);
+                if (pageListener != null) {
+                    page.thenRun(() -> pageListener.accept(donePages.incrementAndGet(), totalPages));
+                }
+                pending.add(page);
             }
+            return joinAll(pending);
         } catch (Exception e) {
+            pending.forEach(f -> f.cancel(true));
             log.error("PDF截图识图失败", e);
             throw new RuntimeException("PDF截图识图失败", e);
         }
-        return pageDescriptions;
     }
 
     /**
@@ -155,7 +232,14 @@ public class VLEmbeddingToolUtils {
      */
     public String processImageByStream(InputStream imageInputStream, String mimeType) {
         try {
-            return imageGetService.recognizeByStream(imageInputStream, mimeType);
+            byte[] bytes = imageInputStream.readAllBytes();
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null) {
+                // ImageIO无法解码的格式（如webp）原样发送
+                return imageGetService.recognizeByBase64(Base64.getEncoder().encodeToString(bytes), mimeType);
+            }
+            VisionImageEncoder.EncodedImage encoded = visionImageEncoder.encode(image, VisionImageEncoder.Target.VISION);
+            return imageGetService.recognizeEncodedAsync(encoded).join();
         } catch (Exception e) {
             log.error("图片流识图失败", e);
             throw new RuntimeException("图片流识图失败", e);
@@ -198,8 +282,8 @@ public class VLEmbeddingToolUtils {
         List<float[]> vectors = new ArrayList<>();
         for (int i = 0; i < pageImages.size(); i++) {
             log.info("VL向量化第{}/{}页", i + 1, pageImages.size());
-            String base64 = imageToBase64(pageImages.get(i), "jpg");
-            float[] vector = vlEmbeddingModelUtils.embedImageBase64(base64, langChain4jConfig.getVLDIMENSION());
+            VisionImageEncoder.EncodedImage encoded = visionImageEncoder.encode(pageImages.get(i), VisionImageEncoder.Target.VL_EMBEDDING);
+            float[] vector = vlEmbeddingModelUtils.embedEncodedImage(encoded, langChain4jConfig.getVLDIMENSION());
             vectors.add(vector);
         }
         return vectors;
@@ -209,14 +293,28 @@ public class VLEmbeddingToolUtils {
      * 对预渲染的图片列表做识图（避免重复渲染PDF）
      */
     public List<String> recognizeImages(List<BufferedImage> pageImages) {
-        List<String> descriptions = new ArrayList<>();
+        List<CompletableFuture<String>> pending = new ArrayList<>();
         for (int i = 0; i < pageImages.size(); i++) {
             log.info("识图第{}/{}页", i + 1, pageImages.size());
-            String base64 = imageToBase64(pageImages.get(i), "jpg");
-            String description = imageGetService.recognizeByBase64(base64, "image/jpeg");
-            descriptions.add(description);
+            VisionImageEncoder.EncodedImage encoded = visionImageEncoder.encode(pageImages.get(i), VisionImageEncoder.Target.VISION);
+            pending.add(imageGetService.recognizeEncodedAsync(encoded));
         }
-        return descriptions;
+        return joinAll(pending);
+    }
+
+    /**
+     * 按提交顺序收集异步识图结果，保证描述列表和页码一一对应
+     */
+    private List<String> joinAll(List<CompletableFuture<String>> pending) {
+        List<String> results = new ArrayList<>(pending.size());
+        try {
+            for (CompletableFuture<String> future : pending) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            throw new RuntimeException("识图失败", e.getCause() != null ? e.getCause() : e);
+        }
+        return results;
     }
 
     /**
@@ -233,6 +331,23 @@ public class VLEmbeddingToolUtils {
         }
     }
 
+    /**
+     * 图片字节直接VL向量化：能解码的走编码阶段缩放压缩，ImageIO无法解码的格式（如webp）原样发送
+     */
+    public float[] embedImageBytes(byte[] bytes, String mimeType) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null) {
+                return vlEmbeddingModelUtils.embedImageBase64(Base64.getEncoder().encodeToString(bytes),
+                        mimeType, langChain4jConfig.getVLDIMENSION());
+            }
+            VisionImageEncoder.EncodedImage encoded = visionImageEncoder.encode(image, VisionImageEncoder.Target.VL_EMBEDDING);
+            return vlEmbeddingModelUtils.embedEncodedImage(encoded, langChain4jConfig.getVLDIMENSION());
+        } catch (Exception e) {
+            throw new RuntimeException("图片VL向量化失败", e);
+        }
+    }
+
     /**
      * 合并多页描述为一个完整文本
      */
@@ -245,35 +360,6 @@ public class VLEmbeddingToolUtils {
         return sb.toString();
     }
 
-    private static final int MAX_IMAGE_WIDTH = 800;
-
-    private String imageToBase64(BufferedImage image, String format) {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            BufferedImage resized = compressImage(image);
-            ImageIO.write(resized, format, baos);
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
-        } catch (Exception e) {
-            throw new RuntimeException("图片转Base64失败", e);
-        }
-    }
-
-    /**
-     * 压缩图片：等比缩放到最大宽度800px，输出JPG
-     */
-    private BufferedImage compressImage(BufferedImage original) {
-        int w = original.getWidth();
-        int h = original.getHeight();
-        int newW = Math.min(w, MAX_IMAGE_WIDTH);
-        int newH = (int) ((double) h / w * newW);
-        // 始终转为TYPE_INT_RGB，去掉透明通道
-        BufferedImage resized = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = resized.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g.drawImage(original, 0, 0, newW, newH, null);
-        g.dispose();
-        return resized;
-    }
-
     private String mimeTypeToFormat(String mimeType) {
         if (mimeType == null) return "png";
         if (mimeType.contains("jpeg") || mimeType.contains("jpg")) return "jpg";
@@ -0,0 +1,213 @@
+package com.yizhaoqi.smartpai.langchain4j.vlembedding;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 视觉模型调用前的图片编码阶段
+ * 按模型限制总像素数等比缩放、检测文字页等灰度图改用单通道编码、使用可调质量的JPEG，
+ * 并且把JPEG直接编码进Base64字节流，不再经过中间的String
+ */
+@Component
+@Slf4j
+public class VisionImageEncoder {
+
+    /**
+     * 编码目标：识图模型和VL向量模型对分辨率的要求不同，分开配置
+     */
+    public enum Target {
+        VISION,
+        VL_EMBEDDING
+    }
+
+    /**
+     * 编码结果，base64 为ASCII字节，可直接拼进HTTP请求体
+     */
+    public record EncodedImage(byte[] base64, String mimeType, int width, int height, boolean grayscale) {
+
+        /**
+         * data URL 前缀，如 data:image/jpeg;base64,
+         */
+        public byte[] dataUrlPrefix() {
+            return ("data:" + mimeType + ";base64,").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        public String base64String() {
+            return new String(base64, StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * 识图模型的最大像素数（宽*高），默认约等于A4页面 750x1060
+     */
+    @Value("${images.encode.max-pixels:800000}")
+    private long visionMaxPixels;
+
+    /**
+     * VL向量模型的最大像素数
+     */
+    @Value("${vl-embedding.encode.max-pixels:640000}")
+    private long vlMaxPixels;
+
+    /**
+     * JPEG压缩质量 0~1
+     */
+    @Value("${images.encode.jpeg-quality:0.7}")
+    private float jpegQuality;
+
+    /**
+     * 是否检测灰度图（文字页、扫描件），检测到后按单通道编码
+     */
+    @Value("${images.encode.grayscale-detection:true}")
+    private boolean grayscaleDetection;
+
+    /**
+     * 灰度判定容差：采样像素的RGB三通道最大差值不超过该值即视为灰度
+     */
+    @Value("${images.encode.grayscale-tolerance:12}")
+    private int grayscaleTolerance;
+
+    /**
+     * 灰度检测的采样点数
+     */
+    private static final int GRAYSCALE_SAMPLES = 4096;
+
+    /**
+     * 编码图片：缩放 → 灰度检测 → JPEG → Base64
+     */
+    public EncodedImage encode(BufferedImage original, Target target) {
+        boolean grayscale = grayscaleDetection && isGrayscale(original);
+        BufferedImage scaled = scale(original, maxPixels(target), grayscale);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(estimateSize(scaled));
+            try (OutputStream base64Out = Base64.getEncoder().wrap(out)) {
+                writeJpeg(scaled, base64Out);
+            }
+            return new EncodedImage(out.toByteArray(), "image/jpeg",
+                    scaled.getWidth(), scaled.getHeight(), grayscale);
+        } catch (Exception e) {
+            throw new RuntimeException("图片编码失败", e);
+        }
+    }
+
+    /**
+     * 根据页面尺寸计算渲染DPI，使渲染结果直接落在目标像素数以内，避免先高分辨率渲染再缩小
+     *
+     * @param page   PDF页面
+     * @param maxDpi 调用方要求的DPI上限
+     */
+    public float renderDpi(PDPage page, float maxDpi, Target target) {
+        PDRectangle box = page.getCropBox();
+        double areaInch2 = (box.getWidth() / 72.0) * (box.getHeight() / 72.0);
+        if (areaInch2 <= 0) {
+            return maxDpi;
+        }
+        double dpi = Math.sqrt(maxPixels(target) / areaInch2);
+        return (float) Math.min(maxDpi, Math.max(36, dpi));
+    }
+
+    private long maxPixels(Target target) {
+        return target == Target.VL_EMBEDDING ? vlMaxPixels : visionMaxPixels;
+    }
+
+    /**
+     * 等比缩放到最大像素数以内；缩小比例较大时逐级减半，避免一次双线性缩放造成文字笔画丢失
+     */
+    private BufferedImage scale(BufferedImage original, long maxPixels, boolean grayscale) {
+        int w = original.getWidth();
+        int h = original.getHeight();
+        double ratio = Math.min(1.0, Math.sqrt((double) maxPixels / ((long) w * h)));
+        // 向下取整，保证缩放后像素数不超过预算
+        int targetW = Math.max(1, (int) Math.floor(w * ratio));
+        int targetH = Math.max(1, (int) Math.floor(h * ratio));
+
+        BufferedImage current = original;
+        int curW = w;
+        int curH = h;
+        while (curW / 2 >= targetW && curH / 2 >= targetH) {
+            curW /= 2;
+            curH /= 2;
+            current = draw(current, curW, curH, BufferedImage.TYPE_INT_RGB);
+        }
+        int outType = grayscale ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+        if (current.getWidth() == targetW && current.getHeight() == targetH && current.getType() == outType) {
+            return current;
+        }
+        return draw(current, targetW, targetH, outType);
+    }
+
+    private BufferedImage draw(BufferedImage src, int w, int h, int type) {
+        BufferedImage dst = new BufferedImage(w, h, type);
+        Graphics2D g = dst.createGraphics();
+        // 透明通道铺白底，避免PNG透明区域编码成黑色
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, w, h, null);
+        g.dispose();
+        return dst;
+    }
+
+    /**
+     * 网格采样判断是否为灰度图
+     */
+    boolean isGrayscale(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY || image.getType() == BufferedImage.TYPE_USHORT_GRAY) {
+            return true;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int step = Math.max(1, (int) Math.sqrt((double) w * h / GRAYSCALE_SAMPLES));
+        for (int y = step / 2; y < h; y += step) {
+            for (int x = step / 2; x < w; x += step) {
+                int rgb = image.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                int max = Math.max(r, Math.max(g, b));
+                int min = Math.min(r, Math.min(g, b));
+                if (max - min > grayscaleTolerance) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void writeJpeg(BufferedImage image, OutputStream out) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        // 显式使用内存缓存，ImageIO默认会在临时目录创建文件缓存
+        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 粗估编码后大小，减少ByteArrayOutputStream扩容拷贝
+     */
+    private int estimateSize(BufferedImage image) {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(8192, pixels / 4));
+    }
+}
@@ -11,7 +11,8 @@ import java.sql.Blob;
  */
 @Data
 @Entity
-@Table(name = "document_vectors")
+@Table(name = "document_vectors",
+        uniqueConstraints = @UniqueConstraint(name = "uk_file_chunk", columnNames = {"file_md5", "chunk_id"}))
 public class DocumentVector {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,78 @@
+package com.yizhaoqi.smartpai.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * ES 删除任务（删除发件箱）
+ * 删除文档时与文件记录的删除在同一个数据库事务中写入，事务提交后由后台按行提交 ES 的异步 delete_by_query，
+ * 并跟踪任务直到完成；每个索引一行，全部完成后删除记录
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "es_deletion_task", indexes = {
+        @Index(name = "idx_status", columnList = "status"),
+        @Index(name = "idx_file_md5", columnList = "file_md5")
+})
+public class EsDeletionTask {
+
+    public enum Status {
+        /** 等待提交到 ES */
+        PENDING,
+        /** 已提交，等待 ES 任务完成 */
+        RUNNING,
+        /** 重试次数用尽，文档仍被检索屏蔽，需人工处理 */
+        FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "file_md5", length = 32, nullable = false)
+    private String fileMd5;
+
+    @Column(name = "index_name", length = 128, nullable = false)
+    private String indexName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16, nullable = false)
+    private Status status = Status.PENDING;
+
+    /**
+     * ES 任务ID（node:id），提交后写入
+     */
+    @Column(name = "task_id", length = 128)
+    private String taskId;
+
+    /**
+     * 已提交次数
+     */
+    private int attempts;
+
+    @Column(name = "last_error", length = 512)
+    private String lastError;
+
+    /**
+     * 乐观锁，多实例同时处理同一行时只有一个能提交状态变更
+     */
+    @Version
+    private Long version;
+
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    private LocalDateTime updatedAt;
+
+    public EsDeletionTask(String fileMd5, String indexName) {
+        this.fileMd5 = fileMd5;
+        this.indexName = indexName;
+    }
+}
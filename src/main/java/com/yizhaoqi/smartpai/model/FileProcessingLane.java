@@ -0,0 +1,13 @@
+package com.yizhaoqi.smartpai.model;
+
+/**
+ * 文件处理通道：按文件大小和类型分流，各通道独立消费，避免小文件排在大PDF后面
+ */
+public enum FileProcessingLane {
+    /** 普通文本类小文件：Tika解析 + 文本向量化，秒级完成 */
+    TEXT,
+    /** 图片：识图或VL向量化 */
+    IMAGE,
+    /** PDF（逐页识图/VL向量化）和超大文件 */
+    HEAVY
+}
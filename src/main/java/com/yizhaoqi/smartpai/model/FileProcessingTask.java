@@ -17,6 +17,7 @@ public class FileProcessingTask {
     private String userId;   // 上传用户ID
     private String orgTag;   // 文件所属组织标签
     private boolean isPublic; // 文件是否公开
+    private long fileSize;   // 文件大小（字节），用于选择处理通道
     
     /**
      * 向后兼容的构造函数
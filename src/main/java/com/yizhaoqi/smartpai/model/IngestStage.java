@@ -0,0 +1,26 @@
+package com.yizhaoqi.smartpai.model;
+
+/**
+ * 文件入库阶段：合并上传后投递Kafka，消费端依次推进
+ */
+public enum IngestStage {
+    /** 已投递Kafka，等待消费 */
+    QUEUED,
+    /** 从MinIO下载文件 */
+    DOWNLOADING,
+    /** 解析/识图中，已解析出的分块同时在向量化和写入ES */
+    PARSING,
+    /** 解析完成，等待剩余分块向量化和写入ES */
+    VECTORIZING,
+    /** 全部分块已写入ES */
+    COMPLETED,
+    /** 本次处理失败；重试时重新回到 DOWNLOADING */
+    FAILED;
+
+    /**
+     * 终止阶段：进度推送结束，文件移出进行中集合
+     */
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED;
+    }
+}
@@ -0,0 +1,83 @@
+package com.yizhaoqi.smartpai.pipeline;
+
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个文件的入库任务
+ * 记录该文件在各阶段中尚未完成的批次，解析端封口（seal）且所有批次都写入ES后才算完成；
+ * 任一批次重试用尽失败，整个任务失败
+ */
+@Getter
+public class IngestJob {
+
+    private final String fileMd5;
+    private final String userId;
+    private final String orgTag;
+    private final boolean isPublic;
+    private final long startedAt = System.currentTimeMillis();
+
+    /**
+     * 初始为1，代表解析端尚未封口
+     */
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+    private final AtomicLong submittedChunks = new AtomicLong();
+    /**
+     * 已提交的最大分片序号，任务完成后序号更大的旧分块视为过期
+     */
+    private final AtomicInteger maxChunkId = new AtomicInteger();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    public IngestJob(String fileMd5, String userId, String orgTag, boolean isPublic) {
+        this.fileMd5 = fileMd5;
+        this.userId = userId;
+        this.orgTag = orgTag;
+        this.isPublic = isPublic;
+    }
+
+    /**
+     * 登记一个在途批次
+     */
+    void track(CompletableFuture<Void> batch) {
+        outstanding.incrementAndGet();
+        batch.whenComplete((v, ex) -> {
+            if (ex != null) {
+                completion.completeExceptionally(ex);
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                completion.complete(null);
+            }
+        });
+    }
+
+    void addSubmittedChunks(int count, int lastChunkId) {
+        submittedChunks.addAndGet(count);
+        maxChunkId.accumulateAndGet(lastChunkId, Math::max);
+    }
+
+    /**
+     * 解析端封口：之后不会再提交新的分块
+     *
+     * @return 所有批次写入ES后完成的信号
+     */
+    public CompletableFuture<Void> seal() {
+        if (outstanding.decrementAndGet() == 0) {
+            completion.complete(null);
+        }
+        return completion;
+    }
+
+    /**
+     * 解析端出错时直接让任务失败，已提交的批次继续跑完但结果不再等待
+     */
+    public void fail(Throwable cause) {
+        completion.completeExceptionally(cause);
+    }
+
+    public boolean isFailed() {
+        return completion.isCompletedExceptionally();
+    }
+}
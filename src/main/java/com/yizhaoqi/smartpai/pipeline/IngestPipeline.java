@@ -0,0 +1,208 @@
+package com.yizhaoqi.smartpai.pipeline;
+
+import com.yizhaoqi.smartpai.client.EmbeddingModelRegistry;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.config.IngestPipelineProperties;
+import com.yizhaoqi.smartpai.entity.EsDocument;
+import com.yizhaoqi.smartpai.entity.TextChunk;
+import com.yizhaoqi.smartpai.service.ElasticsearchService;
+import com.yizhaoqi.smartpai.service.EsBulkWriter;
+import com.yizhaoqi.smartpai.service.EsIndexModelService;
+import com.yizhaoqi.smartpai.service.IngestProgressService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 入库流水线：解析后的分块 → 向量化阶段 → 写入ES阶段
+ * 两个阶段各自有有界队列、并发、凑批和重试，慢的向量接口不会拖住解析，ES写入抖动也不会拖住向量化；
+ * 上游提交在队列满时阻塞，形成逐级背压。
+ */
+@Component
+@Slf4j
+public class IngestPipeline {
+
+    /**
+     * 向量化阶段的元素：分块及其所属任务，不同文件的分块可以合并到同一次向量请求
+     */
+    private record ChunkWork(IngestJob job, TextChunk chunk) {
+    }
+
+    private final IngestPipelineProperties properties;
+    private final EmbeddingModelRegistry embeddingModelRegistry;
+    private final EsIndexModelService esIndexModelService;
+    private final ElasticsearchService elasticsearchService;
+    private final EsBulkWriter esBulkWriter;
+    private final IngestProgressService ingestProgressService;
+
+    private final Set<IngestJob> activeJobs = ConcurrentHashMap.newKeySet();
+
+    private PipelineStage<ChunkWork> embedStage;
+    private PipelineStage<EsDocument> indexStage;
+
+    public IngestPipeline(IngestPipelineProperties properties,
+                          EmbeddingModelRegistry embeddingModelRegistry,
+                          EsIndexModelService esIndexModelService,
+                          ElasticsearchService elasticsearchService,
+                          EsBulkWriter esBulkWriter,
+                          IngestProgressService ingestProgressService) {
+        this.properties = properties;
+        this.embeddingModelRegistry = embeddingModelRegistry;
+        this.esIndexModelService = esIndexModelService;
+        this.elasticsearchService = elasticsearchService;
+        this.esBulkWriter = esBulkWriter;
+        this.ingestProgressService = ingestProgressService;
+    }
+
+    @PostConstruct
+    public void init() {
+        indexStage = new PipelineStage<>("index", properties.getIndex(), docs -> elasticsearchService.bulkIndex(EsIndexInitializer.WRITE_ALIAS, docs));
+        embedStage = new PipelineStage<>("embed", properties.getEmbed(), this::embed);
+        log.info("入库流水线已启动，embed并发: {}, index并发: {}",
+                properties.getEmbed().getConcurrency(), properties.getIndex().getConcurrency());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        embedStage.shutdown();
+        indexStage.shutdown();
+    }
+
+    /**
+     * 为一个文件创建入库任务
+     */
+    public IngestJob start(String fileMd5, String userId, String orgTag, boolean isPublic) {
+        IngestJob job = new IngestJob(fileMd5, userId, orgTag, isPublic);
+        activeJobs.add(job);
+        esBulkWriter.beginBulkImport(EsIndexInitializer.WRITE_ALIAS);
+        job.getCompletion().whenComplete((v, ex) -> {
+            activeJobs.remove(job);
+            esBulkWriter.endBulkImport(EsIndexInitializer.WRITE_ALIAS);
+            if (ex == null) {
+                log.info("入库任务完成，fileMd5: {}, 分块数: {}, 耗时: {}ms", job.getFileMd5(),
+                        job.getSubmittedChunks().get(), System.currentTimeMillis() - job.getStartedAt());
+            } else {
+                log.error("入库任务失败，fileMd5: {}", job.getFileMd5(), ex);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * 提交一批分块进入向量化阶段，队列满时阻塞
+     */
+    public void submit(IngestJob job, List<TextChunk> chunks) throws InterruptedException {
+        if (job.isFailed()) {
+            throw new IllegalStateException("入库任务已失败，停止提交: " + job.getFileMd5());
+        }
+        List<ChunkWork> works = chunks.stream().map(c -> new ChunkWork(job, c)).toList();
+        job.addSubmittedChunks(works.size(), chunks.stream().mapToInt(TextChunk::getChunkId).max().orElse(0));
+        job.track(embedStage.submit(works));
+    }
+
+    /**
+     * 向量化阶段：合并后的分块交给进程级的 EmbeddingBatcher（与其他阶段线程和检索查询共享批次），
+     * 按任务分组生成ES文档后交给写入阶段。模型跟随写别名指向的索引，重新向量化切换写别名后改用目标模型
+     */
+    private void embed(List<ChunkWork> works) {
+        EmbeddingModelRegistry.Model model = writeModel();
+        List<float[]> vectors = model.batcher().embed(works.stream().map(w -> w.chunk().getContent()).toList());
+        if (vectors.size() != works.size()) {
+            throw new IllegalStateException("向量数量与分块数量不一致: " + vectors.size() + " != " + works.size());
+        }
+        String modelVersion = model.modelId();
+        Map<IngestJob, List<EsDocument>> byJob = new IdentityHashMap<>();
+        for (int i = 0; i < works.size(); i++) {
+            ChunkWork work = works.get(i);
+            IngestJob job = work.job();
+            byJob.computeIfAbsent(job, k -> new ArrayList<>()).add(new EsDocument(
+                    documentId(job.getFileMd5(), work.chunk().getChunkId(), modelVersion),
+                    job.getFileMd5(),
+                    work.chunk().getChunkId(),
+                    work.chunk().getContent(),
+                    vectors.get(i),
+                    modelVersion,
+                    job.getUserId(),
+                    job.getOrgTag(),
+                    job.isPublic()
+            ));
+        }
+        try {
+            for (Map.Entry<IngestJob, List<EsDocument>> entry : byJob.entrySet()) {
+                String fileMd5 = entry.getKey().getFileMd5();
+                int count = entry.getValue().size();
+                ingestProgressService.chunksEmbedded(fileMd5, count);
+                CompletableFuture<Void> indexed = indexStage.submit(entry.getValue());
+                indexed.thenRun(() -> ingestProgressService.chunksIndexed(fileMd5, count));
+                entry.getKey().track(indexed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("提交写入阶段被中断", e);
+        }
+    }
+
+    /**
+     * 流水线监控：各阶段指标和在途任务
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stages", List.of(embedStage.stats(), indexStage.stats()));
+        stats.put("embeddingBatcher", embeddingModelRegistry.primary().batcher().stats());
+        stats.put("embeddingProvider", embeddingModelRegistry.primary().provider().stats());
+        if (embeddingModelRegistry.target() != embeddingModelRegistry.primary()) {
+            stats.put("targetEmbeddingBatcher", embeddingModelRegistry.target().batcher().stats());
+        }
+        stats.put("esBulkWriter", esBulkWriter.stats());
+        stats.put("activeJobs", activeJobs.stream()
+                .map(job -> Map.of(
+                        "fileMd5", job.getFileMd5(),
+                        "submittedChunks", job.getSubmittedChunks().get(),
+                        "pendingBatches", Math.max(0, job.getOutstanding().get()),
+                        "elapsedMs", System.currentTimeMillis() - job.getStartedAt()))
+                .toList());
+        return stats;
+    }
+
+    /**
+     * 分块的ES文档ID：同一文件、同一分片、同一模型总是得到同一个ID，
+     * Kafka重投或死信重放时覆盖已有文档而不是新增重复分块
+     */
+    public static String documentId(String fileMd5, int chunkId, String modelVersion) {
+        return fileMd5 + ":" + chunkId + ":" + modelVersion;
+    }
+
+    /**
+     * 写别名指向的索引当前使用的向量模型，入库完成后清理过期分块时据此保留本模型的向量
+     */
+    public String getModelVersion() {
+        return esIndexModelService.writeModel().modelId();
+    }
+
+    /**
+     * 写别名指向的索引的向量模型；本实例没有该模型的向量化后端时失败，不写入其他模型的向量
+     */
+    private EmbeddingModelRegistry.Model writeModel() {
+        EsIndexModelService.IndexModel indexModel = esIndexModelService.writeModel();
+        EmbeddingModelRegistry.Model model = embeddingModelRegistry.find(indexModel.modelId(), indexModel.dims());
+        if (model == null) {
+            throw new IllegalStateException("写入索引 " + indexModel.index() + " 的向量模型 " + indexModel.modelId()
+                    + "（" + indexModel.dims() + " 维）没有可用的向量化后端，请配置 embedding.reembed.target-model");
+        }
+        return model;
+    }
+
+    public int getEmbedBatchSize() {
+        return properties.getEmbed().getBatchSize();
+    }
+}
@@ -0,0 +1,188 @@
+package com.yizhaoqi.smartpai.pipeline;
+
+import com.yizhaoqi.smartpai.config.IngestPipelineProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 流水线中的一个阶段：有界队列 + 固定数量的工作线程
+ * 工作线程从队列取出批次，把排队中的小批次合并到 batchSize 后一起处理，失败按配置重试，
+ * 每个提交的批次都有自己的完成信号，合并处理的批次一起成功或一起失败。
+ */
+@Slf4j
+public class PipelineStage<T> {
+
+    private record Batch<T>(List<T> elements, CompletableFuture<Void> done, long enqueuedAt) {
+    }
+
+    private final String name;
+    private final IngestPipelineProperties.Stage config;
+    private final Consumer<List<T>> processor;
+    private final BlockingQueue<Batch<T>> queue;
+    private final ExecutorService workers;
+    private volatile boolean running = true;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong processedBatches = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private final AtomicInteger busy = new AtomicInteger();
+
+    /**
+     * @param name      阶段名，用于线程名和监控
+     * @param config    并发、队列、批量和重试配置
+     * @param processor 批处理逻辑，抛出异常视为本次尝试失败
+     */
+    public PipelineStage(String name, IngestPipelineProperties.Stage config, Consumer<List<T>> processor) {
+        this.name = name;
+        this.config = config;
+        this.processor = processor;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+        AtomicInteger seq = new AtomicInteger();
+        int concurrency = Math.max(1, config.getConcurrency());
+        this.workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "ingest-" + name + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::workLoop);
+        }
+    }
+
+    /**
+     * 提交一个批次，队列满时阻塞等待（背压）
+     *
+     * @return 该批次处理完成的信号
+     */
+    public CompletableFuture<Void> submit(List<T> elements) throws InterruptedException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (elements.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+        queue.put(new Batch<>(elements, done, System.currentTimeMillis()));
+        submitted.addAndGet(elements.size());
+        return done;
+    }
+
+    public void shutdown() {
+        running = false;
+        workers.shutdownNow();
+        Batch<T> batch;
+        while ((batch = queue.poll()) != null) {
+            batch.done().completeExceptionally(new IllegalStateException("流水线已停止: " + name));
+        }
+    }
+
+    private void workLoop() {
+        while (running) {
+            List<Batch<T>> batches = new ArrayList<>();
+            try {
+                Batch<T> first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batches.add(first);
+                int size = first.elements().size();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getLingerMs());
+                while (size < config.getBatchSize()) {
+                    long wait = deadline - System.nanoTime();
+                    Batch<T> next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batches.add(next);
+                    size += next.elements().size();
+                }
+                process(batches, size);
+            } catch (InterruptedException e) {
+                // 合并批次时被中断，已取出的批次不会再处理；已经完成的 future 不受影响
+                IllegalStateException stopped = new IllegalStateException("流水线已停止: " + name);
+                batches.forEach(b -> b.done().completeExceptionally(stopped));
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("流水线阶段 {} 工作线程异常", name, e);
+            }
+        }
+    }
+
+    private void process(List<Batch<T>> batches, int size) throws InterruptedException {
+        List<T> elements = new ArrayList<>(size);
+        batches.forEach(b -> elements.addAll(b.elements()));
+        busy.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            Exception last = null;
+            for (int attempt = 1; attempt <= Math.max(1, config.getMaxAttempts()); attempt++) {
+                try {
+                    processor.accept(elements);
+                    completed.addAndGet(size);
+                    batches.forEach(b -> b.done().complete(null));
+                    return;
+                } catch (Exception e) {
+                    last = e;
+                    log.warn("流水线阶段 {} 处理失败，第{}/{}次，元素数: {}，原因: {}",
+                            name, attempt, config.getMaxAttempts(), size, e.getMessage());
+                    if (attempt < config.getMaxAttempts()) {
+                        retries.incrementAndGet();
+                        try {
+                            Thread.sleep(config.getRetryBackoffMs() * attempt);
+                        } catch (InterruptedException interrupted) {
+                            // 停机时中断了重试等待：先让等待这些批次的 IngestJob 失败，再结束工作线程
+                            failed.addAndGet(size);
+                            IllegalStateException stopped = new IllegalStateException("流水线已停止: " + name, e);
+                            batches.forEach(b -> b.done().completeExceptionally(stopped));
+                            throw interrupted;
+                        }
+                    }
+                }
+            }
+            failed.addAndGet(size);
+            for (Batch<T> b : batches) {
+                b.done().completeExceptionally(last);
+            }
+        } finally {
+            processedBatches.incrementAndGet();
+            processingNanos.addAndGet(System.nanoTime() - start);
+            busy.decrementAndGet();
+        }
+    }
+
+    /**
+     * 阶段监控指标：排队深度、队首等待时长（滞后）、处理中批次、累计计数和平均批处理耗时
+     */
+    public Map<String, Object> stats() {
+        Batch<T> head = queue.peek();
+        long batches = processedBatches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stage", name);
+        stats.put("concurrency", config.getConcurrency());
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", config.getQueueCapacity());
+        stats.put("lagMs", head == null ? 0 : System.currentTimeMillis() - head.enqueuedAt());
+        stats.put("busyWorkers", busy.get());
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("retries", retries.get());
+        stats.put("avgBatchMs", batches == 0 ? 0 : processingNanos.get() / batches / 1_000_000);
+        return stats;
+    }
+}
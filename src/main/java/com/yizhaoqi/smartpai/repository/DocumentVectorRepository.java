@@ -1,16 +1,46 @@
 package com.yizhaoqi.smartpai.repository;
 
 import com.yizhaoqi.smartpai.model.DocumentVector;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface DocumentVectorRepository extends JpaRepository<DocumentVector, Long> {
     List<DocumentVector> findByFileMd5(String fileMd5); // 查询某文件的所有分块
+
+    /**
+     * 按分片序号分页读取某文件的分块（基于 chunkId 的游标分页，避免深分页和一次性加载全部分块）
+     *
+     * @param fileMd5      文件MD5
+     * @param afterChunkId 上一页最后一个分片序号，第一页传0
+     * @param pageable     只使用其中的页大小
+     */
+    List<DocumentVector> findByFileMd5AndChunkIdGreaterThanOrderByChunkIdAsc(String fileMd5, Integer afterChunkId, Pageable pageable);
     
+    /**
+     * 按主键游标分页读取全部分块，重新向量化时使用；期间新插入的分块主键更大，会在后续页中读到
+     *
+     * @param afterVectorId 上一页最后一个主键，第一页传0
+     * @param pageable      只使用其中的页大小
+     */
+    List<DocumentVector> findByVectorIdGreaterThanOrderByVectorIdAsc(Long afterVectorId, Pageable pageable);
+
+    long countByVectorIdGreaterThan(Long afterVectorId);
+
+    /**
+     * 各文件当前的最大分片序号，重新向量化结束时据此清理新索引中已不存在的文件和分块
+     *
+     * @return 每行为 [fileMd5, 最大分片序号]，没有分块的文件不返回
+     */
+    @Query("SELECT d.fileMd5, MAX(d.chunkId) FROM DocumentVector d WHERE d.fileMd5 IN :fileMd5s GROUP BY d.fileMd5")
+    List<Object[]> findMaxChunkIdByFileMd5In(@Param("fileMd5s") Collection<String> fileMd5s);
+
     /**
      * 删除指定文件MD5的所有文档向量记录
      * 
@@ -20,4 +50,38 @@ public interface DocumentVectorRepository extends JpaRepository<DocumentVector,
     @Modifying
     @Query(value = "DELETE FROM document_vectors WHERE file_md5 = ?1", nativeQuery = true)
     void deleteByFileMd5(String fileMd5);
+
+    /**
+     * 删除某文件分片序号在 [fromChunkId, toChunkId] 内的分块
+     */
+    @Modifying
+    @Query(value = "DELETE FROM document_vectors WHERE file_md5 = ?1 AND chunk_id BETWEEN ?2 AND ?3", nativeQuery = true)
+    void deleteByFileMd5AndChunkIdBetween(String fileMd5, int fromChunkId, int toChunkId);
+
+    /**
+     * 删除某文件分片序号大于 maxChunkId 的分块，文件重新处理后分块变少时清理多出的旧分块
+     *
+     * @param fileMd5    文件MD5
+     * @param maxChunkId 本次处理的最大分片序号
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM document_vectors WHERE file_md5 = ?1 AND chunk_id > ?2", nativeQuery = true)
+    void deleteByFileMd5AndChunkIdGreaterThan(String fileMd5, int maxChunkId);
+
+    /**
+     * 按 (fileMd5, chunkId) 写入一批连续分块：同一事务内替换已有的同序号分块，重新处理时不产生重复记录，
+     * 也不会在处理中途失败时丢掉其余分块。替换后的分块主键更大，重新向量化的追平阶段能读到新内容
+     *
+     * @param fileMd5 文件MD5
+     * @param chunks  分片序号连续递增的分块
+     */
+    @Transactional
+    default List<DocumentVector> upsertChunks(String fileMd5, List<DocumentVector> chunks) {
+        if (chunks.isEmpty()) {
+            return chunks;
+        }
+        deleteByFileMd5AndChunkIdBetween(fileMd5, chunks.get(0).getChunkId(), chunks.get(chunks.size() - 1).getChunkId());
+        return saveAll(chunks);
+    }
 }
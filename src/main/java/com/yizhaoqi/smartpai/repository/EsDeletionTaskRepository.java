@@ -0,0 +1,21 @@
+package com.yizhaoqi.smartpai.repository;
+
+import com.yizhaoqi.smartpai.model.EsDeletionTask;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface EsDeletionTaskRepository extends JpaRepository<EsDeletionTask, Long> {
+
+    /**
+     * 按状态读取待处理的删除任务，先进先出
+     */
+    List<EsDeletionTask> findByStatusInOrderByIdAsc(Collection<EsDeletionTask.Status> statuses);
+
+    boolean existsByFileMd5(String fileMd5);
+
+    boolean existsByFileMd5AndStatusIn(String fileMd5, Collection<EsDeletionTask.Status> statuses);
+
+    List<EsDeletionTask> findByFileMd5AndStatus(String fileMd5, EsDeletionTask.Status status);
+}
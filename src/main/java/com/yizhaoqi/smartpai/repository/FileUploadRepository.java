@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -55,6 +56,12 @@ public interface FileUploadRepository extends JpaRepository<FileUpload, Long> {
     @Query("SELECT f FROM FileUpload f WHERE f.userId = :userId OR (f.orgTag IN :orgTagList AND f.isPublic = true)")
     List<FileUpload> findAccessibleIsPulicFiles(@Param("userId") String userId, @Param("orgTagList") List<String> orgTagList);
 
+    /**
+     * 用户自己上传的私有文件所在的组织标签（去重），按组织标签路由检索时用于覆盖本人文件所在的分片
+     */
+    @Query("SELECT DISTINCT f.orgTag FROM FileUpload f WHERE f.userId = :userId AND f.isPublic = false")
+    List<String> findDistinctPrivateOrgTagsByUserId(@Param("userId") String userId);
+
 
     /**
      * 查询用户自己上传的所有文件
@@ -66,4 +73,10 @@ public interface FileUploadRepository extends JpaRepository<FileUpload, Long> {
 
     List<FileUpload> findByFileMd5In(List<String> md5List);
 
+    /**
+     * 给定文件中仍有上传记录的文件MD5（去重）
+     */
+    @Query("SELECT DISTINCT f.fileMd5 FROM FileUpload f WHERE f.fileMd5 IN :md5List")
+    List<String> findExistingFileMd5In(@Param("md5List") Collection<String> md5List);
+
 }
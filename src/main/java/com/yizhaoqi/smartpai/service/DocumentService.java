@@ -46,7 +46,7 @@ public class DocumentService {
     private MinioClient minioClient;
 
     @Autowired
-    private ElasticsearchService elasticsearchService;
+    private EsDeletionService esDeletionService;
 
     @Autowired
     private OrgTagCacheService orgTagCacheService;
@@ -62,7 +62,7 @@ public class DocumentService {
      * 1. FileUpload记录
      * 2. DocumentVector记录
      * 3. MinIO中的文件
-     * 4. Elasticsearch中的向量数据
+     * 4. Elasticsearch中的向量数据（登记异步删除任务，由 EsDeletionService 在后台删除）
      *
      * @param fileMd5 文件MD5
      */
@@ -84,19 +84,11 @@ public class DocumentService {
 
             /**
              * 第一步是进行ES的数据删除
-             * 删除ES中的向量数据
+             * 只在当前事务中登记删除任务，事务提交后文件立即从检索结果中排除，
+             * ES 中的分块由后台异步 delete_by_query 删除，不占用本次请求和数据库事务
              */
-            // 1. 删除Elasticsearch中的数据
-            try {
-                /**
-                 * 调用ES客户端进行删除
-                 */
-                elasticsearchService.deleteByFileMd5(fileMd5);
-                logger.info("成功从Elasticsearch删除文档: {}", fileMd5);
-            } catch (Exception e) {
-                logger.error("从Elasticsearch删除文档时出错: {}", fileMd5, e);
-                // 继续删除其他数据
-            }
+            // 1. 登记Elasticsearch删除任务
+            esDeletionService.schedule(fileMd5, fileUpload.getOrgTag(), fileUpload.isPublic());
 
             /**
              * 第二部是删除Minio中的数据
@@ -141,6 +133,7 @@ public class DocumentService {
              */
             // 4. 删除FileUpload记录
             fileUploadRepository.deleteByFileMd5(fileMd5);
+            orgTagCacheService.deleteUserPrivateFileOrgTagsCache(fileUpload.getUserId());
             logger.info("成功删除文件上传记录: {}", fileMd5);
             
             logger.info("文档删除完成: {}", fileMd5);
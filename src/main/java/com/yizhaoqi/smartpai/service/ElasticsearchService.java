@@ -1,18 +1,23 @@
 package com.yizhaoqi.smartpai.service;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.BulkRequest;
-import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.DeleteByQueryRequest;
-import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
-import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonData;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.config.VlRetrievalProperties;
 import com.yizhaoqi.smartpai.entity.EsDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
 // Elasticsearch操作封装服务
 @Service
@@ -20,51 +25,123 @@ public class ElasticsearchService {
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchService.class);
 
+    /**
+     * 删除时同时作用于读写别名：重新向量化期间两者指向不同索引，平时是同一个索引（ES 自动去重）
+     */
+    public static final List<String> KNOWLEDGE_BASE_INDICES = List.of(EsIndexInitializer.READ_ALIAS, EsIndexInitializer.WRITE_ALIAS);
+
     @Autowired
     private ElasticsearchClient esClient;
 
+    @Autowired
+    private VlRetrievalProperties vlRetrievalProperties;
+
+    @Autowired
+    private EsBulkWriter esBulkWriter;
+
+    @Autowired
+    private EsRoutingService esRoutingService;
+
     /**
      * 批量索引文档到Elasticsearch中
-     * 通过接收一个EsDocument对象列表，将这些文档批量索引到名为"knowledge_base"的索引中
+     * 通过接收一个EsDocument对象列表，将这些文档批量索引到写别名"knowledge_base_write"指向的索引中
      * 使用Elasticsearch的Bulk API来执行批量索引操作，以提高索引效率
      *
      * @param documents 文档列表，每个文档都将被索引到Elasticsearch中
      */
     public void bulkIndex(List<EsDocument> documents) {
+        bulkIndex(EsIndexInitializer.WRITE_ALIAS, documents);
+    }
+
+    /**
+     * 批量索引文档到指定索引（多模态VL向量写入独立索引时使用）
+     * 文档交给 EsBulkWriter 按条数和字节数切成多个 _bulk 请求并发发送，被拒绝的单条操作自动重试，
+     * 调用方阻塞到全部写入成功或最终失败；目标索引要求路由时按组织标签带上路由
+     *
+     * @param index     索引名称
+     * @param documents 文档列表
+     */
+    public void bulkIndex(String index, List<EsDocument> documents) {
+        long start = System.currentTimeMillis();
+        try {
+            esBulkWriter.write(index, documents, esRoutingService.writeRouting(index)).join();
+            logger.info("批量索引成功完成，索引: {}, 文档数量: {}, 耗时: {}ms",
+                    index, documents.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            logger.error("批量索引失败，索引: {}, 文档数量: {}", index, documents.size(), cause);
+            // 如果发生异常，抛出运行时异常，表明批量索引失败
+            throw new RuntimeException("批量索引失败", cause);
+        }
+    }
+
+    /**
+     * 按文档ID显式获取包含向量的完整文档
+     * 检索链路只返回不含向量的 EsSearchHit，确实需要原始向量（排查、重排、迁移）时走这里
+     *
+     * @param index 索引名称
+     * @param ids   文档ID列表
+     * @return 存在的文档，顺序与ID一致，不存在的ID被跳过
+     */
+    public List<EsDocument> getDocumentsWithVector(String index, List<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
         try {
-            logger.info("开始批量索引文档到Elasticsearch，文档数量: {}", documents.size());
-            
-            // 将文档列表转换为批量操作列表，每个文档都对应一个索引操作
-            List<BulkOperation> bulkOperations = documents.stream()
-                    .map(doc -> BulkOperation.of(op -> op.index(idx -> idx
-                            .index("knowledge_base") // 指定索引名称
-                            .id(doc.getId()) // 使用文档的ID作为Elasticsearch中的文档ID
-                            .document(doc) // 将文档对象作为数据源
-                    )))
+            if (esRoutingService.isRouted(index, 0)) {
+                // 要求路由的索引不能不带路由按ID获取，改用 ids 查询访问全部分片
+                SearchResponse<EsDocument> response = esClient.search(s -> s
+                        .index(index)
+                        .query(q -> q.ids(i -> i.values(ids)))
+                        .size(ids.size()), EsDocument.class);
+                Map<String, EsDocument> found = new HashMap<>();
+                response.hits().hits().forEach(hit -> found.put(hit.id(), hit.source()));
+                return ids.stream().map(found::get).filter(Objects::nonNull).toList();
+            }
+            MgetResponse<EsDocument> response = esClient.mget(m -> m.index(index).ids(ids), EsDocument.class);
+            return response.docs().stream()
+                    .filter(doc -> doc.isResult() && doc.result().found())
+                    .map(doc -> doc.result().source())
+                    .filter(Objects::nonNull)
                     .toList();
+        } catch (Exception e) {
+            throw new RuntimeException("获取文档向量失败", e);
+        }
+    }
+
+    /**
+     * 删除文件重新处理后不再存在的分块：分片序号超过本次最大序号，或由其他模型生成的向量
+     * 本次写入的分块ID是确定的，已被覆盖，不会被删除
+     *
+     * @param fileMd5      文件指纹
+     * @param maxChunkId   本次处理的最大分片序号
+     * @param modelVersion 本次使用的向量模型
+     */
+    public void deleteStaleChunks(String fileMd5, int maxChunkId, String modelVersion) {
+        // 只清理写别名指向的索引：重新向量化追平阶段读索引里是旧模型的分块，切换别名后随旧索引一起下线
+        deleteStaleChunks(EsIndexInitializer.WRITE_ALIAS, fileMd5, maxChunkId, modelVersion);
+    }
 
-            // 创建BulkRequest对象，并将批量操作列表添加到请求中
-            BulkRequest request = BulkRequest.of(b -> b.operations(bulkOperations));
-            
-            // 执行批量索引操作
-            BulkResponse response = esClient.bulk(request);
-            
-            // 检查响应结果
-            if (response.errors()) {
-                logger.error("批量索引过程中发生错误:");
-                for (BulkResponseItem item : response.items()) {
-                    if (item.error() != null) {
-                        logger.error("文档索引失败 - ID: {}, 错误: {}", item.id(), item.error().reason());
-                    }
-                }
-                throw new RuntimeException("批量索引部分失败，请检查日志");
-            } else {
-                logger.info("批量索引成功完成，文档数量: {}", documents.size());
+    /**
+     * 删除指定索引中文件重新处理后不再存在的分块，VL向量索引按页码清理时使用
+     *
+     * @param index 索引或别名
+     */
+    public void deleteStaleChunks(String index, String fileMd5, int maxChunkId, String modelVersion) {
+        try {
+            long deleted = esClient.deleteByQuery(d -> d
+                    .index(index)
+                    .query(q -> q.bool(b -> b
+                            .filter(f -> f.term(t -> t.field("fileMd5").value(fileMd5)))
+                            .should(s -> s.range(r -> r.field("chunkId").gt(JsonData.of(maxChunkId))))
+                            .should(s -> s.bool(nb -> nb.mustNot(m -> m.term(t -> t.field("modelVersion").value(modelVersion)))))
+                            .minimumShouldMatch("1")))
+            ).deleted();
+            if (deleted > 0) {
+                logger.info("已清理过期分块，index: {}, fileMd5: {}, 数量: {}", index, fileMd5, deleted);
             }
         } catch (Exception e) {
-            logger.error("批量索引失败，文档数量: {}", documents.size(), e);
-            // 如果发生异常，抛出运行时异常，表明批量索引失败
-            throw new RuntimeException("批量索引失败", e);
+            throw new RuntimeException("清理过期分块失败", e);
         }
     }
 
@@ -81,13 +158,22 @@ public class ElasticsearchService {
              * 构造删除请求
              */
             DeleteByQueryRequest request = DeleteByQueryRequest.of(d -> d
-                    .index("knowledge_base")
+                    .index(KNOWLEDGE_BASE_INDICES)
                     .query(q -> q.term(t -> t.field("fileMd5").value(fileMd5)))
             );
             /**
              * 执行删除
              */
             esClient.deleteByQuery(request);
+
+            // 多模态检索开启时，同时删除VL向量索引中的页面/图片向量
+            if (vlRetrievalProperties.isEnabled()) {
+                esClient.deleteByQuery(d -> d
+                        .index(vlRetrievalProperties.getSearch().getIndex())
+                        .ignoreUnavailable(true)
+                        .query(q -> q.term(t -> t.field("fileMd5").value(fileMd5)))
+                );
+            }
         } catch (Exception e) {
             throw new RuntimeException("删除文档失败", e);
         }
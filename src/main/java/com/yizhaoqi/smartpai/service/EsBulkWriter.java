@@ -0,0 +1,313 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import com.yizhaoqi.smartpai.config.EsBulkProperties;
+import com.yizhaoqi.smartpai.entity.EsDocument;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 基于 BulkIngester 的 ES 批量写入器
+ * 所有调用方的写入操作进入同一个 BulkIngester，按条数、字节数和时间三个阈值切成 _bulk 请求，
+ * 多个请求并发在途，在途数达到上限时写入方阻塞，形成背压；
+ * 响应中被拒绝（429/502/503/504）的操作退避后重新加入，已成功的操作不会重复发送。
+ */
+@Component
+@Slf4j
+public class EsBulkWriter {
+
+    /**
+     * 一次 write 调用的完成状态，所有操作都成功后完成，任一操作最终失败则整体失败
+     */
+    static final class Tracker {
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Tracker(int count) {
+            this.remaining = new AtomicInteger(count);
+            if (count == 0) {
+                future.complete(null);
+            }
+        }
+
+        void succeeded() {
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(null);
+            }
+        }
+
+        void failed(String reason) {
+            future.completeExceptionally(new RuntimeException(reason));
+        }
+    }
+
+    /**
+     * BulkIngester 中每个操作携带的上下文：操作本身（重试时原样重新加入）、所属调用和已尝试次数
+     */
+    record Item(BulkOperation operation, Tracker tracker, int attempt) {
+        Item retry() {
+            return new Item(operation, tracker, attempt + 1);
+        }
+    }
+
+    private final ElasticsearchClient esClient;
+    private final EsBulkProperties properties;
+
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "es-bulk-retry");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, AtomicInteger> bulkImports = new ConcurrentHashMap<>();
+
+    private final AtomicLong succeededItems = new AtomicLong();
+    private final AtomicLong retriedItems = new AtomicLong();
+    private final AtomicLong failedItems = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong bulkNanos = new AtomicLong();
+    private final Map<Long, Long> requestStarts = new ConcurrentHashMap<>();
+
+    private BulkIngester<Item> ingester;
+
+    public EsBulkWriter(ElasticsearchClient esClient, EsBulkProperties properties) {
+        this.esClient = esClient;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void init() {
+        ingester = BulkIngester.of(b -> b
+                .client(esClient)
+                .maxOperations(properties.getMaxOperations())
+                .maxSize(properties.getMaxSizeMb() * 1024 * 1024)
+                .maxConcurrentRequests(properties.getMaxConcurrentRequests())
+                .flushInterval(properties.getFlushIntervalMs(), TimeUnit.MILLISECONDS)
+                .listener(new Listener()));
+        log.info("ES批量写入器已启动，单请求最多 {} 条 / {}MB，并发请求: {}，refresh放宽: {}",
+                properties.getMaxOperations(), properties.getMaxSizeMb(),
+                properties.getMaxConcurrentRequests(), properties.isRelaxRefresh());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ingester != null) {
+            ingester.close();
+        }
+        retryScheduler.shutdownNow();
+    }
+
+    /**
+     * 写入一批文档，BulkIngester 缓冲和在途请求都满时阻塞
+     *
+     * @return 所有文档写入成功后完成
+     */
+    public CompletableFuture<Void> write(String index, List<EsDocument> documents) {
+        return write(index, documents, null);
+    }
+
+    /**
+     * 写入一批文档，每个文档按 routing 计算路由
+     *
+     * @param routing 文档的路由，为 null 时不带路由
+     * @return 所有文档写入成功后完成
+     */
+    public CompletableFuture<Void> write(String index, List<EsDocument> documents, Function<EsDocument, String> routing) {
+        Tracker tracker = new Tracker(documents.size());
+        for (EsDocument doc : documents) {
+            BulkOperation operation = BulkOperation.of(op -> op.index(idx -> idx
+                    .index(index)
+                    .id(doc.getId())
+                    .routing(routing == null ? null : routing.apply(doc))
+                    .document(doc)));
+            ingester.add(operation, new Item(operation, tracker, 1));
+        }
+        return tracker.future;
+    }
+
+    /**
+     * 大批量入库开始：第一个入库任务把索引的 refresh_interval 设为 -1，减少段合并和刷新开销
+     * 未开启 relax-refresh 时不做任何事
+     */
+    public void beginBulkImport(String index) {
+        if (!properties.isRelaxRefresh()) {
+            return;
+        }
+        synchronized (bulkImports) {
+            if (bulkImports.computeIfAbsent(index, k -> new AtomicInteger()).getAndIncrement() == 0) {
+                updateRefreshInterval(index, "-1");
+            }
+        }
+    }
+
+    /**
+     * 大批量入库结束：最后一个入库任务恢复 refresh_interval 并刷新一次，让新文档可被检索
+     */
+    public void endBulkImport(String index) {
+        if (!properties.isRelaxRefresh()) {
+            return;
+        }
+        synchronized (bulkImports) {
+            AtomicInteger active = bulkImports.get(index);
+            if (active == null || active.decrementAndGet() > 0) {
+                return;
+            }
+            bulkImports.remove(index);
+            updateRefreshInterval(index, properties.getRefreshInterval());
+            try {
+                esClient.indices().refresh(r -> r.index(index));
+            } catch (Exception e) {
+                log.warn("刷新索引失败: {}", index, e);
+            }
+        }
+    }
+
+    /**
+     * 修改索引的 refresh_interval，失败只记录日志
+     */
+    public void updateRefreshInterval(String index, String interval) {
+        try {
+            esClient.indices().putSettings(s -> s
+                    .index(index)
+                    .settings(st -> st.refreshInterval(t -> t.time(interval))));
+            log.info("索引 {} 的 refresh_interval 已设为 {}", index, interval);
+        } catch (Exception e) {
+            log.warn("修改索引 {} 的 refresh_interval 为 {} 失败", index, interval, e);
+        }
+    }
+
+    /**
+     * 单条操作是否值得重试：429 为队列满被拒绝，502/503/504 为节点或网关暂时不可用
+     */
+    static boolean isRetryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * 立即发送缓冲中的操作，不等条数、字节数或时间阈值
+     */
+    public void flush() {
+        ingester.flush();
+    }
+
+    /**
+     * 重试次数未用完的操作退避后重新加入并立即发送，同一响应中被拒绝的操作合并为一个请求；用完的判为失败
+     */
+    private void retryOrFail(List<Item> rejected, String reason) {
+        List<Item> retries = new ArrayList<>();
+        for (Item item : rejected) {
+            if (item.attempt() > properties.getMaxRetries()) {
+                failedItems.incrementAndGet();
+                item.tracker().failed("批量写入失败（已重试" + properties.getMaxRetries() + "次）: " + reason);
+            } else {
+                retries.add(item);
+            }
+        }
+        if (retries.isEmpty()) {
+            return;
+        }
+        retriedItems.addAndGet(retries.size());
+        int attempt = retries.stream().mapToInt(Item::attempt).max().orElse(1);
+        // 不在监听器线程里直接 add：缓冲满时 add 会阻塞，而释放缓冲要靠监听器所在的响应线程
+        retryScheduler.schedule(() -> {
+            try {
+                retries.forEach(item -> ingester.add(item.operation(), item.retry()));
+                ingester.flush();
+            } catch (Exception e) {
+                retries.forEach(item -> item.tracker().failed("重新加入批量写入失败: " + e.getMessage()));
+            }
+        }, properties.getRetryBackoffMs() * attempt, TimeUnit.MILLISECONDS);
+    }
+
+    private class Listener implements BulkListener<Item> {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request, List<Item> contexts) {
+            requestStarts.put(executionId, System.nanoTime());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<Item> contexts, BulkResponse response) {
+            finished(executionId);
+            List<BulkResponseItem> items = response.items();
+            List<Item> rejected = new ArrayList<>();
+            String reason = null;
+            for (int i = 0; i < contexts.size(); i++) {
+                Item item = contexts.get(i);
+                BulkResponseItem result = items.get(i);
+                if (result.error() == null) {
+                    succeededItems.incrementAndGet();
+                    item.tracker().succeeded();
+                } else if (isRetryable(result.status())) {
+                    rejected.add(item);
+                    reason = result.status() + " " + result.error().reason();
+                } else {
+                    failedItems.incrementAndGet();
+                    log.error("文档写入失败 - ID: {}, 状态: {}, 错误: {}", result.id(), result.status(), result.error().reason());
+                    item.tracker().failed("文档写入失败 - ID: " + result.id() + ", 错误: " + result.error().reason());
+                }
+            }
+            if (!rejected.isEmpty()) {
+                log.warn("_bulk 请求中 {} 条操作被拒绝，将重试: {}", rejected.size(), reason);
+                retryOrFail(rejected, reason);
+            }
+        }
+
+        /**
+         * 整个请求失败（连接断开、超时等），请求里的所有操作都按可重试处理
+         */
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<Item> contexts, Throwable failure) {
+            finished(executionId);
+            failedRequests.incrementAndGet();
+            log.warn("_bulk 请求失败，操作数: {}", contexts.size(), failure);
+            retryOrFail(contexts, String.valueOf(failure.getMessage()));
+        }
+
+        private void finished(long executionId) {
+            Long start = requestStarts.remove(executionId);
+            if (start != null) {
+                bulkNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * 写入指标：请求数、在途请求、缓冲量、成功/重试/失败的操作数和平均请求耗时
+     */
+    public Map<String, Object> stats() {
+        long requests = ingester.requestCount();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requests);
+        stats.put("pendingRequests", ingester.pendingRequests());
+        stats.put("pendingOperations", ingester.pendingOperations());
+        stats.put("pendingBytes", ingester.pendingOperationsSize());
+        stats.put("succeededItems", succeededItems.get());
+        stats.put("retriedItems", retriedItems.get());
+        stats.put("failedItems", failedItems.get());
+        stats.put("failedRequests", failedRequests.get());
+        stats.put("avgRequestMs", requests == 0 ? 0 : bulkNanos.get() / requests / 1_000_000);
+        stats.put("bulkImports", Map.copyOf(bulkImports));
+        return stats;
+    }
+}
@@ -0,0 +1,319 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.Slices;
+import co.elastic.clients.elasticsearch._types.SlicesCalculation;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.config.VlRetrievalProperties;
+import com.yizhaoqi.smartpai.model.EsDeletionTask;
+import com.yizhaoqi.smartpai.repository.EsDeletionTaskRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.json.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 异步删除ES中的文档
+ * 删除文档时只在数据库事务中写入删除任务（发件箱）并把文件加入墓碑集合，接口立即返回；
+ * 检索时按墓碑集合排除这些文件，删除立即对用户生效。
+ * 后台线程把删除任务提交为 ES 的异步 delete_by_query（wait_for_completion=false、自动分片），
+ * 轮询任务直到完成，失败的任务重新提交，某个文件的所有任务完成后再移出墓碑集合。
+ */
+@Service
+@Slf4j
+public class EsDeletionService {
+
+    static final String TOMBSTONE_KEY = "es:deleting";
+
+    private final ElasticsearchClient esClient;
+    private final EsDeletionTaskRepository deletionTaskRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final VlRetrievalProperties vlRetrievalProperties;
+    private final SearchResultCacheService searchResultCacheService;
+
+    @Value("${elasticsearch.deletion.poll-interval-ms:2000}")
+    private long pollIntervalMs;
+
+    /** 单个删除任务的最大提交次数，用尽后标记为 FAILED，文件保持屏蔽 */
+    @Value("${elasticsearch.deletion.max-attempts:5}")
+    private int maxAttempts;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "es-deletion");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public EsDeletionService(ElasticsearchClient esClient, EsDeletionTaskRepository deletionTaskRepository,
+                             StringRedisTemplate stringRedisTemplate, VlRetrievalProperties vlRetrievalProperties,
+                             SearchResultCacheService searchResultCacheService) {
+        this.esClient = esClient;
+        this.deletionTaskRepository = deletionTaskRepository;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.vlRetrievalProperties = vlRetrievalProperties;
+        this.searchResultCacheService = searchResultCacheService;
+    }
+
+    @PostConstruct
+    public void init() {
+        worker.scheduleWithFixedDelay(this::process, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * 登记一个文件的ES删除，在调用方的数据库事务中写入删除任务；
+     * 事务提交后加入墓碑集合、让文件所在组织标签的检索结果缓存失效并立即触发一次处理，事务回滚则什么都不发生
+     *
+     * @param fileMd5  文件指纹
+     * @param orgTag   文件的组织标签
+     * @param isPublic 文件是否公开
+     */
+    public void schedule(String fileMd5, String orgTag, boolean isPublic) {
+        List<EsDeletionTask> tasks = new ArrayList<>();
+        tasks.add(new EsDeletionTask(fileMd5, EsIndexInitializer.READ_ALIAS));
+        if (vlRetrievalProperties.isEnabled()) {
+            tasks.add(new EsDeletionTask(fileMd5, vlRetrievalProperties.getSearch().getIndex()));
+        }
+        deletionTaskRepository.saveAll(tasks);
+
+        Runnable afterCommit = () -> {
+            addTombstones(Set.of(fileMd5));
+            // 墓碑写入之后再失效缓存，之后的检索结果一定排除了该文件
+            searchResultCacheService.invalidate(orgTag, isPublic, false);
+            worker.execute(this::process);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    afterCommit.run();
+                }
+            });
+        } else {
+            afterCommit.run();
+        }
+        log.info("已登记ES删除任务，fileMd5: {}, 索引数: {}", fileMd5, tasks.size());
+    }
+
+    /**
+     * 正在删除的文件，检索时排除；读取失败时返回空集合
+     */
+    public Set<String> deletingFiles() {
+        try {
+            Set<String> members = stringRedisTemplate.opsForSet().members(TOMBSTONE_KEY);
+            return members == null ? Set.of() : members;
+        } catch (Exception e) {
+            log.warn("读取删除墓碑失败，本次检索不排除删除中的文件", e);
+            return Set.of();
+        }
+    }
+
+    /**
+     * 文件是否还有待提交或执行中的ES删除，此时重新入库的分块可能被删除任务一并删掉
+     * 重试用尽（FAILED）的任务不会再执行，不算在内
+     */
+    public boolean isDeleting(String fileMd5) {
+        return deletionTaskRepository.existsByFileMd5AndStatusIn(fileMd5,
+                List.of(EsDeletionTask.Status.PENDING, EsDeletionTask.Status.RUNNING));
+    }
+
+    /**
+     * 文件重新入库完成：该文件重试用尽的删除任务已被新分块取代（文档ID确定，旧分块已覆盖或清理），
+     * 撤销这些任务，没有其他未完成任务时移出墓碑集合
+     */
+    public void supersedeFailed(String fileMd5) {
+        List<EsDeletionTask> failed = deletionTaskRepository.findByFileMd5AndStatus(fileMd5, EsDeletionTask.Status.FAILED);
+        if (failed.isEmpty()) {
+            return;
+        }
+        deletionTaskRepository.deleteAll(failed);
+        log.info("文件已重新入库，撤销重试用尽的删除任务，fileMd5: {}, 任务数: {}", fileMd5, failed.size());
+        if (!deletionTaskRepository.existsByFileMd5(fileMd5)) {
+            removeTombstone(fileMd5);
+        }
+    }
+
+    /**
+     * 处理一轮删除任务：提交待提交的，检查已提交的
+     */
+    void process() {
+        try {
+            List<EsDeletionTask> tasks = deletionTaskRepository.findByStatusInOrderByIdAsc(
+                    List.of(EsDeletionTask.Status.PENDING, EsDeletionTask.Status.RUNNING));
+            if (tasks.isEmpty()) {
+                return;
+            }
+            // 每轮补一次墓碑，Redis 数据丢失后也能恢复屏蔽
+            addTombstones(tasks.stream().map(EsDeletionTask::getFileMd5).collect(Collectors.toSet()));
+            for (EsDeletionTask task : tasks) {
+                try {
+                    if (task.getStatus() == EsDeletionTask.Status.PENDING) {
+                        submit(task);
+                    } else {
+                        poll(task);
+                    }
+                } catch (ObjectOptimisticLockingFailureException e) {
+                    log.debug("删除任务已被其他实例处理，id: {}", task.getId());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("处理ES删除任务失败", e);
+        }
+    }
+
+    private void submit(EsDeletionTask task) {
+        task.setAttempts(task.getAttempts() + 1);
+        try {
+            DeleteByQueryResponse response = esClient.deleteByQuery(d -> d
+                    .index(EsIndexInitializer.READ_ALIAS.equals(task.getIndexName())
+                            ? ElasticsearchService.KNOWLEDGE_BASE_INDICES : List.of(task.getIndexName()))
+                    .ignoreUnavailable(true)
+                    .query(q -> q.term(t -> t.field("fileMd5").value(task.getFileMd5())))
+                    .conflicts(Conflicts.Proceed)
+                    .slices(Slices.of(s -> s.computed(SlicesCalculation.Auto)))
+                    .waitForCompletion(false));
+            task.setTaskId(response.task());
+            task.setStatus(EsDeletionTask.Status.RUNNING);
+            deletionTaskRepository.save(task);
+            log.info("已提交ES删除任务，fileMd5: {}, 索引: {}, 任务: {}", task.getFileMd5(), task.getIndexName(), task.getTaskId());
+        } catch (ObjectOptimisticLockingFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            retryOrFail(task, "提交失败: " + e.getMessage());
+        }
+    }
+
+    private void poll(EsDeletionTask task) {
+        GetTasksResponse response;
+        try {
+            response = esClient.tasks().get(g -> g.taskId(task.getTaskId()));
+        } catch (ElasticsearchException e) {
+            if (e.status() == 404) {
+                // 任务记录丢失（如集群重启），重新提交；删除是幂等的
+                retryOrFail(task, "ES任务不存在: " + task.getTaskId());
+                return;
+            }
+            log.warn("查询ES删除任务失败，任务: {}", task.getTaskId(), e);
+            return;
+        } catch (Exception e) {
+            log.warn("查询ES删除任务失败，任务: {}", task.getTaskId(), e);
+            return;
+        }
+        if (!response.completed()) {
+            return;
+        }
+        if (response.error() != null) {
+            retryOrFail(task, response.error().reason());
+            return;
+        }
+        long deleted = 0;
+        if (response.response() != null) {
+            JsonObject result = response.response().toJson().asJsonObject();
+            if (result.containsKey("failures") && !result.getJsonArray("failures").isEmpty()) {
+                retryOrFail(task, "部分文档删除失败: " + result.getJsonArray("failures").get(0));
+                return;
+            }
+            deleted = result.containsKey("deleted") ? result.getJsonNumber("deleted").longValue() : 0;
+        }
+        deletionTaskRepository.delete(task);
+        log.info("ES删除任务完成，fileMd5: {}, 索引: {}, 删除文档数: {}, 提交次数: {}",
+                task.getFileMd5(), task.getIndexName(), deleted, task.getAttempts());
+        if (!deletionTaskRepository.existsByFileMd5(task.getFileMd5())) {
+            removeTombstone(task.getFileMd5());
+        }
+    }
+
+    private void retryOrFail(EsDeletionTask task, String error) {
+        task.setLastError(error.length() > 512 ? error.substring(0, 512) : error);
+        task.setTaskId(null);
+        if (task.getAttempts() >= maxAttempts) {
+            task.setStatus(EsDeletionTask.Status.FAILED);
+            log.error("ES删除任务重试用尽，fileMd5: {}, 索引: {}, 错误: {}", task.getFileMd5(), task.getIndexName(), error);
+        } else {
+            task.setStatus(EsDeletionTask.Status.PENDING);
+            log.warn("ES删除任务失败，将重新提交，fileMd5: {}, 索引: {}, 错误: {}", task.getFileMd5(), task.getIndexName(), error);
+        }
+        deletionTaskRepository.save(task);
+    }
+
+    private void addTombstones(Set<String> fileMd5s) {
+        try {
+            stringRedisTemplate.opsForSet().add(TOMBSTONE_KEY, fileMd5s.toArray(String[]::new));
+        } catch (Exception e) {
+            log.warn("写入删除墓碑失败，fileMd5: {}", fileMd5s, e);
+        }
+    }
+
+    private void removeTombstone(String fileMd5) {
+        try {
+            stringRedisTemplate.opsForSet().remove(TOMBSTONE_KEY, fileMd5);
+        } catch (Exception e) {
+            log.warn("移除删除墓碑失败，fileMd5: {}", fileMd5, e);
+        }
+    }
+
+    /**
+     * 把重试用尽的删除任务重新放回待提交状态
+     *
+     * @return 重新放回的任务数
+     */
+    public int retryFailed() {
+        List<EsDeletionTask> failed = deletionTaskRepository.findByStatusInOrderByIdAsc(List.of(EsDeletionTask.Status.FAILED));
+        failed.forEach(task -> {
+            task.setStatus(EsDeletionTask.Status.PENDING);
+            task.setAttempts(0);
+        });
+        deletionTaskRepository.saveAll(failed);
+        if (!failed.isEmpty()) {
+            worker.execute(this::process);
+        }
+        return failed.size();
+    }
+
+    /**
+     * 未完成的删除任务和墓碑数量，供管理接口查看
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("tombstones", deletingFiles().size());
+        status.put("tasks", deletionTaskRepository.findAll().stream()
+                .map(task -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("id", task.getId());
+                    item.put("fileMd5", task.getFileMd5());
+                    item.put("index", task.getIndexName());
+                    item.put("status", task.getStatus());
+                    item.put("taskId", task.getTaskId());
+                    item.put("attempts", task.getAttempts());
+                    item.put("lastError", task.getLastError());
+                    item.put("createdAt", task.getCreatedAt());
+                    return item;
+                })
+                .toList());
+        return status;
+    }
+}
@@ -0,0 +1,134 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.indices.get_mapping.IndexMappingRecord;
+import co.elastic.clients.json.JsonData;
+import com.yizhaoqi.smartpai.client.EmbeddingModelRegistry;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * knowledge_base 各物理索引的向量模型
+ * 模型取自映射 _meta（没有 _meta 的旧索引取任一文档的 modelVersion，空索引按当前向量化后端），维度取自向量字段映射。
+ * 检索按读别名指向的索引选择查询向量的模型，并直接检索该物理索引，模型和索引始终一致；
+ * 入库按写别名指向的索引选择模型。读侧结果缓存 30 秒，写侧每次重新读取。
+ */
+@Service
+@Slf4j
+public class EsIndexModelService {
+
+    /** 检索侧缓存读索引模型的时长，别名切换后最多这么久改查新索引 */
+    private static final long READ_CACHE_TTL_MS = 30_000;
+
+    /**
+     * 索引的向量模型
+     *
+     * @param index   检索或写入时使用的名称：别名只指向一个索引时为该物理索引，否则为别名本身
+     * @param modelId 写入该索引的向量模型
+     * @param dims    向量字段维度，未知时为 0
+     */
+    public record IndexModel(String index, String modelId, int dims) {
+    }
+
+    private record Cached(IndexModel model, long expiresAt) {
+    }
+
+    private final ElasticsearchClient esClient;
+    private final EmbeddingModelRegistry embeddingModelRegistry;
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+
+    public EsIndexModelService(ElasticsearchClient esClient, EmbeddingModelRegistry embeddingModelRegistry) {
+        this.esClient = esClient;
+        this.embeddingModelRegistry = embeddingModelRegistry;
+    }
+
+    /**
+     * 读别名指向的索引及其模型
+     */
+    public IndexModel readModel() {
+        return resolve(EsIndexInitializer.READ_ALIAS, READ_CACHE_TTL_MS);
+    }
+
+    /**
+     * 写别名指向的索引及其模型，每次重新读取，写别名切换后的第一批入库就改用新模型
+     */
+    public IndexModel writeModel() {
+        return resolve(EsIndexInitializer.WRITE_ALIAS, 0);
+    }
+
+    /**
+     * 别名切换后清除缓存
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * 索引（或别名）的模型；读取失败时沿用上次结果，没有结果时按当前向量化后端
+     */
+    IndexModel resolve(String name, long maxAgeMs) {
+        long now = System.currentTimeMillis();
+        Cached cached = cache.get(name);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.model();
+        }
+        try {
+            Map<String, IndexMappingRecord> mappings = esClient.indices().getMapping(g -> g.index(name)).result();
+            IndexModel model = null;
+            for (Map.Entry<String, IndexMappingRecord> entry : mappings.entrySet()) {
+                String index = mappings.size() == 1 ? entry.getKey() : name;
+                IndexModel current = new IndexModel(index, modelId(entry.getKey(), entry.getValue().mappings()),
+                        dims(entry.getValue().mappings()));
+                if (model == null) {
+                    model = current;
+                } else if (!model.modelId().equals(current.modelId()) || model.dims() != current.dims()) {
+                    log.warn("{} 指向的索引使用了不同的向量模型: {} / {}，按第一个处理", name, model, current);
+                }
+            }
+            if (model == null) {
+                throw new IllegalStateException("索引不存在");
+            }
+            cache.put(name, new Cached(model, now + maxAgeMs));
+            return model;
+        } catch (Exception e) {
+            IndexModel fallback = cached != null ? cached.model() : primaryModel(name);
+            log.warn("读取 {} 的向量模型失败，按 {} 处理: {}", name, fallback, e.getMessage());
+            return fallback;
+        }
+    }
+
+    private String modelId(String index, TypeMapping mapping) throws Exception {
+        JsonData meta = mapping == null || mapping.meta() == null ? null : mapping.meta().get(EsIndexInitializer.META_MODEL_ID);
+        if (meta != null) {
+            return meta.to(String.class);
+        }
+        @SuppressWarnings("rawtypes")
+        var hits = esClient.search(s -> s
+                .index(index)
+                .size(1)
+                .source(src -> src.filter(f -> f.includes("modelVersion"))), Map.class).hits().hits();
+        if (!hits.isEmpty() && hits.get(0).source() != null && hits.get(0).source().get("modelVersion") instanceof String model) {
+            return model;
+        }
+        return embeddingModelRegistry.primary().modelId();
+    }
+
+    private static int dims(TypeMapping mapping) {
+        Property vector = mapping == null ? null : mapping.properties().get("vector");
+        if (vector != null && vector.isDenseVector()) {
+            return vector.denseVector().dims();
+        }
+        return 0;
+    }
+
+    private IndexModel primaryModel(String name) {
+        EmbeddingModelRegistry.Model primary = embeddingModelRegistry.primary();
+        return new IndexModel(name, primary.modelId(), primary.dims());
+    }
+}
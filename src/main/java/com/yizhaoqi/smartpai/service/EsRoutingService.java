@@ -0,0 +1,121 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.indices.get_mapping.IndexMappingRecord;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.config.EsRoutingProperties;
+import com.yizhaoqi.smartpai.entity.EsDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * knowledge_base 的路由
+ * 是否路由取决于索引本身（映射中 _routing.required），而不是当前配置：
+ * 要求路由的索引写入时必须带路由，检索时只访问相关分片；没有路由的旧索引照常写入和全分片检索。
+ * 这样读写别名在迁移期间分别指向新旧索引时，两边各自按自己的方式工作。
+ */
+@Service
+@Slf4j
+public class EsRoutingService {
+
+    /** 检索侧缓存索引是否路由的时长，别名切换后最多这么久生效 */
+    private static final long READ_CACHE_TTL_MS = 30_000;
+
+    private record Cached(boolean routed, long expiresAt) {
+    }
+
+    private final ElasticsearchClient esClient;
+    private final EsRoutingProperties properties;
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+
+    public EsRoutingService(ElasticsearchClient esClient, EsRoutingProperties properties) {
+        this.esClient = esClient;
+        this.properties = properties;
+    }
+
+    /**
+     * 写入指定索引（或别名）时每个文档的路由；索引不要求路由时返回 null
+     * 每次写入都重新读取映射，写别名切到要求路由的新索引后不会漏带路由
+     */
+    public Function<EsDocument, String> writeRouting(String index) {
+        if (!isRouted(index, 0)) {
+            return null;
+        }
+        return doc -> properties.routingKey(doc.getOrgTag(), doc.isPublic());
+    }
+
+    /**
+     * 带权限检索的路由参数；检索的索引不要求路由时返回 null，检索访问全部分片
+     *
+     * @param index   检索的索引（读别名当前指向的物理索引）
+     * @param orgTags 用户有效组织标签和本人私有文件所在的组织标签
+     */
+    public String searchRouting(String index, Collection<String> orgTags) {
+        if (!isReadRouted(index)) {
+            return null;
+        }
+        return properties.searchRouting(orgTags);
+    }
+
+    /**
+     * 检索该索引时是否按路由访问分片
+     */
+    public boolean isReadRouted(String index) {
+        return isRouted(index, READ_CACHE_TTL_MS);
+    }
+
+    /**
+     * 别名切换后清除缓存
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * 索引（或别名指向的全部索引）是否要求路由；读取映射失败时沿用上次结果，没有结果时按配置判断
+     */
+    boolean isRouted(String index, long maxAgeMs) {
+        long now = System.currentTimeMillis();
+        Cached cached = cache.get(index);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.routed();
+        }
+        try {
+            Map<String, IndexMappingRecord> mappings = esClient.indices().getMapping(g -> g.index(index)).result();
+            boolean routed = !mappings.isEmpty() && mappings.values().stream()
+                    .map(IndexMappingRecord::mappings)
+                    .allMatch(EsRoutingService::routingRequired);
+            cache.put(index, new Cached(routed, now + maxAgeMs));
+            return routed;
+        } catch (Exception e) {
+            boolean fallback = cached != null ? cached.routed() : properties.isEnabled();
+            log.warn("读取索引 {} 的路由设置失败，按{}处理: {}", index, fallback ? "路由" : "不路由", e.getMessage());
+            return fallback;
+        }
+    }
+
+    private static boolean routingRequired(TypeMapping mapping) {
+        return mapping != null && mapping.routing() != null && Boolean.TRUE.equals(mapping.routing().required());
+    }
+
+    /**
+     * 路由配置和读写两侧索引当前是否路由，供管理接口查看
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", properties.isEnabled());
+        status.put("numberOfShards", properties.getNumberOfShards());
+        status.put("partitionSize", properties.getPartitionSize());
+        status.put("groups", properties.getGroups());
+        status.put("readRouted", isRouted(EsIndexInitializer.READ_ALIAS, 0));
+        status.put("writeRouted", isRouted(EsIndexInitializer.WRITE_ALIAS, 0));
+        return status;
+    }
+}
@@ -0,0 +1,48 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.config.FileProcessingProperties;
+import com.yizhaoqi.smartpai.config.KafkaConfig;
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
+import com.yizhaoqi.smartpai.model.FileProcessingTask;
+import org.springframework.stereotype.Service;
+
+/**
+ * 文件处理任务路由：按文件类型和大小选择处理通道
+ * PDF逐页识图/VL向量化耗时最长，固定走重任务通道；图片单独一个通道；
+ * 其余文件按大小区分，小文件走文本通道，保证批量导入期间也能秒级可检索
+ */
+@Service
+public class FileTaskRouter {
+
+    private final FileTypeValidationService fileTypeValidationService;
+    private final FileProcessingProperties fileProcessingProperties;
+    private final KafkaConfig kafkaConfig;
+
+    public FileTaskRouter(FileTypeValidationService fileTypeValidationService,
+                          FileProcessingProperties fileProcessingProperties,
+                          KafkaConfig kafkaConfig) {
+        this.fileTypeValidationService = fileTypeValidationService;
+        this.fileProcessingProperties = fileProcessingProperties;
+        this.kafkaConfig = kafkaConfig;
+    }
+
+    public FileProcessingLane route(FileProcessingTask task) {
+        if (fileTypeValidationService.isPdfExtension(task.getFileName())) {
+            return FileProcessingLane.HEAVY;
+        }
+        if (fileTypeValidationService.isImageExtension(task.getFileName())) {
+            return FileProcessingLane.IMAGE;
+        }
+        if (task.getFileSize() > fileProcessingProperties.getHeavyFileSizeBytes()) {
+            return FileProcessingLane.HEAVY;
+        }
+        return FileProcessingLane.TEXT;
+    }
+
+    /**
+     * 任务应发送到的主题
+     */
+    public String topicFor(FileProcessingTask task) {
+        return kafkaConfig.getLaneTopic(route(task));
+    }
+}
@@ -2,16 +2,25 @@ package com.yizhaoqi.smartpai.service;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
-import com.yizhaoqi.smartpai.client.EmbeddingClient;
-import com.yizhaoqi.smartpai.entity.EsDocument;
+import co.elastic.clients.elasticsearch.core.search.Rescore;
+import com.yizhaoqi.smartpai.client.EmbeddingModelRegistry;
+import com.yizhaoqi.smartpai.config.SearchProperties;
+import com.yizhaoqi.smartpai.config.VlRetrievalProperties;
+import com.yizhaoqi.smartpai.entity.EsSearchHit;
 import com.yizhaoqi.smartpai.entity.SearchResult;
-import com.yizhaoqi.smartpai.langchain4j.embedding.EmbeddingUtils;
+import com.yizhaoqi.smartpai.langchain4j.LangChain4jConfig;
+import com.yizhaoqi.smartpai.langchain4j.vlembedding.VLEmbeddingModelUtils;
 import com.yizhaoqi.smartpai.model.User;
 import com.yizhaoqi.smartpai.exception.CustomException;
 import com.yizhaoqi.smartpai.repository.UserRepository;
 import com.yizhaoqi.smartpai.repository.FileUploadRepository;
 import com.yizhaoqi.smartpai.model.FileUpload;
+import com.yizhaoqi.smartpai.utils.LatencyRecorder;
+import com.yizhaoqi.smartpai.utils.RankFusionUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,11 +29,20 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -40,9 +58,13 @@ public class HybridSearchService {
     private ElasticsearchClient esClient;
 
     @Autowired
-    private EmbeddingClient embeddingClient;
-    @Resource
-    private EmbeddingUtils embeddingUtils;
+    private EmbeddingModelRegistry embeddingModelRegistry;
+
+    @Autowired
+    private EsIndexModelService esIndexModelService;
+
+    @Autowired
+    private QueryEmbeddingCacheService queryEmbeddingCacheService;
 
     @Autowired
     private UserService userService;
@@ -56,6 +78,45 @@ public class HybridSearchService {
     @Autowired
     private FileUploadRepository fileUploadRepository;
 
+    @Autowired
+    private VlRetrievalProperties vlRetrievalProperties;
+
+    @Resource
+    private VLEmbeddingModelUtils vlEmbeddingModelUtils;
+
+    @Autowired
+    private LangChain4jConfig langChain4jConfig;
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    @Autowired
+    private EsDeletionService esDeletionService;
+
+    @Autowired
+    private EsRoutingService esRoutingService;
+
+    @Autowired
+    private SearchResultCacheService searchResultCacheService;
+
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder(1024);
+    private ExecutorService searchExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger seq = new AtomicInteger();
+        searchExecutor = Executors.newFixedThreadPool(Math.max(1, searchProperties.getFanoutThreads()), r -> {
+            Thread t = new Thread(r, "search-fanout-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+    }
+
     /**
      * 使用文本匹配和向量相似度进行混合搜索，支持权限过滤
      * 该方法确保用户只能搜索其有权限访问的文档（自己的文档、公开文档、所属组织的文档）
@@ -66,29 +127,75 @@ public class HybridSearchService {
      * @return 搜索结果列表
      */
     public List<SearchResult> searchWithPermission(String query, String userId, int topK) {
+        return searchWithPermission(query, userId, topK, null);
+    }
+
+    /**
+     * 指定排序模式的带权限搜索，离线评估对比两种模式时使用
+     * 只有 rankingMode 为 null（线上检索）时使用检索结果缓存，评估始终真实执行检索
+     *
+     * @param rankingMode 排序模式，为 null 时使用 search.ranking-mode 配置
+     */
+    public List<SearchResult> searchWithPermission(String query, String userId, int topK,
+                                                   SearchProperties.RankingMode rankingMode) {
         /**
          * 日志打印
          */
         logger.debug("开始带权限搜索，查询: {}, 用户ID: {}", query, userId);
-        
-        try {
-            // 获取用户有效的组织标签（包含层级关系）
+        long searchStart = System.nanoTime();
+        PermissionContext permission = null;
 
+        try {
             /**
-             * 这里是获取用户对应的标签
+             * 权限上下文（用户只查一次，再取有效组织标签）和查询向量互不依赖，并行获取：
+             * 权限在检索线程池中解析，向量在当前线程生成，总等待时间取两者较长的一个；
+             * 开启结果缓存时向量也放到检索线程池中生成，当前线程等权限解析完成后查缓存，
+             * 命中直接返回、不再等待向量，未命中时向量已与权限解析并行生成。
+             * 查询向量使用读别名所指索引的模型，并直接检索该物理索引：重新向量化期间仍用旧模型查旧索引
              */
-            List<String> userEffectiveTags = getUserEffectiveOrgTags(userId);
-            logger.debug("用户 {} 的有效组织标签: {}", userId, userEffectiveTags);
+            EsIndexModelService.IndexModel readModel = esIndexModelService.readModel();
+            CompletableFuture<PermissionContext> permissionFuture = CompletableFuture.supplyAsync(
+                    () -> latencyRecorder.time("permission", () -> resolvePermissionContext(userId, readModel.index())), searchExecutor);
+            SearchProperties.RankingMode mode = rankingMode != null ? rankingMode : searchProperties.getRankingMode();
+            boolean useCache = rankingMode == null && searchResultCacheService.isEnabled();
+            CompletableFuture<List<Float>> embedFuture = useCache
+                    ? CompletableFuture.supplyAsync(() -> latencyRecorder.time("embed", () -> embedToVectorList(query, readModel)), searchExecutor)
+                    : null;
+
+            // 结果缓存的键依赖权限；代数快照在检索之前读取
+            String cacheKey = null;
+            String generations = null;
+            if (useCache) {
+                permission = joinPermission(permissionFuture);
+                if (permission.ownPrivateTags() != null) {
+                    Set<String> tags = new HashSet<>(permission.effectiveTags());
+                    tags.addAll(permission.ownPrivateTags());
+                    generations = searchResultCacheService.generations(tags);
+                    cacheKey = SearchResultCacheService.key(readModel.modelId() + ":" + mode, query, topK,
+                            SearchResultCacheService.fingerprint(permission.userDbId(), permission.effectiveTags(),
+                                    permission.ownPrivateTags()));
+                }
+                List<SearchResult> cached = generations == null ? null : searchResultCacheService.get(cacheKey, generations);
+                if (cached != null) {
+                    // 已发出的向量请求照常完成并写入查询向量缓存，这里只是不再等待
+                    embedFuture.cancel(false);
+                    latencyRecorder.record("cache-hit", System.nanoTime() - searchStart);
+                    logger.debug("检索结果缓存命中，查询: {}", query);
+                    return cached;
+                }
+            }
 
-            // 获取用户的数据库ID用于权限过滤
-            String userDbId = getUserDbId(userId);
-            logger.debug("用户 {} 的数据库ID: {}", userId, userDbId);
+            final List<Float> queryVector = embedFuture != null ? embedFuture.join()
+                    : latencyRecorder.time("embed", () -> embedToVectorList(query, readModel));
+            permission = joinPermission(permissionFuture);
+            final PermissionContext context = permission;
+            logger.debug("用户 {} 的数据库ID: {}, 有效组织标签: {}", userId, context.userDbId(), context.effectiveTags());
 
-            // 生成查询向量
-            /**
-             * 这里传入的是用户输入的文本
-             */
-            final List<Float> queryVector = embedToVectorList(query);
+            // VL检索自带向量化和ES查询，与文本检索并行执行
+            CompletableFuture<List<SearchResult>> visualFuture = vlRetrievalProperties.isEnabled()
+                    ? CompletableFuture.supplyAsync(() -> latencyRecorder.time("vl",
+                            () -> visualSearchWithPermission(query, context, topK)), searchExecutor)
+                    : null;
 
             // 如果向量生成失败，仅使用文本匹配
             if (queryVector == null) {
@@ -98,7 +205,10 @@ public class HybridSearchService {
                  * 表示ES存储的没有对应的关键词
                  * 使用文本匹配
                  */
-                return textOnlySearchWithPermission(query, userDbId, userEffectiveTags, topK);
+                if (visualFuture != null) {
+                    visualFuture.cancel(false);
+                }
+                return textOnlySearchWithPermission(query, context, topK);
             }
 
             /**
@@ -108,106 +218,21 @@ public class HybridSearchService {
              */
             logger.debug("向量生成成功，开始执行混合搜索 KNN");
 
-            SearchResponse<EsDocument> response = esClient.search(s -> {
-                s.index("knowledge_base");
-
-                // 1. KNN 向量召回
-                /**
-                 * 这是“懂意思”的搜索。它将用户的提问转成一串数字（向量），在 ES 中寻找含义最接近的内容。
-                 */
-                int recallK = topK * 30;
-                s.knn(kn -> kn
-                        .field("vector")
-                        .queryVector(queryVector)
-                        .k(recallK)
-                        .numCandidates(recallK)
-                );
-
-                // 2. 混合查询
-                /**
-                 * 从海量文档中，找出内容相关且用户有权查看的所有文档。
-                 */
-                s.query(q -> q.bool(b -> b
-                        // A. 必须匹配关键词
-                        .must(mst -> mst.match(m -> m.field("textContent").query(query)))
-
-                        // B. 权限过滤块
-                        .filter(f -> f.bool(bf -> bf
-                                // 【关键修复】确保三个 should 条件至少中一个
-                                .minimumShouldMatch("1")
-
-                                // 条件1: 匹配本人 (显式转 String)
-                                .should(s1 -> s1.term(t -> t.field("userId").value(String.valueOf(userDbId))))
-
-                                // 条件2: 公开文档 (已修正字段名)
-                                .should(s2 -> s2.term(t -> t.field("isPublic").value(true)))
-
-                                // 条件3: 组织标签 (使用 terms 优化，防止标签为空时的报错)
-                                .should(s3 -> {
-                                    if (userEffectiveTags == null || userEffectiveTags.isEmpty()) {
-                                        return s3.term(t -> t.field("orgTag").value("_NONE_"));
-                                    }
-                                    // 使用 terms 一次性匹配多个标签，比 forEach should 更稳健
-                                    return s3.terms(t -> t.field("orgTag")
-                                            .terms(v -> v.value(userEffectiveTags.stream()
-                                                    .map(FieldValue::of).toList())));
-                                })
-                        ))
-                ));
-
-                /**
-                 * 这一步是RAG 效果好坏的关键。
-                 * 前面的 KNN（向量搜索）和 match（关键词搜索）可能召回了几百条文档（recallK），其中有些可能只是偶尔提到了关键词，但不是重点。
-                 * Rescore 的作用就是在一个小范围内（比如前 150 条），用更严格的标准重新打分，把真正的“标准答案”顶到最前面。
-                 *
-                 * 本质就是答案再过滤
-                 */
-                        // 第二阶段 BM25 rescore
-                        s.rescore(r -> r
-                                .windowSize(recallK)
-                                .query(rq -> rq
-                                        .queryWeight(0.2d)               // 保留部分 KNN 分
-                                        .rescoreQueryWeight(1.0d)        // BM25 主导
-                                        .query(rqq -> rqq.match(m -> m
-                                                .field("textContent")
-                                                .query(query)
-                                                .operator(Operator.And)
-                                        ))
-                                )
-                        );
-                        s.size(topK);
-                        return s;
-                    }, EsDocument.class);
-
-            logger.debug("Elasticsearch查询执行完成，命中数量: {}, 最大分数: {}", 
-                response.hits().total().value(), response.hits().maxScore());
-
-
-            /**
-             * 这个就是给查询道德查询结果
-             * 进行结构封装
-             * 同时放回
-             */
-            List<SearchResult> results = response.hits().hits().stream()
-                    .map(hit -> {
-                        assert hit.source() != null;
-                        logger.debug("搜索结果 - 文件: {}, 块: {}, 分数: {}, 内容: {}", 
-                            hit.source().getFileMd5(), hit.source().getChunkId(), hit.score(), 
-                            hit.source().getTextContent().substring(0, Math.min(50, hit.source().getTextContent().length())));
-                        return new SearchResult(
-                                hit.source().getFileMd5(),
-                                hit.source().getChunkId(),
-                                hit.source().getTextContent(),
-                                hit.score(),
-                                hit.source().getUserId(),
-                                hit.source().getOrgTag(),
-                                hit.source().isPublic()
-                        );
-                    })
-                    .toList();
-
+            Query permissionFilter = context.filter();
+            List<SearchResult> results = mode == SearchProperties.RankingMode.FUSION
+                    ? fusionSearch(context.index(), query, queryVector, permissionFilter, context.routing(), topK)
+                    : rescoreSearch(context.index(), query, queryVector, permissionFilter, context.routing(), topK);
             logger.debug("返回搜索结果数量: {}", results.size());
+            if (visualFuture != null) {
+                results = fuseVisualResults(results, visualFuture.join(), topK);
+            }
             attachFileNames(results);
+            if (generations != null) {
+                searchResultCacheService.put(cacheKey, generations, results);
+            }
+            long totalNanos = System.nanoTime() - searchStart;
+            latencyRecorder.record("total", totalNanos);
+            logger.debug("带权限搜索完成，总耗时: {}ms", totalNanos / 1_000_000);
             return results;
         } catch (Exception e) {
             /**
@@ -217,7 +242,9 @@ public class HybridSearchService {
             // 发生异常时尝试使用纯文本搜索作为后备方案
             try {
                 logger.info("尝试使用纯文本搜索作为后备方案");
-                return textOnlySearchWithPermission(query, getUserDbId(userId), getUserEffectiveOrgTags(userId), topK);
+                PermissionContext fallback = permission != null ? permission
+                        : resolvePermissionContext(userId, esIndexModelService.readModel().index());
+                return textOnlySearchWithPermission(query, fallback, topK);
             } catch (Exception fallbackError) {
                 logger.error("后备搜索也失败", fallbackError);
                 return Collections.emptyList();
@@ -225,18 +252,241 @@ public class HybridSearchService {
         }
     }
 
+    /**
+     * 单请求重排模式：kNN 与 BM25 在一次ES请求中召回，再用 BM25 rescore 窗口重新打分
+     */
+    private List<SearchResult> rescoreSearch(String index, String query, List<Float> queryVector, Query permissionFilter,
+                                             String routing, int topK) throws IOException {
+        long esStart = System.nanoTime();
+        SearchResponse<EsSearchHit> response = esClient.search(s -> {
+            s.index(index);
+            // 按组织标签路由时只访问用户可见文档所在的分片
+            s.routing(routing);
+
+            // 1. KNN 向量召回
+            /**
+             * 这是“懂意思”的搜索。它将用户的提问转成一串数字（向量），在 ES 中寻找含义最接近的内容。
+             * 权限过滤放在 kNN 内部，HNSW 遍历时只收集用户可见的文档：
+             * 返回的 k 个邻居都有权限，权限范围很窄的用户召回也不会被别人的文档挤掉
+             */
+            int recallK = searchProperties.getKnn().k(topK);
+            s.knn(kn -> kn
+                    .field("vector")
+                    .queryVector(queryVector)
+                    .k(recallK)
+                    .numCandidates(searchProperties.getKnn().numCandidates(topK))
+                    .filter(permissionFilter)
+            );
+
+            // 2. 混合查询
+            /**
+             * 从海量文档中，找出内容相关且用户有权查看的所有文档。
+             */
+            s.query(q -> q.bool(b -> b
+                    // A. 必须匹配关键词
+                    .must(mst -> mst.match(m -> m.field("textContent").query(query)))
+
+                    // B. 权限过滤块，与 kNN 使用同一个过滤条件
+                    .filter(permissionFilter)
+            ));
+
+            /**
+             * 这一步是RAG 效果好坏的关键。
+             * 前面的 KNN（向量搜索）和 match（关键词搜索）可能召回了几百条文档（recallK），其中有些可能只是偶尔提到了关键词，但不是重点。
+             * Rescore 的作用就是在一个小范围内（比如前 150 条），用更严格的标准重新打分，把真正的“标准答案”顶到最前面。
+             *
+             * 本质就是答案再过滤
+             */
+            // 第二阶段 BM25 rescore
+            s.rescore(bm25Rescore(query, recallK, searchProperties.getRescore()));
+            s.source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)));
+            s.size(topK);
+            return s;
+        }, EsSearchHit.class);
+        latencyRecorder.record("es", System.nanoTime() - esStart);
+
+        logger.debug("Elasticsearch查询执行完成，命中数量: {}, 最大分数: {}", 
+            response.hits().total().value(), response.hits().maxScore());
+
+
+        /**
+         * 这个就是给查询道德查询结果
+         * 进行结构封装
+         * 同时放回
+         */
+        return response.hits().hits().stream()
+                .map(hit -> {
+                    assert hit.source() != null;
+                    logger.debug("搜索结果 - 文件: {}, 块: {}, 分数: {}, 内容: {}", 
+                        hit.source().getFileMd5(), hit.source().getChunkId(), hit.score(), 
+                        hit.source().getTextContent().substring(0, Math.min(50, hit.source().getTextContent().length())));
+                    return hit.source().toSearchResult(hit.score());
+                })
+                .toList();
+    }
+
+    /**
+     * 分路融合模式：BM25 和 kNN 各自用小窗口作为两个独立请求并行执行，结果在进程内融合
+     * 融合方式为 RRF（只看名次）或加权归一化分数（各路分数先做 min-max 归一化再按权重相加），
+     * 两路权重按部署配置，不再依赖 rescore 的固定权重
+     */
+    private List<SearchResult> fusionSearch(String index, String query, List<Float> queryVector, Query permissionFilter,
+                                            String routing, int topK) {
+        SearchProperties.Fusion fusion = searchProperties.getFusion();
+        int window = fusion.window(topK);
+        long esStart = System.nanoTime();
+
+        CompletableFuture<List<SearchResult>> bm25Future = CompletableFuture.supplyAsync(
+                () -> latencyRecorder.time("es-bm25", () -> bm25Leg(index, query, permissionFilter, routing, window)), searchExecutor);
+        List<SearchResult> knnResults = latencyRecorder.time("es-knn",
+                () -> knnLeg(index, queryVector, permissionFilter, routing, window, Math.max(window, searchProperties.getKnn().numCandidates(topK))));
+        List<SearchResult> bm25Results = bm25Future.join();
+        latencyRecorder.record("es", System.nanoTime() - esStart);
+
+        List<List<SearchResult>> rankings = List.of(bm25Results, knnResults);
+        List<Double> weights = List.of(fusion.getBm25Weight(), fusion.getKnnWeight());
+        Function<SearchResult, String> key = r -> r.getFileMd5() + ":" + r.getChunkId();
+        List<RankFusionUtils.Fused<SearchResult>> fused = fusion.getMethod() == SearchProperties.FusionMethod.WEIGHTED
+                ? RankFusionUtils.weightedScoreFusion(rankings, weights, SearchResult::getScore, key, topK)
+                : RankFusionUtils.reciprocalRankFusion(rankings, weights, key, fusion.getRrfK(), topK);
+        logger.debug("融合检索完成，BM25命中: {}, kNN命中: {}, 融合后: {}", bm25Results.size(), knnResults.size(), fused.size());
+        return fused.stream()
+                .map(f -> {
+                    f.item().setScore(f.score());
+                    return f.item();
+                })
+                .toList();
+    }
+
+    private List<SearchResult> bm25Leg(String index, String query, Query permissionFilter, String routing, int window) {
+        try {
+            SearchResponse<EsSearchHit> response = esClient.search(s -> s
+                    .index(index)
+                    .routing(routing)
+                    .query(q -> q.bool(b -> b
+                            .must(mst -> mst.match(m -> m.field("textContent").query(query)))
+                            .filter(permissionFilter)))
+                    .source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)))
+                    .size(window),
+                    EsSearchHit.class);
+            return toResults(response);
+        } catch (IOException e) {
+            throw new RuntimeException("BM25检索失败", e);
+        }
+    }
+
+    private List<SearchResult> knnLeg(String index, List<Float> queryVector, Query permissionFilter, String routing,
+                                      int window, int numCandidates) {
+        try {
+            SearchResponse<EsSearchHit> response = esClient.search(s -> s
+                    .index(index)
+                    .routing(routing)
+                    .knn(kn -> kn
+                            .field("vector")
+                            .queryVector(queryVector)
+                            .k(window)
+                            .numCandidates(numCandidates)
+                            .filter(permissionFilter))
+                    .source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)))
+                    .size(window),
+                    EsSearchHit.class);
+            return toResults(response);
+        } catch (IOException e) {
+            throw new RuntimeException("kNN检索失败", e);
+        }
+    }
+
+    private static List<SearchResult> toResults(SearchResponse<EsSearchHit> response) {
+        return response.hits().hits().stream()
+                .filter(hit -> hit.source() != null)
+                .map(hit -> hit.source().toSearchResult(hit.score()))
+                .toList();
+    }
+
+    /**
+     * VL向量索引上的带权限kNN检索：用VL模型把查询文本向量化，召回页面/图片向量
+     * 失败时返回空列表，不影响文本检索结果
+     */
+    private List<SearchResult> visualSearchWithPermission(String query, PermissionContext permission, int topK) {
+        try {
+            float[] raw = queryEmbeddingCacheService.get(langChain4jConfig.getVLMODEL(), query, vlEmbeddingModelUtils::embedText);
+            List<Float> queryVector = new ArrayList<>(raw.length);
+            for (float v : raw) {
+                queryVector.add(v);
+            }
+            int numCandidates = topK * vlRetrievalProperties.getSearch().getNumCandidatesFactor();
+
+            SearchResponse<EsSearchHit> response = esClient.search(s -> s
+                    .index(vlRetrievalProperties.getSearch().getIndex())
+                    .knn(kn -> kn
+                            .field("vector")
+                            .queryVector(queryVector)
+                            .k(topK)
+                            .numCandidates(numCandidates)
+                            // 权限过滤放在kNN内部，保证返回的topK都是有权限的文档
+                            .filter(permission.filter())
+                    )
+                    .source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)))
+                    .size(topK),
+                    EsSearchHit.class
+            );
+
+            List<SearchResult> results = response.hits().hits().stream()
+                    .filter(hit -> hit.source() != null)
+                    .map(hit -> {
+                        EsSearchHit doc = hit.source();
+                        String text = doc.getTextContent();
+                        if (text == null || text.isBlank()) {
+                            text = "（第" + doc.getChunkId() + "页为图片内容，无可提取文本）";
+                        }
+                        doc.setTextContent(text);
+                        return doc.toSearchResult(hit.score());
+                    })
+                    .toList();
+            logger.debug("VL向量检索命中数量: {}", results.size());
+            return results;
+        } catch (Exception e) {
+            logger.error("VL向量检索失败，仅返回文本检索结果", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 文本结果和VL页面结果做RRF融合
+     * 两路的 chunkId 含义不同（文本分块序号 / 页码），去重键带上来源前缀，不会互相合并
+     */
+    private List<SearchResult> fuseVisualResults(List<SearchResult> textResults, List<SearchResult> visualResults, int topK) {
+        if (visualResults.isEmpty()) {
+            return textResults;
+        }
+        Set<SearchResult> visualSet = Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+        visualSet.addAll(visualResults);
+        List<RankFusionUtils.Fused<SearchResult>> fused = RankFusionUtils.reciprocalRankFusion(
+                List.of(textResults, visualResults),
+                r -> (visualSet.contains(r) ? "vl:" : "text:") + r.getFileMd5() + ":" + r.getChunkId(),
+                vlRetrievalProperties.getSearch().getRrfK(),
+                topK);
+        return fused.stream()
+                .map(f -> {
+                    f.item().setScore(f.score());
+                    return f.item();
+                })
+                .toList();
+    }
+
     /**
      * 仅使用文本匹配的带权限搜索方法
      */
-    private List<SearchResult> textOnlySearchWithPermission(String query, String userDbId, List<String> userEffectiveTags, int topK) {
+    private List<SearchResult> textOnlySearchWithPermission(String query, PermissionContext permission, int topK) {
         try {
             /**
              * 开始文本搜索
              */
-            logger.debug("开始执行纯文本搜索，用户数据库ID: {}, 标签: {}", userDbId, userEffectiveTags);
+            logger.debug("开始执行纯文本搜索，用户数据库ID: {}, 标签: {}", permission.userDbId(), permission.effectiveTags());
 
-            SearchResponse<EsDocument> response = esClient.search(s -> s
-                    .index("knowledge_base")
+            SearchResponse<EsSearchHit> response = esClient.search(s -> s
+                    .index(permission.index())
+                    .routing(permission.routing())
                     .query(q -> q
                             .bool(b -> b
                                     // 匹配内容相关性
@@ -251,59 +501,16 @@ public class HybridSearchService {
                                             )
                                     )
                                     // 权限过滤
-                                    /**
-                                     * 这个是对查询的内容进行过滤
-                                     * 只有自己可以访问的才能进行输出
-                                     */
-                                    .filter(f -> f
-                                            .bool(bf -> bf
-                                                    // 条件1: 用户可以访问自己的文档
-                                                    .should(s1 -> s1
-                                                            .term(t -> t
-                                                                    .field("userId")
-                                                                    .value(userDbId)
-                                                            )
-                                                    )
-                                                    // 条件2: 用户可以访问公开的文档
-                                                    .should(s2 -> s2
-                                                            .term(t -> t
-                                                                    .field("public")
-                                                                    .value(true)
-                                                            )
-                                                    )
-                                                    // 条件3: 用户可以访问其所属组织的文档（包含层级关系）
-                                                    .should(s3 -> {
-                                                        if (userEffectiveTags.isEmpty()) {
-                                                            return s3.matchNone(mn -> mn);
-                                                        } else if (userEffectiveTags.size() == 1) {
-                                                            // 单个标签使用 term 查询
-                                                            return s3.term(t -> t
-                                                                    .field("orgTag")
-                                                                    .value(userEffectiveTags.get(0))
-                                                            );
-                                                        } else {
-                                                            // 多个标签使用 bool should 组合多个 term 查询
-                                                            return s3.bool(innerBool -> {
-                                                                userEffectiveTags.forEach(tag ->
-                                                                        innerBool.should(sh -> sh.term(t -> t
-                                                                                .field("orgTag")
-                                                                                .value(tag)
-                                                                        ))
-                                                                );
-                                                                return innerBool;
-                                                            });
-                                                        }
-                                                    })
-                                            )
-                                    )
+                                    .filter(permission.filter())
                             )
                     )
                             /**
                              * 置信度设置
                              */
                     .minScore(0.3d)
+                    .source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)))
                     .size(topK),
-                    EsDocument.class
+                    EsSearchHit.class
             );
 
             logger.debug("纯文本查询执行完成，命中数量: {}, 最大分数: {}", 
@@ -319,15 +526,7 @@ public class HybridSearchService {
                         logger.debug("纯文本搜索结果 - 文件: {}, 块: {}, 分数: {}, 内容: {}", 
                             hit.source().getFileMd5(), hit.source().getChunkId(), hit.score(), 
                             hit.source().getTextContent().substring(0, Math.min(50, hit.source().getTextContent().length())));
-                        return new SearchResult(
-                                hit.source().getFileMd5(),
-                                hit.source().getChunkId(),
-                                hit.source().getTextContent(),
-                                hit.score(),
-                                hit.source().getUserId(),
-                                hit.source().getOrgTag(),
-                                hit.source().isPublic()
-                        );
+                        return hit.source().toSearchResult(hit.score());
                     })
                     .toList();
 
@@ -340,6 +539,24 @@ public class HybridSearchService {
         }
     }
 
+    /**
+     * 第二阶段 BM25 重打分：在 kNN 召回的窗口内按关键词全部匹配重新打分，权重取自 search.rescore
+     */
+    static Rescore bm25Rescore(String query, int windowSize, SearchProperties.Rescore weights) {
+        return Rescore.of(r -> r
+                .windowSize(windowSize)
+                .query(rq -> rq
+                        .queryWeight(weights.getQueryWeight())               // 保留部分 KNN 分
+                        .rescoreQueryWeight(weights.getRescoreQueryWeight()) // BM25 主导
+                        .query(rqq -> rqq.match(m -> m
+                                .field("textContent")
+                                .query(query)
+                                .operator(Operator.And)
+                        ))
+                )
+        );
+    }
+
     /**
      * 原始搜索方法，不包含权限过滤，保留向后兼容性
      */
@@ -349,43 +566,34 @@ public class HybridSearchService {
             logger.warn("使用了没有权限过滤的搜索方法，建议使用 searchWithPermission 方法");
 
             // 生成查询向量
-            final List<Float> queryVector = embedToVectorList(query);
+            EsIndexModelService.IndexModel readModel = esIndexModelService.readModel();
+            final List<Float> queryVector = embedToVectorList(query, readModel);
             
             // 如果向量生成失败，仅使用文本匹配
             if (queryVector == null) {
                 logger.warn("向量生成失败，仅使用文本匹配进行搜索");
-                return textOnlySearch(query, topK);
+                return textOnlySearch(readModel.index(), query, topK);
             }
 
-            SearchResponse<EsDocument> response = esClient.search(s -> {
-                        s.index("knowledge_base");
-                        int recallK = topK * 30;
+            SearchResponse<EsSearchHit> response = esClient.search(s -> {
+                        s.index(readModel.index());
+                        int recallK = searchProperties.getKnn().k(topK);
                         s.knn(kn -> kn
                                 .field("vector")
                                 .queryVector(queryVector)
                                 .k(recallK)
-                                .numCandidates(recallK)
+                                .numCandidates(searchProperties.getKnn().numCandidates(topK))
                         );
 
                         // 过滤仅保留包含关键词的文本
                         s.query(q -> q.match(m -> m.field("textContent").query(query)));
 
-                        // rescore BM25
-                        s.rescore(r -> r
-                                .windowSize(recallK)
-                                .query(rq -> rq
-                                        .queryWeight(0.2d)
-                                        .rescoreQueryWeight(1.0d)
-                                        .query(rqq -> rqq.match(m -> m
-                                                .field("textContent")
-                                                .query(query)
-                                                .operator(Operator.And)
-                                        ))
-                                )
-                        );
+                        // rescore BM25，权重与带权限的检索一致
+                        s.rescore(bm25Rescore(query, recallK, searchProperties.getRescore()));
+                        s.source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)));
                         s.size(topK);
                         return s;
-                    }, EsDocument.class);
+                    }, EsSearchHit.class);
 
             return response.hits().hits().stream()
                     .map(hit -> {
@@ -403,7 +611,7 @@ public class HybridSearchService {
             // 发生异常时尝试使用纯文本搜索作为后备方案
             try {
                 logger.info("尝试使用纯文本搜索作为后备方案");
-                return textOnlySearch(query, topK);
+                return textOnlySearch(esIndexModelService.readModel().index(), query, topK);
             } catch (Exception fallbackError) {
                 logger.error("后备搜索也失败", fallbackError);
                 throw new RuntimeException("搜索完全失败", fallbackError);
@@ -414,17 +622,18 @@ public class HybridSearchService {
     /**
      * 仅使用文本匹配的搜索方法
      */
-    private List<SearchResult> textOnlySearch(String query, int topK) throws Exception {
-        SearchResponse<EsDocument> response = esClient.search(s -> s
-                .index("knowledge_base")
+    private List<SearchResult> textOnlySearch(String index, String query, int topK) throws Exception {
+        SearchResponse<EsSearchHit> response = esClient.search(s -> s
+                .index(index)
                 .query(q -> q
                         .match(m -> m
                                 .field("textContent")
                                 .query(query)
                         )
                 )
+                .source(src -> src.filter(sf -> sf.includes(EsSearchHit.SOURCE_FIELDS)))
                 .size(topK),
-                EsDocument.class
+                EsSearchHit.class
         );
 
         return response.hits().hits().stream()
@@ -441,16 +650,24 @@ public class HybridSearchService {
     }
 
     /**
-     * 生成查询向量，返回 List<Float>，失败时返回 null
+     * 用检索索引的向量模型生成查询向量，返回 List<Float>；失败或没有该模型的向量化后端时返回 null，只做文本匹配
      */
-    private List<Float> embedToVectorList(String text) {
+    private List<Float> embedToVectorList(String text, EsIndexModelService.IndexModel indexModel) {
         try {
-            List<float[]> vecs = embeddingUtils.embed(List.of(text));
-            if (vecs == null || vecs.isEmpty()) {
+            EmbeddingModelRegistry.Model model = embeddingModelRegistry.find(indexModel.modelId(), indexModel.dims());
+            if (model == null) {
+                // 模型或维度不一致的查询向量会被ES拒绝，或者得到没有意义的相似度
+                logger.warn("索引 {} 的向量模型 {}（{} 维）没有可用的向量化后端", indexModel.index(), indexModel.modelId(), indexModel.dims());
+                return null;
+            }
+            // 与入库共用向量接口和模型，查询文本在合并器中优先发出；重复查询直接命中缓存
+            // 缓存键带上维度，调整 Matryoshka 截断维度后不会取到旧维度的向量
+            String cacheModel = model.modelId() + "@" + model.dims();
+            float[] raw = queryEmbeddingCacheService.get(cacheModel, text, model.batcher()::embedQuery);
+            if (raw == null || raw.length == 0) {
                 logger.warn("生成的向量为空");
                 return null;
             }
-            float[] raw = vecs.get(0);
             List<Float> list = new ArrayList<>(raw.length);
             for (float v : raw) {
                 list.add(v);
@@ -463,78 +680,128 @@ public class HybridSearchService {
     }
     
     /**
-     * 获取用户的有效组织标签（包含层级关系）
+     * 权限过滤条件：本人上传、公开、或属于用户有效组织标签的文档，至少满足一个
+     * kNN 的 filter 和 BM25 查询的 filter 共用该条件
      */
-    private List<String> getUserEffectiveOrgTags(String userId) {
-        /**
-         * 日志打印
-         */
-        logger.debug("获取用户有效组织标签，用户ID: {}", userId);
-        try {
-            // 获取用户名
-            User user;
-            try {
-                /**
-                 * 根据UserId获取用户信息
-                 */
-                Long userIdLong = Long.parseLong(userId);
-                logger.debug("解析用户ID为Long: {}", userIdLong);
-                user = userRepository.findById(userIdLong)
-                    .orElseThrow(() -> new CustomException("User not found with ID: " + userId, HttpStatus.NOT_FOUND));
-                logger.debug("通过ID找到用户: {}", user.getUsername());
-            } catch (NumberFormatException e) {
-                // 如果userId不是数字格式，则假设它就是username
-                logger.debug("用户ID不是数字格式，作为用户名查找: {}", userId);
-                user = userRepository.findByUsername(userId)
-                    .orElseThrow(() -> new CustomException("User not found: " + userId, HttpStatus.NOT_FOUND));
-                logger.debug("通过用户名找到用户: {}", user.getUsername());
-            }
+    static Query permissionFilter(String userDbId, List<String> userEffectiveTags) {
+        return permissionFilter(userDbId, userEffectiveTags, Set.of());
+    }
 
-            /**
-             * 获取用户的有效标签
-             */
+    /**
+     * 权限过滤条件，并排除正在异步删除的文件（墓碑），删除在ES真正完成前就对检索生效
+     */
+    static Query permissionFilter(String userDbId, List<String> userEffectiveTags, Set<String> deletingFiles) {
+        return Query.of(q -> q.bool(bf -> bf
+                .minimumShouldMatch("1")
+                .should(s1 -> s1.term(t -> t.field("userId").value(userDbId)))
+                // EsDocument 的 isPublic 在文档中序列化为 public
+                .should(s2 -> s2.term(t -> t.field("public").value(true)))
+                .should(s3 -> {
+                    if (userEffectiveTags == null || userEffectiveTags.isEmpty()) {
+                        return s3.matchNone(mn -> mn);
+                    }
+                    return s3.terms(t -> t.field("orgTag")
+                            .terms(v -> v.value(userEffectiveTags.stream().map(FieldValue::of).toList())));
+                })
+                .mustNot(deletingFiles.isEmpty() ? List.of() : List.of(Query.of(mn -> mn.terms(t -> t.field("fileMd5")
+                        .terms(v -> v.value(deletingFiles.stream().map(FieldValue::of).toList()))))))
+        ));
+    }
+
+    /**
+     * 检索权限上下文：用户数据库ID、有效组织标签（包含层级关系）、正在删除的文件、
+     * 本人私有文件所在的组织标签（不需要或获取失败时为 null），
+     * 检索的物理索引，以及该索引按组织标签路由时的检索路由（未路由时为 null，访问全部分片）
+     */
+    private record PermissionContext(String userDbId, List<String> effectiveTags, Set<String> deletingFiles,
+                                     Set<String> ownPrivateTags, String index, String routing) {
+        Query filter() {
+            return permissionFilter(userDbId, effectiveTags, deletingFiles);
+        }
+    }
+
+    /**
+     * 解析检索权限上下文，用户只查询一次
+     * 用户不存在时抛出异常；组织标签获取失败时按无组织标签处理
+     */
+    private PermissionContext resolvePermissionContext(String userId, String index) {
+        logger.debug("解析检索权限，用户ID: {}", userId);
+        User user;
+        try {
+            user = findUser(userId);
+        } catch (Exception e) {
+            logger.error("获取用户数据库ID失败: {}", e.getMessage(), e);
+            throw new RuntimeException("获取用户数据库ID失败", e);
+        }
+        List<String> effectiveTags;
+        try {
             // 通过orgTagCacheService获取用户的有效标签集合
-            List<String> effectiveTags = orgTagCacheService.getUserEffectiveOrgTags(user.getUsername());
-            logger.debug("用户 {} 的有效组织标签: {}", user.getUsername(), effectiveTags);
-            /**
-             * 返回用户的有效标签
-             */
-            return effectiveTags;
+            effectiveTags = orgTagCacheService.getUserEffectiveOrgTags(user.getUsername());
         } catch (Exception e) {
             logger.error("获取用户有效组织标签失败: {}", e.getMessage(), e);
-            return Collections.emptyList(); // 返回空列表作为默认值
+            effectiveTags = Collections.emptyList();
+        }
+        String userDbId = user.getId().toString();
+        boolean routed = esRoutingService.isReadRouted(index);
+        Set<String> ownPrivateTags = routed || searchResultCacheService.isEnabled() ? ownPrivateTags(userDbId) : null;
+        // 检索路由：有效组织标签加上本人私有文件所在的组织标签（用户离开某个组织后仍能检索到自己的文件）
+        String routing = null;
+        if (routed && ownPrivateTags != null) {
+            Set<String> tags = new HashSet<>(effectiveTags);
+            tags.addAll(ownPrivateTags);
+            routing = esRoutingService.searchRouting(index, tags);
         }
+        return new PermissionContext(userDbId, effectiveTags, esDeletionService.deletingFiles(), ownPrivateTags, index, routing);
     }
 
     /**
-     * 获取用户的数据库ID用于权限过滤
+     * 本人私有文件所在的组织标签，与有效组织标签一样走 OrgTagCacheService 缓存；
+     * 查询失败时返回 null，本次检索访问全部分片且不使用结果缓存
      */
-    private String getUserDbId(String userId) {
-        logger.debug("获取用户数据库ID，用户ID: {}", userId);
+    private Set<String> ownPrivateTags(String userDbId) {
         try {
-            // 获取用户名
-            User user;
-            try {
-                Long userIdLong = Long.parseLong(userId);
-                logger.debug("解析用户ID为Long: {}", userIdLong);
-                user = userRepository.findById(userIdLong)
+            return orgTagCacheService.getUserPrivateFileOrgTags(userDbId);
+        } catch (Exception e) {
+            logger.warn("获取用户文件的组织标签失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按数据库ID查找用户，userId 不是数字时按用户名查找
+     */
+    private User findUser(String userId) {
+        try {
+            Long userIdLong = Long.parseLong(userId);
+            return userRepository.findById(userIdLong)
                     .orElseThrow(() -> new CustomException("User not found with ID: " + userId, HttpStatus.NOT_FOUND));
-                logger.debug("通过ID找到用户: {}", user.getUsername());
-                return userIdLong.toString(); // 如果输入已经是数字ID，直接返回
-            } catch (NumberFormatException e) {
-                // 如果userId不是数字格式，则假设它就是username
-                logger.debug("用户ID不是数字格式，作为用户名查找: {}", userId);
-                user = userRepository.findByUsername(userId)
+        } catch (NumberFormatException e) {
+            logger.debug("用户ID不是数字格式，作为用户名查找: {}", userId);
+            return userRepository.findByUsername(userId)
                     .orElseThrow(() -> new CustomException("User not found: " + userId, HttpStatus.NOT_FOUND));
-                logger.debug("通过用户名找到用户: {}, ID: {}", user.getUsername(), user.getId());
-                return user.getId().toString(); // 返回用户的数据库ID
+        }
+    }
+
+    private static PermissionContext joinPermission(CompletableFuture<PermissionContext> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
-        } catch (Exception e) {
-            logger.error("获取用户数据库ID失败: {}", e.getMessage(), e);
-            throw new RuntimeException("获取用户数据库ID失败", e);
+            throw e;
         }
     }
 
+    /**
+     * 带权限检索的分阶段耗时：permission / embed / es / vl / total，命中结果缓存的耗时记为 cache-hit，另附结果缓存统计
+     */
+    public Map<String, Object> latencyStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(latencyRecorder.stats());
+        stats.put("resultCache", searchResultCacheService.stats());
+        return stats;
+    }
+
     /**
      * 这个代码是将md5进行补充
      * 替换为数据库中的数据
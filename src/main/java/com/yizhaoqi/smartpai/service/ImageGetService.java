@@ -2,32 +2,122 @@ package com.yizhaoqi.smartpai.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yizhaoqi.smartpai.langchain4j.LangChain4jConfig;
+import com.yizhaoqi.smartpai.langchain4j.vlembedding.VisionImageEncoder;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * 识图服务 - 直接HTTP调用视觉模型API，绕过LangChain4j
  * 和Python的requests.post逻辑完全一致
+ * 使用进程内共享的 JDK HttpClient（HTTP/2 + keep-alive 连接复用），
+ * 支持异步调用、并发上限控制，以及 429/5xx 的抖动退避重试
  */
 @Service
 @Slf4j
 public class ImageGetService {
 
+    private static final String VISION_PROMPT = "你是图片内容提取工具。请按以下规则提取图片中的所有信息：\n" +
+            "\n" +
+            "1. 如果图片包含文字，请原样输出所有文字内容，保留段落和换行\n" +
+            "2. 如果图片包含表格，请先用一两句话总结表格的核心信息，然后用Markdown表格格式详细输出表格内容\n" +
+            "3. 如果图片包含图表/流程图，请提取标题、标签、关键数据和关系\n" +
+            "4. 手写或模糊内容：确定的直接输出，不确定的用[?]标注\n" +
+            "\n" +
+            "规则：只输出图片中明确存在的内容，不要添加解释或总结，不要输出\"这是一张...\"开头，直接输出提取结果。";
+
     @Resource
     private LangChain4jConfig langChain4jConfig;
 
+    /**
+     * 建连超时
+     */
+    @Value("${images.api.connect-timeout-ms:10000}")
+    private long connectTimeoutMs;
+
+    /**
+     * 单次请求超时（从发出请求到拿到完整响应）
+     */
+    @Value("${images.api.request-timeout-ms:120000}")
+    private long requestTimeoutMs;
+
+    /**
+     * 同时在途的识图请求上限
+     */
+    @Value("${images.api.max-concurrency:16}")
+    private int maxConcurrency;
+
+    /**
+     * 429/5xx 时的最大重试次数
+     */
+    @Value("${images.api.max-retries:3}")
+    private int maxRetries;
+
+    /**
+     * 退避基准时间，第n次重试等待 base * 2^(n-1) 再叠加随机抖动
+     */
+    @Value("${images.api.retry-base-delay-ms:500}")
+    private long retryBaseDelayMs;
+
+    @Value("${images.api.retry-max-delay-ms:10000}")
+    private long retryMaxDelayMs;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private HttpClient httpClient;
+
+    private Semaphore inFlight;
+
+    private URI endpoint;
+
+    /**
+     * 请求体模板：除图片URL外的JSON内容是固定的，启动时序列化一次并在URL处切开，
+     * 每次请求只需要把 前缀 + 图片URL + 后缀 三段字节拼接发送
+     */
+    private byte[] payloadPrefix;
+
+    private byte[] payloadSuffix;
+
+    private static final String IMAGE_URL_PLACEHOLDER = "__SMARTPAI_IMAGE_URL__";
+
+    @PostConstruct
+    public void init() {
+        // 整个进程共享一个客户端，连接池和TLS会话都在这里复用
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        this.inFlight = new Semaphore(Math.max(1, maxConcurrency));
+        String apiBase = langChain4jConfig.getIMAGES_URL();
+        this.endpoint = URI.create(apiBase.endsWith("/")
+                ? apiBase + "chat/completions"
+                : apiBase + "/chat/completions");
+        initPayloadTemplate();
+        log.info("识图客户端初始化完成: endpoint={}, maxConcurrency={}, requestTimeout={}ms",
+                endpoint, maxConcurrency, requestTimeoutMs);
+    }
+
     /**
      * 通过base64图片数据调用识图模型
      *
@@ -36,8 +126,26 @@ public class ImageGetService {
      * @return 识图结果文本
      */
     public String recognizeByBase64(String base64Image, String mimeType) {
+        return join(recognizeByBase64Async(base64Image, mimeType));
+    }
+
+    /**
+     * 异步识图：调用线程只在并发达到上限时等待，拿到future后即可继续提交下一张
+     */
+    public CompletableFuture<String> recognizeByBase64Async(String base64Image, String mimeType) {
         String dataUrl = "data:" + mimeType + ";base64," + base64Image;
-        return callVisionApi(dataUrl);
+        return callVisionApiAsync(dataUrl);
+    }
+
+    /**
+     * 异步识图：直接使用编码阶段产出的Base64字节，不再转成String拼接data URL
+     */
+    public CompletableFuture<String> recognizeEncodedAsync(VisionImageEncoder.EncodedImage image) {
+        return callVisionApiAsync(HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofByteArray(payloadPrefix),
+                HttpRequest.BodyPublishers.ofByteArray(image.dataUrlPrefix()),
+                HttpRequest.BodyPublishers.ofByteArray(image.base64()),
+                HttpRequest.BodyPublishers.ofByteArray(payloadSuffix)));
     }
 
     /**
@@ -47,7 +155,7 @@ public class ImageGetService {
      * @return 识图结果文本
      */
     public String recognizeByUrl(String imageUrl) {
-        return callVisionApi(imageUrl);
+        return join(callVisionApiAsync(imageUrl));
     }
 
     /**
@@ -68,73 +176,154 @@ public class ImageGetService {
     }
 
     /**
-     * 统一调用视觉API，和Python的requests.post逻辑完全一致
+     * 统一调用视觉API，请求体和Python的requests.post保持一致
      */
-    private String callVisionApi(String imageUrl) {
+    private CompletableFuture<String> callVisionApiAsync(String imageUrl) {
+        byte[] urlBytes;
         try {
-            Map<String, Object> payload = Map.of(
-                    "model", langChain4jConfig.getIMAGES_MODEL(),
-                    "messages", List.of(
-                            Map.of("role", "user", "content", List.of(
-                                    Map.of("type", "image_url",
-                                            "image_url", Map.of("url", imageUrl)),
-                                    Map.of("type", "text",
-                                            "text", "你是图片内容提取工具。请按以下规则提取图片中的所有信息：\n" +
-                                                    "\n" +
-                                                    "1. 如果图片包含文字，请原样输出所有文字内容，保留段落和换行\n" +
-                                                    "2. 如果图片包含表格，请先用一两句话总结表格的核心信息，然后用Markdown表格格式详细输出表格内容\n" +
-                                                    "3. 如果图片包含图表/流程图，请提取标题、标签、关键数据和关系\n" +
-                                                    "4. 手写或模糊内容：确定的直接输出，不确定的用[?]标注\n" +
-                                                    "\n" +
-                                                    "规则：只输出图片中明确存在的内容，不要添加解释或总结，不要输出\"这是一张...\"开头，直接输出提取结果。")
-                            ))
-                    )
-            );
-
-            String requestBody = objectMapper.writeValueAsString(payload);
-            String apiBase = langChain4jConfig.getIMAGES_URL();
-            String fullUrl = apiBase.endsWith("/")
-                    ? apiBase + "chat/completions"
-                    : apiBase + "/chat/completions";
-
-            URL url = new URL(fullUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Authorization", "Bearer " + langChain4jConfig.getIMAGES_KEY());
-            connection.setConnectTimeout(30000);
-            connection.setReadTimeout(300000);
-
-            // 发送请求体
-            connection.getOutputStream().write(requestBody.getBytes("UTF-8"));
-
-            // 读取响应
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                String response = readStream(connection.getInputStream());
-                JsonNode root = objectMapper.readTree(response);
-                return root.path("choices").path(0).path("message").path("content").asText();
-            } else {
-                String errorResponse = readStream(connection.getErrorStream());
-                log.error("识图API调用失败, code={}, response={}", responseCode, errorResponse);
-                throw new RuntimeException("识图API调用失败: " + errorResponse);
-            }
+            // 借助Jackson做JSON转义，去掉首尾引号后就是可以直接拼接的字符串内容
+            byte[] quoted = objectMapper.writeValueAsBytes(imageUrl);
+            urlBytes = java.util.Arrays.copyOfRange(quoted, 1, quoted.length - 1);
         } catch (Exception e) {
-            log.error("识图API调用异常", e);
-            throw new RuntimeException("识图API调用异常", e);
+            return CompletableFuture.failedFuture(new RuntimeException("构建识图请求失败", e));
         }
+        return callVisionApiAsync(HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofByteArray(payloadPrefix),
+                HttpRequest.BodyPublishers.ofByteArray(urlBytes),
+                HttpRequest.BodyPublishers.ofByteArray(payloadSuffix)));
     }
 
-    private String streamToBase64(InputStream inputStream) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        inputStream.transferTo(baos);
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
+    private CompletableFuture<String> callVisionApiAsync(HttpRequest.BodyPublisher body) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + langChain4jConfig.getIMAGES_KEY())
+                .POST(body)
+                .build();
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new RuntimeException("等待识图并发配额时被中断", e));
+        }
+
+        CompletableFuture<String> result = sendWithRetry(request, 0);
+        result.whenComplete((r, e) -> inFlight.release());
+        return result;
+    }
+
+    private CompletableFuture<String> sendWithRetry(HttpRequest request, int attempt) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (cause instanceof java.io.IOException && attempt < maxRetries) {
+                            long delay = backoffDelay(attempt, null);
+                            log.warn("识图API网络异常: {}，{}ms后进行第{}次重试", cause.getMessage(), delay, attempt + 1);
+                            return retryLater(request, attempt, delay);
+                        }
+                        return CompletableFuture.<String>failedFuture(cause);
+                    }
+                    int status = response.statusCode();
+                    if (status == 200) {
+                        return CompletableFuture.completedFuture(parseContent(response.body()));
+                    }
+                    String errorResponse = new String(response.body(), StandardCharsets.UTF_8);
+                    if (isRetryable(status) && attempt < maxRetries) {
+                        long delay = backoffDelay(attempt, response);
+                        log.warn("识图API返回{}，{}ms后进行第{}次重试", status, delay, attempt + 1);
+                        return retryLater(request, attempt, delay);
+                    }
+                    log.error("识图API调用失败, code={}, response={}", status, errorResponse);
+                    return CompletableFuture.<String>failedFuture(new RuntimeException("识图API调用失败: " + errorResponse));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<String> retryLater(HttpRequest request, int attempt, long delayMs) {
+        return CompletableFuture.supplyAsync(() -> null,
+                        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS))
+                .thenCompose(ignored -> sendWithRetry(request, attempt + 1));
+    }
+
+    private boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * 指数退避 + 全抖动；服务端给了 Retry-After 时以它为下限
+     */
+    private long backoffDelay(int attempt, HttpResponse<?> response) {
+        long exp = Math.min(retryMaxDelayMs, retryBaseDelayMs * (1L << Math.min(attempt, 20)));
+        long delay = ThreadLocalRandom.current().nextLong(exp / 2, exp + 1);
+        if (response != null) {
+            long retryAfterMs = response.headers().firstValue("Retry-After")
+                    .map(this::parseRetryAfterSeconds)
+                    .orElse(0L) * 1000L;
+            delay = Math.max(delay, Math.min(retryAfterMs, retryMaxDelayMs));
+        }
+        return delay;
+    }
+
+    private long parseRetryAfterSeconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private void initPayloadTemplate() {
+        try {
+            String template = objectMapper.writeValueAsString(buildPayload(IMAGE_URL_PLACEHOLDER));
+            int index = template.indexOf(IMAGE_URL_PLACEHOLDER);
+            this.payloadPrefix = template.substring(0, index).getBytes(StandardCharsets.UTF_8);
+            this.payloadSuffix = template.substring(index + IMAGE_URL_PLACEHOLDER.length()).getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new IllegalStateException("初始化识图请求模板失败", e);
+        }
+    }
+
+    private ObjectNode buildPayload(String imageUrl) {
+        ObjectNode payload = objectMapper.createObjectNode();
+        payload.put("model", langChain4jConfig.getIMAGES_MODEL());
+        ArrayNode messages = payload.putArray("messages");
+        ObjectNode message = messages.addObject();
+        message.put("role", "user");
+        ArrayNode content = message.putArray("content");
+        ObjectNode imagePart = content.addObject();
+        imagePart.put("type", "image_url");
+        imagePart.putObject("image_url").put("url", imageUrl);
+        ObjectNode textPart = content.addObject();
+        textPart.put("type", "text");
+        textPart.put("text", VISION_PROMPT);
+        return payload;
     }
 
-    private String readStream(InputStream inputStream) throws Exception {
+    private String parseContent(byte[] body) {
+        try {
+            JsonNode root = objectMapper.readTree(body);
+            return root.path("choices").path(0).path("message").path("content").asText();
+        } catch (Exception e) {
+            throw new RuntimeException("解析识图响应失败", e);
+        }
+    }
+
+    private String join(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.error("识图API调用异常", cause);
+            throw new RuntimeException("识图API调用异常", cause);
+        }
+    }
+
+    private String streamToBase64(InputStream inputStream) throws Exception {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         inputStream.transferTo(baos);
-        return baos.toString("UTF-8");
+        return Base64.getEncoder().encodeToString(baos.toByteArray());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,264 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.model.IngestStage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 文件入库进度服务
+ * 每个文件一个Redis Hash（ingest:progress:{fileMd5}），记录阶段、页数和各阶段分块计数，
+ * 计数按批次 HINCRBY 累加，不逐条写入；进行中的文件记在 ingest:active 集合里供管理端查看。
+ * 进度写入失败只记录日志，不影响文件处理。
+ */
+@Service
+public class IngestProgressService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestProgressService.class);
+
+    private static final String PROGRESS_PREFIX = "ingest:progress:";
+    private static final String ACTIVE_KEY = "ingest:active";
+    private static final Duration PROGRESS_TTL = Duration.ofDays(7);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${ingest.progress.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${ingest.progress.sse-timeout-ms:600000}")
+    private long sseTimeoutMs;
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ingest-progress-sse");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+    }
+
+    /**
+     * 合并完成、任务投递到Kafka后调用，覆盖该文件之前的进度
+     */
+    public void queued(String fileMd5, String userId, String fileName) {
+        try {
+            String key = PROGRESS_PREFIX + fileMd5;
+            String now = String.valueOf(System.currentTimeMillis());
+            stringRedisTemplate.delete(key);
+            stringRedisTemplate.opsForHash().putAll(key, Map.of(
+                    "stage", IngestStage.QUEUED.name(),
+                    "userId", userId,
+                    "fileName", fileName,
+                    "queuedAt", now,
+                    "updatedAt", now));
+            stringRedisTemplate.expire(key, PROGRESS_TTL);
+            stringRedisTemplate.opsForSet().add(ACTIVE_KEY, fileMd5);
+        } catch (Exception e) {
+            logger.warn("记录入库进度失败，fileMd5: {}", fileMd5, e);
+        }
+    }
+
+    /**
+     * 消费端开始处理（含重试），重置计数并累加尝试次数
+     */
+    public void started(String fileMd5) {
+        try {
+            String key = PROGRESS_PREFIX + fileMd5;
+            stringRedisTemplate.opsForHash().increment(key, "attempts", 1);
+            stringRedisTemplate.opsForHash().delete(key, "error", "currentPage", "totalPages");
+            stringRedisTemplate.opsForHash().putAll(key, Map.of(
+                    "stage", IngestStage.DOWNLOADING.name(),
+                    "parsedChunks", "0",
+                    "embeddedChunks", "0",
+                    "indexedChunks", "0",
+                    "startedAt", String.valueOf(System.currentTimeMillis()),
+                    "updatedAt", String.valueOf(System.currentTimeMillis())));
+            stringRedisTemplate.expire(key, PROGRESS_TTL);
+            stringRedisTemplate.opsForSet().add(ACTIVE_KEY, fileMd5);
+        } catch (Exception e) {
+            logger.warn("记录入库进度失败，fileMd5: {}", fileMd5, e);
+        }
+    }
+
+    public void stage(String fileMd5, IngestStage stage) {
+        put(fileMd5, Map.of("stage", stage.name()));
+    }
+
+    /**
+     * PDF逐页识图进度
+     */
+    public void pages(String fileMd5, int currentPage, int totalPages) {
+        put(fileMd5, Map.of("currentPage", String.valueOf(currentPage), "totalPages", String.valueOf(totalPages)));
+    }
+
+    public void chunksParsed(String fileMd5, int count) {
+        increment(fileMd5, "parsedChunks", count);
+    }
+
+    public void chunksEmbedded(String fileMd5, int count) {
+        increment(fileMd5, "embeddedChunks", count);
+    }
+
+    public void chunksIndexed(String fileMd5, int count) {
+        increment(fileMd5, "indexedChunks", count);
+    }
+
+    public void completed(String fileMd5) {
+        put(fileMd5, Map.of("stage", IngestStage.COMPLETED.name(),
+                "completedAt", String.valueOf(System.currentTimeMillis())));
+        deactivate(fileMd5);
+    }
+
+    /**
+     * 本次处理失败：移出进行中集合，进度推送随之结束；重试时 started 会重新加入
+     */
+    public void failed(String fileMd5, Throwable cause) {
+        Throwable root = cause;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        put(fileMd5, Map.of("stage", IngestStage.FAILED.name(),
+                "error", String.valueOf(root.getMessage()),
+                "failedAt", String.valueOf(System.currentTimeMillis())));
+        deactivate(fileMd5);
+    }
+
+    private void deactivate(String fileMd5) {
+        try {
+            stringRedisTemplate.opsForSet().remove(ACTIVE_KEY, fileMd5);
+        } catch (Exception e) {
+            logger.warn("记录入库进度失败，fileMd5: {}", fileMd5, e);
+        }
+    }
+
+    /**
+     * 查询文件入库进度
+     *
+     * @return 进度信息，没有记录时返回空Map；已有分块写入ES时 searchable 为 true
+     */
+    public Map<String, Object> get(String fileMd5) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(PROGRESS_PREFIX + fileMd5);
+        Map<String, Object> progress = new LinkedHashMap<>();
+        if (entries.isEmpty()) {
+            return progress;
+        }
+        progress.put("fileMd5", fileMd5);
+        entries.forEach((k, v) -> progress.put(k.toString(), v));
+        progress.put("searchable", Long.parseLong(entries.getOrDefault("indexedChunks", "0").toString()) > 0);
+        return progress;
+    }
+
+    /**
+     * 进行中的文件及其进度，清理已过期或已结束的记录
+     */
+    public List<Map<String, Object>> activeTasks() {
+        Set<String> members = stringRedisTemplate.opsForSet().members(ACTIVE_KEY);
+        List<Map<String, Object>> tasks = new ArrayList<>();
+        if (members == null) {
+            return tasks;
+        }
+        for (String fileMd5 : members) {
+            Map<String, Object> progress = get(fileMd5);
+            if (progress.isEmpty() || isTerminal(progress)) {
+                stringRedisTemplate.opsForSet().remove(ACTIVE_KEY, fileMd5);
+            } else {
+                tasks.add(progress);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * 进行中（已投递或正在处理）的文件，各实例共享
+     */
+    public Set<String> activeFiles() {
+        Set<String> files = new HashSet<>();
+        activeTasks().forEach(task -> files.add(task.get("fileMd5").toString()));
+        return files;
+    }
+
+    private static boolean isTerminal(Map<String, Object> progress) {
+        Object stage = progress.get("stage");
+        return stage != null && IngestStage.valueOf(stage.toString()).isTerminal();
+    }
+
+    /**
+     * 以SSE推送文件入库进度：定时读取Redis，有变化时推送 progress 事件，完成或失败后结束
+     * 进度从Redis读取，处理文件的消费端实例和客户端连接的实例不必是同一个
+     */
+    public SseEmitter subscribe(String fileMd5) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        AtomicReference<Map<String, Object>> last = new AtomicReference<>();
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        Runnable cancel = () -> {
+            ScheduledFuture<?> f = task.get();
+            if (f != null) {
+                f.cancel(false);
+            }
+        };
+        task.set(poller.scheduleWithFixedDelay(() -> {
+            try {
+                Map<String, Object> progress = get(fileMd5);
+                if (!progress.equals(last.get())) {
+                    last.set(progress);
+                    emitter.send(SseEmitter.event().name("progress").data(progress));
+                }
+                if (isTerminal(progress)) {
+                    emitter.complete();
+                    cancel.run();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开
+                cancel.run();
+            } catch (Exception e) {
+                logger.warn("推送入库进度失败，fileMd5: {}", fileMd5, e);
+            }
+        }, 0, pollIntervalMs, TimeUnit.MILLISECONDS));
+        emitter.onCompletion(cancel);
+        emitter.onTimeout(cancel);
+        emitter.onError(e -> cancel.run());
+        return emitter;
+    }
+
+    private void put(String fileMd5, Map<String, String> fields) {
+        try {
+            Map<String, String> values = new LinkedHashMap<>(fields);
+            values.put("updatedAt", String.valueOf(System.currentTimeMillis()));
+            stringRedisTemplate.opsForHash().putAll(PROGRESS_PREFIX + fileMd5, values);
+        } catch (Exception e) {
+            logger.warn("记录入库进度失败，fileMd5: {}", fileMd5, e);
+        }
+    }
+
+    private void increment(String fileMd5, String field, int count) {
+        try {
+            String key = PROGRESS_PREFIX + fileMd5;
+            stringRedisTemplate.opsForHash().increment(key, field, count);
+            stringRedisTemplate.opsForHash().put(key, "updatedAt", String.valueOf(System.currentTimeMillis()));
+        } catch (Exception e) {
+            logger.warn("记录入库进度失败，fileMd5: {}", fileMd5, e);
+        }
+    }
+}
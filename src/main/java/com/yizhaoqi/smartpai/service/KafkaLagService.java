@@ -0,0 +1,107 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.config.KafkaConfig;
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件处理主题的消费积压（lag）
+ * 按通道统计消费组已提交偏移量与分区末尾偏移量之差，供入库流水线监控；
+ * 分区还没有提交过偏移量时按最早偏移量计算。读取失败时只返回错误信息，不影响其他监控项。
+ */
+@Service
+@Slf4j
+public class KafkaLagService {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final KafkaAdmin kafkaAdmin;
+    private final KafkaConfig kafkaConfig;
+    private volatile AdminClient adminClient;
+
+    public KafkaLagService(KafkaAdmin kafkaAdmin, KafkaConfig kafkaConfig) {
+        this.kafkaAdmin = kafkaAdmin;
+        this.kafkaConfig = kafkaConfig;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (adminClient != null) {
+            adminClient.close();
+        }
+    }
+
+    /**
+     * 各通道的积压条数和分区数
+     */
+    public Map<String, Object> lag() {
+        Map<String, Object> lag = new LinkedHashMap<>();
+        try {
+            AdminClient admin = admin();
+            Map<TopicPartition, OffsetAndMetadata> committed = admin
+                    .listConsumerGroupOffsets(kafkaConfig.getFileProcessingGroupId())
+                    .partitionsToOffsetAndMetadata()
+                    .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            for (FileProcessingLane lane : FileProcessingLane.values()) {
+                String topic = kafkaConfig.getLaneTopic(lane);
+                TopicDescription description = admin.describeTopics(List.of(topic))
+                        .allTopicNames().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get(topic);
+                Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+                Map<TopicPartition, OffsetSpec> earliest = new HashMap<>();
+                description.partitions().forEach(p -> {
+                    TopicPartition tp = new TopicPartition(topic, p.partition());
+                    latest.put(tp, OffsetSpec.latest());
+                    if (committed.get(tp) == null) {
+                        earliest.put(tp, OffsetSpec.earliest());
+                    }
+                });
+                Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> ends =
+                        admin.listOffsets(latest).all().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> starts = earliest.isEmpty()
+                        ? Map.of() : admin.listOffsets(earliest).all().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                long total = 0;
+                for (Map.Entry<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> end : ends.entrySet()) {
+                    OffsetAndMetadata offset = committed.get(end.getKey());
+                    long position = offset != null ? offset.offset() : starts.get(end.getKey()).offset();
+                    total += Math.max(0, end.getValue().offset() - position);
+                }
+                lag.put(lane.name().toLowerCase(), Map.of("topic", topic, "partitions", ends.size(), "lag", total));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lag.put("error", "读取消费积压被中断");
+        } catch (Exception e) {
+            log.warn("读取文件处理主题消费积压失败: {}", e.getMessage());
+            lag.put("error", "读取消费积压失败: " + e.getMessage());
+        }
+        return lag;
+    }
+
+    private AdminClient admin() {
+        AdminClient admin = adminClient;
+        if (admin == null) {
+            synchronized (this) {
+                if (adminClient == null) {
+                    adminClient = AdminClient.create(kafkaAdmin.getConfigurationProperties());
+                }
+                admin = adminClient;
+            }
+        }
+        return admin;
+    }
+}
@@ -5,10 +5,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.yizhaoqi.smartpai.model.OrganizationTag;
+import com.yizhaoqi.smartpai.repository.FileUploadRepository;
 import com.yizhaoqi.smartpai.repository.OrganizationTagRepository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
@@ -29,7 +33,9 @@ public class OrgTagCacheService {
     private static final String USER_ORG_TAGS_KEY_PREFIX = "user:org_tags:";
     private static final String USER_PRIMARY_ORG_KEY_PREFIX = "user:primary_org:";
     private static final String USER_EFFECTIVE_TAGS_KEY_PREFIX = "user:effective_org_tags:";
+    private static final String USER_PRIVATE_FILE_TAGS_KEY_PREFIX = "user:private_file_tags:";
     private static final long CACHE_TTL_HOURS = 24;
+    private static final long PRIVATE_FILE_TAGS_TTL_MINUTES = 30;
     private static final String DEFAULT_ORG_TAG = "default";
     
     @Autowired
@@ -37,6 +43,9 @@ public class OrgTagCacheService {
     
     @Autowired
     private OrganizationTagRepository organizationTagRepository;
+
+    @Autowired
+    private FileUploadRepository fileUploadRepository;
     
     /**
      * 缓存用户的组织标签
@@ -259,4 +268,56 @@ public class OrgTagCacheService {
             logger.error("Failed to invalidate effective organization tags cache", e);
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 获取用户自己上传的私有文件所在的组织标签（检索路由和结果缓存指纹使用）
+     * 缓存未命中时查询数据库并缓存；上传或删除文件时清除，数据库查询失败时抛出异常
+     *
+     * @param userDbId 用户数据库ID
+     * @return 组织标签集合，没有组织标签的文件对应 null 元素
+     */
+    public Set<String> getUserPrivateFileOrgTags(String userDbId) {
+        String key = USER_PRIVATE_FILE_TAGS_KEY_PREFIX + userDbId;
+        try {
+            Object cached = redisTemplate.opsForValue().get(key);
+            if (cached instanceof Collection<?> tags) {
+                Set<String> result = new HashSet<>();
+                tags.forEach(t -> result.add(t == null ? null : t.toString()));
+                return result;
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to read private file org tags cache for user: {}", userDbId, e);
+        }
+        Set<String> tags = new HashSet<>(fileUploadRepository.findDistinctPrivateOrgTagsByUserId(userDbId));
+        try {
+            redisTemplate.opsForValue().set(key, new ArrayList<>(tags), PRIVATE_FILE_TAGS_TTL_MINUTES, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            logger.warn("Failed to cache private file org tags for user: {}", userDbId, e);
+        }
+        return tags;
+    }
+
+    /**
+     * 删除用户私有文件组织标签缓存，用户新增或删除文件时调用
+     * 在事务中调用时事务提交后再删除一次，避免提交前的并发检索把旧结果写回缓存
+     */
+    public void deleteUserPrivateFileOrgTagsCache(String userDbId) {
+        String key = USER_PRIVATE_FILE_TAGS_KEY_PREFIX + userDbId;
+        Runnable evict = () -> {
+            try {
+                redisTemplate.delete(key);
+            } catch (Exception e) {
+                logger.error("Failed to delete private file org tags cache for user: {}", userDbId, e);
+            }
+        };
+        evict.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.yizhaoqi.smartpai.service;
 
+import com.yizhaoqi.smartpai.entity.TextChunk;
 import com.yizhaoqi.smartpai.langchain4j.vlembedding.VLEmbeddingToolUtils;
 import com.yizhaoqi.smartpai.model.DocumentVector;
 import com.yizhaoqi.smartpai.repository.DocumentVectorRepository;
@@ -18,6 +19,7 @@ import org.xml.sax.SAXException;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import com.hankcs.hanlp.seg.common.Term;
 import com.hankcs.hanlp.tokenizer.StandardTokenizer;
 
@@ -32,6 +34,9 @@ public class ParseService {
     @Autowired
     private VLEmbeddingToolUtils vlEmbeddingToolUtils;
 
+    @Autowired
+    private IngestProgressService ingestProgressService;
+
     @Value("${file.parsing.chunk-size}")
     private int chunkSize;
 
@@ -65,6 +70,18 @@ public class ParseService {
      */
     public void parseAndSave(String fileMd5, InputStream fileStream,
             String userId, String orgTag, boolean isPublic) throws IOException, TikaException {
+        parseAndSave(fileMd5, fileStream, userId, orgTag, isPublic, null);
+    }
+
+    /**
+     * 流式解析文件，每保存一批子切片就交给 chunkSink，
+     * 下游可以边解析边向量化，前面的分块在整个文件解析完之前就能被检索到
+     *
+     * @param chunkSink 子切片入库后的回调，可为null
+     */
+    public void parseAndSave(String fileMd5, InputStream fileStream,
+            String userId, String orgTag, boolean isPublic,
+            Consumer<List<TextChunk>> chunkSink) throws IOException, TikaException {
         /**
          * 日志打印
          */
@@ -76,13 +93,12 @@ public class ParseService {
          */
         checkMemoryThreshold();
 
-
         try (BufferedInputStream bufferedStream = new BufferedInputStream(fileStream, bufferSize)) {
             // 创建一个流式处理器，它会在内部处理父块的切分和子块的保存
             /**
              * 这个会自动进行处理
              */
-            StreamingContentHandler handler = new StreamingContentHandler(fileMd5, userId, orgTag, isPublic);
+            StreamingContentHandler handler = new StreamingContentHandler(fileMd5, userId, orgTag, isPublic, chunkSink);
             Metadata metadata = new Metadata();
             ParseContext context = new ParseContext();
             AutoDetectParser parser = new AutoDetectParser();
@@ -93,6 +109,7 @@ public class ParseService {
             // Tika的parse方法会驱动整个流式处理过程
             // 当handler的characters方法接收到足够数据时，会触发分块、切片和保存
             parser.parse(bufferedStream, handler, metadata, context);
+            removeExtraChunks(fileMd5, handler.savedChunkCount);
 
             logger.info("文件流式解析和入库完成，fileMd5: {}", fileMd5);
 
@@ -108,12 +125,24 @@ public class ParseService {
      */
     public void parsePDFAndSave(String fileMd5, InputStream fileStream,
                              String userId, String orgTag, boolean isPublic){
+        parsePDFAndSave(fileMd5, fileStream, userId, orgTag, isPublic, null);
+    }
+
+    /**
+     * PDF多模态解析，每页的分段入库后交给 chunkSink
+     *
+     * @param chunkSink 子切片入库后的回调，可为null
+     */
+    public void parsePDFAndSave(String fileMd5, InputStream fileStream,
+                             String userId, String orgTag, boolean isPublic,
+                             Consumer<List<TextChunk>> chunkSink){
         logger.info("开始解析PDF文件，fileMd5: {}, userId: {}, orgTag: {}, isPublic: {}",
                 fileMd5, userId, orgTag, isPublic);
         checkMemoryThreshold();
 
         // 1. 截图识图，提取每页文本
-        List<String> pageDescriptions = vlEmbeddingToolUtils.processPdf(fileStream, 150);
+        List<String> pageDescriptions = vlEmbeddingToolUtils.processPdf(fileStream, 150,
+                (done, total) -> ingestProgressService.pages(fileMd5, done, total));
         int totalPages = pageDescriptions.size();
         logger.info("PDF识图完成，共{}页", totalPages);
 
@@ -122,18 +151,9 @@ public class ParseService {
         for (int i = 0; i < totalPages; i++) {
             String overlappedText = assemblePageTextWithOverlap(pageDescriptions, i);
             List<String> subChunks = splitIfTooLong(overlappedText);
-            for (String chunk : subChunks) {
-                chunkId++;
-                DocumentVector dv = new DocumentVector();
-                dv.setFileMd5(fileMd5);
-                dv.setChunkId(chunkId);
-                dv.setTextContent(chunk);
-                dv.setUserId(userId);
-                dv.setOrgTag(orgTag);
-                dv.setPublic(isPublic);
-                documentVectorRepository.save(dv);
-            }
+            chunkId = saveChildChunks(fileMd5, subChunks, userId, orgTag, isPublic, chunkId, chunkSink);
         }
+        removeExtraChunks(fileMd5, chunkId);
         logger.info("PDF解析入库完成，fileMd5: {}, 共{}页, {}个chunk", fileMd5, totalPages, chunkId);
     }
 
@@ -143,6 +163,17 @@ public class ParseService {
      */
     public void parseImageAndSave(String fileMd5, InputStream fileStream,
                                 String userId, String orgTag, boolean isPublic){
+        parseImageAndSave(fileMd5, fileStream, userId, orgTag, isPublic, null);
+    }
+
+    /**
+     * 图片解析，分段入库后交给 chunkSink
+     *
+     * @param chunkSink 子切片入库后的回调，可为null
+     */
+    public void parseImageAndSave(String fileMd5, InputStream fileStream,
+                                String userId, String orgTag, boolean isPublic,
+                                Consumer<List<TextChunk>> chunkSink){
         logger.info("开始解析图片文件，fileMd5: {}, userId: {}, orgTag: {}, isPublic: {}",
                 fileMd5, userId, orgTag, isPublic);
         checkMemoryThreshold();
@@ -153,16 +184,8 @@ public class ParseService {
 
         // 超长则分段，存入MySQL
         List<String> subChunks = splitIfTooLong(description);
-        for (int i = 0; i < subChunks.size(); i++) {
-            DocumentVector dv = new DocumentVector();
-            dv.setFileMd5(fileMd5);
-            dv.setChunkId(i + 1);
-            dv.setTextContent(subChunks.get(i));
-            dv.setUserId(userId);
-            dv.setOrgTag(orgTag);
-            dv.setPublic(isPublic);
-            documentVectorRepository.save(dv);
-        }
+        int chunkId = saveChildChunks(fileMd5, subChunks, userId, orgTag, isPublic, 0, chunkSink);
+        removeExtraChunks(fileMd5, chunkId);
         logger.info("图片解析入库完成，fileMd5: {}, {}个chunk", fileMd5, subChunks.size());
     }
 
@@ -223,6 +246,14 @@ public class ParseService {
         parseAndSave(fileMd5, fileStream, "unknown", "DEFAULT", false);
     }
 
+    /**
+     * 解析成功后删除上次处理留下、序号超过本次最大分片序号的分块。
+     * 重新处理同一文件（Kafka重投、死信重放）时分块按序号覆盖写入，中途失败也不会清空已有分块
+     */
+    private void removeExtraChunks(String fileMd5, int maxChunkId) {
+        documentVectorRepository.deleteByFileMd5AndChunkIdGreaterThan(fileMd5, maxChunkId);
+    }
+
     private void checkMemoryThreshold() {
         Runtime runtime = Runtime.getRuntime();
         long maxMemory = runtime.maxMemory();
@@ -258,14 +289,17 @@ public class ParseService {
         private final String userId;
         private final String orgTag;
         private final boolean isPublic;
+        private final Consumer<List<TextChunk>> chunkSink;
         private int savedChunkCount = 0;
 
-        public StreamingContentHandler(String fileMd5, String userId, String orgTag, boolean isPublic) {
+        public StreamingContentHandler(String fileMd5, String userId, String orgTag, boolean isPublic,
+                                       Consumer<List<TextChunk>> chunkSink) {
             super(-1); // 禁用Tika的内部写入限制，我们自己管理缓冲区
             this.fileMd5 = fileMd5;
             this.userId = userId;
             this.orgTag = orgTag;
             this.isPublic = isPublic;
+            this.chunkSink = chunkSink;
         }
 
         @Override
@@ -299,7 +333,7 @@ public class ParseService {
             /**
              * 将分割好的文件存取数据库
              */
-            this.savedChunkCount = ParseService.this.saveChildChunks(fileMd5, childChunks, userId, orgTag, isPublic, this.savedChunkCount);
+            this.savedChunkCount = ParseService.this.saveChildChunks(fileMd5, childChunks, userId, orgTag, isPublic, this.savedChunkCount, chunkSink);
 
             // 3. 清空缓冲区，为下一个父块做准备
             buffer.setLength(0);
@@ -315,15 +349,19 @@ public class ParseService {
      * @param orgTag          组织标签
      * @param isPublic        是否公开
      * @param startingChunkId 当前批次的起始分片ID
+     * @param chunkSink       保存后接收本批分块的回调（向量化流水线），可为null
      * @return 保存后总的分片数量
      */
     private int saveChildChunks(String fileMd5, List<String> chunks,
-            String userId, String orgTag, boolean isPublic, int startingChunkId) {
+            String userId, String orgTag, boolean isPublic, int startingChunkId,
+            Consumer<List<TextChunk>> chunkSink) {
         /**
          * 把子分片存入数据库
          * 同时按分片好进行存储
          */
         int currentChunkId = startingChunkId;
+        List<DocumentVector> vectors = new ArrayList<>(chunks.size());
+        List<TextChunk> textChunks = new ArrayList<>(chunks.size());
         for (String chunk : chunks) {
             currentChunkId++;
             var vector = new DocumentVector();
@@ -333,9 +371,15 @@ public class ParseService {
             vector.setUserId(userId);
             vector.setOrgTag(orgTag);
             vector.setPublic(isPublic);
-            documentVectorRepository.save(vector);
+            vectors.add(vector);
+            textChunks.add(new TextChunk(currentChunkId, chunk));
         }
+        documentVectorRepository.upsertChunks(fileMd5, vectors);
         logger.info("成功保存 {} 个子切片到数据库", chunks.size());
+        // 先落库再交给下游，保证ES中的分块在数据库中都有对应记录
+        if (chunkSink != null && !textChunks.isEmpty()) {
+            chunkSink.accept(textChunks);
+        }
         return currentChunkId;
     }
 
@@ -0,0 +1,149 @@
+package com.yizhaoqi.smartpai.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 查询向量缓存
+ * 两级缓存：进程内按条数限制的LRU（直接存 float[]），其次是Redis（小端序 float 二进制，不走JSON序列化）。
+ * 键由规范化后的查询文本和模型ID决定，换模型后自动失效；重复查询不再调用向量接口。
+ * Redis不可用时只使用本地缓存，不影响检索。
+ */
+@Service
+public class QueryEmbeddingCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryEmbeddingCacheService.class);
+
+    private static final String KEY_PREFIX = "qvec:";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${search.query-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.query-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${search.query-cache.ttl-hours:24}")
+    private long ttlHours;
+
+    private final Map<String, float[]> local = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong remoteHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 获取查询向量，未命中时调用 loader 生成并写入两级缓存
+     * 返回的数组被缓存共享，调用方不要修改
+     *
+     * @param modelId 生成向量的模型
+     * @param query   查询文本
+     * @param loader  未命中时生成向量
+     */
+    public float[] get(String modelId, String query, Function<String, float[]> loader) {
+        if (!enabled) {
+            return loader.apply(query);
+        }
+        String key = key(modelId, query);
+        float[] vector;
+        synchronized (local) {
+            vector = local.get(key);
+        }
+        if (vector != null) {
+            localHits.incrementAndGet();
+            return vector;
+        }
+        vector = readRemote(key);
+        if (vector != null) {
+            remoteHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            vector = loader.apply(query);
+            writeRemote(key, vector);
+        }
+        synchronized (local) {
+            local.put(key, vector);
+        }
+        logger.debug("查询向量缓存，本地命中: {}, Redis命中: {}, 未命中: {}", localHits.get(), remoteHits.get(), misses.get());
+        return vector;
+    }
+
+    /**
+     * 规范化查询文本：Unicode兼容分解合成（全角转半角）、去首尾空白、连续空白合并、英文小写
+     */
+    static String normalize(String query) {
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKC).trim();
+        return text.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    static String key(String modelId, String query) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalize(query).getBytes(StandardCharsets.UTF_8));
+            return KEY_PREFIX + modelId + ":" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    private float[] readRemote(String key) {
+        try {
+            byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+            return bytes == null || bytes.length == 0 ? null : decode(bytes);
+        } catch (Exception e) {
+            logger.warn("读取查询向量缓存失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeRemote(String key, float[] vector) {
+        try {
+            byte[] bytes = encode(vector);
+            stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                    connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), bytes,
+                            Expiration.from(ttlHours, TimeUnit.HOURS), RedisStringCommands.SetOption.upsert()));
+        } catch (Exception e) {
+            logger.warn("写入查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+}
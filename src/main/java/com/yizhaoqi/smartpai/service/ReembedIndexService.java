@@ -0,0 +1,444 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregationSource;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonData;
+import com.yizhaoqi.smartpai.client.EmbeddingModelRegistry;
+import com.yizhaoqi.smartpai.config.EsBulkProperties;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.entity.EsDocument;
+import com.yizhaoqi.smartpai.model.DocumentVector;
+import com.yizhaoqi.smartpai.pipeline.IngestPipeline;
+import com.yizhaoqi.smartpai.repository.DocumentVectorRepository;
+import com.yizhaoqi.smartpai.repository.FileUploadRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 重新向量化并重建 knowledge_base
+ * 更换向量模型、维度或分词器时使用，目标模型由 embedding.reembed.target-model 配置（不配置时为当前向量化后端）。
+ * 按目标模型新建带版本的物理索引（_meta 带 building 标记），分三个阶段：
+ * 1. 全量：从 document_vectors 按主键分页读取全部分块，用目标模型重新向量化后直接写入新索引；
+ *    期间读写别名都留在旧索引，检索用旧模型查旧索引，新上传的文件照常写入旧索引、立即可检索；
+ * 2. 追平：把写别名切到新索引（之后的入库改用目标模型写新索引），再从游标处读完全量阶段开始后新增的分块；
+ * 3. 清理：按 file_upload 和 document_vectors 的现状删除新索引中已删除的文件、重新处理后不再存在的分块、
+ *    正在删除的文件和其他模型的分块（正在入库的文件不按分块数清理），覆盖“读出分块后文件被删除、再写入新索引”的竞争；
+ * 完成后在一次 _aliases 请求中把读写别名都切到新索引。
+ * 写入速度按 max-docs-per-second 限制，向量请求走入库通道，检索查询优先，不会被重建任务挤占。
+ * 任务失败或取消后再次发起会续用同一个新索引重新跑一遍（文档ID确定，重复写入只会覆盖）。
+ */
+@Service
+@Slf4j
+public class ReembedIndexService {
+
+    /** 清理阶段每次聚合和核对的文件数 */
+    private static final int PURGE_BATCH = 1000;
+
+    /** 每页读取的分块数，也是单次向量化和写入的批大小 */
+    @Value("${elasticsearch.reembed.page-size:256}")
+    private int pageSize;
+
+    /** 每秒最多重新向量化的分块数，0 表示不限速 */
+    @Value("${elasticsearch.reembed.max-docs-per-second:200}")
+    private double maxDocsPerSecond;
+
+    private final ElasticsearchClient esClient;
+    private final EsIndexInitializer esIndexInitializer;
+    private final EmbeddingModelRegistry embeddingModelRegistry;
+    private final EsBulkWriter esBulkWriter;
+    private final EsBulkProperties esBulkProperties;
+    private final DocumentVectorRepository documentVectorRepository;
+    private final FileUploadRepository fileUploadRepository;
+    private final EsDeletionService esDeletionService;
+    private final EsRoutingService esRoutingService;
+    private final EsIndexModelService esIndexModelService;
+    private final SearchResultCacheService searchResultCacheService;
+    private final VectorIndexMigrationService vectorIndexMigrationService;
+    private final IngestProgressService ingestProgressService;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-reembed");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Map<String, Object> status = Map.of("state", "IDLE");
+    private volatile boolean cancelled;
+
+    /**
+     * 一次任务的游标和计数，全量和追平阶段共用
+     */
+    private static final class Cursor {
+        long position;
+        long processed;
+        long skipped;
+    }
+
+    public ReembedIndexService(ElasticsearchClient esClient, EsIndexInitializer esIndexInitializer,
+                               EmbeddingModelRegistry embeddingModelRegistry,
+                               EsBulkWriter esBulkWriter, EsBulkProperties esBulkProperties,
+                               DocumentVectorRepository documentVectorRepository, FileUploadRepository fileUploadRepository,
+                               EsDeletionService esDeletionService, EsRoutingService esRoutingService,
+                               EsIndexModelService esIndexModelService, SearchResultCacheService searchResultCacheService,
+                               VectorIndexMigrationService vectorIndexMigrationService,
+                               IngestProgressService ingestProgressService) {
+        this.esClient = esClient;
+        this.esIndexInitializer = esIndexInitializer;
+        this.embeddingModelRegistry = embeddingModelRegistry;
+        this.esBulkWriter = esBulkWriter;
+        this.esBulkProperties = esBulkProperties;
+        this.documentVectorRepository = documentVectorRepository;
+        this.fileUploadRepository = fileUploadRepository;
+        this.esDeletionService = esDeletionService;
+        this.esRoutingService = esRoutingService;
+        this.esIndexModelService = esIndexModelService;
+        this.searchResultCacheService = searchResultCacheService;
+        this.vectorIndexMigrationService = vectorIndexMigrationService;
+        this.ingestProgressService = ingestProgressService;
+    }
+
+    /**
+     * 启动一次重新向量化，已有任务在进行时抛出异常
+     *
+     * @return 启动时的状态
+     */
+    public synchronized Map<String, Object> start() throws Exception {
+        if (isRunning()) {
+            throw new IllegalStateException("重新向量化正在进行中");
+        }
+        if (vectorIndexMigrationService.isRunning()) {
+            throw new IllegalStateException("向量索引重建正在进行中");
+        }
+        EmbeddingModelRegistry.Model model = embeddingModelRegistry.target();
+        List<String> readIndices = esIndexInitializer.aliasIndices(EsIndexInitializer.READ_ALIAS);
+        List<String> writeIndices = esIndexInitializer.aliasIndices(EsIndexInitializer.WRITE_ALIAS);
+        String target = resumeTarget(readIndices, writeIndices, esIndexInitializer.buildingIndices(model.modelId(), model.dims()));
+        if (target == null && !writeIndices.equals(readIndices)) {
+            throw new IllegalStateException("读写别名指向不同索引（" + readIndices + " / " + writeIndices
+                    + "），且写索引不是目标模型正在重建的索引，请先处理别名");
+        }
+        boolean resume = target != null;
+        if (!resume) {
+            target = EsIndexInitializer.versionedIndexName(model.modelId(), model.dims());
+        }
+
+        Map<String, Object> running = new LinkedHashMap<>();
+        running.put("state", "RUNNING");
+        running.put("phase", "COPY");
+        running.put("source", readIndices);
+        running.put("target", target);
+        running.put("resumed", resume);
+        running.put("modelId", model.modelId());
+        running.put("dims", model.dims());
+        running.put("total", documentVectorRepository.count());
+        running.put("startedAt", System.currentTimeMillis());
+        status = running;
+        cancelled = false;
+        String index = target;
+        executor.execute(() -> run(index, resume, model, running));
+        return Map.copyOf(running);
+    }
+
+    /**
+     * 上次没有完成的新索引：写别名已切到目标模型正在重建的索引时（追平或清理阶段中断）续用它，
+     * 否则续用最新的、还不在读别名下的重建中索引（全量阶段中断）；没有时返回 null
+     *
+     * @param buildingIndices 目标模型和维度的重建中索引，按创建时间升序
+     */
+    static String resumeTarget(List<String> readIndices, List<String> writeIndices, List<String> buildingIndices) {
+        if (writeIndices.size() == 1 && !writeIndices.equals(readIndices)) {
+            return buildingIndices.contains(writeIndices.get(0)) ? writeIndices.get(0) : null;
+        }
+        for (int i = buildingIndices.size() - 1; i >= 0; i--) {
+            if (!readIndices.contains(buildingIndices.get(i))) {
+                return buildingIndices.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 请求取消，当前批次写完后停止
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public Map<String, Object> status() {
+        return Map.copyOf(status);
+    }
+
+    public boolean isRunning() {
+        return "RUNNING".equals(status.get("state"));
+    }
+
+    private void run(String target, boolean resume, EmbeddingModelRegistry.Model model, Map<String, Object> initial) {
+        long startNanos = System.nanoTime();
+        long total = (long) initial.get("total");
+        Cursor cursor = new Cursor();
+        Map<String, Object> result = new LinkedHashMap<>(initial);
+        try {
+            if (!resume) {
+                esIndexInitializer.createIndex(target, model.modelId(), model.dims(), true);
+            }
+            esBulkWriter.updateRefreshInterval(target, "-1");
+            Function<EsDocument, String> routing = esRoutingService.writeRouting(target);
+
+            // 全量：读写别名都还在旧索引，检索和入库照常使用旧模型
+            copy(target, model, routing, cursor, result, total, startNanos);
+
+            // 追平：写别名切过来后新索引开始接收入库和删除，恢复 refresh 让删除请求能看到已写入的分块
+            esBulkWriter.updateRefreshInterval(target, esBulkProperties.getRefreshInterval());
+            esIndexInitializer.moveWriteAlias(target);
+            esRoutingService.invalidate();
+            esIndexModelService.invalidate();
+            result.put("phase", "CATCH_UP");
+            copy(target, model, routing, cursor, result, total, startNanos);
+
+            result.put("phase", "PURGE");
+            status = progress(result, cursor.processed, cursor.skipped, cursor.position, total, startNanos);
+            esClient.indices().refresh(r -> r.index(target));
+            result.put("purged", purge(target, model.modelId()));
+            esClient.indices().refresh(r -> r.index(target));
+            long targetDocs = esClient.count(c -> c.index(target)).count();
+            result.put("targetDocs", targetDocs);
+
+            List<String> previous = esIndexInitializer.switchAliases(target);
+            try {
+                esIndexInitializer.markServing(target, model.modelId(), model.dims());
+            } catch (Exception e) {
+                // 标记只影响续跑判断：索引已在读别名下，不会被当作未完成的索引续用
+                log.warn("去掉索引 {} 的 building 标记失败: {}", target, e.getMessage());
+            }
+            esRoutingService.invalidate();
+            esIndexModelService.invalidate();
+            searchResultCacheService.invalidateAll();
+            result.put("previous", previous);
+            result.put("phase", "DONE");
+            result.put("state", "SUCCEEDED");
+            log.info("重新向量化完成，{} -> {}，分块: {}，跳过: {}，新索引文档数: {}，耗时: {}s",
+                    previous, target, cursor.processed, cursor.skipped, targetDocs,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+        } catch (Exception e) {
+            log.error("重新向量化失败，目标索引: {}，阶段: {}，游标: {}（重新发起会续用目标索引）",
+                    target, result.get("phase"), cursor.position, e);
+            result.put("state", cancelled ? "CANCELLED" : "FAILED");
+            result.put("error", e.getMessage());
+            esBulkWriter.updateRefreshInterval(target, esBulkProperties.getRefreshInterval());
+        } finally {
+            status = progress(result, cursor.processed, cursor.skipped, cursor.position, total, startNanos);
+        }
+    }
+
+    /**
+     * 从游标处按主键分页读取分块，用目标模型向量化后写入新索引，直到读完；
+     * 重新处理的文件会删除旧分块再插入，新分块主键更大，追平阶段会读到
+     */
+    private void copy(String target, EmbeddingModelRegistry.Model model, Function<EsDocument, String> routing,
+                      Cursor cursor, Map<String, Object> result, long total, long startNanos) throws Exception {
+        String modelId = model.modelId();
+        while (true) {
+            if (cancelled) {
+                throw new IllegalStateException("重新向量化已取消");
+            }
+            List<DocumentVector> page = documentVectorRepository.findByVectorIdGreaterThanOrderByVectorIdAsc(
+                    cursor.position, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                return;
+            }
+            cursor.position = page.get(page.size() - 1).getVectorId();
+            Set<String> deleting = esDeletionService.deletingFiles();
+            List<DocumentVector> rows = new ArrayList<>(page.size());
+            for (DocumentVector row : page) {
+                if (deleting.contains(row.getFileMd5()) || row.getTextContent() == null || row.getTextContent().isBlank()) {
+                    cursor.skipped++;
+                } else {
+                    rows.add(row);
+                }
+            }
+            if (!rows.isEmpty()) {
+                List<float[]> vectors = model.batcher().embed(rows.stream().map(DocumentVector::getTextContent).toList());
+                List<EsDocument> docs = new ArrayList<>(rows.size());
+                for (int i = 0; i < rows.size(); i++) {
+                    DocumentVector row = rows.get(i);
+                    docs.add(new EsDocument(
+                            IngestPipeline.documentId(row.getFileMd5(), row.getChunkId(), modelId),
+                            row.getFileMd5(),
+                            row.getChunkId(),
+                            row.getTextContent(),
+                            vectors.get(i),
+                            modelId,
+                            row.getUserId(),
+                            row.getOrgTag(),
+                            row.isPublic()));
+                }
+                esBulkWriter.write(target, docs, routing).join();
+            }
+            cursor.processed += page.size();
+            status = progress(result, cursor.processed, cursor.skipped, cursor.position, total, startNanos);
+            long sleepNanos = throttleNanos(cursor.processed, maxDocsPerSecond, System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+        }
+    }
+
+    /**
+     * 按数据库现状清理新索引：逐批聚合索引中的文件及其最大分片序号，与 file_upload、document_vectors 和删除墓碑核对，
+     * 删除已不存在或正在删除的文件、超出当前最大分片序号的分块，以及其他模型的分块（滚动升级期间旧版本实例可能写入）
+     *
+     * @return 删除的分块数
+     */
+    long purge(String target, String modelId) throws Exception {
+        long deleted = esClient.deleteByQuery(d -> d
+                .index(target)
+                .conflicts(Conflicts.Proceed)
+                .query(q -> q.bool(b -> b.mustNot(m -> m.term(t -> t.field("modelVersion").value(modelId)))))).deleted();
+
+        Set<String> deleting = esDeletionService.deletingFiles();
+        Set<String> ingesting = ingestProgressService.activeFiles();
+        Map<String, Integer> stale = new LinkedHashMap<>();
+        Map<String, FieldValue> after = null;
+        while (true) {
+            Map<String, FieldValue> afterKey = after;
+            SearchResponse<Void> response = esClient.search(s -> s
+                    .index(target)
+                    .size(0)
+                    .aggregations("files", a -> a
+                            .composite(c -> {
+                                c.size(PURGE_BATCH)
+                                        .sources(Map.of("fileMd5", CompositeAggregationSource.of(cs -> cs.terms(t -> t.field("fileMd5")))));
+                                if (afterKey != null) {
+                                    c.after(afterKey);
+                                }
+                                return c;
+                            })
+                            .aggregations("maxChunkId", m -> m.max(x -> x.field("chunkId")))), Void.class);
+            CompositeAggregate files = response.aggregations().get("files").composite();
+            if (files.buckets().array().isEmpty()) {
+                break;
+            }
+            Map<String, Integer> indexed = new LinkedHashMap<>();
+            for (CompositeBucket bucket : files.buckets().array()) {
+                indexed.put(bucket.key().get("fileMd5").stringValue(), (int) bucket.aggregations().get("maxChunkId").max().value());
+            }
+            Set<String> existing = new HashSet<>(fileUploadRepository.findExistingFileMd5In(indexed.keySet()));
+            Map<String, Integer> maxChunkIds = new HashMap<>();
+            for (Object[] row : documentVectorRepository.findMaxChunkIdByFileMd5In(indexed.keySet())) {
+                maxChunkIds.put((String) row[0], ((Number) row[1]).intValue());
+            }
+            stale.putAll(staleChunks(indexed, existing, maxChunkIds, deleting, ingesting));
+            if (files.afterKey() == null || files.afterKey().isEmpty()) {
+                break;
+            }
+            after = files.afterKey();
+        }
+
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(stale.entrySet());
+        for (int start = 0; start < entries.size(); start += PURGE_BATCH) {
+            Map<String, Integer> batch = new LinkedHashMap<>();
+            entries.subList(start, Math.min(start + PURGE_BATCH, entries.size())).forEach(e -> batch.put(e.getKey(), e.getValue()));
+            deleted += esClient.deleteByQuery(d -> d
+                    .index(target)
+                    .conflicts(Conflicts.Proceed)
+                    .query(staleQuery(batch))).deleted();
+        }
+        if (deleted > 0) {
+            log.info("已从 {} 清理 {} 个分块，涉及已删除或已变化的文件 {} 个", target, deleted, stale.size());
+        }
+        return deleted;
+    }
+
+    /**
+     * 新索引中需要清理的文件及保留的最大分片序号
+     * 上传记录已不存在或正在删除的文件整个删除（值为 -1）；文件重新处理后分块变少时只删除超出的分块。
+     * 正在入库的文件和 document_vectors 中没有分块的文件跳过：重新解析会按序号覆盖写入分块，
+     * 此时的分块数不代表文件的最终状态，多出的分块由入库结束时的清理删除
+     *
+     * @param indexed     新索引中的文件及其最大分片序号
+     * @param existing    仍有上传记录的文件
+     * @param maxChunkIds document_vectors 中各文件当前的最大分片序号
+     * @param deleting    正在删除的文件
+     * @param ingesting   正在入库的文件
+     */
+    static Map<String, Integer> staleChunks(Map<String, Integer> indexed, Set<String> existing,
+                                            Map<String, Integer> maxChunkIds, Set<String> deleting,
+                                            Set<String> ingesting) {
+        Map<String, Integer> stale = new LinkedHashMap<>();
+        indexed.forEach((fileMd5, indexedMax) -> {
+            Integer current = maxChunkIds.get(fileMd5);
+            if (deleting.contains(fileMd5) || !existing.contains(fileMd5)) {
+                stale.put(fileMd5, -1);
+            } else if (!ingesting.contains(fileMd5) && current != null && indexedMax > current) {
+                stale.put(fileMd5, current);
+            }
+        });
+        return stale;
+    }
+
+    /**
+     * 匹配需要清理的分块：整个文件删除的按 fileMd5，分块变少的按 fileMd5 加分片序号范围
+     */
+    static Query staleQuery(Map<String, Integer> stale) {
+        List<FieldValue> wholeFiles = new ArrayList<>();
+        List<Query> should = new ArrayList<>();
+        stale.forEach((fileMd5, keepUpTo) -> {
+            if (keepUpTo < 0) {
+                wholeFiles.add(FieldValue.of(fileMd5));
+            } else {
+                should.add(Query.of(q -> q.bool(b -> b
+                        .filter(f -> f.term(t -> t.field("fileMd5").value(fileMd5)))
+                        .filter(f -> f.range(r -> r.field("chunkId").gt(JsonData.of(keepUpTo)))))));
+            }
+        });
+        if (!wholeFiles.isEmpty()) {
+            should.add(Query.of(q -> q.terms(t -> t.field("fileMd5").terms(v -> v.value(wholeFiles)))));
+        }
+        return Query.of(q -> q.bool(b -> b.should(should).minimumShouldMatch("1")));
+    }
+
+    /**
+     * 按 max-docs-per-second 限速：进度超前时需要休眠的纳秒数，不需要时返回 0
+     */
+    static long throttleNanos(long processed, double maxDocsPerSecond, long elapsedNanos) {
+        if (maxDocsPerSecond <= 0) {
+            return 0;
+        }
+        long expectedNanos = (long) (processed / maxDocsPerSecond * 1_000_000_000L);
+        return Math.max(0, expectedNanos - elapsedNanos);
+    }
+
+    static Map<String, Object> progress(Map<String, Object> base, long processed, long skipped, long cursor,
+                                        long total, long startNanos) {
+        Map<String, Object> progress = new LinkedHashMap<>(base);
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        double rate = processed / seconds;
+        progress.put("processed", processed);
+        progress.put("skipped", skipped);
+        progress.put("cursor", cursor);
+        progress.put("percent", total == 0 ? 100.0 : Math.min(100.0, processed * 100.0 / total));
+        progress.put("docsPerSecond", Math.round(rate * 10) / 10.0);
+        progress.put("etaSeconds", rate <= 0 ? -1 : Math.max(0, Math.round((total - processed) / rate)));
+        progress.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return progress;
+    }
+}
@@ -0,0 +1,87 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.config.SearchProperties;
+import com.yizhaoqi.smartpai.entity.SearchResult;
+import com.yizhaoqi.smartpai.utils.LatencyRecorder;
+import com.yizhaoqi.smartpai.utils.RetrievalMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 检索效果离线评估
+ * 在标注好的查询集上分别用 rescore 和 fusion 两种排序模式检索，
+ * 对比 recall@k、nDCG@k、MRR 和检索耗时，用于调整融合方式和权重。
+ * 相关条目用 "fileMd5:chunkId" 表示。
+ */
+@Service
+@Slf4j
+public class RetrievalEvaluationService {
+
+    /**
+     * 一条标注查询
+     *
+     * @param query    查询文本
+     * @param relevant 相关分块，格式 fileMd5:chunkId
+     */
+    public record LabelledQuery(String query, List<String> relevant) {
+    }
+
+    private final HybridSearchService hybridSearchService;
+
+    public RetrievalEvaluationService(HybridSearchService hybridSearchService) {
+        this.hybridSearchService = hybridSearchService;
+    }
+
+    /**
+     * 以指定用户的权限评估查询集
+     * 正式计时前每条查询先预热一次，查询向量进入缓存，两种模式比较的是检索本身的耗时
+     *
+     * @param queries 标注查询集
+     * @param userId  执行检索的用户
+     * @param topK    返回条数，同时作为指标的 k
+     * @return 各排序模式的平均指标和耗时分布
+     */
+    public Map<String, Object> evaluate(List<LabelledQuery> queries, String userId, int topK) {
+        for (LabelledQuery q : queries) {
+            hybridSearchService.searchWithPermission(q.query(), userId, topK, SearchProperties.RankingMode.RESCORE);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("queries", queries.size());
+        report.put("topK", topK);
+        for (SearchProperties.RankingMode mode : SearchProperties.RankingMode.values()) {
+            report.put(mode.name().toLowerCase(), evaluateMode(queries, userId, topK, mode));
+        }
+        log.info("检索评估完成，查询数: {}, 结果: {}", queries.size(), report);
+        return report;
+    }
+
+    private Map<String, Object> evaluateMode(List<LabelledQuery> queries, String userId, int topK,
+                                             SearchProperties.RankingMode mode) {
+        LatencyRecorder latency = new LatencyRecorder(Math.max(1, queries.size()));
+        double recall = 0;
+        double ndcg = 0;
+        double mrr = 0;
+        for (LabelledQuery q : queries) {
+            List<SearchResult> results = latency.time("search",
+                    () -> hybridSearchService.searchWithPermission(q.query(), userId, topK, mode));
+            List<String> ranked = results.stream().map(r -> r.getFileMd5() + ":" + r.getChunkId()).toList();
+            Set<String> relevant = new HashSet<>(q.relevant());
+            recall += RetrievalMetrics.recallAtK(ranked, relevant, topK);
+            ndcg += RetrievalMetrics.ndcgAtK(ranked, relevant, topK);
+            mrr += RetrievalMetrics.reciprocalRank(ranked, relevant, topK);
+        }
+        int n = Math.max(1, queries.size());
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("recallAtK", recall / n);
+        metrics.put("ndcgAtK", ndcg / n);
+        metrics.put("mrr", mrr / n);
+        metrics.put("latency", latency.stats().get("search"));
+        return metrics;
+    }
+}
@@ -0,0 +1,226 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.entity.SearchResult;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检索结果缓存
+ * 键由规范化后的查询、topK、模型和排序模式以及权限指纹决定：有效组织标签相同的用户共享缓存，
+ * 本人私有文件不全在有效组织标签内时指纹带上用户ID。
+ * 每个组织标签在Redis中有一个代数计数器（另有公开文档和全局两个计数器），入库完成和删除文档时递增对应标签的代数，
+ * 重建索引切换别名时递增全局代数；缓存项记录写入时的代数，读取时代数变化即失效，多实例之间通过Redis同步失效。
+ * 结果只缓存在进程内（按条数限制的LRU），命中时只需一次 Redis MGET 读取代数。Redis不可用时不使用缓存。
+ */
+@Service
+public class SearchResultCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchResultCacheService.class);
+
+    static final String GENERATION_PREFIX = "search:gen:";
+    static final String PUBLIC_GENERATION = "_public";
+    static final String ALL_GENERATION = "_all";
+    static final String NO_ORG_GENERATION = "_none";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${search.result-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.result-cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${search.result-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    /** 入库完成后再递增一次代数的延迟，覆盖新分块等待 refresh 才可见的这段时间 */
+    @Value("${search.result-cache.invalidate-delay-ms:2000}")
+    private long invalidateDelayMs;
+
+    private record Entry(String generations, List<SearchResult> results, long expiresAt) {
+    }
+
+    private final Map<String, Entry> local = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private final ScheduledExecutorService delayedInvalidation = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "search-cache-invalidate");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    @PreDestroy
+    public void shutdown() {
+        delayedInvalidation.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 权限指纹：排序后的有效组织标签；本人私有文件所在标签不全在其中时，可见范围与他人不同，加上用户ID
+     */
+    static String fingerprint(String userDbId, Collection<String> effectiveTags, Collection<String> ownPrivateTags) {
+        TreeSet<String> tags = new TreeSet<>();
+        effectiveTags.stream().filter(t -> t != null).forEach(tags::add);
+        String fingerprint = String.join(",", tags);
+        if (!ownPrivateTags.stream().allMatch(t -> t != null && tags.contains(t))) {
+            fingerprint += "|user:" + userDbId;
+        }
+        return fingerprint;
+    }
+
+    static String key(String scope, String query, int topK, String fingerprint) {
+        try {
+            String raw = scope + "\n" + topK + "\n" + fingerprint + "\n" + QueryEmbeddingCacheService.normalize(query);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 检索结果依赖的代数计数器：给定组织标签各一个，加上公开文档和全局计数器
+     */
+    static List<String> generationKeys(Collection<String> tags) {
+        TreeSet<String> names = new TreeSet<>();
+        names.add(PUBLIC_GENERATION);
+        names.add(ALL_GENERATION);
+        for (String tag : tags) {
+            names.add(tag == null || tag.isEmpty() ? NO_ORG_GENERATION : tag);
+        }
+        return names.stream().map(name -> GENERATION_PREFIX + name).toList();
+    }
+
+    /**
+     * 读取当前代数快照，须在执行检索之前读取；Redis不可用时返回 null，本次不使用缓存
+     *
+     * @param tags 有效组织标签和本人私有文件所在的组织标签
+     */
+    public String generations(Collection<String> tags) {
+        try {
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(generationKeys(tags));
+            if (values == null) {
+                return null;
+            }
+            return String.join(",", values.stream().map(v -> v == null ? "0" : v).toList());
+        } catch (Exception e) {
+            logger.warn("读取检索缓存代数失败，本次不使用缓存: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 读取缓存，代数不一致或过期时视为未命中；返回的是副本，调用方可以修改
+     */
+    public List<SearchResult> get(String key, String generations) {
+        Entry entry;
+        synchronized (local) {
+            entry = local.get(key);
+            if (entry != null && (!entry.generations().equals(generations) || entry.expiresAt() <= System.currentTimeMillis())) {
+                local.remove(key);
+                stale.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(entry.results());
+    }
+
+    /**
+     * 写入缓存，generations 为检索前读取的代数快照：检索期间有入库或删除时快照已过时，下次读取自然失效
+     */
+    public void put(String key, String generations, List<SearchResult> results) {
+        Entry entry = new Entry(generations, copy(results), System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds));
+        synchronized (local) {
+            local.put(key, entry);
+        }
+    }
+
+    /**
+     * 文件的分块有变化（入库完成、删除）：递增所在组织标签的代数，公开文件递增公开代数
+     * 入库完成时新分块可能还没 refresh，延迟后再递增一次
+     *
+     * @param delayed 是否在 invalidate-delay-ms 后再递增一次
+     */
+    public void invalidate(String orgTag, boolean isPublic, boolean delayed) {
+        String name = isPublic ? PUBLIC_GENERATION : (orgTag == null || orgTag.isEmpty() ? NO_ORG_GENERATION : orgTag);
+        bump(name);
+        if (delayed && invalidateDelayMs > 0) {
+            delayedInvalidation.schedule(() -> bump(name), invalidateDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 索引整体变化（别名切换到新索引）：递增全局代数，所有缓存失效
+     */
+    public void invalidateAll() {
+        bump(ALL_GENERATION);
+    }
+
+    private void bump(String name) {
+        try {
+            stringRedisTemplate.opsForValue().increment(GENERATION_PREFIX + name);
+        } catch (Exception e) {
+            // 代数没有递增时旧结果最多保留 ttl-seconds
+            logger.warn("递增检索缓存代数失败，标签: {}: {}", name, e.getMessage());
+        }
+    }
+
+    private static List<SearchResult> copy(List<SearchResult> results) {
+        List<SearchResult> copy = new ArrayList<>(results.size());
+        for (SearchResult r : results) {
+            copy.add(new SearchResult(r.getFileMd5(), r.getChunkId(), r.getTextContent(), r.getScore(),
+                    r.getUserId(), r.getOrgTag(), Boolean.TRUE.equals(r.getIsPublic()), r.getFileName()));
+        }
+        return copy;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        synchronized (local) {
+            stats.put("entries", local.size());
+        }
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("stale", stale.get());
+        long total = hits.get() + misses.get();
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits.get() / total);
+        return stats;
+    }
+}
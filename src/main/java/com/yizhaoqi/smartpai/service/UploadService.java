@@ -44,6 +44,10 @@ public class UploadService {
     @Autowired
     private ChunkInfoRepository chunkInfoRepository;
 
+    // 新建文件记录后清除用户私有文件组织标签缓存
+    @Autowired
+    private OrgTagCacheService orgTagCacheService;
+
     @Autowired
     private String minioPublicUrl; // 注入 MinIO 的公共访问地址
 
@@ -102,6 +106,7 @@ public class UploadService {
                 fileUpload.setPublic(isPublic); // 设置是否公开
                 try {
                     fileUploadRepository.save(fileUpload);
+                    orgTagCacheService.deleteUserPrivateFileOrgTagsCache(userId);
                     logger.info("文件记录创建成功 => fileMd5: {}, fileName: {}, fileType: {}", fileMd5, fileName, fileType);
                 } catch (Exception e) {
                     logger.error("创建文件记录失败 => fileMd5: {}, fileName: {}, fileType: {}, 错误: {}", fileMd5, fileName, fileType, e.getMessage(), e);
@@ -0,0 +1,225 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Slices;
+import co.elastic.clients.elasticsearch._types.SlicesCalculation;
+import co.elastic.clients.elasticsearch.core.ReindexResponse;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import co.elastic.clients.json.JsonData;
+import com.yizhaoqi.smartpai.client.EmbeddingProvider;
+import com.yizhaoqi.smartpai.config.EsIndexInitializer;
+import com.yizhaoqi.smartpai.config.EsRoutingProperties;
+import com.yizhaoqi.smartpai.config.VectorIndexProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 向量索引重建工具
+ * 按当前配置（向量维度、量化方式）新建物理索引，用 ES _reindex 把 knowledge_base 的数据复制过去，
+ * 校验文档数后原子地把读写别名切到新索引。
+ * 目标维度小于原维度时，复制过程中按 Matryoshka 方式截取前 N 维并重新归一化，不需要重新调用向量接口；
+ * 目标维度更大或更换向量模型时无法从已有向量得到，需要用 {@link ReembedIndexService} 重新向量化。
+ * 重建期间新写入原索引的分块不会被复制，建议在暂停上传时执行。
+ */
+@Service
+@Slf4j
+public class VectorIndexMigrationService {
+
+    /**
+     * 截断并重新归一化向量的 painless 脚本
+     */
+    static final String TRUNCATE_SCRIPT = """
+            def v = ctx._source.vector;
+            if (v != null && v.size() > params.dims) {
+              def t = new ArrayList(v.subList(0, params.dims));
+              double n = 0;
+              for (def x : t) { n += x * x; }
+              n = Math.sqrt(n);
+              if (n > 0) { for (int i = 0; i < t.size(); i++) { t[i] = t[i] / n; } }
+              ctx._source.vector = t;
+            }
+            """;
+
+    private final ElasticsearchClient esClient;
+    private final EsIndexInitializer esIndexInitializer;
+    private final EmbeddingProvider embeddingProvider;
+    private final VectorIndexProperties vectorIndexProperties;
+    private final EsRoutingService esRoutingService;
+    private final EsRoutingProperties esRoutingProperties;
+    private final SearchResultCacheService searchResultCacheService;
+    private final EsIndexModelService esIndexModelService;
+    private final ReembedIndexService reembedIndexService;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-reindex");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Map<String, Object> status = Map.of("state", "IDLE");
+
+    public VectorIndexMigrationService(ElasticsearchClient esClient, EsIndexInitializer esIndexInitializer,
+                                       EmbeddingProvider embeddingProvider, VectorIndexProperties vectorIndexProperties,
+                                       EsRoutingService esRoutingService, EsRoutingProperties esRoutingProperties,
+                                       SearchResultCacheService searchResultCacheService,
+                                       EsIndexModelService esIndexModelService,
+                                       @Lazy ReembedIndexService reembedIndexService) {
+        this.esClient = esClient;
+        this.esIndexInitializer = esIndexInitializer;
+        this.embeddingProvider = embeddingProvider;
+        this.vectorIndexProperties = vectorIndexProperties;
+        this.esRoutingService = esRoutingService;
+        this.esRoutingProperties = esRoutingProperties;
+        this.searchResultCacheService = searchResultCacheService;
+        this.esIndexModelService = esIndexModelService;
+        this.reembedIndexService = reembedIndexService;
+    }
+
+    /**
+     * 启动一次重建，已有重建在进行时抛出异常
+     *
+     * @return 启动时的状态
+     */
+    public synchronized Map<String, Object> start() {
+        if (isRunning()) {
+            throw new IllegalStateException("向量索引重建正在进行中");
+        }
+        if (reembedIndexService.isRunning()) {
+            throw new IllegalStateException("重新向量化正在进行中");
+        }
+        ensureAliasesAligned();
+        // 复制的是已有向量，新索引仍属于读索引的模型，只是维度或索引方式按当前配置
+        String modelId = esIndexModelService.resolve(EsIndexInitializer.READ_ALIAS, 0).modelId();
+        String target = EsIndexInitializer.versionedIndexName(modelId, embeddingProvider.getDimension());
+        Map<String, Object> running = new LinkedHashMap<>();
+        running.put("state", "RUNNING");
+        running.put("target", target);
+        running.put("modelId", modelId);
+        running.put("dims", embeddingProvider.getDimension());
+        running.put("indexType", vectorIndexProperties.getQuantization().getIndexType());
+        running.put("startedAt", System.currentTimeMillis());
+        status = running;
+        executor.execute(() -> run(target, running));
+        return Map.copyOf(running);
+    }
+
+    public Map<String, Object> status() {
+        return Map.copyOf(status);
+    }
+
+    public boolean isRunning() {
+        return "RUNNING".equals(status.get("state"));
+    }
+
+    /**
+     * 读写别名指向不同索引说明重新向量化正在进行（或中断后未完成），此时不能再按读索引复制
+     */
+    private void ensureAliasesAligned() {
+        try {
+            if (!esIndexInitializer.aliasIndices(EsIndexInitializer.READ_ALIAS)
+                    .equals(esIndexInitializer.aliasIndices(EsIndexInitializer.WRITE_ALIAS))) {
+                throw new IllegalStateException("读写别名指向不同索引，重新向量化尚未完成");
+            }
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("读取索引别名失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void run(String target, Map<String, Object> progress) {
+        long start = System.currentTimeMillis();
+        Map<String, Object> result = new LinkedHashMap<>(progress);
+        try {
+            Map<String, Object> current = esIndexInitializer.currentVectorMapping();
+            String source = (String) current.get("index");
+            int sourceDims = current.get("dims") instanceof Integer d ? d : 0;
+            int targetDims = embeddingProvider.getDimension();
+            result.put("source", source);
+            result.put("sourceDims", sourceDims);
+            if (targetDims > sourceDims) {
+                throw new IllegalStateException("目标维度 " + targetDims + " 大于现有维度 " + sourceDims + "，无法从已有向量截取，需要重新向量化");
+            }
+
+            esIndexInitializer.createIndex(target, (String) progress.get("modelId"), targetDims, false);
+            boolean routed = esRoutingService.isRouted(target, 0);
+            result.put("routed", routed);
+            copy(source, target, sourceDims, targetDims, routed);
+
+            esClient.indices().refresh(r -> r.index(target));
+            long sourceDocs = esClient.count(c -> c.index(source)).count();
+            long targetDocs = esClient.count(c -> c.index(target)).count();
+            result.put("sourceDocs", sourceDocs);
+            result.put("targetDocs", targetDocs);
+            if (targetDocs < sourceDocs) {
+                throw new IllegalStateException("新索引文档数 " + targetDocs + " 少于原索引 " + sourceDocs + "，未切换别名");
+            }
+
+            esIndexInitializer.switchAliases(target);
+            esRoutingService.invalidate();
+            esIndexModelService.invalidate();
+            searchResultCacheService.invalidateAll();
+            result.put("state", "SUCCEEDED");
+            log.info("向量索引重建完成，{} -> {}，文档数: {}，维度: {} -> {}，耗时: {}ms",
+                    source, target, targetDocs, sourceDims, targetDims, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("向量索引重建失败，目标索引: {}", target, e);
+            result.put("state", "FAILED");
+            result.put("error", e.getMessage());
+        } finally {
+            result.put("tookMs", System.currentTimeMillis() - start);
+            status = result;
+        }
+    }
+
+    /**
+     * 异步 _reindex 并轮询任务直到完成，维度缩小时用脚本截断向量；
+     * 新索引要求路由时用脚本按组织标签计算路由，否则丢弃旧索引的路由
+     */
+    private void copy(String source, String target, int sourceDims, int targetDims, boolean routed) throws Exception {
+        StringBuilder script = new StringBuilder();
+        Map<String, JsonData> params = new LinkedHashMap<>();
+        if (targetDims < sourceDims) {
+            script.append(TRUNCATE_SCRIPT);
+            params.put("dims", JsonData.of(targetDims));
+        }
+        if (routed) {
+            script.append(EsRoutingProperties.ROUTING_SCRIPT);
+            esRoutingProperties.scriptParams().forEach((k, v) -> params.put(k, JsonData.of(v)));
+        }
+        ReindexResponse started = esClient.reindex(r -> {
+            r.source(s -> s.index(source).size(1000))
+                    .dest(d -> routed ? d.index(target) : d.index(target).routing("discard"))
+                    .slices(Slices.of(s -> s.computed(SlicesCalculation.Auto)))
+                    .waitForCompletion(false);
+            if (!script.isEmpty()) {
+                r.script(s -> s.inline(i -> i
+                        .lang("painless")
+                        .source(script.toString())
+                        .params(params)));
+            }
+            return r;
+        });
+        String taskId = started.task();
+        log.info("已提交 _reindex 任务: {}，{} -> {}", taskId, source, target);
+        while (true) {
+            GetTasksResponse task = esClient.tasks().get(g -> g
+                    .taskId(taskId)
+                    .waitForCompletion(true)
+                    .timeout(t -> t.time("60s")));
+            if (task.completed()) {
+                if (task.error() != null) {
+                    throw new IllegalStateException("_reindex 任务失败: " + task.error().reason());
+                }
+                log.info("_reindex 任务完成: {}", taskId);
+                return;
+            }
+            log.info("_reindex 任务进行中: {}，状态: {}", taskId, task.task().status());
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package com.yizhaoqi.smartpai.service;
 
-import com.yizhaoqi.smartpai.client.EmbeddingClient;
+import com.yizhaoqi.smartpai.config.VlRetrievalProperties;
+import com.yizhaoqi.smartpai.langchain4j.LangChain4jConfig;
+import com.yizhaoqi.smartpai.pipeline.IngestJob;
+import com.yizhaoqi.smartpai.pipeline.IngestPipeline;
 import com.yizhaoqi.smartpai.model.DocumentVector;
 import com.yizhaoqi.smartpai.entity.EsDocument;
 import com.yizhaoqi.smartpai.entity.TextChunk;
+import com.yizhaoqi.smartpai.exception.RetryLaterException;
 import com.yizhaoqi.smartpai.repository.DocumentVectorRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 // 向量化服务类
@@ -21,7 +28,7 @@ public class VectorizationService {
     private static final Logger logger = LoggerFactory.getLogger(VectorizationService.class);
 
     @Autowired
-    private EmbeddingClient embeddingClient;
+    private IngestPipeline ingestPipeline;
 
     @Autowired
     private ElasticsearchService elasticsearchService;
@@ -29,93 +36,146 @@ public class VectorizationService {
     @Autowired
     private DocumentVectorRepository documentVectorRepository;
 
+    @Autowired
+    private VlRetrievalProperties vlRetrievalProperties;
+
+    @Autowired
+    private LangChain4jConfig langChain4jConfig;
+
+    @Autowired
+    private IngestProgressService ingestProgressService;
+
+    @Autowired
+    private EsDeletionService esDeletionService;
+
+    @Autowired
+    private SearchResultCacheService searchResultCacheService;
+
     /**
      * 执行向量化操作
+     * 同步等待入库流水线完成，供需要阻塞调用的场景使用
      * @param fileMd5 文件指纹
      * @param userId 上传用户ID
      * @param orgTag 组织标签
      * @param isPublic 是否公开
      */
     public void vectorize(String fileMd5, String userId, String orgTag, boolean isPublic) {
+        try {
+            vectorizeAsync(fileMd5, userId, orgTag, isPublic).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("向量化失败", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * 异步向量化：按页从数据库读取分块，分批提交到入库流水线（向量化 → 写入ES）
+     * 内存中最多只有一页分块，队列满时提交会阻塞，返回值在所有分块写入ES后完成
+     * 新上传的文件由解析端边解析边提交（见 {@link #startIngest} 和 {@link #chunkSink}），这里用于对已入库分块重新向量化
+     * ES文档ID由 fileMd5、分片序号和模型确定，重复执行只会覆盖
+     * @param fileMd5 文件指纹
+     * @param userId 上传用户ID
+     * @param orgTag 组织标签
+     * @param isPublic 是否公开
+     */
+    public CompletableFuture<Void> vectorizeAsync(String fileMd5, String userId, String orgTag, boolean isPublic) {
         /**
          * 开始文本向量化
          */
+        logger.info("开始向量化文件，fileMd5: {}, userId: {}, orgTag: {}, isPublic: {}",
+                   fileMd5, userId, orgTag, isPublic);
+        IngestJob job = startIngest(fileMd5, userId, orgTag, isPublic);
         try {
-            /**
-             * 日志打印
-             */
-            logger.info("开始向量化文件，fileMd5: {}, userId: {}, orgTag: {}, isPublic: {}", 
-                       fileMd5, userId, orgTag, isPublic);
-
-            /**
-             * 这个是获取数据库中的需要向量化的内容
-             */
-            // 获取文件分块内容
-            List<TextChunk> chunks = fetchTextChunks(fileMd5);
-            if (chunks == null || chunks.isEmpty()) {
+            Consumer<List<TextChunk>> sink = chunkSink(job);
+            int pageSize = Math.max(1, ingestPipeline.getEmbedBatchSize());
+            int lastChunkId = 0;
+            while (true) {
+                /**
+                 * 这个是获取数据库中的需要向量化的内容
+                 */
+                List<TextChunk> page = fetchTextChunks(fileMd5, lastChunkId, pageSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+                sink.accept(page);
+                lastChunkId = page.get(page.size() - 1).getChunkId();
+            }
+            if (job.getSubmittedChunks().get() == 0) {
                 logger.warn("未找到分块内容，fileMd5: {}", fileMd5);
-                return;
             }
-
-            /**
-             * 提取需要向量化的内容
-             */
-            // 提取文本内容
-            List<String> texts = chunks.stream()
-                    .map(TextChunk::getContent)
-                    .toList();
-
-            /**
-             * 将提取好的内容进行向量化调用
-             * 直接传入写好的向量化模型中就可以
-             */
-            // 调用外部模型生成向量
-            List<float[]> vectors = embeddingClient.embed(texts);
-
-            /**
-             * 这个是将生成好的向量化进行ES存储
-             * 这个是进行ES分批次封装
-             */
-            // 构建 Elasticsearch 文档并存储
-            List<EsDocument> esDocuments = IntStream.range(0, chunks.size())
-                    .mapToObj(i -> new EsDocument(
-                            UUID.randomUUID().toString(),
-                            fileMd5,
-                            chunks.get(i).getChunkId(),
-                            chunks.get(i).getContent(),
-                            vectors.get(i),
-                            "deepseek-embed", // 更新为 DeepSeek 的模型版本
-                            userId,
-                            orgTag,
-                            isPublic
-                    ))
-                    .toList();
-
-            /**
-             * 这个是将封装好的向量化list存储到es中
-             */
-            elasticsearchService.bulkIndex(esDocuments); // 批量存储到 Elasticsearch
-
-            logger.info("向量化完成，fileMd5: {}", fileMd5);
+            return finishIngest(job);
         } catch (Exception e) {
             logger.error("向量化失败，fileMd5: {}", fileMd5, e);
-            throw new RuntimeException("向量化失败", e);
+            job.fail(e);
+            return CompletableFuture.failedFuture(new RuntimeException("向量化失败", e));
+        }
+    }
+
+    /**
+     * 为一个文件创建入库任务，解析端通过 {@link #chunkSink} 增量提交分块，解析结束后调用 {@link #finishIngest}
+     */
+    public IngestJob startIngest(String fileMd5, String userId, String orgTag, boolean isPublic) {
+        ensureNotDeleting(fileMd5);
+        return ingestPipeline.start(fileMd5, userId, orgTag, isPublic);
+    }
+
+    /**
+     * 同一文件的ES异步删除还没完成时拒绝入库：删除任务会把新写入的分块一并删掉，墓碑也会把它们挡在检索之外
+     * 抛出 RetryLaterException，文件处理分发器延迟后重新处理，不计入重试次数；重试用尽（FAILED）的删除不阻塞入库
+     */
+    public void ensureNotDeleting(String fileMd5) {
+        if (esDeletionService.isDeleting(fileMd5)) {
+            throw new RetryLaterException("文件的ES删除尚未完成，稍后重新处理: " + fileMd5);
         }
     }
-    
+
+    /**
+     * 解析端封口，所有分块写入ES后清理本次处理中不再存在的旧分块，
+     * 重新入库取代了该文件重试用尽的删除任务，撤销它们和墓碑；
+     * 结束后（失败时也可能已写入部分分块）让该组织标签的检索结果缓存失效
+     * @return 写入和清理都完成后完成
+     */
+    public CompletableFuture<Void> finishIngest(IngestJob job) {
+        return job.seal().thenRunAsync(() -> {
+                    elasticsearchService.deleteStaleChunks(
+                            job.getFileMd5(), job.getMaxChunkId().get(), ingestPipeline.getModelVersion());
+                    esDeletionService.supersedeFailed(job.getFileMd5());
+                })
+                .whenComplete((v, ex) -> searchResultCacheService.invalidate(job.getOrgTag(), job.isPublic(), true));
+    }
+
+    /**
+     * 增量提交分块的回调：按向量化批大小切分后提交到流水线，流水线队列满时阻塞调用方（解析线程）
+     */
+    public Consumer<List<TextChunk>> chunkSink(IngestJob job) {
+        int batchSize = Math.max(1, ingestPipeline.getEmbedBatchSize());
+        return chunks -> {
+            try {
+                for (int start = 0; start < chunks.size(); start += batchSize) {
+                    ingestPipeline.submit(job, chunks.subList(start, Math.min(start + batchSize, chunks.size())));
+                }
+                ingestProgressService.chunksParsed(job.getFileMd5(), chunks.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("向量化被中断", e);
+            }
+        };
+    }
 
     /**
      * 获取文件分块内容
      * @param fileMd5 文件指纹
+     * @param afterChunkId 上一页最后一个分片序号
+     * @param pageSize 页大小
      * @return 分块内容列表
      */
     // 从数据库获取分块内容
-    private List<TextChunk> fetchTextChunks(String fileMd5) {
+    private List<TextChunk> fetchTextChunks(String fileMd5, int afterChunkId, int pageSize) {
         /**
          * 查询数据库进行文本分词查询
          */
         // 调用 Repository 查询数据
-        List<DocumentVector> vectors = documentVectorRepository.findByFileMd5(fileMd5);
+        List<DocumentVector> vectors = documentVectorRepository.findByFileMd5AndChunkIdGreaterThanOrderByChunkIdAsc(
+                fileMd5, afterChunkId, PageRequest.of(0, pageSize));
 
         /**
          * 因为文本向量化只需要文本内容和对应的文本序号
@@ -132,11 +192,61 @@ public class VectorizationService {
 
     /**
      * 这个是多模态向量存储到ES中(图片或者PDF)
-     * @param vectors
+     * @param vectors 每页/每张图片的VL向量，序号从1开始写入 chunkId
      */
-    // TODO 写
     public void embeddingSaveES(String fileMd5, String userId, String orgTag, boolean isPublic,List<float[]> vectors){
+        embeddingSaveES(fileMd5, userId, orgTag, isPublic, vectors, null);
+    }
 
+    /**
+     * 多模态向量存储到VL向量索引，附带页面文本
+     * 文档ID由 fileMd5 和页码确定，Kafka重试重复写入时覆盖而不是新增
+     *
+     * @param vectors 每页/每张图片的VL向量
+     * @param texts   与向量一一对应的页面文本，可为null
+     */
+    public void embeddingSaveES(String fileMd5, String userId, String orgTag, boolean isPublic,
+                                List<float[]> vectors, List<String> texts) {
+        embeddingSaveES(fileMd5, userId, orgTag, isPublic, 1, vectors, texts);
+    }
+
+    /**
+     * 分批写入VL向量，PDF按页分窗向量化时每窗调用一次
+     *
+     * @param firstPageNo 本批第一个向量的页码（从1开始），写入 chunkId
+     */
+    public void embeddingSaveES(String fileMd5, String userId, String orgTag, boolean isPublic,
+                                int firstPageNo, List<float[]> vectors, List<String> texts) {
+        if (vectors == null || vectors.isEmpty()) {
+            logger.warn("没有需要写入的VL向量，fileMd5: {}", fileMd5);
+            return;
+        }
+        String modelVersion = langChain4jConfig.getVLMODEL();
+        List<EsDocument> esDocuments = IntStream.range(0, vectors.size())
+                .mapToObj(i -> new EsDocument(
+                        fileMd5 + ":vl:" + (firstPageNo + i),
+                        fileMd5,
+                        firstPageNo + i,
+                        texts == null ? "" : texts.get(i),
+                        vectors.get(i),
+                        modelVersion,
+                        userId,
+                        orgTag,
+                        isPublic
+                ))
+                .toList();
+        elasticsearchService.bulkIndex(vlRetrievalProperties.getSearch().getIndex(), esDocuments);
+        logger.info("VL向量写入完成，fileMd5: {}, 页码: {}-{}", fileMd5, firstPageNo, firstPageNo + esDocuments.size() - 1);
+    }
+
+    /**
+     * VL向量全部写入后清理VL向量索引中本次不再存在的页面（重新上传后页数变少）和其他VL模型的向量
+     *
+     * @param pageCount 本次写入的页数（图片为1）
+     */
+    public void deleteStaleVlPages(String fileMd5, int pageCount) {
+        elasticsearchService.deleteStaleChunks(vlRetrievalProperties.getSearch().getIndex(),
+                fileMd5, pageCount, langChain4jConfig.getVLMODEL());
     }
 
-}
\ No newline at end of file
+}
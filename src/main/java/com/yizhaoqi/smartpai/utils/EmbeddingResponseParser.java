@@ -0,0 +1,202 @@
+package com.yizhaoqi.smartpai.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 向量接口响应的流式解析工具
+ * 兼容 OpenAI 格式 {"data":[{"index":0,"embedding":[...]}, ...]}，
+ * 使用 Jackson 流式 API 把 embedding 数组直接解码为 float[]，不构建 JsonNode 树
+ */
+public final class EmbeddingResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private EmbeddingResponseParser() {
+    }
+
+    /**
+     * 解析响应中的全部向量，按 index 字段排序（没有 index 时保持返回顺序）
+     *
+     * @param response     响应体字节
+     * @param expectedDim  预期维度，用于预分配数组；未知时传 0
+     */
+    public static List<float[]> parse(byte[] response, int expectedDim) {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            return parse(parser, expectedDim);
+        } catch (IOException e) {
+            throw new RuntimeException("解析向量响应失败", e);
+        }
+    }
+
+    /**
+     * 只取第一条向量
+     */
+    public static float[] parseFirst(byte[] response, int expectedDim) {
+        List<float[]> vectors = parse(response, expectedDim);
+        if (vectors.isEmpty()) {
+            throw new RuntimeException("API 响应格式错误: data 字段不存在或为空");
+        }
+        return vectors.get(0);
+    }
+
+    private static List<float[]> parse(JsonParser parser, int expectedDim) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new RuntimeException("API 响应格式错误: 根节点不是对象");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                return parseData(parser, expectedDim);
+            }
+            parser.skipChildren();
+        }
+        throw new RuntimeException("API 响应格式错误: data 字段不存在或不是数组");
+    }
+
+    private static List<float[]> parseData(JsonParser parser, int expectedDim) throws IOException {
+        List<float[]> vectors = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        boolean ordered = true;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            float[] vector = null;
+            int index = -1;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("embedding".equals(field) && value == JsonToken.START_ARRAY) {
+                    vector = readFloatArray(parser, expectedDim);
+                } else if ("index".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                    index = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (vector != null) {
+                if (index != vectors.size()) {
+                    ordered = false;
+                }
+                vectors.add(vector);
+                indexes.add(index);
+            }
+        }
+        if (ordered || indexes.contains(-1)) {
+            return vectors;
+        }
+        // 服务端不保证按输入顺序返回，按 index 还原
+        float[][] sorted = new float[vectors.size()][];
+        for (int i = 0; i < vectors.size(); i++) {
+            int index = indexes.get(i);
+            if (index < 0 || index >= sorted.length || sorted[index] != null) {
+                throw new RuntimeException("API 响应格式错误: index 字段不连续");
+            }
+            sorted[index] = vectors.get(i);
+        }
+        return Arrays.asList(sorted);
+    }
+
+    private static float[] readFloatArray(JsonParser parser, int expectedDim) throws IOException {
+        float[] buffer = new float[expectedDim > 0 ? expectedDim : 1024];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new RuntimeException("API 响应格式错误: embedding 中包含非数值元素");
+            }
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = token == JsonToken.VALUE_NUMBER_INT
+                    ? parser.getIntValue()
+                    : decodeFloat(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * 直接从解析器的字符缓冲区解码浮点数，不创建 String
+     * 有效数字不超过 15 位且十进制指数在 ±22 以内时（向量接口返回的数值都在这个范围），
+     * 尾数和 10 的幂都能精确表示为 double，一次乘除得到的就是正确舍入的 double，与 Double.parseDouble 结果一致；
+     * 其他情况回退到 Double.parseDouble。
+     */
+    static float decodeFloat(char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+            seenDigit = true;
+            if (mantissa != 0 || chars[i] != '0') {
+                mantissa = mantissa * 10 + (chars[i] - '0');
+                digits++;
+            }
+        }
+        if (i < end && chars[i] == '.') {
+            for (i++; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                seenDigit = true;
+                if (mantissa != 0 || chars[i] != '0') {
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                    digits++;
+                }
+                scale--;
+            }
+        }
+        int exponent = 0;
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExp = chars[i] == '-';
+                i++;
+            }
+            int expStart = i;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9' && exponent < 10_000; i++) {
+                exponent = exponent * 10 + (chars[i] - '0');
+            }
+            if (i == expStart) {
+                return slowDecode(chars, offset, length);
+            }
+            exponent = negativeExp ? -exponent : exponent;
+        }
+        if (!seenDigit || i != end || digits > 15) {
+            return slowDecode(chars, offset, length);
+        }
+        int power = scale + exponent;
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (power == 0) {
+            value = mantissa;
+        } else if (power > 0 && power <= 22) {
+            value = mantissa * POWERS_OF_TEN[power];
+        } else if (power < 0 && power >= -22) {
+            value = mantissa / POWERS_OF_TEN[-power];
+        } else {
+            return slowDecode(chars, offset, length);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private static float slowDecode(char[] chars, int offset, int length) {
+        return (float) Double.parseDouble(new String(chars, offset, length));
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+}
@@ -0,0 +1,95 @@
+package com.yizhaoqi.smartpai.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 分阶段耗时统计
+ * 每个阶段保留最近 windowSize 个样本计算 p50/p95/p99，累计次数、平均值和最大值覆盖全部样本。
+ * 线程安全，各阶段可以在不同线程中记录。
+ */
+public class LatencyRecorder {
+
+    private final int windowSize;
+    private final Map<String, Window> phases = new ConcurrentHashMap<>();
+
+    public LatencyRecorder(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    /**
+     * 执行并记录一个阶段的耗时，异常时同样记录
+     */
+    public <T> T time(String phase, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void record(String phase, long nanos) {
+        phases.computeIfAbsent(phase, k -> new Window(windowSize)).add(nanos);
+    }
+
+    /**
+     * 各阶段统计（毫秒），按阶段名排序
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new TreeMap<>();
+        phases.forEach((phase, window) -> stats.put(phase, window.snapshot()));
+        return stats;
+    }
+
+    private static final class Window {
+        private final long[] samples;
+        private int next;
+        private int size;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        Window(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", count);
+            stats.put("avgMs", count == 0 ? 0 : toMs(totalNanos / count));
+            stats.put("p50Ms", percentile(sorted, 0.50));
+            stats.put("p95Ms", percentile(sorted, 0.95));
+            stats.put("p99Ms", percentile(sorted, 0.99));
+            stats.put("maxMs", toMs(maxNanos));
+            return stats;
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return toMs(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+        }
+
+        private static double toMs(long nanos) {
+            return Math.round(nanos / 10_000.0) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.yizhaoqi.smartpai.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 多路召回结果融合工具
+ * 各路结果的分数尺度不同（BM25、余弦相似度），融合时只看名次，不直接比较分数
+ */
+public final class RankFusionUtils {
+
+    /**
+     * RRF 常用的平滑常数
+     */
+    public static final int DEFAULT_RRF_K = 60;
+
+    private RankFusionUtils() {
+    }
+
+    /**
+     * 融合后的条目及其得分
+     */
+    public record Fused<T>(T item, double score) {
+    }
+
+    /**
+     * Reciprocal Rank Fusion：score = Σ 1 / (k + rank)，rank 从1开始
+     * 同一条目（按 keyFn 判定）出现在多路结果中时分数累加，保留第一次出现时的对象
+     *
+     * @param rankings 多路已排序的结果
+     * @param keyFn    条目去重键
+     * @param rrfK     平滑常数，越大名次差异的影响越小
+     * @param limit    返回条数
+     */
+    public static <T> List<Fused<T>> reciprocalRankFusion(List<List<T>> rankings, Function<T, String> keyFn,
+                                                          int rrfK, int limit) {
+        return reciprocalRankFusion(rankings, null, keyFn, rrfK, limit);
+    }
+
+    /**
+     * 加权 RRF：score = Σ weight_i / (k + rank_i)
+     *
+     * @param weights 各路权重，与 rankings 一一对应；为 null 时各路权重均为1
+     */
+    public static <T> List<Fused<T>> reciprocalRankFusion(List<List<T>> rankings, List<Double> weights,
+                                                          Function<T, String> keyFn, int rrfK, int limit) {
+        Map<String, T> items = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (int i = 0; i < rankings.size(); i++) {
+            List<T> ranking = rankings.get(i);
+            if (ranking == null) {
+                continue;
+            }
+            double weight = weights == null ? 1.0 : weights.get(i);
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                T item = ranking.get(rank);
+                String key = keyFn.apply(item);
+                items.putIfAbsent(key, item);
+                scores.merge(key, weight / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        return sortAndLimit(items, scores, limit);
+    }
+
+    /**
+     * 加权归一化分数融合：每一路的分数先按该路最小/最大值做 min-max 归一化到 [0, 1]，
+     * 再乘以该路权重累加；某一路所有分数相同时该路每条记为1
+     *
+     * @param weights 各路权重，与 rankings 一一对应
+     * @param scoreFn 条目的原始分数
+     */
+    public static <T> List<Fused<T>> weightedScoreFusion(List<List<T>> rankings, List<Double> weights,
+                                                         ToDoubleFunction<T> scoreFn, Function<T, String> keyFn, int limit) {
+        Map<String, T> items = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (int i = 0; i < rankings.size(); i++) {
+            List<T> ranking = rankings.get(i);
+            if (ranking == null || ranking.isEmpty()) {
+                continue;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (T item : ranking) {
+                double score = scoreFn.applyAsDouble(item);
+                min = Math.min(min, score);
+                max = Math.max(max, score);
+            }
+            double range = max - min;
+            double weight = weights.get(i);
+            for (T item : ranking) {
+                String key = keyFn.apply(item);
+                double normalized = range > 0 ? (scoreFn.applyAsDouble(item) - min) / range : 1.0;
+                items.putIfAbsent(key, item);
+                scores.merge(key, weight * normalized, Double::sum);
+            }
+        }
+        return sortAndLimit(items, scores, limit);
+    }
+
+    private static <T> List<Fused<T>> sortAndLimit(Map<String, T> items, Map<String, Double> scores, int limit) {
+        List<Fused<T>> fused = new ArrayList<>(items.size());
+        items.forEach((key, item) -> fused.add(new Fused<>(item, scores.get(key))));
+        // 稳定排序：同分时保持先出现的在前
+        fused.sort(Comparator.comparingDouble((Fused<T> f) -> f.score()).reversed());
+        return fused.size() > limit ? new ArrayList<>(fused.subList(0, limit)) : fused;
+    }
+}
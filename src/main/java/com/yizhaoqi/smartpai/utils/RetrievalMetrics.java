@@ -0,0 +1,63 @@
+package com.yizhaoqi.smartpai.utils;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 检索效果指标（二值相关性）
+ * ranked 为检索返回的条目键（按名次排序），relevant 为标注的相关条目键
+ */
+public final class RetrievalMetrics {
+
+    private RetrievalMetrics() {
+    }
+
+    /**
+     * recall@k：前 k 条中命中的相关条目数 / 相关条目总数
+     */
+    public static double recallAtK(List<String> ranked, Set<String> relevant, int k) {
+        if (relevant.isEmpty()) {
+            return 0;
+        }
+        long hits = ranked.stream().limit(k).distinct().filter(relevant::contains).count();
+        return (double) hits / relevant.size();
+    }
+
+    /**
+     * nDCG@k：DCG = Σ 1 / log2(rank + 1)，再除以理想排序下的 DCG
+     */
+    public static double ndcgAtK(List<String> ranked, Set<String> relevant, int k) {
+        if (relevant.isEmpty()) {
+            return 0;
+        }
+        double dcg = 0;
+        int limit = Math.min(k, ranked.size());
+        for (int i = 0; i < limit; i++) {
+            if (relevant.contains(ranked.get(i)) && ranked.indexOf(ranked.get(i)) == i) {
+                dcg += 1.0 / log2(i + 2);
+            }
+        }
+        double idcg = 0;
+        for (int i = 0; i < Math.min(k, relevant.size()); i++) {
+            idcg += 1.0 / log2(i + 2);
+        }
+        return dcg / idcg;
+    }
+
+    /**
+     * 倒数排名：第一条相关结果名次的倒数，前 k 条中没有相关结果时为0
+     */
+    public static double reciprocalRank(List<String> ranked, Set<String> relevant, int k) {
+        int limit = Math.min(k, ranked.size());
+        for (int i = 0; i < limit; i++) {
+            if (relevant.contains(ranked.get(i))) {
+                return 1.0 / (i + 1);
+            }
+        }
+        return 0;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+}
@@ -0,0 +1,40 @@
+package com.yizhaoqi.smartpai.utils;
+
+import java.util.Arrays;
+
+/**
+ * 向量处理工具
+ */
+public final class VectorUtils {
+
+    private VectorUtils() {
+    }
+
+    /**
+     * Matryoshka 截断：取前 dimension 维并按需做 L2 归一化
+     * Matryoshka 训练的模型（text-embedding-v3/v4、bge-m3 等）前 N 维本身就是有效的低维表示，
+     * 截断后重新归一化即可直接用于余弦/点积检索
+     *
+     * @param vector    原始向量
+     * @param dimension 目标维度，0 或不小于原始维度时不截断
+     * @param normalize 是否 L2 归一化
+     */
+    public static float[] truncate(float[] vector, int dimension, boolean normalize) {
+        float[] out = dimension > 0 && dimension < vector.length ? Arrays.copyOf(vector, dimension) : vector;
+        if (!normalize) {
+            return out;
+        }
+        double norm = 0;
+        for (float v : out) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return out;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int d = 0; d < out.length; d++) {
+            out[d] *= scale;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,46 @@
+package com.yizhaoqi.smartpai.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BertWordPieceTokenizerTest {
+
+    private static BertWordPieceTokenizer tokenizer(String... tokens) {
+        Map<String, Integer> vocab = new HashMap<>();
+        for (String t : List.of("[PAD]", "[UNK]", "[CLS]", "[SEP]")) {
+            vocab.put(t, vocab.size());
+        }
+        for (String t : tokens) {
+            vocab.put(t, vocab.size());
+        }
+        return new BertWordPieceTokenizer(vocab, true);
+    }
+
+    @Test
+    void testBasicTokenizeSplitsCjkAndPunctuation() {
+        BertWordPieceTokenizer tokenizer = tokenizer();
+        assertEquals(List.of("派", "聪", "明", "supports", "rag", ",", "cafe", "!"),
+                tokenizer.basicTokenize("派聪明 Supports\tRAG, Café!"));
+    }
+
+    @Test
+    void testWordPieceGreedyLongestMatch() {
+        BertWordPieceTokenizer tokenizer = tokenizer("un", "##aff", "##able", "unaff");
+        // 词首优先匹配最长的 unaff（id 7），剩余 able 匹配 ##able（id 6）
+        assertEquals(List.of(7, 6), tokenizer.wordPiece("unaffable"));
+        assertEquals(List.of(1), tokenizer.wordPiece("xyz"));
+    }
+
+    @Test
+    void testEncodeWrapsAndTruncates() {
+        BertWordPieceTokenizer tokenizer = tokenizer("向", "量", "化");
+        assertArrayEquals(new int[]{2, 4, 5, 6, 3}, tokenizer.encode("向量化", 16));
+        assertArrayEquals(new int[]{2, 4, 3}, tokenizer.encode("向量化", 3));
+        assertArrayEquals(new int[]{2, 3}, tokenizer.encode("", 16));
+    }
+}
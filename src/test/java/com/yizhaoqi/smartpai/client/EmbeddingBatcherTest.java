@@ -0,0 +1,129 @@
+package com.yizhaoqi.smartpai.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingBatcherTest {
+
+    private EmbeddingBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    private EmbeddingBatcher start(Function<List<String>, List<float[]>> embedder, int batchSize, long lingerMs, int inFlight) {
+        batcher = new EmbeddingBatcher(embedder, batchSize);
+        ReflectionTestUtils.setField(batcher, "maxLingerMs", lingerMs);
+        ReflectionTestUtils.setField(batcher, "maxInFlight", inFlight);
+        batcher.start();
+        return batcher;
+    }
+
+    private static List<float[]> lengths(List<String> texts) {
+        return texts.stream().map(t -> new float[]{t.length()}).toList();
+    }
+
+    @Test
+    void testConcurrentCallersShareBatches() throws Exception {
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        start(texts -> {
+            sizes.add(texts.size());
+            return lengths(texts);
+        }, 8, 200, 1);
+
+        // 三个调用方各提交少量文本，在等待窗口内应合并成一个批次
+        CompletableFuture<List<float[]>> a = batcher.embedAsync(List.of("a", "bb"), false);
+        CompletableFuture<List<float[]>> b = batcher.embedAsync(List.of("ccc"), false);
+        CompletableFuture<List<float[]>> c = batcher.embedAsync(List.of("dddd", "eeeee"), false);
+
+        assertEquals(2f, a.get(5, TimeUnit.SECONDS).get(1)[0]);
+        assertEquals(3f, b.get(5, TimeUnit.SECONDS).get(0)[0]);
+        List<float[]> cv = c.get(5, TimeUnit.SECONDS);
+        assertEquals(4f, cv.get(0)[0]);
+        assertEquals(5f, cv.get(1)[0]);
+        assertEquals(List.of(5), sizes);
+    }
+
+    @Test
+    void testFullBatchIsSentWithoutWaitingForLinger() throws Exception {
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        start(texts -> {
+            sizes.add(texts.size());
+            return lengths(texts);
+        }, 2, 10_000, 2);
+
+        long start = System.nanoTime();
+        batcher.embedAsync(List.of("a", "b", "c", "d"), false).get(5, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+        assertEquals(List.of(2, 2), sizes);
+    }
+
+    @Test
+    void testQueryTextsGoFirst() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<String>> sent = new CopyOnWriteArrayList<>();
+        start(texts -> {
+            sent.add(texts);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return lengths(texts);
+        }, 2, 0, 1);
+
+        // 第一批占住唯一的在途名额，之后排队的入库文本和查询文本中查询先发出
+        CompletableFuture<List<float[]>> first = batcher.embedAsync(List.of("x"), false);
+        Thread.sleep(100);
+        CompletableFuture<List<float[]>> ingest = batcher.embedAsync(List.of("i1", "i2"), false);
+        CompletableFuture<List<float[]>> query = batcher.embedAsync(List.of("q"), true);
+        release.countDown();
+
+        CompletableFuture.allOf(first, ingest, query).get(5, TimeUnit.SECONDS);
+        assertEquals("q", sent.get(1).get(0));
+    }
+
+    @Test
+    void testFailedBatchFailsEveryCaller() {
+        start(texts -> {
+            throw new IllegalStateException("429");
+        }, 4, 50, 1);
+
+        CompletableFuture<List<float[]>> a = batcher.embedAsync(List.of("a"), false);
+        CompletableFuture<List<float[]>> b = batcher.embedAsync(List.of("b"), true);
+        ExecutionException ea = assertThrows(ExecutionException.class, () -> a.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> b.get(5, TimeUnit.SECONDS));
+        assertEquals("429", ea.getCause().getMessage());
+        assertEquals(1L, batcher.stats().get("failedBatches"));
+    }
+
+    @Test
+    void testRejectedSendReleasesPermitAndFailsCallers() {
+        start(EmbeddingBatcherTest::lengths, 4, 10, 1);
+        // 模拟停机过程中发送线程池先关闭：分发线程提交批次被拒绝
+        ((ExecutorService) ReflectionTestUtils.getField(batcher, "senders")).shutdown();
+
+        CompletableFuture<List<float[]>> a = batcher.embedAsync(List.of("a"), false);
+        ExecutionException ea = assertThrows(ExecutionException.class, () -> a.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, ea.getCause());
+        // 许可已归还，后续批次不会因为许可泄漏而卡住
+        CompletableFuture<List<float[]>> b = batcher.embedAsync(List.of("b"), false);
+        assertThrows(ExecutionException.class, () -> b.get(5, TimeUnit.SECONDS));
+        assertEquals(0, batcher.stats().get("inFlight"));
+    }
+}
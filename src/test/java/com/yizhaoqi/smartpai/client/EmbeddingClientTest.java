@@ -0,0 +1,164 @@
+package com.yizhaoqi.smartpai.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingClientTest {
+
+    private EmbeddingClient client;
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    private EmbeddingClient create(ExchangeFunction exchange, int batchSize) {
+        WebClient webClient = WebClient.builder().baseUrl("http://embedding.test").exchangeFunction(exchange).build();
+        client = new EmbeddingClient(webClient, new ObjectMapper());
+        ReflectionTestUtils.setField(client, "modelId", "test-model");
+        ReflectionTestUtils.setField(client, "batchSize", batchSize);
+        ReflectionTestUtils.setField(client, "dimension", 2);
+        ReflectionTestUtils.setField(client, "maxConcurrency", 4);
+        ReflectionTestUtils.setField(client, "initialConcurrency", 4);
+        ReflectionTestUtils.setField(client, "maxAttempts", 3);
+        ReflectionTestUtils.setField(client, "retryBackoffMs", 10L);
+        ReflectionTestUtils.setField(client, "maxBackoffMs", 50L);
+        ReflectionTestUtils.setField(client, "timeoutMs", 5000L);
+        client.init();
+        return client;
+    }
+
+    /**
+     * 向量第一维取文本本身的数值，用来校验结果顺序
+     */
+    private static ClientResponse ok(List<String> input) {
+        String data = IntStream.range(0, input.size())
+                .mapToObj(i -> "{\"index\":" + i + ",\"embedding\":[" + Float.parseFloat(input.get(i)) + ",0.0]}")
+                .collect(Collectors.joining(","));
+        return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body("{\"data\":[" + data + "]}")
+                .build();
+    }
+
+    @Test
+    void testBatchesRunConcurrentlyAndKeepOrder() {
+        AtomicInteger calls = new AtomicInteger();
+        create(request -> {
+            calls.incrementAndGet();
+            return captureInput(request).map(EmbeddingClientTest::ok);
+        }, 2);
+
+        List<String> texts = List.of("1", "2", "3", "4", "5");
+        List<float[]> vectors = client.embed(texts);
+
+        assertEquals(3, calls.get());
+        for (int i = 0; i < texts.size(); i++) {
+            assertEquals(i + 1, vectors.get(i)[0]);
+        }
+    }
+
+    @Test
+    void testThrottledBatchIsRetriedAfterRetryAfter() {
+        AtomicInteger calls = new AtomicInteger();
+        create(request -> {
+            if (calls.incrementAndGet() == 1) {
+                return Mono.just(ClientResponse.create(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, "0")
+                        .build());
+            }
+            return captureInput(request).map(EmbeddingClientTest::ok);
+        }, 10);
+
+        List<float[]> vectors = client.embed(List.of("7"));
+
+        assertEquals(2, calls.get());
+        assertEquals(7f, vectors.get(0)[0]);
+        assertEquals(1L, client.stats().get("throttled"));
+        // 初始并发4，被限流一次后减半
+        assertEquals(2, client.stats().get("limit"));
+    }
+
+    @Test
+    void testClientErrorIsNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        create(request -> {
+            calls.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.BAD_REQUEST).build());
+        }, 10);
+
+        assertThrows(RuntimeException.class, () -> client.embed(List.of("1")));
+        assertEquals(1, calls.get());
+    }
+
+    /**
+     * 写出请求体，取出本次请求的 input 文本
+     */
+    @SuppressWarnings("unchecked")
+    private static Mono<List<String>> captureInput(ClientRequest request) {
+        MockClientHttpRequest mock = new MockClientHttpRequest(request.method(), request.url());
+        return request.body().insert(mock, new BodyInserter.Context() {
+                    @Override
+                    public List<HttpMessageWriter<?>> messageWriters() {
+                        return ExchangeStrategies.withDefaults().messageWriters();
+                    }
+
+                    @Override
+                    public Optional<ServerHttpRequest> serverRequest() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Map<String, Object> hints() {
+                        return Map.of();
+                    }
+                })
+                .then(Mono.defer(mock::getBodyAsString))
+                .map(json -> {
+                    try {
+                        return (List<String>) new ObjectMapper().readValue(json, Map.class).get("input");
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+    }
+
+    @Test
+    void testLongerVectorsAreTruncatedToConfiguredDimension() {
+        // 接口忽略 dimension 参数返回4维，按 Matryoshka 方式截取前2维并重新归一化
+        create(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body("{\"data\":[{\"index\":0,\"embedding\":[3.0,4.0,12.0,0.5]}]}")
+                .build()), 4);
+
+        float[] vector = client.embedBatch(List.of("x")).get(0);
+        assertArrayEquals(new float[]{0.6f, 0.8f}, vector, 1e-6f);
+        assertEquals(2, client.getDimension());
+    }
+}
@@ -0,0 +1,71 @@
+package com.yizhaoqi.smartpai.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnnxEmbeddingProviderTest {
+
+    @Test
+    void testClsAndMeanPooling() {
+        float[][][] hidden = {{{1, 2}, {3, 4}, {100, 100}}};
+        long[][] mask = {{1, 1, 0}};
+
+        assertArrayEquals(new float[]{1, 2}, OnnxEmbeddingProvider.pool(hidden, mask, false)[0]);
+        // padding 位置不参与平均
+        assertArrayEquals(new float[]{2, 3}, OnnxEmbeddingProvider.pool(hidden, mask, true)[0]);
+
+        float[][] sentence = {{0.5f, 0.5f}};
+        assertSame(sentence, OnnxEmbeddingProvider.pool(sentence, mask, true));
+    }
+
+    @Test
+    void testTruncateAndNormalize() {
+        float[] v = OnnxEmbeddingProvider.finish(new float[]{3, 4, 12}, 2, true);
+        assertArrayEquals(new float[]{0.6f, 0.8f}, v, 1e-6f);
+
+        float[] raw = OnnxEmbeddingProvider.finish(new float[]{3, 4, 12}, 0, false);
+        assertArrayEquals(new float[]{3, 4, 12}, raw);
+    }
+
+    /**
+     * 离线基准：mvn test -Dtest=OnnxEmbeddingProviderTest
+     * -Dembedding.onnx.bench.model=/path/model.onnx -Dembedding.onnx.bench.vocab=/path/vocab.txt
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "embedding.onnx.bench.model", matches = ".+")
+    void benchmarkLocalInference() throws Exception {
+        OnnxEmbeddingProvider provider = new OnnxEmbeddingProvider();
+        ReflectionTestUtils.setField(provider, "modelPath", System.getProperty("embedding.onnx.bench.model"));
+        ReflectionTestUtils.setField(provider, "vocabPath", System.getProperty("embedding.onnx.bench.vocab"));
+        ReflectionTestUtils.setField(provider, "modelId", "bench");
+        ReflectionTestUtils.setField(provider, "maxSequenceLength", 512);
+        ReflectionTestUtils.setField(provider, "batchSize", Integer.getInteger("embedding.onnx.bench.batch-size", 32));
+        ReflectionTestUtils.setField(provider, "pooling", "cls");
+        ReflectionTestUtils.setField(provider, "normalize", true);
+        ReflectionTestUtils.setField(provider, "lowercase", true);
+        ReflectionTestUtils.setField(provider, "maxConcurrency", 1);
+        provider.init();
+        try {
+            List<String> texts = new ArrayList<>();
+            for (int i = 0; i < 256; i++) {
+                texts.add("第" + i + "段：派聪明知识库把文档切分成块后向量化，写入 Elasticsearch 供混合检索使用。".repeat(1 + i % 4));
+            }
+            provider.embedBatch(texts.subList(0, 32));
+
+            long start = System.nanoTime();
+            List<float[]> vectors = provider.embedBatch(texts);
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            assertEquals(texts.size(), vectors.size());
+            System.out.printf("ONNX 本地向量化: %d 条, %d ms, %.1f 条/秒, 维度 %d, %s%n",
+                    texts.size(), ms, texts.size() * 1000.0 / Math.max(1, ms), vectors.get(0).length, provider.stats());
+        } finally {
+            provider.shutdown();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.yizhaoqi.smartpai.config;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.indices.AliasDefinition;
+import co.elastic.clients.elasticsearch.indices.ExistsAliasRequest;
+import co.elastic.clients.elasticsearch.indices.ExistsRequest;
+import co.elastic.clients.elasticsearch.indices.GetAliasRequest;
+import co.elastic.clients.elasticsearch.indices.GetAliasResponse;
+import co.elastic.clients.elasticsearch.indices.UpdateAliasesRequest;
+import co.elastic.clients.elasticsearch.indices.UpdateAliasesResponse;
+import co.elastic.clients.elasticsearch.indices.get_alias.IndexAliases;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yizhaoqi.smartpai.entity.EsDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class EsIndexInitializerTest {
+
+    /** 别名 → 指向的物理索引 */
+    private final Map<String, List<String>> aliases = new HashMap<>();
+    /** 已存在的物理索引 */
+    private final Set<String> indices = new HashSet<>();
+    /** 收到的 _aliases 请求 */
+    private final List<UpdateAliasesRequest> updates = new ArrayList<>();
+
+    private EsIndexInitializer newInitializer() throws Exception {
+        ElasticsearchTransport transport = mock(ElasticsearchTransport.class);
+        when(transport.jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            Object request = invocation.getArgument(0);
+            if (request instanceof ExistsAliasRequest r) {
+                return new BooleanResponse(aliases.containsKey(r.name().get(0)));
+            }
+            if (request instanceof ExistsRequest r) {
+                return new BooleanResponse(indices.contains(r.index().get(0)));
+            }
+            if (request instanceof GetAliasRequest r) {
+                String alias = r.name().get(0);
+                Map<String, IndexAliases> result = new HashMap<>();
+                for (String index : aliases.get(alias)) {
+                    result.put(index, IndexAliases.of(a -> a.aliases(alias, AliasDefinition.of(d -> d))));
+                }
+                return GetAliasResponse.of(g -> g.result(result));
+            }
+            if (request instanceof UpdateAliasesRequest r) {
+                updates.add(r);
+                return UpdateAliasesResponse.of(u -> u.acknowledged(true));
+            }
+            throw new UnsupportedOperationException(request.getClass().getName());
+        });
+        EsIndexInitializer initializer = new EsIndexInitializer();
+        ReflectionTestUtils.setField(initializer, "esClient", new ElasticsearchClient(transport));
+        return initializer;
+    }
+
+    private static List<String> describe(UpdateAliasesRequest request) {
+        List<String> actions = new ArrayList<>();
+        for (Action action : request.actions()) {
+            if (action.isAdd()) {
+                actions.add("add " + action.add().index() + " -> " + action.add().alias()
+                        + (Boolean.TRUE.equals(action.add().isWriteIndex()) ? " (write)" : ""));
+            } else if (action.isRemove()) {
+                actions.add("remove " + action.remove().index() + " -> " + action.remove().alias());
+            } else if (action.isRemoveIndex()) {
+                actions.add("remove_index " + action.removeIndex().index());
+            }
+        }
+        return actions;
+    }
+
+    @Test
+    void testSwitchAliasesMovesBothAliasesInOneRequest() throws Exception {
+        aliases.put(EsIndexInitializer.READ_ALIAS, List.of("kb_old"));
+        aliases.put(EsIndexInitializer.WRITE_ALIAS, List.of("kb_new"));
+        EsIndexInitializer initializer = newInitializer();
+
+        assertEquals(List.of("kb_old"), initializer.switchAliases("kb_new"));
+
+        assertEquals(1, updates.size());
+        assertEquals(List.of(
+                "remove kb_new -> knowledge_base_write",
+                "remove kb_old -> knowledge_base",
+                "add kb_new -> knowledge_base",
+                "add kb_new -> knowledge_base_write (write)"), describe(updates.get(0)));
+    }
+
+    @Test
+    void testSwitchAliasesReplacesLegacyConcreteIndex() throws Exception {
+        // 旧版本部署：knowledge_base 是物理索引，写别名指向它
+        indices.add(EsIndexInitializer.READ_ALIAS);
+        aliases.put(EsIndexInitializer.WRITE_ALIAS, List.of(EsIndexInitializer.READ_ALIAS));
+        EsIndexInitializer initializer = newInitializer();
+
+        assertEquals(List.of(EsIndexInitializer.READ_ALIAS), initializer.switchAliases("kb_new"));
+
+        // 物理索引删除时它上面的写别名一起消失，不能再单独移除
+        assertEquals(List.of(
+                "remove_index knowledge_base",
+                "add kb_new -> knowledge_base",
+                "add kb_new -> knowledge_base_write (write)"), describe(updates.get(0)));
+    }
+
+    @Test
+    void testMoveWriteAliasLeavesReadAlias() throws Exception {
+        aliases.put(EsIndexInitializer.READ_ALIAS, List.of("kb_old"));
+        aliases.put(EsIndexInitializer.WRITE_ALIAS, List.of("kb_old"));
+        EsIndexInitializer initializer = newInitializer();
+
+        initializer.moveWriteAlias("kb_new");
+
+        assertEquals(List.of(
+                "remove kb_old -> knowledge_base_write",
+                "add kb_new -> knowledge_base_write (write)"), describe(updates.get(0)));
+    }
+
+    @Test
+    void testIndexMetaMarksBuildingIndices() {
+        assertEquals(Map.of("modelId", "text-embedding-v4", "dims", 2048, "building", true),
+                EsIndexInitializer.indexMeta("text-embedding-v4", 2048, true));
+        assertEquals(Map.of("modelId", "text-embedding-v4", "dims", 2048),
+                EsIndexInitializer.indexMeta("text-embedding-v4", 2048, false));
+        assertTrue(EsIndexInitializer.versionedIndexName("text-embedding-v4", 2048)
+                .startsWith(EsIndexInitializer.indexPrefix("text-embedding-v4", 2048)));
+    }
+
+    @Test
+    void testVersionedIndexNameIsValidAndCarriesModel() {
+        String name = EsIndexInitializer.versionedIndexName("BAAI/bge-M3", 1024);
+        assertTrue(name.matches("knowledge_base_baai-bge-m3_1024_\\d{14}"), name);
+        // ES 索引名必须小写，且不能包含 / 等字符
+        assertEquals(name.toLowerCase(), name);
+
+        assertTrue(EsIndexInitializer.versionedIndexName("--text-embedding-v4--", 2048)
+                .startsWith("knowledge_base_text-embedding-v4_2048_"));
+        assertTrue(EsIndexInitializer.versionedIndexName(null, 768).startsWith("knowledge_base_unknown_768_"));
+    }
+
+    @Test
+    void testMappingsDeclareFieldsAsDocumentsSerializeThem() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode document = objectMapper.valueToTree(new EsDocument("id", "md5", 1, "text", new float[]{1f},
+                "model", "u", "org", true));
+        // EsDocument 的 isPublic 序列化为 public，权限过滤也按 public 查询
+        assertTrue(document.has("public"));
+        for (String file : List.of("es-mappings/knowledge_base.json", "es-mappings/knowledge_base_vl.json")) {
+            JsonNode properties = objectMapper.readTree(new ClassPathResource(file).getInputStream())
+                    .at("/mappings/properties");
+            document.fieldNames().forEachRemaining(field -> {
+                if (!"id".equals(field)) {
+                    assertTrue(properties.has(field), file + " 缺少字段 " + field);
+                }
+            });
+            assertEquals("boolean", properties.at("/public/type").asText());
+            assertFalse(properties.has("isPublic"), file);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.yizhaoqi.smartpai.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EsRoutingPropertiesTest {
+
+    @Test
+    void testRoutingKeyUsesGroupsAndPublicRouting() {
+        EsRoutingProperties properties = new EsRoutingProperties();
+        properties.setGroups(Map.of("team-a", "small-tenants", "team-b", "small-tenants"));
+
+        assertEquals(EsRoutingProperties.PUBLIC_ROUTING, properties.routingKey("team-a", true));
+        assertEquals("small-tenants", properties.routingKey("team-a", false));
+        assertEquals("hot-tenant", properties.routingKey("hot-tenant", false));
+        assertEquals(EsRoutingProperties.NO_ORG_ROUTING, properties.routingKey(null, false));
+        assertEquals(EsRoutingProperties.NO_ORG_ROUTING, properties.routingKey("", false));
+    }
+
+    @Test
+    void testSearchRoutingIsDistinctAndAlwaysIncludesPublic() {
+        EsRoutingProperties properties = new EsRoutingProperties();
+        properties.setGroups(Map.of("team-a", "small-tenants", "team-b", "small-tenants"));
+
+        assertEquals("_none,_public,default,small-tenants",
+                properties.searchRouting(Arrays.asList("team-b", "default", "team-a", null)));
+        assertEquals("_public", properties.searchRouting(List.of()));
+    }
+
+    @Test
+    void testIndexSettingsValidatePartitionSize() {
+        EsRoutingProperties properties = new EsRoutingProperties();
+        assertEquals(Map.of("number_of_shards", 6), properties.indexSettings());
+
+        properties.setPartitionSize(2);
+        assertEquals(2, properties.indexSettings().get("routing_partition_size"));
+
+        properties.setPartitionSize(6);
+        assertThrows(IllegalArgumentException.class, properties::indexSettings);
+        properties.setPartitionSize(0);
+        assertThrows(IllegalArgumentException.class, properties::indexSettings);
+    }
+}
@@ -0,0 +1,48 @@
+package com.yizhaoqi.smartpai.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorIndexPropertiesTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testVectorMappingFollowsQuantization() {
+        VectorIndexProperties properties = new VectorIndexProperties();
+        properties.setQuantization(VectorIndexProperties.Quantization.INT8);
+
+        Map<String, Object> mapping = properties.vectorMapping(1024);
+        assertEquals("dense_vector", mapping.get("type"));
+        assertEquals(1024, mapping.get("dims"));
+        Map<String, Object> options = (Map<String, Object>) mapping.get("index_options");
+        assertEquals("int8_hnsw", options.get("type"));
+        assertEquals(16, options.get("m"));
+    }
+
+    @Test
+    void testQuantizationConstraints() {
+        VectorIndexProperties properties = new VectorIndexProperties();
+        properties.setQuantization(VectorIndexProperties.Quantization.INT4);
+        assertThrows(IllegalArgumentException.class, () -> properties.vectorMapping(1023));
+        properties.setQuantization(VectorIndexProperties.Quantization.BBQ);
+        assertThrows(IllegalArgumentException.class, () -> properties.vectorMapping(32));
+        assertDoesNotThrow(() -> properties.vectorMapping(64));
+    }
+
+    @Test
+    void testMemoryEstimateShrinksWithQuantizationAndDimension() {
+        VectorIndexProperties properties = new VectorIndexProperties();
+        long float4096 = properties.estimateSearchBytes(4096, 1_000_000);
+        properties.setQuantization(VectorIndexProperties.Quantization.INT8);
+        long int8x4096 = properties.estimateSearchBytes(4096, 1_000_000);
+        long int8x1024 = properties.estimateSearchBytes(1024, 1_000_000);
+
+        // 4096维 float 每百万约 15.7GB，int8 约 4GB，再截断到 1024 维约 1.1GB
+        assertEquals((4096L * 4 + 128) * 1_000_000, float4096);
+        assertTrue(int8x4096 < float4096 / 3);
+        assertTrue(int8x1024 < int8x4096 / 3);
+    }
+}
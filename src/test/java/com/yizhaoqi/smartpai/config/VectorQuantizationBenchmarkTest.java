@@ -0,0 +1,152 @@
+package com.yizhaoqi.smartpai.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 向量量化基准：同一批向量分别写入不同量化方式的索引，对比写入速率、向量字段占用和相对暴力检索的 recall@10
+ * 需要可用的ES（8.12+ 才支持 int8，8.15+ 支持 int4，8.16+ 支持 bbq），例如：
+ * mvn test -Dtest=VectorQuantizationBenchmarkTest -Des.bench.url=http://localhost:9200
+ * -Des.bench.quantizations=NONE,INT8,INT4 -Des.bench.dims=1024 -Des.bench.docs=20000
+ */
+@EnabledIfSystemProperty(named = "es.bench.url", matches = ".+")
+class VectorQuantizationBenchmarkTest {
+
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void benchmarkQuantizations() throws Exception {
+        int dims = Integer.getInteger("es.bench.dims", 512);
+        int docs = Integer.getInteger("es.bench.docs", 20000);
+        List<VectorIndexProperties.Quantization> quantizations = Arrays.stream(
+                        System.getProperty("es.bench.quantizations", "NONE,INT8").split(","))
+                .map(String::trim).map(VectorIndexProperties.Quantization::valueOf).toList();
+
+        Random random = new Random(42);
+        float[][] vectors = clustered(random, docs, dims);
+        float[][] queries = clustered(random, QUERIES, dims);
+        List<Set<Integer>> exact = new ArrayList<>();
+        for (float[] q : queries) {
+            exact.add(exactTopK(vectors, q));
+        }
+
+        try (RestClient client = RestClient.builder(HttpHost.create(System.getProperty("es.bench.url"))).build()) {
+            System.out.printf("%-10s %10s %14s %14s %10s%n", "index", "docs/s", "vectorBytes", "estimateBytes", "recall@10");
+            for (VectorIndexProperties.Quantization quantization : quantizations) {
+                VectorIndexProperties properties = new VectorIndexProperties();
+                properties.setQuantization(quantization);
+                String index = "bench_vectors_" + quantization.name().toLowerCase();
+                call(client, "DELETE", "/" + index + "?ignore_unavailable=true", null);
+                call(client, "PUT", "/" + index, mapper.writeValueAsString(
+                        Map.of("mappings", Map.of("properties", Map.of("vector", properties.vectorMapping(dims))))));
+
+                long start = System.nanoTime();
+                for (int from = 0; from < docs; from += 1000) {
+                    StringBuilder bulk = new StringBuilder();
+                    for (int i = from; i < Math.min(docs, from + 1000); i++) {
+                        bulk.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n")
+                                .append(mapper.writeValueAsString(Map.of("vector", vectors[i]))).append('\n');
+                    }
+                    JsonNode result = call(client, "POST", "/" + index + "/_bulk", bulk.toString());
+                    assertFalse(result.path("errors").asBoolean(), "bulk 写入失败");
+                }
+                call(client, "POST", "/" + index + "/_refresh", null);
+                double rate = docs / ((System.nanoTime() - start) / 1e9);
+                call(client, "POST", "/" + index + "/_forcemerge?max_num_segments=1", null);
+
+                JsonNode usage = call(client, "POST", "/" + index + "/_disk_usage?run_expensive_tasks=true", null);
+                long vectorBytes = usage.path(index).path("fields").path("vector").path("total_in_bytes").asLong();
+
+                double recall = 0;
+                for (int q = 0; q < QUERIES; q++) {
+                    JsonNode hits = call(client, "POST", "/" + index + "/_search", mapper.writeValueAsString(Map.of(
+                            "knn", Map.of("field", "vector", "query_vector", queries[q], "k", K, "num_candidates", 100),
+                            "_source", false, "size", K))).path("hits").path("hits");
+                    Set<Integer> found = new HashSet<>();
+                    hits.forEach(h -> found.add(Integer.parseInt(h.path("_id").asText())));
+                    found.retainAll(exact.get(q));
+                    recall += (double) found.size() / K;
+                }
+                System.out.printf("%-10s %10.0f %14d %14d %10.3f%n", quantization.getIndexType(), rate, vectorBytes,
+                        properties.estimateSearchBytes(dims, docs), recall / QUERIES);
+                call(client, "DELETE", "/" + index, null);
+            }
+        }
+    }
+
+    private JsonNode call(RestClient client, String method, String endpoint, String body) throws Exception {
+        Request request = new Request(method, endpoint);
+        if (body != null) {
+            request.setJsonEntity(body);
+        }
+        Response response = client.performRequest(request);
+        return mapper.readTree(EntityUtils.toString(response.getEntity()));
+    }
+
+    /**
+     * 围绕若干中心生成的归一化向量，比均匀随机向量更接近真实文本向量的分布
+     */
+    private static float[][] clustered(Random random, int count, int dims) {
+        int centers = 50;
+        Random centerRandom = new Random(7);
+        float[][] centroids = new float[centers][dims];
+        for (float[] c : centroids) {
+            for (int d = 0; d < dims; d++) {
+                c[d] = (float) centerRandom.nextGaussian();
+            }
+        }
+        float[][] out = new float[count][dims];
+        for (int i = 0; i < count; i++) {
+            float[] c = centroids[random.nextInt(centers)];
+            double norm = 0;
+            for (int d = 0; d < dims; d++) {
+                out[i][d] = c[d] + (float) (random.nextGaussian() * 0.8);
+                norm += out[i][d] * out[i][d];
+            }
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int d = 0; d < dims; d++) {
+                out[i][d] *= scale;
+            }
+        }
+        return out;
+    }
+
+    private static Set<Integer> exactTopK(float[][] vectors, float[] query) {
+        double[] scores = new double[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            double dot = 0;
+            for (int d = 0; d < query.length; d++) {
+                dot += vectors[i][d] * query[d];
+            }
+            scores[i] = dot;
+        }
+        Set<Integer> top = new HashSet<>();
+        IntStream.range(0, vectors.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+                .limit(K)
+                .forEach(top::add);
+        return top;
+    }
+}
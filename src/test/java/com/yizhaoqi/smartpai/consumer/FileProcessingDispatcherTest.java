@@ -0,0 +1,243 @@
+package com.yizhaoqi.smartpai.consumer;
+
+import com.yizhaoqi.smartpai.config.FileProcessingProperties;
+import com.yizhaoqi.smartpai.exception.RetryLaterException;
+import com.yizhaoqi.smartpai.model.FileProcessingLane;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * FileProcessingDispatcher 分发/重试/死信测试（不依赖Spring Context和Kafka）
+ */
+class FileProcessingDispatcherTest {
+
+    private FileProcessingProperties properties;
+    private DeadLetterPublishingRecoverer recoverer;
+    private FileProcessingDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        properties = new FileProcessingProperties();
+        properties.getLanes().getText().setWorkerThreads(4);
+        properties.setMaxAttempts(3);
+        properties.setRetryBackoffMs(1);
+        recoverer = mock(DeadLetterPublishingRecoverer.class);
+        dispatcher = new FileProcessingDispatcher(properties, mock(KafkaListenerEndpointRegistry.class), recoverer);
+        dispatcher.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void testSamePartitionRunsInOrder() throws Exception {
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 0, i, null, i), done::countDown, value -> {
+                sleepQuietly(value % 3);
+                seen.add(value);
+                return null;
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void testRetryThenAcknowledge() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch acked = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 1, 0, null, "x"), acked::countDown, value -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new RuntimeException("临时失败");
+            }
+            return null;
+        });
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertEquals(3, calls.get());
+        verify(recoverer, never()).accept(any(), any());
+    }
+
+    @Test
+    void testExhaustedRetriesGoToDeadLetter() throws Exception {
+        CountDownLatch acked = new CountDownLatch(1);
+        Acknowledgment ack = acked::countDown;
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("t", 2, 5, null, "bad");
+        dispatcher.dispatch(FileProcessingLane.HEAVY, record, ack, value -> {
+            throw new RuntimeException("永久失败");
+        });
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        verify(recoverer).accept(eq(record), any(RuntimeException.class));
+    }
+
+    @Test
+    void testRetryLaterDoesNotConsumeAttempts() throws Exception {
+        properties.setDeferBackoffMs(1);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch acked = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 7, 0, null, "x"), acked::countDown, value -> {
+            // 前 5 次删除未完成（超过 maxAttempts=3），之后正常处理
+            if (calls.incrementAndGet() <= 5) {
+                throw new RetryLaterException("文件的ES删除尚未完成");
+            }
+            return null;
+        });
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertEquals(6, calls.get());
+        verify(recoverer, never()).accept(any(), any());
+    }
+
+    @Test
+    void testHeavyLaneCannotUseTextReservedBudget() throws Exception {
+        properties.setGlobalBudget(4);
+        properties.setTextReserved(2);
+        properties.getLanes().getHeavy().setWeight(2);
+        properties.getLanes().getHeavy().setWorkerThreads(4);
+        dispatcher.shutdown();
+        dispatcher = new FileProcessingDispatcher(properties, mock(KafkaListenerEndpointRegistry.class), recoverer);
+        dispatcher.init();
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int p = 0; p < 4; p++) {
+            dispatcher.dispatch(FileProcessingLane.HEAVY, new ConsumerRecord<>("heavy", p, 0, null, p), done::countDown, value -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleepQuietly(50);
+                running.decrementAndGet();
+                return null;
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // 可用于重任务的预算为 4 - 2 = 2，权重为 2，同一时间只能有一个重任务在执行
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void testTextLaneGetsPermitWhileHeavyTaskRuns() throws Exception {
+        properties.setGlobalBudget(4);
+        properties.setTextReserved(2);
+        properties.getLanes().getHeavy().setWeight(4);
+        dispatcher.shutdown();
+        dispatcher = new FileProcessingDispatcher(properties, mock(KafkaListenerEndpointRegistry.class), recoverer);
+        dispatcher.init();
+
+        CountDownLatch heavyRunning = new CountDownLatch(1);
+        CountDownLatch releaseHeavy = new CountDownLatch(1);
+        CountDownLatch textAcked = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.HEAVY, new ConsumerRecord<>("heavy", 0, 0, null, "pdf"), () -> { }, value -> {
+            heavyRunning.countDown();
+            try {
+                releaseHeavy.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertTrue(heavyRunning.await(5, TimeUnit.SECONDS));
+        try {
+            dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 0, 0, null, "txt"), textAcked::countDown,
+                    value -> null);
+            // 重任务权重 4 也只占 4 - 2 = 2 个全局预算，文本任务仍能拿到保留部分
+            assertTrue(textAcked.await(5, TimeUnit.SECONDS), "重任务执行期间文本任务不应饿死");
+        } finally {
+            releaseHeavy.countDown();
+        }
+    }
+
+    @Test
+    void testAcknowledgeWaitsForAsyncStage() throws Exception {
+        CompletableFuture<Void> indexed = new CompletableFuture<>();
+        CountDownLatch acked = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 3, 0, null, "x"), acked::countDown,
+                value -> indexed);
+        assertFalse(acked.await(200, TimeUnit.MILLISECONDS), "异步阶段完成前不应确认");
+        indexed.complete(null);
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFailedAsyncStageIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch acked = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 4, 0, null, "x"), acked::countDown,
+                value -> calls.incrementAndGet() == 1
+                        ? CompletableFuture.failedFuture(new RuntimeException("向量接口超时"))
+                        : CompletableFuture.completedFuture(null));
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void testOnlyContiguousOffsetsAreAcknowledged() throws Exception {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        List<Long> acked = new CopyOnWriteArrayList<>();
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 5, 0, null, "a"), () -> acked.add(0L),
+                value -> first);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 5, 1, null, "b"), () -> acked.add(1L),
+                value -> {
+                    secondStarted.countDown();
+                    return null;
+                });
+        assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertTrue(acked.isEmpty(), "前面的记录未完成时不应确认后面的偏移量");
+
+        first.complete(null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (acked.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // 两条记录连续完成，只确认最高的偏移量
+        assertEquals(List.of(1L), acked);
+    }
+
+    @Test
+    void testRevokedPartitionDiscardsPendingAcks() throws Exception {
+        CompletableFuture<Void> indexed = new CompletableFuture<>();
+        CountDownLatch acked = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 6, 0, null, "x"), acked::countDown,
+                value -> indexed);
+        dispatcher.onPartitionsRevoked(List.of(new TopicPartition("t", 6)));
+        indexed.complete(null);
+        assertFalse(acked.await(200, TimeUnit.MILLISECONDS), "分区回收后不应再确认");
+
+        // 重新分配后新的记录正常确认
+        CountDownLatch reassigned = new CountDownLatch(1);
+        dispatcher.dispatch(FileProcessingLane.TEXT, new ConsumerRecord<>("t", 6, 0, null, "x"), reassigned::countDown,
+                value -> null);
+        assertTrue(reassigned.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.yizhaoqi.smartpai.entity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EsSearchHitTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void testSourceFieldsMatchIndexedDocument() throws Exception {
+        EsDocument doc = new EsDocument("md5:0:m", "md5", 0, "内容", new float[]{0.1f, 0.2f}, "m", "1", "org", true);
+        JsonNode json = mapper.valueToTree(doc);
+        List<String> names = new ArrayList<>();
+        for (Iterator<String> it = json.fieldNames(); it.hasNext(); ) {
+            names.add(it.next());
+        }
+        // 白名单中的字段都真实存在于写入ES的文档里，且不包含向量
+        assertTrue(names.containsAll(EsSearchHit.SOURCE_FIELDS), names.toString());
+        assertFalse(EsSearchHit.SOURCE_FIELDS.contains("vector"));
+    }
+
+    @Test
+    void testProjectionIgnoresVector() throws Exception {
+        EsDocument doc = new EsDocument("md5:3:m", "md5", 3, "内容", new float[]{0.1f, 0.2f}, "m", "7", "org", true);
+        EsSearchHit hit = mapper.readValue(mapper.writeValueAsBytes(doc), EsSearchHit.class);
+
+        SearchResult result = hit.toSearchResult(1.5);
+        assertEquals("md5", result.getFileMd5());
+        assertEquals(3, result.getChunkId());
+        assertEquals("内容", result.getTextContent());
+        assertEquals("7", result.getUserId());
+        assertEquals("org", result.getOrgTag());
+        assertTrue(result.getIsPublic());
+        assertEquals(1.5, result.getScore());
+    }
+}
@@ -0,0 +1,95 @@
+package com.yizhaoqi.smartpai.langchain4j.vlembedding;
+
+import com.yizhaoqi.smartpai.langchain4j.LangChain4jConfig;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * VLEmbeddingToolUtils PDF分窗向量化测试（不依赖Spring Context，VL接口用 mock 模拟）
+ */
+class VLEmbeddingToolUtilsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPdfPagesAreEmbeddedInWindows() throws Exception {
+        File pdf = samplePdf(5);
+        VLEmbeddingModelUtils modelUtils = mock(VLEmbeddingModelUtils.class);
+        List<Integer> requested = new ArrayList<>();
+        when(modelUtils.embedEncodedImages(anyList(), anyInt())).thenAnswer(inv -> {
+            List<?> images = inv.getArgument(0);
+            requested.add(images.size());
+            List<float[]> vectors = new ArrayList<>();
+            images.forEach(image -> vectors.add(new float[]{1f}));
+            return vectors;
+        });
+
+        List<List<Integer>> windows = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        int total = newToolUtils(modelUtils, 2).embedPdfPagesWithText(pdf, 72, pages -> {
+            windows.add(pages.stream().map(VLEmbeddingToolUtils.PageEmbedding::pageNo).toList());
+            pages.forEach(page -> texts.add(page.text()));
+        });
+
+        assertEquals(5, total);
+        // 每窗最多 batch-size 页，编码后的图片不会跨窗累积
+        assertEquals(List.of(2, 2, 1), requested);
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), windows);
+        assertEquals("Page 3", texts.get(2));
+    }
+
+    private VLEmbeddingToolUtils newToolUtils(VLEmbeddingModelUtils modelUtils, int batchSize) {
+        LangChain4jConfig config = new LangChain4jConfig();
+        ReflectionTestUtils.setField(config, "VLBATCH_SIZE", batchSize);
+        ReflectionTestUtils.setField(config, "VLDIMENSION", 1);
+
+        VisionImageEncoder encoder = new VisionImageEncoder();
+        ReflectionTestUtils.setField(encoder, "visionMaxPixels", 800_000L);
+        ReflectionTestUtils.setField(encoder, "vlMaxPixels", 100_000L);
+        ReflectionTestUtils.setField(encoder, "jpegQuality", 0.7f);
+        ReflectionTestUtils.setField(encoder, "grayscaleDetection", true);
+        ReflectionTestUtils.setField(encoder, "grayscaleTolerance", 12);
+
+        VLEmbeddingToolUtils toolUtils = new VLEmbeddingToolUtils();
+        ReflectionTestUtils.setField(toolUtils, "vlEmbeddingModelUtils", modelUtils);
+        ReflectionTestUtils.setField(toolUtils, "langChain4jConfig", config);
+        ReflectionTestUtils.setField(toolUtils, "visionImageEncoder", encoder);
+        return toolUtils;
+    }
+
+    private File samplePdf(int pages) throws Exception {
+        File file = tempDir.resolve("sample.pdf").toFile();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 1; i <= pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A6);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(20, 200);
+                    content.showText("Page " + i);
+                    content.endText();
+                }
+            }
+            document.save(file);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,206 @@
+package com.yizhaoqi.smartpai.langchain4j.vlembedding;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * VisionImageEncoder 编码对比测试（不依赖Spring Context）
+ *
+ * 对比旧方案（固定缩放到800px宽 + 双线性 + RGB + ImageIO默认质量 + Base64 String）
+ * 和新编码阶段在同一批页面上的载荷大小和编码耗时。
+ * 载荷对比使用程序生成的样例页（文字页、表格页、彩色图表页），结果确定，每次构建都运行；
+ * 耗时受机器负载影响，需要显式开启，例如：
+ * mvn test -Dtest=VisionImageEncoderBenchmarkTest -Dvision.bench=true [-Dvision.bench.corpus=目录]
+ * 指定 vision.bench.corpus 时改用目录下的 png/jpg 图片作为语料。
+ */
+class VisionImageEncoderBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(VisionImageEncoderBenchmarkTest.class);
+
+    private static final int ROUNDS = 5;
+
+    private VisionImageEncoder encoder;
+
+    @BeforeEach
+    void setUp() {
+        encoder = new VisionImageEncoder();
+        ReflectionTestUtils.setField(encoder, "visionMaxPixels", 800_000L);
+        ReflectionTestUtils.setField(encoder, "vlMaxPixels", 640_000L);
+        ReflectionTestUtils.setField(encoder, "jpegQuality", 0.7f);
+        ReflectionTestUtils.setField(encoder, "grayscaleDetection", true);
+        ReflectionTestUtils.setField(encoder, "grayscaleTolerance", 12);
+    }
+
+    @Test
+    void testEncodedImageIsDecodableAndWithinPixelBudget() throws Exception {
+        BufferedImage page = textPage(1240, 1754);
+        VisionImageEncoder.EncodedImage encoded = encoder.encode(page, VisionImageEncoder.Target.VISION);
+
+        assertTrue(encoded.grayscale(), "文字页应被识别为灰度图");
+        assertTrue((long) encoded.width() * encoded.height() <= 800_000L, "编码后像素数应在预算内");
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(encoded.base64())));
+        assertNotNull(decoded);
+        assertEquals(encoded.width(), decoded.getWidth());
+        assertEquals(encoded.height(), decoded.getHeight());
+    }
+
+    @Test
+    void testColorChartIsNotTreatedAsGrayscale() {
+        assertFalse(encoder.isGrayscale(chartPage(1240, 1754)));
+    }
+
+    @Test
+    void testPayloadSmallerThanLegacy() throws Exception {
+        long legacyBytes = 0, newBytes = 0;
+        for (BufferedImage page : samplePages()) {
+            legacyBytes += legacyEncode(page).length();
+            newBytes += encoder.encode(page, VisionImageEncoder.Target.VISION).base64().length;
+        }
+        assertTrue(newBytes < legacyBytes, "新方案载荷 " + newBytes + " 应小于旧方案 " + legacyBytes);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "vision.bench", matches = "true")
+    void testPayloadAndCpuComparison() throws Exception {
+        List<BufferedImage> corpus = loadCorpus();
+        long legacyBytes = 0, newBytes = 0, legacyNanos = 0, newNanos = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (BufferedImage page : corpus) {
+                long t0 = System.nanoTime();
+                String legacy = legacyEncode(page);
+                long t1 = System.nanoTime();
+                VisionImageEncoder.EncodedImage encoded = encoder.encode(page, VisionImageEncoder.Target.VISION);
+                long t2 = System.nanoTime();
+                // 第一轮作为预热，不计入统计
+                if (round > 0) {
+                    legacyNanos += t1 - t0;
+                    newNanos += t2 - t1;
+                    legacyBytes += legacy.length();
+                    newBytes += encoded.base64().length;
+                }
+            }
+        }
+
+        int measured = corpus.size() * (ROUNDS - 1);
+        logger.info("=== 识图图片编码对比 (页数={}, 轮数={}) ===", corpus.size(), ROUNDS - 1);
+        logger.info("旧方案: 平均载荷 {} KB/页, 平均编码 {} ms/页", legacyBytes / measured / 1024, legacyNanos / measured / 1_000_000.0);
+        logger.info("新方案: 平均载荷 {} KB/页, 平均编码 {} ms/页", newBytes / measured / 1024, newNanos / measured / 1_000_000.0);
+        assertTrue(newBytes < legacyBytes, "新方案载荷 " + newBytes + " 应小于旧方案 " + legacyBytes);
+        assertTrue(newNanos < legacyNanos, "新方案编码耗时 " + newNanos + "ns 应少于旧方案 " + legacyNanos + "ns");
+    }
+
+    /**
+     * 旧实现：固定800px宽，双线性一步缩放，RGB，ImageIO默认质量，再整体转Base64字符串
+     */
+    private String legacyEncode(BufferedImage image) throws Exception {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int newW = Math.min(w, 800);
+        int newH = (int) ((double) h / w * newW);
+        BufferedImage resized = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, newW, newH, null);
+        g.dispose();
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            ImageIO.write(resized, "jpg", baos);
+            return Base64.getEncoder().encodeToString(baos.toByteArray());
+        }
+    }
+
+    private List<BufferedImage> loadCorpus() throws Exception {
+        List<BufferedImage> pages = new ArrayList<>();
+        String dir = System.getProperty("vision.bench.corpus");
+        if (dir != null) {
+            File[] files = new File(dir).listFiles((d, name) -> name.matches("(?i).*\\.(png|jpe?g)$"));
+            if (files != null) {
+                for (File file : files) {
+                    BufferedImage image = ImageIO.read(file);
+                    if (image != null) {
+                        pages.add(image);
+                    }
+                }
+            }
+        }
+        return pages.isEmpty() ? samplePages() : pages;
+    }
+
+    /**
+     * 程序生成的样例页，A4 @150dpi
+     */
+    private List<BufferedImage> samplePages() {
+        return List.of(textPage(1240, 1754), tablePage(1240, 1754), chartPage(1240, 1754));
+    }
+
+    private BufferedImage blankPage(int w, int h) {
+        BufferedImage page = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.dispose();
+        return page;
+    }
+
+    private BufferedImage textPage(int w, int h) {
+        BufferedImage page = blankPage(w, h);
+        Graphics2D g = page.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SERIF, Font.PLAIN, 22));
+        for (int y = 120, line = 0; y < h - 100; y += 34, line++) {
+            g.drawString("Line " + line + ": the quick brown fox jumps over the lazy dog 0123456789", 100, y);
+        }
+        g.dispose();
+        return page;
+    }
+
+    private BufferedImage tablePage(int w, int h) {
+        BufferedImage page = blankPage(w, h);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.DARK_GRAY);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 18));
+        for (int row = 0; row < 40; row++) {
+            for (int col = 0; col < 5; col++) {
+                int x = 100 + col * 210;
+                int y = 120 + row * 38;
+                g.drawRect(x, y, 210, 38);
+                g.drawString("R" + row + "C" + col + " " + (row * 31 + col * 7), x + 10, y + 26);
+            }
+        }
+        g.dispose();
+        return page;
+    }
+
+    private BufferedImage chartPage(int w, int h) {
+        BufferedImage page = blankPage(w, h);
+        Graphics2D g = page.createGraphics();
+        Color[] palette = {new Color(66, 133, 244), new Color(219, 68, 55), new Color(244, 180, 0), new Color(15, 157, 88)};
+        for (int i = 0; i < 24; i++) {
+            g.setColor(palette[i % palette.length]);
+            int barH = 100 + (i * 37) % 600;
+            g.fillRect(120 + i * 42, h - 200 - barH, 30, barH);
+        }
+        g.setPaint(new GradientPaint(0, 0, new Color(230, 240, 255), w, 300, new Color(255, 230, 230)));
+        g.fillRect(0, 0, w, 300);
+        g.dispose();
+        return page;
+    }
+}
@@ -0,0 +1,99 @@
+package com.yizhaoqi.smartpai.pipeline;
+
+import com.yizhaoqi.smartpai.config.IngestPipelineProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineStageTest {
+
+    @Test
+    void testSmallBatchesAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("test",
+                new IngestPipelineProperties.Stage(1, 16, 10, 50, 1, 0), batch -> {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    batchSizes.add(batch.size());
+                });
+        try {
+            // 第一批占住唯一的工作线程，后续三个小批次在队列中等待，应被合并成一次处理
+            CompletableFuture<Void> first = stage.submit(List.of(0));
+            Thread.sleep(100);
+            CompletableFuture<Void> a = stage.submit(List.of(1, 2));
+            CompletableFuture<Void> b = stage.submit(List.of(3, 4));
+            CompletableFuture<Void> c = stage.submit(List.of(5));
+            release.countDown();
+
+            CompletableFuture.allOf(first, a, b, c).get(5, TimeUnit.SECONDS);
+            assertEquals(List.of(1, 5), batchSizes);
+            assertEquals(6L, stage.stats().get("completed"));
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedBatchIsRetriedThenFailsItsFuture() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        PipelineStage<String> stage = new PipelineStage<>("test",
+                new IngestPipelineProperties.Stage(1, 4, 10, 0, 3, 10), batch -> {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("boom");
+                });
+        try {
+            CompletableFuture<Void> done = stage.submit(List.of("x"));
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+            assertEquals("boom", ex.getCause().getMessage());
+            assertEquals(3, calls.get());
+            assertEquals(2L, stage.stats().get("retries"));
+            assertEquals(1L, stage.stats().get("failed"));
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    @Test
+    void testShutdownDuringRetryBackoffFailsFuture() throws Exception {
+        CountDownLatch attempted = new CountDownLatch(1);
+        PipelineStage<String> stage = new PipelineStage<>("test",
+                new IngestPipelineProperties.Stage(1, 4, 10, 0, 3, 60_000), batch -> {
+                    attempted.countDown();
+                    throw new IllegalStateException("boom");
+                });
+        CompletableFuture<Void> done = stage.submit(List.of("x"));
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        stage.shutdown();
+        // 重试等待被中断后批次的完成信号也要失败，否则等待 IngestJob 的调用方会一直挂住
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+        assertEquals(1L, stage.stats().get("failed"));
+    }
+
+    @Test
+    void testJobCompletesOnlyAfterSealAndAllBatches() {
+        IngestJob job = new IngestJob("md5", "u", "org", false);
+        CompletableFuture<Void> batch = new CompletableFuture<>();
+        job.track(batch);
+
+        CompletableFuture<Void> completion = job.seal();
+        assertFalse(completion.isDone());
+
+        batch.complete(null);
+        assertTrue(completion.isDone());
+        assertFalse(job.isFailed());
+    }
+}
@@ -0,0 +1,132 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.yizhaoqi.smartpai.config.EsBulkProperties;
+import com.yizhaoqi.smartpai.entity.EsDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class EsBulkWriterTest {
+
+    /** 每个 _bulk 请求的文档ID，按发送顺序 */
+    private final List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+    /** 首次出现时返回 429 的文档ID */
+    private final Set<String> rejectOnce = ConcurrentHashMap.newKeySet();
+    /** 总是返回 400 的文档ID */
+    private final Set<String> invalid = ConcurrentHashMap.newKeySet();
+
+    private EsBulkWriter writer;
+
+    private EsBulkWriter newWriter(int maxOperations) {
+        ElasticsearchTransport transport = mock(ElasticsearchTransport.class);
+        when(transport.jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(transport.performRequestAsync(any(), any(), any())).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            List<String> ids = request.operations().stream().map(op -> op.index().id()).toList();
+            requests.add(ids);
+            List<BulkResponseItem> items = ids.stream().map(id -> {
+                int status = invalid.contains(id) ? 400 : rejectOnce.remove(id) ? 429 : 201;
+                return BulkResponseItem.of(i -> {
+                    i.operationType(OperationType.Index).index("kb").id(id).status(status);
+                    if (status >= 400) {
+                        i.error(e -> e.type("error").reason("status " + status));
+                    }
+                    return i;
+                });
+            }).toList();
+            return CompletableFuture.completedFuture(BulkResponse.of(r -> r
+                    .errors(items.stream().anyMatch(i -> i.error() != null))
+                    .took(1)
+                    .items(items)));
+        });
+
+        EsBulkProperties properties = new EsBulkProperties();
+        properties.setMaxOperations(maxOperations);
+        // 定时刷新间隔足够长，请求切分只由条数阈值和显式 flush 决定
+        properties.setFlushIntervalMs(60_000);
+        properties.setRetryBackoffMs(10);
+        writer = new EsBulkWriter(new ElasticsearchClient(transport), properties);
+        writer.init();
+        return writer;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    private static List<EsDocument> docs(String... ids) {
+        return Arrays.stream(ids)
+                .map(id -> new EsDocument(id, "f", 1, "text", new float[]{0.1f}, "m", "1", "org", false))
+                .toList();
+    }
+
+    @Test
+    void testSplitsByMaxOperations() throws Exception {
+        newWriter(2);
+        CompletableFuture<Void> future = writer.write("kb", docs("a", "b", "c", "d", "e"));
+        writer.flush();
+        future.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d"), List.of("e")), requests);
+    }
+
+    @Test
+    void testRetriesOnlyRejectedItems() throws Exception {
+        newWriter(3);
+        rejectOnce.add("b");
+        writer.write("kb", docs("a", "b", "c")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("a", "b", "c"), requests.get(0));
+        assertEquals(List.of("b"), requests.get(1));
+        assertEquals(1L, writer.stats().get("retriedItems"));
+        assertEquals(3L, writer.stats().get("succeededItems"));
+    }
+
+    @Test
+    void testPermanentErrorFailsWrite() {
+        newWriter(2);
+        invalid.add("b");
+        CompletableFuture<Void> future = writer.write("kb", docs("a", "b"));
+
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertTrue(e.getCause().getMessage().contains("b"));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    void testConcurrentWritersShareRequests() throws Exception {
+        newWriter(8);
+        List<CompletableFuture<Void>> futures = IntStream.range(0, 4)
+                .mapToObj(i -> writer.write("kb", docs("x" + i, "y" + i)))
+                .toList();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        // 四次写入合并为一个请求
+        assertEquals(1, requests.size());
+        assertEquals(8, requests.get(0).size());
+    }
+}
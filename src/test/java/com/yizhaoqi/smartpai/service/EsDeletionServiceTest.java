@@ -0,0 +1,135 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import co.elastic.clients.elasticsearch.tasks.ElasticsearchTasksClient;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.yizhaoqi.smartpai.config.VlRetrievalProperties;
+import com.yizhaoqi.smartpai.model.EsDeletionTask;
+import com.yizhaoqi.smartpai.repository.EsDeletionTaskRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class EsDeletionServiceTest {
+
+    private ElasticsearchClient esClient;
+    private ElasticsearchTasksClient tasksClient;
+    private EsDeletionTaskRepository repository;
+    private SetOperations<String, String> setOps;
+    private EsDeletionService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        esClient = mock(ElasticsearchClient.class);
+        tasksClient = mock(ElasticsearchTasksClient.class);
+        when(esClient.tasks()).thenReturn(tasksClient);
+        repository = mock(EsDeletionTaskRepository.class);
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        setOps = mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(setOps);
+        service = new EsDeletionService(esClient, repository, redis, new VlRetrievalProperties(),
+                mock(SearchResultCacheService.class));
+        ReflectionTestUtils.setField(service, "maxAttempts", 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPendingTaskIsSubmittedAsync() throws Exception {
+        EsDeletionTask task = new EsDeletionTask("md5-a", "knowledge_base");
+        when(repository.findByStatusInOrderByIdAsc(any())).thenReturn(List.of(task));
+        when(esClient.deleteByQuery(any(Function.class))).thenReturn(DeleteByQueryResponse.of(r -> r.task("node:1")));
+
+        service.process();
+
+        assertEquals(EsDeletionTask.Status.RUNNING, task.getStatus());
+        assertEquals("node:1", task.getTaskId());
+        assertEquals(1, task.getAttempts());
+        verify(repository).save(task);
+        verify(setOps).add(EsDeletionService.TOMBSTONE_KEY, "md5-a");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCompletedTaskRemovesTombstone() throws Exception {
+        EsDeletionTask task = runningTask();
+        when(repository.findByStatusInOrderByIdAsc(any())).thenReturn(List.of(task));
+        when(repository.existsByFileMd5("md5-a")).thenReturn(false);
+        when(tasksClient.get(any(Function.class))).thenReturn(completed(Map.of("deleted", 3, "failures", List.of())));
+
+        service.process();
+
+        verify(repository).delete(task);
+        verify(setOps).remove(EsDeletionService.TOMBSTONE_KEY, "md5-a");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFailuresAreRetriedThenMarkedFailed() throws Exception {
+        EsDeletionTask task = runningTask();
+        when(repository.findByStatusInOrderByIdAsc(any())).thenReturn(List.of(task));
+        when(tasksClient.get(any(Function.class))).thenReturn(
+                completed(Map.of("deleted", 1, "failures", List.of(Map.of("cause", "x")))));
+
+        service.process();
+        assertEquals(EsDeletionTask.Status.PENDING, task.getStatus());
+        assertNull(task.getTaskId());
+
+        // 再次提交后仍失败，达到最大次数，保持墓碑
+        task.setStatus(EsDeletionTask.Status.RUNNING);
+        task.setTaskId("node:2");
+        task.setAttempts(2);
+        service.process();
+        assertEquals(EsDeletionTask.Status.FAILED, task.getStatus());
+        verify(repository, never()).delete(any());
+        verify(setOps, never()).remove(any(), any());
+    }
+
+    private static EsDeletionTask runningTask() {
+        EsDeletionTask task = new EsDeletionTask("md5-a", "knowledge_base");
+        task.setStatus(EsDeletionTask.Status.RUNNING);
+        task.setTaskId("node:1");
+        task.setAttempts(1);
+        return task;
+    }
+
+    private static GetTasksResponse completed(Map<String, Object> result) {
+        return GetTasksResponse.of(r -> r
+                .completed(true)
+                .task(t -> t.action("indices:data/write/delete/byquery").cancellable(false).id(1).node("node")
+                        .runningTimeInNanos(1).startTimeInMillis(1).type("transport").headers(Map.of()))
+                .response(JsonData.of(result, new JacksonJsonpMapper())));
+    }
+
+    @Test
+    void testFailedTasksDoNotBlockIngestAndAreSupersededByReingest() {
+        when(repository.existsByFileMd5AndStatusIn(eq("md5-a"), any())).thenReturn(false);
+        assertFalse(service.isDeleting("md5-a"));
+        verify(repository).existsByFileMd5AndStatusIn("md5-a",
+                List.of(EsDeletionTask.Status.PENDING, EsDeletionTask.Status.RUNNING));
+
+        EsDeletionTask failed = new EsDeletionTask("md5-a", "knowledge_base");
+        failed.setStatus(EsDeletionTask.Status.FAILED);
+        when(repository.findByFileMd5AndStatus("md5-a", EsDeletionTask.Status.FAILED)).thenReturn(List.of(failed));
+        when(repository.existsByFileMd5("md5-a")).thenReturn(false);
+
+        service.supersedeFailed("md5-a");
+
+        verify(repository).deleteAll(List.of(failed));
+        verify(setOps).remove(EsDeletionService.TOMBSTONE_KEY, "md5-a");
+    }
+}
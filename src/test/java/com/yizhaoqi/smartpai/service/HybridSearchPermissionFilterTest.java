@@ -0,0 +1,58 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import com.yizhaoqi.smartpai.config.SearchProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridSearchPermissionFilterTest {
+
+    @Test
+    void testFilterMatchesOwnPublicAndOrgDocuments() {
+        BoolQuery bool = HybridSearchService.permissionFilter("42", List.of("dept-a", "dept-b")).bool();
+
+        assertEquals("1", bool.minimumShouldMatch());
+        List<Query> should = bool.should();
+        assertEquals(3, should.size());
+        assertEquals("userId", should.get(0).term().field());
+        assertEquals("42", should.get(0).term().value().stringValue());
+        assertEquals("public", should.get(1).term().field());
+        assertTrue(should.get(1).term().value().booleanValue());
+        assertEquals("orgTag", should.get(2).terms().field());
+        assertEquals(2, should.get(2).terms().terms().value().size());
+    }
+
+    @Test
+    void testNoOrgTagsMatchesNothingForOrgClause() {
+        BoolQuery bool = HybridSearchService.permissionFilter("42", List.of()).bool();
+        assertTrue(bool.should().get(2).isMatchNone());
+    }
+
+    @Test
+    void testDeletingFilesAreExcluded() {
+        BoolQuery bool = HybridSearchService.permissionFilter("42", List.of("dept-a"), Set.of("md5-a")).bool();
+        assertEquals(1, bool.mustNot().size());
+        assertEquals("fileMd5", bool.mustNot().get(0).terms().field());
+        assertEquals("md5-a", bool.mustNot().get(0).terms().terms().value().get(0).stringValue());
+
+        assertTrue(HybridSearchService.permissionFilter("42", List.of("dept-a")).bool().mustNot().isEmpty());
+    }
+
+    @Test
+    void testKnnSizing() {
+        SearchProperties.Knn knn = new SearchProperties().getKnn();
+        assertEquals(50, knn.k(5));
+        assertEquals(150, knn.numCandidates(5));
+
+        // 候选数不小于 k，且不超过 ES 上限
+        knn.setNumCandidatesFactor(1);
+        assertEquals(50, knn.numCandidates(5));
+        knn.setNumCandidatesFactor(30);
+        assertEquals(10000, knn.numCandidates(1000));
+    }
+}
@@ -0,0 +1,26 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch.core.search.Rescore;
+import com.yizhaoqi.smartpai.config.SearchProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridSearchRescoreTest {
+
+    @Test
+    void testRescoreUsesConfiguredWeights() {
+        SearchProperties.Rescore weights = new SearchProperties.Rescore();
+        weights.setQueryWeight(0.5);
+        weights.setRescoreQueryWeight(2.0);
+
+        Rescore rescore = HybridSearchService.bm25Rescore("向量检索", 150, weights);
+
+        assertEquals(150, rescore.windowSize());
+        assertEquals(0.5, rescore.query().queryWeight());
+        assertEquals(2.0, rescore.query().rescoreQueryWeight());
+        assertEquals("textContent", rescore.query().query().match().field());
+        assertEquals(Operator.And, rescore.query().query().match().operator());
+    }
+}
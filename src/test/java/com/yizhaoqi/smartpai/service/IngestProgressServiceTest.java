@@ -0,0 +1,117 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.model.IngestStage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * IngestProgressService 阶段推进和结束清理测试（Redis 用 mock 模拟）
+ */
+class IngestProgressServiceTest {
+
+    private static final String KEY = "ingest:progress:md5";
+
+    private final Map<Object, Object> hash = new HashMap<>();
+    private SetOperations<String, String> setOps;
+    private IngestProgressService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        setOps = mock(SetOperations.class);
+        when(redis.opsForHash()).thenReturn(hashOps);
+        when(redis.opsForSet()).thenReturn(setOps);
+        doAnswer(inv -> {
+            hash.putAll(inv.getArgument(1));
+            return null;
+        }).when(hashOps).putAll(eq(KEY), anyMap());
+        doAnswer(inv -> {
+            String field = inv.getArgument(1);
+            long value = Long.parseLong(hash.getOrDefault(field, "0").toString()) + (long) inv.getArgument(2);
+            hash.put(field, String.valueOf(value));
+            return value;
+        }).when(hashOps).increment(eq(KEY), anyString(), anyLong());
+        when(hashOps.entries(KEY)).thenAnswer(inv -> new HashMap<>(hash));
+        when(redis.delete(KEY)).thenAnswer(inv -> {
+            hash.clear();
+            return true;
+        });
+        service = new IngestProgressService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redis);
+    }
+
+    @Test
+    void testStagesAdvanceToCompletedAndLeaveActiveSet() {
+        service.queued("md5", "1", "a.pdf");
+        assertEquals("QUEUED", service.get("md5").get("stage"));
+        verify(setOps).add("ingest:active", "md5");
+
+        service.started("md5");
+        service.stage("md5", IngestStage.PARSING);
+        service.chunksParsed("md5", 3);
+        service.chunksIndexed("md5", 2);
+        Map<String, Object> progress = service.get("md5");
+        assertEquals("PARSING", progress.get("stage"));
+        assertEquals("1", progress.get("attempts"));
+        assertEquals("3", progress.get("parsedChunks"));
+        assertEquals(true, progress.get("searchable"));
+
+        service.completed("md5");
+        assertEquals("COMPLETED", service.get("md5").get("stage"));
+        verify(setOps).remove("ingest:active", "md5");
+    }
+
+    @Test
+    void testFailedIsTerminalAndRetryReactivates() {
+        service.queued("md5", "1", "a.pdf");
+        service.started("md5");
+        service.failed("md5", new RuntimeException("外层", new IllegalStateException("向量接口超时")));
+
+        Map<String, Object> progress = service.get("md5");
+        assertEquals("FAILED", progress.get("stage"));
+        assertEquals("向量接口超时", progress.get("error"));
+        assertTrue(IngestStage.FAILED.isTerminal());
+        assertFalse(IngestStage.VECTORIZING.isTerminal());
+        verify(setOps).remove("ingest:active", "md5");
+
+        // 重试重新开始时回到下载阶段并重新加入进行中集合
+        service.started("md5");
+        assertEquals("DOWNLOADING", service.get("md5").get("stage"));
+        assertEquals("2", service.get("md5").get("attempts"));
+        verify(setOps, times(3)).add("ingest:active", "md5");
+    }
+
+    @Test
+    void testActiveTasksDropsFinishedAndExpiredEntries() {
+        when(setOps.members("ingest:active")).thenReturn(Set.of("md5", "gone"));
+        hash.put("stage", "FAILED");
+        assertEquals(List.of(), service.activeTasks());
+        verify(setOps).remove("ingest:active", "md5");
+        verify(setOps).remove("ingest:active", "gone");
+    }
+
+    @Test
+    void testActiveFilesListsUnfinishedFiles() {
+        when(setOps.members("ingest:active")).thenReturn(Set.of("md5", "gone"));
+        service.queued("md5", "1", "a.pdf");
+        service.started("md5");
+
+        assertEquals(Set.of("md5"), service.activeFiles());
+        verify(setOps).remove("ingest:active", "gone");
+    }
+}
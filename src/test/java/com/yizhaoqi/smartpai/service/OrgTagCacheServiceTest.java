@@ -0,0 +1,63 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.repository.FileUploadRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrgTagCacheServiceTest {
+
+    private RedisTemplate<String, Object> redis;
+    private ValueOperations<String, Object> valueOps;
+    private FileUploadRepository fileUploadRepository;
+    private OrgTagCacheService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redis = mock(RedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        fileUploadRepository = mock(FileUploadRepository.class);
+        service = new OrgTagCacheService();
+        ReflectionTestUtils.setField(service, "redisTemplate", redis);
+        ReflectionTestUtils.setField(service, "fileUploadRepository", fileUploadRepository);
+    }
+
+    @Test
+    void testPrivateFileOrgTagsAreCachedIncludingNoOrg() {
+        when(fileUploadRepository.findDistinctPrivateOrgTagsByUserId("7")).thenReturn(Arrays.asList("team-a", null));
+
+        Set<String> tags = service.getUserPrivateFileOrgTags("7");
+
+        assertEquals(new HashSet<>(Arrays.asList("team-a", null)), tags);
+        verify(valueOps).set(eq("user:private_file_tags:7"), any(), eq(30L), eq(TimeUnit.MINUTES));
+
+        // 命中缓存时不查询数据库
+        when(valueOps.get("user:private_file_tags:7")).thenReturn(Arrays.asList("team-a", null));
+        assertEquals(tags, service.getUserPrivateFileOrgTags("7"));
+        verify(fileUploadRepository, times(1)).findDistinctPrivateOrgTagsByUserId("7");
+    }
+
+    @Test
+    void testEmptyResultIsCachedAndEvictionDeletesKey() {
+        when(valueOps.get("user:private_file_tags:8")).thenReturn(List.of());
+        assertTrue(service.getUserPrivateFileOrgTags("8").isEmpty());
+        verify(fileUploadRepository, never()).findDistinctPrivateOrgTagsByUserId(any());
+
+        service.deleteUserPrivateFileOrgTagsCache("8");
+        verify(redis).delete("user:private_file_tags:8");
+    }
+}
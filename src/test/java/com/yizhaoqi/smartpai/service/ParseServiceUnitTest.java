@@ -1,13 +1,23 @@
 package com.yizhaoqi.smartpai.service;
 
+import com.yizhaoqi.smartpai.entity.TextChunk;
+import com.yizhaoqi.smartpai.repository.DocumentVectorRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayInputStream;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
 
 /**
  * ParseService 的单元测试类 (不依赖Spring Context)
@@ -152,4 +162,58 @@ class ParseServiceUnitTest {
         // 性能断言：处理时间应该在合理范围内
         assertTrue(duration < 5000, "处理时间过长: " + duration + "ms");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testParseAndSave_StreamsChunksToSinkAfterSaving() throws Exception {
+        DocumentVectorRepository repository = mock(DocumentVectorRepository.class);
+        ReflectionTestUtils.setField(parseService, "documentVectorRepository", repository);
+        ReflectionTestUtils.setField(parseService, "chunkSize", 50);
+        // 父块很小，解析过程中会多次触发子切片入库和回调
+        ReflectionTestUtils.setField(parseService, "parentChunkSize", 120);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("第").append(i).append("段内容，用来验证流式分块。\n\n");
+        }
+        List<List<TextChunk>> batches = new ArrayList<>();
+        parseService.parseAndSave("md5", new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8)),
+                "u", "org", false, batches::add);
+
+        assertTrue(batches.size() > 1, "应分多批交给下游");
+        List<Integer> chunkIds = batches.stream().flatMap(List::stream).map(TextChunk::getChunkId).toList();
+        for (int i = 0; i < chunkIds.size(); i++) {
+            assertEquals(i + 1, chunkIds.get(i));
+        }
+        verify(repository, times(batches.size())).upsertChunks(eq("md5"), anyList());
+        // 重新处理时按序号覆盖写入，解析成功后才删除超出本次最大序号的旧分块
+        verify(repository, never()).deleteByFileMd5(anyString());
+        verify(repository).deleteByFileMd5AndChunkIdGreaterThan("md5", chunkIds.size());
+    }
+
+    @Test
+    void testParseAndSave_KeepsPreviousChunksWhenParseFails() throws Exception {
+        DocumentVectorRepository repository = mock(DocumentVectorRepository.class);
+        ReflectionTestUtils.setField(parseService, "documentVectorRepository", repository);
+        ReflectionTestUtils.setField(parseService, "chunkSize", 50);
+        ReflectionTestUtils.setField(parseService, "parentChunkSize", 120);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("第").append(i).append("段内容，用来验证失败时保留旧分块。\n\n");
+        }
+        List<List<TextChunk>> batches = new ArrayList<>();
+        assertThrows(Exception.class, () -> parseService.parseAndSave("md5",
+                new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8)), "u", "org", false,
+                chunks -> {
+                    batches.add(chunks);
+                    if (batches.size() == 2) {
+                        throw new IllegalStateException("向量化失败");
+                    }
+                }));
+
+        // 已写入的分块按序号覆盖，其余旧分块原样保留，不做任何删除
+        verify(repository, times(2)).upsertChunks(eq("md5"), anyList());
+        verify(repository, never()).deleteByFileMd5(anyString());
+        verify(repository, never()).deleteByFileMd5AndChunkIdGreaterThan(anyString(), anyInt());
+    }
+}
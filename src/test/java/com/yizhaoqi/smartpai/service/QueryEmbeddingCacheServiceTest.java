@@ -0,0 +1,94 @@
+package com.yizhaoqi.smartpai.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * QueryEmbeddingCacheService 单元测试（不依赖Spring Context，Redis用mock代替）
+ */
+class QueryEmbeddingCacheServiceTest {
+
+    private QueryEmbeddingCacheService cache;
+    private StringRedisTemplate redis;
+
+    @BeforeEach
+    void setUp() {
+        cache = new QueryEmbeddingCacheService();
+        redis = mock(StringRedisTemplate.class);
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        ReflectionTestUtils.setField(cache, "ttlHours", 1L);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testRepeatedQueryHitsLocalCache() {
+        AtomicInteger loads = new AtomicInteger();
+        float[] first = cache.get("m", "什么是 RAG？", q -> {
+            loads.incrementAndGet();
+            return new float[]{1f, 2f};
+        });
+        // 规范化后相同：全角问号、首尾和连续空白
+        float[] second = cache.get("m", "  什么是   RAG?  ", q -> {
+            loads.incrementAndGet();
+            return new float[]{9f};
+        });
+
+        assertEquals(1, loads.get());
+        assertSame(first, second);
+        // 首次未命中时查过Redis并写回
+        verify(redis, times(2)).execute(any(RedisCallback.class));
+    }
+
+    @Test
+    void testDifferentModelIsSeparateEntry() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("m1", "q", q -> new float[]{loads.incrementAndGet()});
+        cache.get("m2", "q", q -> new float[]{loads.incrementAndGet()});
+        assertEquals(2, loads.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testRedisHitSkipsLoader() {
+        when(redis.execute(any(RedisCallback.class)))
+                .thenReturn(QueryEmbeddingCacheService.encode(new float[]{0.25f, -1.5f}));
+
+        float[] vector = cache.get("m", "q", q -> {
+            throw new AssertionError("不应调用向量接口");
+        });
+
+        assertArrayEquals(new float[]{0.25f, -1.5f}, vector);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testRedisFailureFallsBackToLoader() {
+        when(redis.execute(any(RedisCallback.class))).thenThrow(new IllegalStateException("redis down"));
+
+        float[] vector = cache.get("m", "q", q -> new float[]{3f});
+
+        assertArrayEquals(new float[]{3f}, vector);
+    }
+
+    @Test
+    void testLocalCacheIsBounded() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("m", "a", q -> new float[]{loads.incrementAndGet()});
+        cache.get("m", "b", q -> new float[]{loads.incrementAndGet()});
+        cache.get("m", "c", q -> new float[]{loads.incrementAndGet()});
+        // a 已被淘汰，Redis（mock返回null）也未命中，需要重新生成
+        cache.get("m", "a", q -> new float[]{loads.incrementAndGet()});
+        assertEquals(4, loads.get());
+    }
+}
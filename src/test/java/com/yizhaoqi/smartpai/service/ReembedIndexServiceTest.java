@@ -0,0 +1,116 @@
+package com.yizhaoqi.smartpai.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReembedIndexServiceTest {
+
+    private static final String OLD = "knowledge_base_text-embedding-v3_1024_20260101000000";
+    private static final String BUILDING = "knowledge_base_text-embedding-v4_2048_20260201000000";
+    private static final String NEWER = "knowledge_base_text-embedding-v4_2048_20260301000000";
+
+    @Test
+    void testResumeTargetFollowsWriteAliasOrNewestBuildingIndex() {
+        // 没有重建中索引：新建
+        assertNull(ReembedIndexService.resumeTarget(List.of(OLD), List.of(OLD), List.of()));
+        // 全量阶段中断：读写别名都在旧索引，续用最新的重建中索引
+        assertEquals(NEWER, ReembedIndexService.resumeTarget(List.of(OLD), List.of(OLD), List.of(BUILDING, NEWER)));
+        // 追平或清理阶段中断：写别名已经切到重建中索引
+        assertEquals(BUILDING, ReembedIndexService.resumeTarget(List.of(OLD), List.of(BUILDING), List.of(BUILDING, NEWER)));
+        // 写别名指向的不是目标模型的重建中索引：不续用
+        assertNull(ReembedIndexService.resumeTarget(List.of(OLD), List.of("other"), List.of(BUILDING)));
+        // 已经在读别名下的索引不再续用
+        assertNull(ReembedIndexService.resumeTarget(List.of(BUILDING), List.of(BUILDING), List.of(BUILDING)));
+    }
+
+    @Test
+    void testThrottleSleepsOnlyWhenAhead() {
+        // 200/s 处理 400 个应在 2 秒时完成，1 秒时完成则休眠 1 秒
+        assertEquals(1_000_000_000L, ReembedIndexService.throttleNanos(400, 200, 1_000_000_000L));
+        assertEquals(0, ReembedIndexService.throttleNanos(400, 200, 3_000_000_000L));
+        assertEquals(0, ReembedIndexService.throttleNanos(400, 0, 0));
+    }
+
+    @Test
+    void testProgressReportsPercentAndRate() {
+        long start = System.nanoTime() - 2_000_000_000L;
+        Map<String, Object> progress = ReembedIndexService.progress(Map.of("state", "RUNNING"), 500, 3, 42, 1000, start);
+
+        assertEquals("RUNNING", progress.get("state"));
+        assertEquals(500L, progress.get("processed"));
+        assertEquals(3L, progress.get("skipped"));
+        assertEquals(42L, progress.get("cursor"));
+        assertEquals(50.0, progress.get("percent"));
+        double rate = (double) progress.get("docsPerSecond");
+        assertTrue(rate > 200 && rate <= 250, String.valueOf(rate));
+        long eta = (long) progress.get("etaSeconds");
+        assertTrue(eta >= 1 && eta <= 3, String.valueOf(eta));
+
+        // 追平阶段处理数可能超过启动时的总数
+        assertEquals(100.0, ReembedIndexService.progress(Map.of(), 1200, 0, 0, 1000, start).get("percent"));
+        assertEquals(100.0, ReembedIndexService.progress(Map.of(), 0, 0, 0, 0, start).get("percent"));
+    }
+
+    @Test
+    void testStaleChunksFollowDatabase() {
+        Map<String, Integer> indexed = new LinkedHashMap<>();
+        indexed.put("kept", 10);
+        indexed.put("shrunk", 10);
+        indexed.put("deletedUpload", 5);
+        indexed.put("noVectors", 5);
+        indexed.put("deleting", 5);
+
+        Map<String, Integer> stale = ReembedIndexService.staleChunks(indexed,
+                Set.of("kept", "shrunk", "noVectors", "deleting"),
+                Map.of("kept", 10, "shrunk", 6, "deletedUpload", 5, "deleting", 5),
+                Set.of("deleting"), Set.of());
+
+        // 读出分块后文件被删除、再写入新索引的情况，在这里按上传记录和删除墓碑清掉；没有分块记录不代表文件已删除
+        assertEquals(Map.of("shrunk", 6, "deletedUpload", -1, "deleting", -1), stale);
+    }
+
+    @Test
+    void testStaleChunksSkipFilesBeingReparsed() {
+        // 清理阶段聚合新索引时，这些文件正在重新解析：分块按序号覆盖写入，前几批写完时最大序号还很小
+        Map<String, Integer> indexed = new LinkedHashMap<>();
+        indexed.put("reparsing", 10);
+        indexed.put("queued", 8);
+        indexed.put("reparsingDeleted", 5);
+
+        Map<String, Integer> stale = ReembedIndexService.staleChunks(indexed,
+                Set.of("reparsing", "queued"),
+                Map.of("reparsing", 3, "queued", 8),
+                Set.of("reparsingDeleted"),
+                Set.of("reparsing", "queued", "reparsingDeleted"));
+
+        // 入库中的文件不按当前分块数截断，多出的分块由入库结束时清理；已删除的文件仍然整个清掉
+        assertEquals(Map.of("reparsingDeleted", -1), stale);
+    }
+
+    @Test
+    void testStaleQueryDeletesWholeFilesAndExtraChunks() {
+        Map<String, Integer> stale = new LinkedHashMap<>();
+        stale.put("shrunk", 6);
+        stale.put("gone-a", -1);
+        stale.put("gone-b", -1);
+
+        Query query = ReembedIndexService.staleQuery(stale);
+
+        assertEquals("1", query.bool().minimumShouldMatch());
+        List<Query> should = query.bool().should();
+        assertEquals(2, should.size());
+        Query shrunk = should.get(0);
+        assertEquals("shrunk", shrunk.bool().filter().get(0).term().value().stringValue());
+        assertEquals("chunkId", shrunk.bool().filter().get(1).range().field());
+        assertEquals(6, shrunk.bool().filter().get(1).range().gt().to(Integer.class));
+        assertEquals(List.of("gone-a", "gone-b"), should.get(1).terms().terms().value().stream()
+                .map(v -> v.stringValue()).toList());
+    }
+}
@@ -0,0 +1,40 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.config.SearchProperties;
+import com.yizhaoqi.smartpai.entity.SearchResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RetrievalEvaluationServiceTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testComparesRankingModes() {
+        HybridSearchService search = mock(HybridSearchService.class);
+        when(search.searchWithPermission(eq("q"), eq("1"), eq(2), eq(SearchProperties.RankingMode.RESCORE)))
+                .thenReturn(List.of(new SearchResult("f", 9, "x", 1.0), new SearchResult("f", 1, "y", 0.5)));
+        when(search.searchWithPermission(eq("q"), eq("1"), eq(2), eq(SearchProperties.RankingMode.FUSION)))
+                .thenReturn(List.of(new SearchResult("f", 1, "y", 1.0), new SearchResult("f", 2, "z", 0.5)));
+
+        RetrievalEvaluationService service = new RetrievalEvaluationService(search);
+        Map<String, Object> report = service.evaluate(
+                List.of(new RetrievalEvaluationService.LabelledQuery("q", List.of("f:1", "f:2"))), "1", 2);
+
+        Map<String, Object> rescore = (Map<String, Object>) report.get("rescore");
+        Map<String, Object> fusion = (Map<String, Object>) report.get("fusion");
+        assertEquals(0.5, (double) rescore.get("recallAtK"), 1e-12);
+        assertEquals(0.5, (double) rescore.get("mrr"), 1e-12);
+        assertEquals(1.0, (double) fusion.get("recallAtK"), 1e-12);
+        assertEquals(1.0, (double) fusion.get("ndcgAtK"), 1e-12);
+        assertNotNull(fusion.get("latency"));
+        // 预热一次 + 两种模式各一次
+        verify(search, times(2)).searchWithPermission("q", "1", 2, SearchProperties.RankingMode.RESCORE);
+        verify(search, times(1)).searchWithPermission("q", "1", 2, SearchProperties.RankingMode.FUSION);
+    }
+}
@@ -0,0 +1,88 @@
+package com.yizhaoqi.smartpai.service;
+
+import com.yizhaoqi.smartpai.entity.SearchResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class SearchResultCacheServiceTest {
+
+    private ValueOperations<String, String> valueOps;
+    private SearchResultCacheService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        service = new SearchResultCacheService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(service, "maxEntries", 100);
+        ReflectionTestUtils.setField(service, "ttlSeconds", 300L);
+    }
+
+    @Test
+    void testUsersWithSameAccessShareFingerprint() {
+        String a = SearchResultCacheService.fingerprint("1", List.of("default", "team-a"), Set.of("team-a"));
+        String b = SearchResultCacheService.fingerprint("2", List.of("team-a", "default"), Set.of());
+        assertEquals(a, b);
+
+        // 本人私有文件不在有效组织标签内（或没有组织标签）时，可见范围独有
+        String c = SearchResultCacheService.fingerprint("3", List.of("default", "team-a"), Set.of("team-old"));
+        assertNotEquals(a, c);
+        assertTrue(SearchResultCacheService.fingerprint("4", List.of("team-a"), new java.util.HashSet<>(Arrays.asList((String) null)))
+                .endsWith("|user:4"));
+
+        // 查询规范化后相同的键一致
+        assertEquals(SearchResultCacheService.key("m:RESCORE", "Ｈello  World ", 5, a),
+                SearchResultCacheService.key("m:RESCORE", "hello world", 5, b));
+        assertNotEquals(SearchResultCacheService.key("m:RESCORE", "hello world", 5, a),
+                SearchResultCacheService.key("m:RESCORE", "hello world", 10, a));
+    }
+
+    @Test
+    void testGenerationChangeInvalidatesEntry() {
+        when(valueOps.multiGet(anyList())).thenReturn(Arrays.asList("3", null, "7"));
+        String generations = service.generations(List.of("team-a"));
+        assertEquals("3,0,7", generations);
+
+        SearchResult result = new SearchResult("md5", 1, "text", 0.9, "1", "team-a", false, "a.pdf");
+        service.put("k", generations, List.of(result));
+
+        List<SearchResult> hit = service.get("k", generations);
+        assertNotNull(hit);
+        assertEquals("a.pdf", hit.get(0).getFileName());
+        // 返回副本，调用方修改不影响缓存
+        hit.get(0).setScore(0.1);
+        assertEquals(0.9, service.get("k", generations).get(0).getScore());
+
+        assertNull(service.get("k", "3,1,7"));
+        assertNull(service.get("k", generations));
+    }
+
+    @Test
+    void testInvalidateBumpsOrgOrPublicGeneration() {
+        service.invalidate("team-a", false, false);
+        service.invalidate("team-a", true, false);
+        service.invalidate(null, false, false);
+        service.invalidateAll();
+
+        verify(valueOps).increment("search:gen:team-a");
+        verify(valueOps).increment("search:gen:_public");
+        verify(valueOps).increment("search:gen:_none");
+        verify(valueOps).increment("search:gen:_all");
+        assertEquals(List.of("search:gen:_all", "search:gen:_none", "search:gen:_public", "search:gen:team-a"),
+                SearchResultCacheService.generationKeys(Arrays.asList("team-a", null)));
+    }
+}
@@ -0,0 +1,125 @@
+package com.yizhaoqi.smartpai.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 向量响应解码对比测试（不依赖Spring Context）
+ *
+ * 对比旧方案（响应转 String → JsonNode 树 → 逐个 asDouble）和 EmbeddingResponseParser 流式解码
+ * 在同一份响应上的单次耗时和分配字节数。默认 100 条 × 2048 维，
+ * 可用 -Dembedding.bench.count / -Dembedding.bench.dim 调整。
+ */
+class EmbeddingResponseParserBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingResponseParserBenchmarkTest.class);
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 30;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testDecodeLatencyAndAllocationComparison() throws Exception {
+        int count = Integer.getInteger("embedding.bench.count", 100);
+        int dim = Integer.getInteger("embedding.bench.dim", 2048);
+        byte[] response = response(count, dim);
+
+        // 两种方案解码结果一致
+        List<float[]> legacy = legacyDecode(response);
+        List<float[]> streaming = EmbeddingResponseParser.parse(response, dim);
+        assertEquals(count, streaming.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(legacy.get(i), streaming.get(i));
+        }
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            legacyDecode(response);
+            EmbeddingResponseParser.parse(response, dim);
+        }
+
+        long legacyNanos = 0, newNanos = 0, legacyBytes = 0, newBytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long a0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            legacyDecode(response);
+            long t1 = System.nanoTime();
+            long a1 = allocatedBytes();
+            EmbeddingResponseParser.parse(response, dim);
+            long t2 = System.nanoTime();
+            long a2 = allocatedBytes();
+            legacyNanos += t1 - t0;
+            newNanos += t2 - t1;
+            legacyBytes += a1 - a0;
+            newBytes += a2 - a1;
+        }
+
+        logger.info("=== 向量响应解码对比 ({}条 × {}维, 响应 {} KB, 轮数={}) ===", count, dim, response.length / 1024, ROUNDS);
+        logger.info("旧方案(String+JsonNode): 平均 {} ms/次, 分配 {} KB/次", legacyNanos / ROUNDS / 1_000_000.0, legacyBytes / ROUNDS / 1024);
+        logger.info("流式解码: 平均 {} ms/次, 分配 {} KB/次", newNanos / ROUNDS / 1_000_000.0, newBytes / ROUNDS / 1024);
+        if (legacyBytes > 0 && newBytes > 0) {
+            // 结果本身需要 count*dim*4 字节，流式解码只应多出少量解析缓冲
+            assertTrue(newBytes < legacyBytes, "流式解码的分配应少于 JsonNode 方案");
+        }
+    }
+
+    /**
+     * 旧实现：响应转 String，readTree 构建完整 JsonNode 树，再逐个 asDouble 转 float
+     */
+    private List<float[]> legacyDecode(byte[] response) throws Exception {
+        JsonNode data = objectMapper.readTree(new String(response, StandardCharsets.UTF_8)).get("data");
+        List<float[]> vectors = new ArrayList<>();
+        for (JsonNode item : data) {
+            JsonNode embedding = item.get("embedding");
+            float[] vector = new float[embedding.size()];
+            for (int i = 0; i < embedding.size(); i++) {
+                vector[i] = (float) embedding.get(i).asDouble();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    private static byte[] response(int count, int dim) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(count * dim * 12);
+        sb.append("{\"object\":\"list\",\"data\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"object\":\"embedding\",\"index\":").append(i).append(",\"embedding\":[");
+            for (int d = 0; d < dim; d++) {
+                if (d > 0) {
+                    sb.append(',');
+                }
+                sb.append((float) (random.nextGaussian() * 0.05));
+            }
+            sb.append("]}");
+        }
+        sb.append("],\"model\":\"bench\",\"usage\":{\"prompt_tokens\":1,\"total_tokens\":1}}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 当前线程累计分配字节数，JVM 不支持时返回 0
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
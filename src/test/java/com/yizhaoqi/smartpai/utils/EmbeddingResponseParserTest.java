@@ -0,0 +1,70 @@
+package com.yizhaoqi.smartpai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * EmbeddingResponseParser 流式解析测试（不依赖Spring Context）
+ */
+class EmbeddingResponseParserTest {
+
+    private static byte[] json(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testParseOpenAiStyleResponse() {
+        byte[] response = json("{\"object\":\"list\",\"model\":\"m\",\"data\":["
+                + "{\"object\":\"embedding\",\"index\":0,\"embedding\":[0.1,-0.2,3]},"
+                + "{\"object\":\"embedding\",\"index\":1,\"embedding\":[1.5e-3,0,-1]}],"
+                + "\"usage\":{\"prompt_tokens\":4,\"total_tokens\":4}}");
+
+        List<float[]> vectors = EmbeddingResponseParser.parse(response, 3);
+
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[]{0.1f, -0.2f, 3f}, vectors.get(0));
+        assertArrayEquals(new float[]{0.0015f, 0f, -1f}, vectors.get(1));
+    }
+
+    @Test
+    void testOutOfOrderIndexesAreRestored() {
+        byte[] response = json("{\"data\":["
+                + "{\"index\":1,\"embedding\":[2]},"
+                + "{\"index\":0,\"embedding\":[1]}]}");
+
+        List<float[]> vectors = EmbeddingResponseParser.parse(response, 0);
+
+        assertArrayEquals(new float[]{1f}, vectors.get(0));
+        assertArrayEquals(new float[]{2f}, vectors.get(1));
+    }
+
+    @Test
+    void testArrayLongerThanExpectedDimensionGrows() {
+        byte[] response = json("{\"data\":[{\"embedding\":[1,2,3,4,5]}]}");
+
+        float[] vector = EmbeddingResponseParser.parseFirst(response, 2);
+
+        assertArrayEquals(new float[]{1f, 2f, 3f, 4f, 5f}, vector);
+    }
+
+    @Test
+    void testMissingDataFails() {
+        assertThrows(RuntimeException.class,
+                () -> EmbeddingResponseParser.parse(json("{\"error\":{\"message\":\"bad\"}}"), 0));
+    }
+
+    @Test
+    void testDecodeFloatMatchesDoubleParse() {
+        String[] samples = {"0.0123456789", "-0.5", "1.25E-5", "-3.0e+2", "7", "-0.0",
+                "0.12345678901234567890", "1e-30", "123456.789"};
+        for (String sample : samples) {
+            char[] chars = ("[" + sample + "]").toCharArray();
+            assertEquals((float) Double.parseDouble(sample),
+                    EmbeddingResponseParser.decodeFloat(chars, 1, sample.length()), sample);
+        }
+    }
+}
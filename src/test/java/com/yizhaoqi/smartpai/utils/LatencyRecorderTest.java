@@ -0,0 +1,51 @@
+package com.yizhaoqi.smartpai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyRecorderTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPercentilesOverWindow() {
+        LatencyRecorder recorder = new LatencyRecorder(100);
+        for (int i = 1; i <= 100; i++) {
+            recorder.record("es", i * 1_000_000L);
+        }
+        Map<String, Object> es = (Map<String, Object>) recorder.stats().get("es");
+        assertEquals(100L, es.get("count"));
+        assertEquals(50.0, es.get("p50Ms"));
+        assertEquals(95.0, es.get("p95Ms"));
+        assertEquals(100.0, es.get("maxMs"));
+        assertEquals(50.5, es.get("avgMs"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testWindowKeepsRecentSamplesOnly() {
+        LatencyRecorder recorder = new LatencyRecorder(10);
+        for (int i = 0; i < 10; i++) {
+            recorder.record("embed", 500_000_000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            recorder.record("embed", 2_000_000L);
+        }
+        Map<String, Object> embed = (Map<String, Object>) recorder.stats().get("embed");
+        // 百分位只看最近10个样本，最大值和次数覆盖全部
+        assertEquals(2.0, embed.get("p99Ms"));
+        assertEquals(500.0, embed.get("maxMs"));
+        assertEquals(20L, embed.get("count"));
+    }
+
+    @Test
+    void testTimeRecordsOnException() {
+        LatencyRecorder recorder = new LatencyRecorder(10);
+        assertThrows(IllegalStateException.class, () -> recorder.time("permission", () -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertTrue(recorder.stats().containsKey("permission"));
+    }
+}
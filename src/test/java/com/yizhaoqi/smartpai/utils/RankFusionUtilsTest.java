@@ -0,0 +1,70 @@
+package com.yizhaoqi.smartpai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RankFusionUtils 融合排序测试（不依赖Spring Context）
+ */
+class RankFusionUtilsTest {
+
+    @Test
+    void testItemInBothRankingsRanksFirst() {
+        List<RankFusionUtils.Fused<String>> fused = RankFusionUtils.reciprocalRankFusion(
+                List.of(List.of("a", "b", "c"), List.of("c", "d")), Function.identity(), 60, 10);
+
+        assertEquals("c", fused.get(0).item());
+        assertEquals(1.0 / 63 + 1.0 / 61, fused.get(0).score(), 1e-12);
+        // b 和 d 同为第2名，同分时保持先出现的 b 在前
+        assertEquals(List.of("c", "a", "b", "d"), fused.stream().map(RankFusionUtils.Fused::item).toList());
+    }
+
+    @Test
+    void testLimitAndEmptyRankings() {
+        List<RankFusionUtils.Fused<String>> fused = RankFusionUtils.reciprocalRankFusion(
+                List.of(List.of("a", "b", "c"), List.of()), Function.identity(), 60, 2);
+
+        assertEquals(2, fused.size());
+        assertEquals("a", fused.get(0).item());
+        assertEquals("b", fused.get(1).item());
+    }
+
+    @Test
+    void testKeyFunctionDeduplicatesAcrossRankings() {
+        List<RankFusionUtils.Fused<String>> fused = RankFusionUtils.reciprocalRankFusion(
+                List.of(List.of("A1"), List.of("a2")), s -> s.substring(0, 1).toLowerCase(), 60, 10);
+
+        assertEquals(1, fused.size());
+        // 保留第一次出现的对象
+        assertEquals("A1", fused.get(0).item());
+        assertEquals(2.0 / 61, fused.get(0).score(), 1e-12);
+    }
+
+    @Test
+    void testWeightedRrfFavoursHeavierRanking() {
+        List<RankFusionUtils.Fused<String>> fused = RankFusionUtils.reciprocalRankFusion(
+                List.of(List.of("a", "b"), List.of("b", "a")), List.of(1.0, 2.0), Function.identity(), 60, 10);
+
+        assertEquals("b", fused.get(0).item());
+        assertEquals(1.0 / 62 + 2.0 / 61, fused.get(0).score(), 1e-12);
+    }
+
+    @Test
+    void testWeightedScoreFusionNormalizesEachRanking() {
+        // BM25 分数尺度远大于余弦相似度，归一化后两路贡献相当
+        List<Map.Entry<String, Double>> bm25 = List.of(Map.entry("a", 30.0), Map.entry("b", 20.0), Map.entry("c", 10.0));
+        List<Map.Entry<String, Double>> knn = List.of(Map.entry("c", 0.9), Map.entry("b", 0.85), Map.entry("d", 0.4));
+
+        List<RankFusionUtils.Fused<Map.Entry<String, Double>>> fused = RankFusionUtils.weightedScoreFusion(
+                List.of(bm25, knn), List.of(1.0, 1.0), Map.Entry::getValue, Map.Entry::getKey, 10);
+
+        assertEquals(List.of("b", "a", "c", "d"), fused.stream().map(f -> f.item().getKey()).toList());
+        assertEquals(0.5 + 0.9, fused.get(0).score(), 1e-9);
+        assertEquals(0.0, fused.get(3).score(), 1e-9);
+    }
+}
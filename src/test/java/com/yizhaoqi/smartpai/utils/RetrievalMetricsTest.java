@@ -0,0 +1,34 @@
+package com.yizhaoqi.smartpai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetrievalMetricsTest {
+
+    @Test
+    void testRecallAtK() {
+        List<String> ranked = List.of("a", "x", "b", "y", "c");
+        assertEquals(2.0 / 3, RetrievalMetrics.recallAtK(ranked, Set.of("a", "b", "c"), 3), 1e-12);
+        assertEquals(1.0, RetrievalMetrics.recallAtK(ranked, Set.of("a", "b", "c"), 5), 1e-12);
+        assertEquals(0.0, RetrievalMetrics.recallAtK(ranked, Set.of(), 5));
+    }
+
+    @Test
+    void testNdcgAtK() {
+        assertEquals(1.0, RetrievalMetrics.ndcgAtK(List.of("a", "b", "x"), Set.of("a", "b"), 3), 1e-12);
+        // 唯一相关结果排在第2名：1/log2(3)
+        assertEquals(1.0 / (Math.log(3) / Math.log(2)),
+                RetrievalMetrics.ndcgAtK(List.of("x", "a"), Set.of("a"), 3), 1e-12);
+        assertEquals(0.0, RetrievalMetrics.ndcgAtK(List.of("x", "y"), Set.of("a"), 2));
+    }
+
+    @Test
+    void testReciprocalRank() {
+        assertEquals(1.0 / 3, RetrievalMetrics.reciprocalRank(List.of("x", "y", "a"), Set.of("a"), 5), 1e-12);
+        assertEquals(0.0, RetrievalMetrics.reciprocalRank(List.of("x", "y", "a"), Set.of("a"), 2));
+    }
+}